@@ -0,0 +1,41 @@
+#!/bin/bash
+#
+# Copyright 2013 Twitter, Inc.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+# Rewrites the job configuration columns of already processed jobs into a
+# single compressed job configuration blob column.
+# Additional arguments are passed on, for instance
+# -Dhraven.jobconf.blob.hot.keys=mapred.job.queue.name to keep some of the
+# columns, or -k to keep all of them.
+
+# Usage ./jobConfBlobMigrator.sh [hbaseconfdir] [cluster] [additional options]
+
+if [ $# -lt 2 ]
+then
+  echo "Usage: `basename $0` [hbaseconfdir] [cluster] [additional options]"
+  exit 1
+fi
+
+home=$(dirname $0)
+source $home/../../conf/hraven-env.sh
+hravenEtlJar=$home/../../lib/hraven-etl.jar
+LIBJARS=$home/../../lib/hraven-core.jar
+
+conf=$1
+cluster=$2
+shift 2
+
+hadoop --config $conf jar $hravenEtlJar com.twitter.hraven.etl.JobConfBlobMigrator -libjars=$LIBJARS "$@" -c $cluster
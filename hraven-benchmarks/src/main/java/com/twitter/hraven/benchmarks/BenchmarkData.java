@@ -0,0 +1,103 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.twitter.hraven.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.JobConf;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.JobDescFactory;
+import com.twitter.hraven.JobKey;
+
+/**
+ * Inputs shared by the benchmarks. The job history files are the ones the
+ * hraven-etl tests use, they are put on the classpath by the build.
+ */
+final class BenchmarkData {
+
+  static final String HADOOP1_HISTORY =
+      "job_201311192236_3583_1384906297917_user1_word+count";
+  static final JobKey HADOOP1_JOB_KEY = new JobKey("cluster1", "user1",
+      "word count", 1384906297917L, "job_201311192236_3583");
+
+  static final String HADOOP2_HISTORY =
+      "job_1329348432655_0001-1329348443227-user-Sleep+job-1329348468601-10-1-SUCCEEDED-default.jhist";
+  static final JobKey HADOOP2_JOB_KEY = new JobKey("cluster1", "user",
+      "Sleep", 1, "job_1329348432655_0001");
+
+  static final String FRAMEWORK_MAPREDUCE = "mapreduce";
+  static final String FRAMEWORK_PIG = "pig";
+
+  private BenchmarkData() {
+  }
+
+  /**
+   * @param name of a job history file on the classpath
+   * @return the contents of that file
+   */
+  static byte[] loadHistory(String name) throws IOException {
+    InputStream in = BenchmarkData.class.getClassLoader().getResourceAsStream(
+        name);
+    if (in == null) {
+      throw new IOException("Job history " + name + " is not on the classpath");
+    }
+    try {
+      return ByteStreams.toByteArray(in);
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+  }
+
+  /**
+   * @param framework either {@link #FRAMEWORK_MAPREDUCE} or
+   *          {@link #FRAMEWORK_PIG}
+   * @return a job configuration of realistic size: all of the hadoop
+   *         defaults, plus what a submitted job and its framework set.
+   */
+  static Configuration createJobConf(String framework) {
+    JobConf jobConf = new JobConf();
+    jobConf.set(JobDescFactory.JOBTRACKER_KEY, "cluster1.identifier1.example.com:8021");
+    jobConf.set(Constants.USER_CONF_KEY, "user1");
+    jobConf.set(Constants.JOB_NAME_CONF_KEY, "word count");
+    jobConf.set("mapred.input.dir", "hdfs://namenode.example.com/user/user1/input");
+    jobConf.set("mapred.output.dir", "hdfs://namenode.example.com/user/user1/output");
+    if (FRAMEWORK_PIG.equals(framework)) {
+      jobConf.set(Constants.PIG_CONF_KEY, "0.11.1");
+      jobConf.set(Constants.PIG_VERSION_CONF_KEY, "f9ac4f6ef1a1f6d2b1e8e0f4c4a1b0a3");
+      jobConf.set(Constants.PIG_RUN_CONF_KEY, "1384906290000");
+      jobConf.set(Constants.PIG_LOG_FILE_CONF_KEY,
+          "/var/log/pig/pig_1384906289999.log");
+    } else if (!FRAMEWORK_MAPREDUCE.equals(framework)) {
+      throw new IllegalArgumentException("Unknown framework " + framework);
+    }
+    return jobConf;
+  }
+
+  /**
+   * @return conf serialized the way it is stored in the raw table
+   */
+  static byte[] toXml(Configuration conf) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    conf.writeXml(out);
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,91 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.util.ByteUtil;
+
+/**
+ * Searches for and splits on the row key separator with {@link ByteUtil}, the
+ * way the key converters and counter column parsing do.
+ * <p>
+ * Run with <code>-prof gc</code> for the bytes allocated per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteUtilBenchmark {
+
+  private final int[] bounds = new int[8];
+
+  private byte[] taskRow;
+  private byte[] counterColumn;
+
+  @Setup
+  public void setUp() {
+    taskRow = Bytes.toBytes("cluster1@dc1!user1!"
+        + "com.example.analytics.DailyAggregationOfEverythingWeCanFind!"
+        + "01234567!0123456789abcdef!attempt_201311192236_3583_m_000123_0");
+    counterColumn = Bytes.toBytes("g!org.apache.hadoop.mapred.Task$Counter"
+        + "!REDUCE_SHUFFLE_BYTES");
+  }
+
+  /** the separator after the appId, past a typical long appId */
+  @Benchmark
+  public int indexOfSeparator() {
+    return ByteUtil.indexOf(taskRow, Constants.SEP_BYTES, 20);
+  }
+
+  @Benchmark
+  public int indexOfSeparatorByte() {
+    return ByteUtil.indexOf(taskRow, Constants.SEP_BYTES[0], 20,
+        taskRow.length);
+  }
+
+  @Benchmark
+  public List<ByteUtil.Range> splitRangesRowKey() {
+    return ByteUtil.splitRanges(taskRow, Constants.SEP_BYTES, 4);
+  }
+
+  @Benchmark
+  public int splitRangesRowKeyIntoBounds() {
+    return ByteUtil.splitRanges(taskRow, 0, taskRow.length,
+        Constants.SEP_BYTES, bounds);
+  }
+
+  @Benchmark
+  public byte[][] splitCounterColumn() {
+    return ByteUtil.split(counterColumn, Constants.SEP_BYTES);
+  }
+}
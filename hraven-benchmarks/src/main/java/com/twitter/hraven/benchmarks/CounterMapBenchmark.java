@@ -0,0 +1,115 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.CounterMap;
+import com.twitter.hraven.datasource.JobHistoryService;
+
+/**
+ * Decodes the counters of all the tasks of a large job, as populating the
+ * tasks of a flow does. Every {@link CounterMap} built here is kept by the
+ * {@link com.twitter.hraven.TaskDetails} it belongs to for as long as the
+ * flow is, so the bytes allocated per operation (<code>-prof gc</code>) are
+ * an upper bound of the heap the counters of such a job take up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CounterMapBenchmark {
+
+  static final int TASKS = 2000;
+
+  static final String[] FILESYSTEM_COUNTERS = { "FILE_BYTES_READ",
+      "FILE_BYTES_WRITTEN", "HDFS_BYTES_READ", "HDFS_BYTES_WRITTEN" };
+
+  static final String[] TASK_COUNTERS = { "MAP_INPUT_RECORDS",
+      "MAP_OUTPUT_RECORDS", "MAP_OUTPUT_BYTES", "MAP_INPUT_BYTES",
+      "SPILLED_RECORDS", "COMBINE_INPUT_RECORDS", "COMBINE_OUTPUT_RECORDS",
+      "REDUCE_INPUT_GROUPS", "REDUCE_SHUFFLE_BYTES", "REDUCE_INPUT_RECORDS",
+      "REDUCE_OUTPUT_RECORDS", "CPU_MILLISECONDS", "PHYSICAL_MEMORY_BYTES",
+      "VIRTUAL_MEMORY_BYTES", "COMMITTED_HEAP_BYTES", "SPLIT_RAW_BYTES" };
+
+  static final String[] USER_COUNTERS = { "records.skipped",
+      "records.malformed", "bytes.decompressed", "cache.hits",
+      "cache.misses" };
+
+  private List<NavigableMap<byte[], byte[]>> taskColumns;
+
+  @Setup
+  public void setUp() {
+    taskColumns = createTaskColumns(TASKS);
+  }
+
+  /**
+   * @return the info family of job_history_task rows holding 25 counters in 3
+   *         groups each, with varying values
+   */
+  static List<NavigableMap<byte[], byte[]>> createTaskColumns(int tasks) {
+    List<NavigableMap<byte[], byte[]>> columns =
+        new ArrayList<NavigableMap<byte[], byte[]>>(tasks);
+    for (int t = 0; t < tasks; t++) {
+      NavigableMap<byte[], byte[]> row = new TreeMap<byte[], byte[]>(
+          Bytes.BYTES_COMPARATOR);
+      addCounters(row, Constants.FILESYSTEM_COUNTERS, FILESYSTEM_COUNTERS, t);
+      addCounters(row, "org.apache.hadoop.mapred.Task$Counter",
+          TASK_COUNTERS, t);
+      addCounters(row, "com.example.analytics.Counters", USER_COUNTERS, t);
+      columns.add(row);
+    }
+    return columns;
+  }
+
+  private static void addCounters(NavigableMap<byte[], byte[]> row,
+      String group, String[] names, int task) {
+    for (int i = 0; i < names.length; i++) {
+      row.put(Bytes.add(Constants.COUNTER_COLUMN_PREFIX_BYTES,
+          Constants.SEP_BYTES, Bytes.toBytes(group + Constants.SEP + names[i])),
+          Bytes.toBytes((long) task * 1000 + i));
+    }
+  }
+
+  @Benchmark
+  public List<CounterMap> parseTaskCounters() {
+    List<CounterMap> counters = new ArrayList<CounterMap>(TASKS);
+    for (NavigableMap<byte[], byte[]> row : taskColumns) {
+      counters.add(JobHistoryService.parseCounters(
+          Constants.COUNTER_COLUMN_PREFIX_BYTES, row));
+    }
+    return counters;
+  }
+}
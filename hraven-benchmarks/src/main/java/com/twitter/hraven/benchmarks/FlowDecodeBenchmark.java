@@ -0,0 +1,78 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.type.TypeReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twitter.hraven.Flow;
+import com.twitter.hraven.rest.ObjectMapperProvider;
+import com.twitter.hraven.rest.RestJSONResource;
+import com.twitter.hraven.rest.SerializationContext;
+import com.twitter.hraven.rest.client.ResponseReader;
+
+/**
+ * Decodes the response of a <code>/flow/...</code> request for the flows of
+ * {@link FlowSerializationBenchmark}, without their tasks as the endpoint
+ * returns them, as the REST client does, from JSON and from Smile.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowDecodeBenchmark {
+
+  private static final TypeReference<List<Flow>> FLOW_LIST =
+      new TypeReference<List<Flow>>() {};
+
+  private byte[] json;
+  private byte[] smile;
+
+  @Setup
+  public void setUp() throws IOException {
+    RestJSONResource.serializationContext.set(new SerializationContext(
+        SerializationContext.DetailLevel.EVERYTHING));
+    List<Flow> flows = FlowSerializationBenchmark.createFlows(0);
+    json = ObjectMapperProvider.createCustomMapper(false).writeValueAsBytes(flows);
+    smile = ObjectMapperProvider.createSmileMapper().writeValueAsBytes(flows);
+  }
+
+  @Benchmark
+  public Object decodeJson() throws IOException {
+    return ResponseReader.readJson(new ByteArrayInputStream(json), FLOW_LIST);
+  }
+
+  @Benchmark
+  public Object decodeSmile() throws IOException {
+    return ResponseReader.readSmile(new ByteArrayInputStream(smile), FLOW_LIST);
+  }
+}
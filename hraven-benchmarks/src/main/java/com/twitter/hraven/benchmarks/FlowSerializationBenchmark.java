@@ -0,0 +1,222 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.Flow;
+import com.twitter.hraven.FlowKey;
+import com.twitter.hraven.JobDetails;
+import com.twitter.hraven.JobHistoryKeys;
+import com.twitter.hraven.JobKey;
+import com.twitter.hraven.TaskDetails;
+import com.twitter.hraven.TaskKey;
+import com.twitter.hraven.rest.ObjectMapperProvider;
+import com.twitter.hraven.rest.RestJSONResource;
+import com.twitter.hraven.rest.SerializationContext;
+
+/**
+ * Writes the JSON response of a <code>/flow/...</code> request for 100 flows
+ * of 4 jobs each, with their configuration, counters and 10 tasks per job, as
+ * the REST server does. The output is only counted.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowSerializationBenchmark {
+
+  static final int FLOWS = 100;
+  static final int JOBS = 4;
+  static final int TASKS = 10;
+  static final int CONF_PROPERTIES = 50;
+
+  private ObjectMapper mapper;
+  private List<Flow> flows;
+  private CountingOutputStream out;
+
+  @Setup
+  public void setUp() {
+    mapper = ObjectMapperProvider.createCustomMapper(false);
+    flows = createFlows();
+    out = new CountingOutputStream();
+    RestJSONResource.serializationContext.set(new SerializationContext(
+        SerializationContext.DetailLevel.EVERYTHING));
+  }
+
+  static List<Flow> createFlows() {
+    return createFlows(TASKS);
+  }
+
+  /**
+   * @param tasks the number of tasks to add to each job
+   */
+  static List<Flow> createFlows(int tasks) {
+    Configuration jobConf = BenchmarkData
+        .createJobConf(BenchmarkData.FRAMEWORK_PIG);
+    List<Map.Entry<String, String>> properties =
+        new ArrayList<Map.Entry<String, String>>();
+    for (Map.Entry<String, String> property : jobConf) {
+      if (properties.size() == CONF_PROPERTIES) {
+        break;
+      }
+      properties.add(property);
+    }
+
+    List<Flow> flows = new ArrayList<Flow>(FLOWS);
+    int jobSequence = 0;
+    for (int f = 0; f < FLOWS; f++) {
+      long runId = 1355614887000L + f * 60000L;
+      Flow flow = new Flow(new FlowKey("cluster1@dc1", "user1", "app1", runId));
+      for (int j = 0; j < JOBS; j++) {
+        JobKey jobKey = new JobKey("cluster1@dc1", "user1", "app1", runId,
+            String.format("job_201212010000_%04d", jobSequence++));
+        JobDetails job = new JobDetails(jobKey);
+        job.populate(createJobRow(jobKey, runId, properties));
+        for (int t = 0; t < tasks; t++) {
+          String taskId = String.format("task_201212010000_%04d_m_%06d",
+              jobSequence, t);
+          TaskDetails task = new TaskDetails(new TaskKey(jobKey, taskId));
+          task.populate(createTaskColumns(taskId, runId, t));
+          job.addTask(task);
+        }
+        flow.addJob(job);
+      }
+      flows.add(flow);
+    }
+    return flows;
+  }
+
+  private static Result createJobRow(JobKey jobKey, long runId,
+      List<Map.Entry<String, String>> properties) {
+    byte[] row = Bytes.toBytes(jobKey.toString());
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    addString(kvs, row, JobHistoryKeys.JOBID, jobKey.getJobId()
+        .getJobIdString());
+    addString(kvs, row, JobHistoryKeys.USER, "user1");
+    addString(kvs, row, JobHistoryKeys.JOBNAME, "PigLatin:app1.pig");
+    addString(kvs, row, JobHistoryKeys.JOB_PRIORITY, "NORMAL");
+    addString(kvs, row, JobHistoryKeys.JOB_STATUS, "SUCCESS");
+    kvs.add(new KeyValue(row, Constants.INFO_FAM_BYTES,
+        Constants.VERSION_COLUMN_BYTES, Bytes.toBytes("v1")));
+    addLong(kvs, row, JobHistoryKeys.SUBMIT_TIME, runId);
+    addLong(kvs, row, JobHistoryKeys.LAUNCH_TIME, runId + 1000);
+    addLong(kvs, row, JobHistoryKeys.FINISH_TIME, runId + 60000);
+    addLong(kvs, row, JobHistoryKeys.TOTAL_MAPS, TASKS);
+    addLong(kvs, row, JobHistoryKeys.FINISHED_MAPS, TASKS);
+    for (Map.Entry<String, String> property : properties) {
+      kvs.add(new KeyValue(row, Constants.INFO_FAM_BYTES, Bytes.add(
+          Constants.JOB_CONF_PROPERTY_COLUMN_PREFIX_BYTES,
+          Bytes.toBytes(property.getKey())), Bytes.toBytes(property
+          .getValue())));
+    }
+    for (byte[] prefix : new byte[][] { Constants.COUNTER_COLUMN_PREFIX_BYTES,
+        Constants.MAP_COUNTER_COLUMN_PREFIX_BYTES,
+        Constants.REDUCE_COUNTER_COLUMN_PREFIX_BYTES }) {
+      for (Map.Entry<byte[], byte[]> counter : CounterMapBenchmark
+          .createTaskColumns(1).get(0).entrySet()) {
+        kvs.add(new KeyValue(row, Constants.INFO_FAM_BYTES, Bytes.add(prefix,
+            Bytes.tail(counter.getKey(), counter.getKey().length
+                - Constants.COUNTER_COLUMN_PREFIX_BYTES.length)), counter
+            .getValue()));
+      }
+    }
+    Collections.sort(kvs, KeyValue.COMPARATOR);
+    return new Result(kvs);
+  }
+
+  private static NavigableMap<byte[], byte[]> createTaskColumns(String taskId,
+      long runId, int task) {
+    NavigableMap<byte[], byte[]> columns = CounterMapBenchmark
+        .createTaskColumns(1).get(0);
+    put(columns, JobHistoryKeys.TASKID, Bytes.toBytes(taskId));
+    put(columns, JobHistoryKeys.TASK_TYPE, Bytes.toBytes("MAP"));
+    put(columns, JobHistoryKeys.TASK_STATUS, Bytes.toBytes("SUCCESS"));
+    put(columns, JobHistoryKeys.SPLITS, Bytes.toBytes("/rack1/host" + task
+        + ",/rack2/host" + task));
+    put(columns, JobHistoryKeys.START_TIME, Bytes.toBytes(runId + 2000));
+    put(columns, JobHistoryKeys.FINISH_TIME, Bytes.toBytes(runId + 30000));
+    put(columns, JobHistoryKeys.HOSTNAME, Bytes.toBytes("/rack1/host" + task));
+    return columns;
+  }
+
+  private static void addString(List<KeyValue> kvs, byte[] row,
+      JobHistoryKeys key, String value) {
+    kvs.add(new KeyValue(row, Constants.INFO_FAM_BYTES,
+        JobHistoryKeys.KEYS_TO_BYTES.get(key), Bytes.toBytes(value)));
+  }
+
+  private static void addLong(List<KeyValue> kvs, byte[] row,
+      JobHistoryKeys key, long value) {
+    kvs.add(new KeyValue(row, Constants.INFO_FAM_BYTES,
+        JobHistoryKeys.KEYS_TO_BYTES.get(key), Bytes.toBytes(value)));
+  }
+
+  private static void put(NavigableMap<byte[], byte[]> columns,
+      JobHistoryKeys key, byte[] value) {
+    columns.put(JobHistoryKeys.KEYS_TO_BYTES.get(key), value);
+  }
+
+  @Benchmark
+  public long writeFlows() throws IOException {
+    out.count = 0;
+    mapper.writeValue(out, flows);
+    return out.count;
+  }
+
+  /**
+   * Discards what is written to it, but for the number of bytes.
+   */
+  static class CountingOutputStream extends OutputStream {
+    long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+}
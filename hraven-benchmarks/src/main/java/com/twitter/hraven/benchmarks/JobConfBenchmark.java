@@ -0,0 +1,169 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.twitter.hraven.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.JobConfProperties;
+import com.twitter.hraven.JobDesc;
+import com.twitter.hraven.JobDescFactory;
+import com.twitter.hraven.QualifiedJobId;
+import com.twitter.hraven.datasource.JobConfBlob;
+import com.twitter.hraven.datasource.JobHistoryRawService;
+import com.twitter.hraven.datasource.JobHistoryService;
+import com.twitter.hraven.datasource.MissingColumnInResultException;
+
+/**
+ * The job configuration half of what
+ * {@link com.twitter.hraven.mapreduce.JobFileTableMapper} does per raw table
+ * row: read the stored job.xml, describe the job and turn the configuration
+ * into puts. Each step is measured on its own and all of them together, both
+ * for a {@link Configuration} and for {@link JobConfProperties}, as well as
+ * storing and reading the configuration as a {@link JobConfBlob}.
+ * <p>
+ * Run with <code>-prof gc</code> to see the allocation rate next to the
+ * throughput.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JobConfBenchmark {
+
+  @Param({ BenchmarkData.FRAMEWORK_MAPREDUCE, BenchmarkData.FRAMEWORK_PIG })
+  public String framework;
+
+  private final QualifiedJobId qualifiedJobId = new QualifiedJobId("cluster1",
+      "job_201311192236_3583");
+  private final long submitTimeMillis = 1384906297917L;
+
+  private Result rawResult;
+  private Configuration jobConf;
+  private JobConfProperties jobConfProperties;
+  private JobDesc jobDesc;
+  private Configuration blobStorage;
+  private byte[] blob;
+
+  @Setup
+  public void setUp() throws IOException, MissingColumnInResultException {
+    byte[] jobConfXml = BenchmarkData.toXml(BenchmarkData
+        .createJobConf(framework));
+    rawResult = new Result(new KeyValue[] { new KeyValue(
+        Bytes.toBytes("cluster1!job_201311192236_3583"),
+        Constants.RAW_FAM_BYTES, Constants.JOBCONF_COL_BYTES, jobConfXml) });
+    jobConf = JobHistoryRawService.createConfiguration(rawResult);
+    jobConfProperties = JobHistoryRawService
+        .createJobConfPropertiesFromResult(rawResult);
+    jobDesc = JobDescFactory.createJobDesc(qualifiedJobId, submitTimeMillis,
+        jobConf);
+    blobStorage = new Configuration(false);
+    blobStorage.set(Constants.JOB_CONF_STORAGE_CONF_KEY,
+        Constants.JOB_CONF_STORAGE_BLOB);
+    blob = JobConfBlob.encode(jobConfProperties);
+  }
+
+  @Benchmark
+  public Configuration createConfigurationFromResult()
+      throws MissingColumnInResultException {
+    return JobHistoryRawService.createConfiguration(rawResult);
+  }
+
+  @Benchmark
+  public JobDesc createJobDesc() {
+    return JobDescFactory.createJobDesc(qualifiedJobId, submitTimeMillis,
+        jobConf);
+  }
+
+  @Benchmark
+  public List<Put> getHbasePuts() {
+    return JobHistoryService.getHbasePuts(jobDesc, jobConf);
+  }
+
+  @Benchmark
+  public List<Put> processJobConf() throws MissingColumnInResultException {
+    Configuration conf = JobHistoryRawService
+        .createConfiguration(rawResult);
+    JobDesc desc = JobDescFactory.createJobDesc(qualifiedJobId,
+        submitTimeMillis, conf);
+    return JobHistoryService.getHbasePuts(desc, conf);
+  }
+
+  @Benchmark
+  public JobConfProperties createJobConfPropertiesFromResult()
+      throws MissingColumnInResultException {
+    return JobHistoryRawService.createJobConfPropertiesFromResult(rawResult);
+  }
+
+  @Benchmark
+  public JobDesc createJobDescFromProperties() {
+    return JobDescFactory.createJobDesc(qualifiedJobId, submitTimeMillis,
+        jobConfProperties);
+  }
+
+  @Benchmark
+  public List<Put> getHbasePutsFromProperties() {
+    return JobHistoryService.getHbasePuts(jobDesc, jobConfProperties);
+  }
+
+  @Benchmark
+  public List<Put> processJobConfProperties()
+      throws MissingColumnInResultException {
+    JobConfProperties conf = JobHistoryRawService
+        .createJobConfPropertiesFromResult(rawResult);
+    JobDesc desc = JobDescFactory.createJobDesc(qualifiedJobId,
+        submitTimeMillis, conf);
+    return JobHistoryService.getHbasePuts(desc, conf);
+  }
+
+  @Benchmark
+  public List<Put> getHbasePutsAsBlob() {
+    return JobHistoryService.getHbasePuts(jobDesc, jobConfProperties,
+        blobStorage);
+  }
+
+  @Benchmark
+  public Map<String, String> decodeBlob() throws IOException {
+    return JobConfBlob.decode(blob, 0, blob.length);
+  }
+
+  @Benchmark
+  public String getFromBlob() throws IOException {
+    return JobConfBlob.get(blob, 0, blob.length, Constants.USER_CONF_KEY);
+  }
+}
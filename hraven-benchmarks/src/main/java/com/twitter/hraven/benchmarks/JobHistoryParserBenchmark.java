@@ -0,0 +1,141 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.twitter.hraven.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.JobKey;
+import com.twitter.hraven.etl.JobHistoryFileParser;
+import com.twitter.hraven.etl.JobHistoryFileParserFactory;
+import com.twitter.hraven.etl.JobHistoryPutSink;
+
+/**
+ * Parses one job history file per operation, the way
+ * {@link com.twitter.hraven.mapreduce.JobFileTableMapper} does for every row
+ * of the raw table. The puts go to a {@link Blackhole}, so the numbers cover
+ * tokenizing, decoding and building puts but not writing them.
+ * <p>
+ * Run with <code>-prof gc</code> to see the allocation rate next to the
+ * throughput; <code>gc.alloc.rate.norm</code> is the number of bytes allocated
+ * per parsed history file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JobHistoryParserBenchmark {
+
+  @Param({ "1", "2" })
+  public int hadoopVersion;
+
+  private byte[] history;
+  private JobKey jobKey;
+  private Configuration jobConf;
+
+  /** the history the way the mapper gets it, as a cell of the raw table */
+  private KeyValue rawCell;
+
+  @Setup
+  public void setUp() throws IOException {
+    if (hadoopVersion == 1) {
+      history = BenchmarkData.loadHistory(BenchmarkData.HADOOP1_HISTORY);
+      jobKey = BenchmarkData.HADOOP1_JOB_KEY;
+    } else {
+      history = BenchmarkData.loadHistory(BenchmarkData.HADOOP2_HISTORY);
+      jobKey = BenchmarkData.HADOOP2_JOB_KEY;
+    }
+    jobConf = BenchmarkData.createJobConf(BenchmarkData.FRAMEWORK_MAPREDUCE);
+    rawCell = new KeyValue(Bytes.toBytes("cluster1!" + jobKey.getJobId()),
+        Constants.RAW_FAM_BYTES, Constants.JOBHISTORY_COL_BYTES, history);
+  }
+
+  /**
+   * Parses a history file that is already in an array of its own.
+   */
+  @Benchmark
+  public void parse(Blackhole bh) {
+    JobHistoryFileParser parser = JobHistoryFileParserFactory
+        .createJobHistoryFileParser(history, jobConf);
+    parser.parse(history, jobKey, new BlackholeSink(bh));
+  }
+
+  /**
+   * Copies the history out of the raw table cell before parsing it, which is
+   * what the mapper used to do.
+   */
+  @Benchmark
+  public void parseCopiedCell(Blackhole bh) {
+    byte[] value = rawCell.getValue();
+    JobHistoryFileParser parser = JobHistoryFileParserFactory
+        .createJobHistoryFileParser(value, jobConf);
+    parser.parse(value, jobKey, new BlackholeSink(bh));
+  }
+
+  /**
+   * Parses the history in place, straight from the raw table cell.
+   */
+  @Benchmark
+  public void parseCellSlice(Blackhole bh) {
+    ByteBuffer value = ByteBuffer.wrap(rawCell.getBuffer(),
+        rawCell.getValueOffset(), rawCell.getValueLength()).slice();
+    JobHistoryFileParser parser = JobHistoryFileParserFactory
+        .createJobHistoryFileParser(value, jobConf);
+    parser.parse(value, jobKey, new BlackholeSink(bh));
+  }
+
+  /**
+   * Hands puts to JMH so they are not optimized away.
+   */
+  private static class BlackholeSink implements JobHistoryPutSink {
+    private final Blackhole bh;
+
+    BlackholeSink(Blackhole bh) {
+      this.bh = bh;
+    }
+
+    @Override
+    public void addJobPut(Put p) {
+      bh.consume(p);
+    }
+
+    @Override
+    public void addTaskPut(Put p) {
+      bh.consume(p);
+    }
+  }
+}
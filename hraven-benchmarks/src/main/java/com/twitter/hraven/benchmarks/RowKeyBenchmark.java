@@ -0,0 +1,97 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twitter.hraven.JobKey;
+import com.twitter.hraven.TaskKey;
+import com.twitter.hraven.datasource.JobKeyConverter;
+import com.twitter.hraven.datasource.JobKeyView;
+import com.twitter.hraven.datasource.TaskKeyConverter;
+
+/**
+ * Decodes job_history and job_history_task row keys, as
+ * {@link com.twitter.hraven.datasource.JobHistoryService} does for every row
+ * it reads. The converters copy nothing but still decode every component,
+ * the {@link JobKeyView} benchmarks decode the way a scan does: reusing the
+ * strings of the previous row and, for tasks, the key of the job they are
+ * matched against.
+ * <p>
+ * Run with <code>-prof gc</code>; <code>gc.alloc.rate.norm</code> is the
+ * number of bytes allocated per row key.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowKeyBenchmark {
+
+  private final JobKeyConverter jobKeyConv = new JobKeyConverter();
+  private final TaskKeyConverter taskKeyConv = new TaskKeyConverter();
+
+  private final JobKeyView view = new JobKeyView();
+
+  private JobKey jobKey;
+  private byte[] jobRow;
+  private byte[] taskRow;
+
+  @Setup
+  public void setUp() {
+    jobKey = new JobKey("cluster1@dc1", "user1",
+        "com.example.analytics.DailyAggregation", 1384906297917L,
+        "job_201311192236_3583");
+    jobRow = jobKeyConv.toBytes(jobKey);
+    taskRow = taskKeyConv.toBytes(new TaskKey(jobKey,
+        "attempt_201311192236_3583_m_000123_0"));
+  }
+
+  @Benchmark
+  public JobKey jobKeyFromBytes() {
+    return jobKeyConv.fromBytes(jobRow);
+  }
+
+  @Benchmark
+  public TaskKey taskKeyFromBytes() {
+    return taskKeyConv.fromBytes(taskRow);
+  }
+
+  @Benchmark
+  public JobKey jobKeyFromView() {
+    return view.set(jobRow, 0, jobRow.length).toJobKey();
+  }
+
+  @Benchmark
+  public TaskKey taskKeyFromView() {
+    if (view.set(taskRow, 0, taskRow.length).compareJobKey(jobRow) != 0) {
+      throw new IllegalStateException("Task does not belong to " + jobKey);
+    }
+    return view.toTaskKey(jobKey);
+  }
+}
@@ -86,6 +86,22 @@ public class Constants {
   public static byte[] JOB_CONF_COLUMN_PREFIX_BYTES = Bytes
       .toBytes(JOB_CONF_COLUMN_PREFIX);
 
+  /**
+   * Prefix of the qualifiers of job configuration properties stored as columns
+   * of their own, followed by the property name.
+   */
+  public static final byte[] JOB_CONF_PROPERTY_COLUMN_PREFIX_BYTES = Bytes
+      .add(JOB_CONF_COLUMN_PREFIX_BYTES, SEP_BYTES);
+
+  /**
+   * Column qualifier of all job configuration properties stored as one blob,
+   * see {@link com.twitter.hraven.datasource.JobConfBlob}. It holds the same
+   * bytes as {@link #JOB_CONF_PROPERTY_COLUMN_PREFIX_BYTES}, so whatever skips
+   * or selects job configuration columns by prefix does the same for the blob.
+   */
+  public static final byte[] JOB_CONF_BLOB_COLUMN_BYTES = Bytes.add(
+      JOB_CONF_COLUMN_PREFIX_BYTES, SEP_BYTES);
+
   /** Column qualifier prefix to namespace counter data */
   public static final String COUNTER_COLUMN_PREFIX = "g";
   public static final byte[] COUNTER_COLUMN_PREFIX_BYTES = Bytes
@@ -294,4 +310,151 @@ public class Constants {
    * Used to pass boolean to mappers to indicate that items are to be reprocessed.
    */
   public static final String FORCE_REPROCESS_CONF_KEY = "force.reprocess";
+
+  /**
+   * Used to pass boolean to mappers to indicate whether hadoop2 job history
+   * events are to be read straight from the avro records, or to be converted to
+   * json text and parsed again (the original, slower path).
+   */
+  public static final String HADOOP2_AVRO_NATIVE_DECODING_CONF_KEY =
+      "hraven.etl.hadoop2.avro.native";
+  public static final boolean HADOOP2_AVRO_NATIVE_DECODING_DEFAULT = true;
+
+  /**
+   * Used to pass the maximum number of task rows for which job history puts are
+   * held back while parsing, so that the puts of all events for the same row
+   * can be combined into one. Set to 0 to write one put per event.
+   */
+  public static final String HISTORY_PUT_MERGE_MAX_ROWS_CONF_KEY =
+      "hraven.etl.history.put.merge.max.rows";
+  public static final int HISTORY_PUT_MERGE_MAX_ROWS_DEFAULT = 5000;
+
+  /**
+   * Used to pass the number of threads with which each map task of the
+   * JobFileProcessor processes raw rows. Parsing is CPU bound, so on task
+   * nodes with cores to spare a few threads per task speed things up. Each
+   * thread holds one raw row, job history and all, in memory.
+   */
+  public static final String JOB_FILE_MAPPER_THREADS_CONF_KEY =
+      "hraven.etl.jobfile.mapper.threads";
+  public static final int JOB_FILE_MAPPER_THREADS_DEFAULT = 1;
+
+  /**
+   * Used to pass how job configuration properties are stored in the
+   * {@link #HISTORY_TABLE}: {@link #JOB_CONF_STORAGE_COLUMNS} for one column
+   * per property or {@link #JOB_CONF_STORAGE_BLOB} for all of them in a single
+   * compressed column.
+   */
+  public static final String JOB_CONF_STORAGE_CONF_KEY = "hraven.jobconf.storage";
+  public static final String JOB_CONF_STORAGE_COLUMNS = "columns";
+  public static final String JOB_CONF_STORAGE_BLOB = "blob";
+
+  /**
+   * Used to pass the comma separated job configuration properties that are
+   * still written to columns of their own when
+   * {@link #JOB_CONF_STORAGE_BLOB} is used, so they can be read or filtered on
+   * without the blob. They are in the blob too.
+   */
+  public static final String JOB_CONF_BLOB_HOT_KEYS_CONF_KEY =
+      "hraven.jobconf.blob.hot.keys";
+
+  /**
+   * Used to pass boolean to the job configuration blob migration to indicate
+   * that the separate job configuration columns are to be kept.
+   */
+  public static final String JOB_CONF_BLOB_KEEP_COLUMNS_CONF_KEY =
+      "hraven.jobconf.blob.keep.columns";
+
+  /**
+   * Used to pass whether flow scans are limited to the requested number of runs
+   * on the region servers with {@link com.twitter.hraven.datasource.RunMatchFilter},
+   * which requires hraven-core on their classpath.
+   */
+  public static final String RUN_MATCH_FILTER_ENABLED_CONF_KEY =
+      "hraven.scan.runmatchfilter.enabled";
+  public static final boolean RUN_MATCH_FILTER_ENABLED_DEFAULT = true;
+
+  /**
+   * Used to pass the number of threads reading the tasks of the jobs in a flow
+   * from the {@link #HISTORY_TASK_TABLE}, one scan per job. The threads are
+   * shared by all {@link com.twitter.hraven.datasource.JobHistoryService}
+   * instances in a JVM, which caps the number of task scans running at the
+   * same time. With 1 or less the tasks of all jobs are read with a single
+   * scan.
+   */
+  public static final String TASK_SCAN_THREADS_CONF_KEY =
+      "hraven.taskscan.threads";
+  public static final int TASK_SCAN_THREADS_DEFAULT = 8;
+
+  /**
+   * Used to pass the maximum number of task scans running at the same time for
+   * a single request.
+   */
+  public static final String TASK_SCAN_PARALLELISM_CONF_KEY =
+      "hraven.taskscan.parallelism";
+  public static final int TASK_SCAN_PARALLELISM_DEFAULT = 4;
+
+  /**
+   * Used to pass the number of idle instances of each table kept by a
+   * {@link com.twitter.hraven.datasource.TablePool}. Tables in use beyond
+   * these are closed when they are returned to the pool. This does not bound
+   * the number of tables in use, which the pool creates as needed.
+   */
+  public static final String TABLE_POOL_SIZE_CONF_KEY =
+      "hraven.tablepool.size";
+  public static final int TABLE_POOL_SIZE_DEFAULT = 16;
+
+  /**
+   * Used to pass the minimum number of threads serving REST requests.
+   */
+  public static final String REST_MIN_THREADS_CONF_KEY =
+      "hraven.rest.threads.min";
+  public static final int REST_MIN_THREADS_DEFAULT = 10;
+
+  /**
+   * Used to pass the maximum number of threads serving REST requests.
+   */
+  public static final String REST_MAX_THREADS_CONF_KEY =
+      "hraven.rest.threads.max";
+  public static final int REST_MAX_THREADS_DEFAULT = 100;
+
+  /**
+   * Used to pass the number of threads accepting connections to the REST
+   * server.
+   */
+  public static final String REST_ACCEPTORS_CONF_KEY = "hraven.rest.acceptors";
+  public static final int REST_ACCEPTORS_DEFAULT = 1;
+
+  /**
+   * Used to pass the number of connections to the REST server the operating
+   * system queues while none are being accepted.
+   */
+  public static final String REST_ACCEPT_QUEUE_SIZE_CONF_KEY =
+      "hraven.rest.acceptqueue.size";
+  public static final int REST_ACCEPT_QUEUE_SIZE_DEFAULT = 128;
+
+  /**
+   * Used to pass the maximum number of REST requests reading from HBase at the
+   * same time. Further requests wait for one of them to complete, see
+   * {@link #REST_REQUEST_WAIT_MS_CONF_KEY}.
+   */
+  public static final String REST_MAX_REQUESTS_CONF_KEY =
+      "hraven.rest.requests.max";
+  public static final int REST_MAX_REQUESTS_DEFAULT = 32;
+
+  /**
+   * Used to pass how many milliseconds a REST request waits to be served
+   * before it is turned away with a 503 (Service Unavailable).
+   */
+  public static final String REST_REQUEST_WAIT_MS_CONF_KEY =
+      "hraven.rest.requests.wait.ms";
+  public static final int REST_REQUEST_WAIT_MS_DEFAULT = 1000;
+
+  /**
+   * Used to pass the number of seconds clients turned away are asked to wait
+   * before they retry, sent in the Retry-After header.
+   */
+  public static final String REST_RETRY_AFTER_SECONDS_CONF_KEY =
+      "hraven.rest.retryafter.seconds";
+  public static final int REST_RETRY_AFTER_SECONDS_DEFAULT = 5;
 }
@@ -15,41 +15,218 @@ limitations under the License.
 */
 package com.twitter.hraven;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
 import org.codehaus.jackson.map.annotate.JsonSerialize;
 
+/**
+ * The counters of a job or task, by group and name. A flow with its tasks
+ * populated holds a great many of these, so counters are not kept as
+ * {@link Counter} objects: names come from a shared symbol table and values
+ * are stored in a {@code long[]}. Counters are kept in the order they were
+ * first added. Once there are more than a few counters they are looked up by
+ * name through a small open addressing hash of their indexes.
+ * <p>
+ * The symbol table of names is bounded, see {@link CounterName}: past
+ * {@link CounterName#MAX_INTERNED} distinct names in the JVM each new name
+ * takes memory of its own.
+ * <p>
+ * {@link Counter} instances handed out by this class are copies, changing
+ * them does not change the map.
+ */
 @JsonSerialize(
   include=JsonSerialize.Inclusion.NON_NULL
 )
 public class CounterMap {
-  private Map<String,Map<String,Counter>> internalMap = new HashMap<String,Map<String,Counter>>();
+  private static final CounterName[] NO_NAMES = new CounterName[0];
+  private static final long[] NO_VALUES = new long[0];
+  private static final int MIN_CAPACITY = 8;
+  /** the number of counters up to which a linear scan finds them faster */
+  private static final int MAX_UNINDEXED = 8;
+
+  private CounterName[] names = NO_NAMES;
+  private long[] values = NO_VALUES;
+  private int size;
+  /**
+   * 1 + the index of the counter hashing to each slot, 0 for an empty slot,
+   * {@code null} up to {@link #MAX_UNINDEXED} counters
+   */
+  private int[] slots;
+
+  /**
+   * @return the number of counters
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param index of the counter, from 0 to {@link #size()} - 1
+   * @return the group of the counter
+   */
+  public String getGroupAt(int index) {
+    checkIndex(index);
+    return names[index].getGroup();
+  }
+
+  /**
+   * @param index of the counter, from 0 to {@link #size()} - 1
+   * @return the name of the counter
+   */
+  public String getNameAt(int index) {
+    checkIndex(index);
+    return names[index].getName();
+  }
+
+  /**
+   * @param index of the counter, from 0 to {@link #size()} - 1
+   * @return the value of the counter
+   */
+  public long getValueAt(int index) {
+    checkIndex(index);
+    return values[index];
+  }
 
   public Set<String> getGroups() {
-    return internalMap.keySet();
+    Set<String> groups = new LinkedHashSet<String>();
+    for (int i = 0; i < size; i++) {
+      groups.add(names[i].getGroup());
+    }
+    return groups;
   }
 
+  /**
+   * @return the counters of the group by name, or {@code null} if there are
+   *         none
+   */
   public Map<String,Counter> getGroup(String group) {
-    return internalMap.get(group);
+    Map<String,Counter> groupCounters = null;
+    for (int i = 0; i < size; i++) {
+      if (names[i].getGroup().equals(group)) {
+        if (groupCounters == null) {
+          groupCounters = new LinkedHashMap<String, Counter>();
+        }
+        groupCounters.put(names[i].getName(), toCounter(i));
+      }
+    }
+    return groupCounters;
   }
 
   public Counter getCounter(String group, String name) {
-    Map<String,Counter> groupCounters = getGroup(group);
-    if (groupCounters != null) {
-      return groupCounters.get(name);
-    }
+    int index = indexOf(group, name);
+    return index < 0 ? null : toCounter(index);
+  }
 
-    return null;
+  /**
+   * @return the value of the counter, or {@code defaultValue} if there is no
+   *         such counter
+   */
+  public long getValue(String group, String name, long defaultValue) {
+    int index = indexOf(group, name);
+    return index < 0 ? defaultValue : values[index];
   }
 
   public void add(Counter counter) {
-    Map<String,Counter> groupCounters = internalMap.get(counter.getGroup());
-    if (groupCounters == null) {
-      groupCounters = new HashMap<String, Counter>();
-      internalMap.put(counter.getGroup(), groupCounters);
+    add(counter.getGroup(), counter.getKey(), counter.getValue());
+  }
+
+  /**
+   * Sets the value of a counter, replacing any value it already has.
+   */
+  public void add(String group, String name, long value) {
+    int index = indexOf(group, name);
+    if (index >= 0) {
+      values[index] = value;
+      return;
+    }
+    if (size == names.length) {
+      int capacity = Math.max(MIN_CAPACITY, size * 2);
+      names = Arrays.copyOf(names, capacity);
+      values = Arrays.copyOf(values, capacity);
+    }
+    names[size] = CounterName.of(group, name);
+    values[size] = value;
+    size++;
+    if (slots != null && size * 2 <= slots.length) {
+      index(size - 1);
+    } else if (size > MAX_UNINDEXED) {
+      reindex();
+    }
+  }
+
+  /**
+   * Releases any room kept for counters that have not been added, once all
+   * counters are in.
+   */
+  public void trimToSize() {
+    if (size < names.length) {
+      names = size == 0 ? NO_NAMES : Arrays.copyOf(names, size);
+      values = size == 0 ? NO_VALUES : Arrays.copyOf(values, size);
+    }
+    if (slots != null) {
+      reindex();
+    }
+  }
+
+  private int indexOf(String group, String name) {
+    if (slots == null) {
+      for (int i = 0; i < size; i++) {
+        if (names[i].matches(group, name)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+    int mask = slots.length - 1;
+    for (int slot = spread(CounterName.hashCode(group, name)) & mask;
+        slots[slot] != 0; slot = (slot + 1) & mask) {
+      int i = slots[slot] - 1;
+      if (names[i].matches(group, name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Rebuilds the hash with between two and four slots per counter.
+   */
+  private void reindex() {
+    slots = new int[Integer.highestOneBit(size) << 2];
+    for (int i = 0; i < size; i++) {
+      index(i);
+    }
+  }
+
+  private void index(int i) {
+    int mask = slots.length - 1;
+    int slot = spread(names[i].hashCode()) & mask;
+    while (slots[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    slots[slot] = i + 1;
+  }
+
+  /**
+   * Mixes the high bits into the low ones, which pick the slot.
+   */
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private Counter toCounter(int index) {
+    return new Counter(names[index].getGroup(), names[index].getName(),
+        values[index]);
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+          + size);
     }
-    groupCounters.put(counter.getKey(), counter);
   }
 }
@@ -0,0 +1,146 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The group and name of a counter, as held by {@link CounterMap}. Jobs and
+ * tasks share a small set of counter names, so instances come out of a symbol
+ * table shared by the whole JVM and every task only pays for a reference.
+ * <p>
+ * Jobs can define counters of their own, so the table stops growing once it
+ * holds {@link #MAX_INTERNED} names. Names beyond that get instances of their
+ * own, which is why instances must be compared with {@link #equals(Object)}.
+ * Nothing else changes once the table is full, counters just take more memory,
+ * so this is only logged once, as a warning.
+ */
+final class CounterName {
+  private static final Log LOG = LogFactory.getLog(CounterName.class);
+
+  /** The maximum number of names kept in the symbol table */
+  static final int MAX_INTERNED = 100000;
+
+  private static final ConcurrentMap<String, ConcurrentMap<String, CounterName>> TABLE =
+      new ConcurrentHashMap<String, ConcurrentMap<String, CounterName>>();
+  private static final AtomicInteger SIZE = new AtomicInteger();
+  private static final AtomicBoolean FULL = new AtomicBoolean();
+
+  private final String group;
+  private final String name;
+
+  private CounterName(String group, String name) {
+    this.group = group;
+    this.name = name;
+  }
+
+  /**
+   * @return the shared instance for the given counter, or a new one if the
+   *         symbol table is full
+   */
+  static CounterName of(String group, String name) {
+    ConcurrentMap<String, CounterName> groupNames = TABLE.get(group);
+    if (groupNames != null) {
+      CounterName interned = groupNames.get(name);
+      if (interned != null) {
+        return interned;
+      }
+    }
+    if (SIZE.get() >= MAX_INTERNED) {
+      if (FULL.compareAndSet(false, true)) {
+        LOG.warn("Counter name table is full with " + MAX_INTERNED
+            + " names, no longer sharing the names of new counters");
+      }
+      return new CounterName(group, name);
+    }
+
+    if (groupNames == null) {
+      groupNames = new ConcurrentHashMap<String, CounterName>();
+      ConcurrentMap<String, CounterName> existing = TABLE.putIfAbsent(group,
+          groupNames);
+      if (existing != null) {
+        groupNames = existing;
+      }
+    }
+    // share the group string between all names of the group
+    CounterName created = groupNames.isEmpty() ? new CounterName(group, name)
+        : new CounterName(groupNames.values().iterator().next().group, name);
+    CounterName existing = groupNames.putIfAbsent(name, created);
+    if (existing != null) {
+      return existing;
+    }
+    SIZE.incrementAndGet();
+    return created;
+  }
+
+  String getGroup() {
+    return group;
+  }
+
+  String getName() {
+    return name;
+  }
+
+  /**
+   * @return whether this is the name of the given counter
+   */
+  boolean matches(String group, String name) {
+    return this.name.equals(name) && this.group.equals(group);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof CounterName)) {
+      return false;
+    }
+    CounterName otherName = (CounterName) other;
+    return matches(otherName.group, otherName.name);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode(group, name);
+  }
+
+  /**
+   * @return the hash code of the name of the given counter, without looking
+   *         up its instance
+   */
+  static int hashCode(String group, String name) {
+    return 31 * group.hashCode() + name.hashCode();
+  }
+
+  /**
+   * @return the number of names in the symbol table
+   */
+  static int getInternedCount() {
+    return SIZE.get();
+  }
+
+  @Override
+  public String toString() {
+    return group + Constants.SEP + name;
+  }
+}
@@ -0,0 +1,190 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * The properties of a job configuration, as an immutable map. Unlike a
+ * {@link Configuration} there are no default resources, no lazy loading and no
+ * DOM behind it, which makes it cheap to create for every job processed. Use
+ * {@link JobConfReader} to read one from a stored job conf.
+ * <p>
+ * {@link #get(String)} and {@link #getLong(String, long)} interpret values the
+ * way {@link Configuration} does, including <code>${var}</code> expansion.
+ * Iterating returns the raw values, again like {@link Configuration}.
+ */
+public final class JobConfProperties implements Iterable<Entry<String, String>> {
+
+  private static final Pattern VAR_PATTERN = Pattern
+      .compile("\\$\\{[^\\}\\$ ]+\\}");
+  private static final int MAX_SUBST = 20;
+
+  private final Map<String, String> properties;
+
+  /**
+   * @param properties raw property values by name, must not be modified
+   *          afterwards.
+   */
+  JobConfProperties(Map<String, String> properties) {
+    this.properties = Collections.unmodifiableMap(properties);
+  }
+
+  /**
+   * @param conf to copy the properties of
+   * @return the properties of conf, including those from its default resources
+   */
+  public static JobConfProperties fromConfiguration(Configuration conf) {
+    Map<String, String> properties = new LinkedHashMap<String, String>();
+    for (Entry<String, String> property : conf) {
+      properties.put(property.getKey(), property.getValue());
+    }
+    return new JobConfProperties(properties);
+  }
+
+  /**
+   * @param name of the property
+   * @return the value of the property with variables expanded, or null if it
+   *         is not set
+   */
+  public String get(String name) {
+    return substituteVars(properties.get(name));
+  }
+
+  /**
+   * @param name of the property
+   * @param defaultValue returned when the property is not set
+   * @return the value of the property with variables expanded
+   */
+  public String get(String name, String defaultValue) {
+    String value = properties.get(name);
+    return substituteVars(value != null ? value : defaultValue);
+  }
+
+  /**
+   * @param name of the property
+   * @return the value of the property as it was stored, or null if it is not
+   *         set
+   */
+  public String getRaw(String name) {
+    return properties.get(name);
+  }
+
+  /**
+   * @param name of the property
+   * @param defaultValue returned when the property is not set or not a number
+   * @return the value of the property as a long, hexadecimal when prefixed
+   *         with 0x
+   */
+  public long getLong(String name, long defaultValue) {
+    String value = get(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      String hexDigits = getHexDigits(value);
+      if (hexDigits != null) {
+        return Long.parseLong(hexDigits, 16);
+      }
+      return Long.parseLong(value);
+    } catch (NumberFormatException nfe) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * @return the number of properties
+   */
+  public int size() {
+    return properties.size();
+  }
+
+  /**
+   * @return an unmodifiable view of the raw property values by name
+   */
+  public Map<String, String> asMap() {
+    return properties;
+  }
+
+  /**
+   * @return the raw property values, in the order in which they were first
+   *         defined
+   */
+  @Override
+  public Iterator<Entry<String, String>> iterator() {
+    return properties.entrySet().iterator();
+  }
+
+  private static String getHexDigits(String value) {
+    boolean negative = value.startsWith("-");
+    String digits = negative ? value.substring(1) : value;
+    if (digits.startsWith("0x") || digits.startsWith("0X")) {
+      return negative ? "-" + digits.substring(2) : digits.substring(2);
+    }
+    return null;
+  }
+
+  /**
+   * Expands ${var} from the system properties or else from the other
+   * properties, exactly as {@link Configuration#get(String)} does.
+   */
+  private String substituteVars(String expr) {
+    // almost no values have variables in them
+    if (expr == null || expr.indexOf("${") < 0) {
+      return expr;
+    }
+    Matcher match = VAR_PATTERN.matcher("");
+    String eval = expr;
+    for (int s = 0; s < MAX_SUBST; s++) {
+      match.reset(eval);
+      if (!match.find()) {
+        return eval;
+      }
+      String var = match.group();
+      var = var.substring(2, var.length() - 1);
+      String val = null;
+      try {
+        val = System.getProperty(var);
+      } catch (SecurityException se) {
+        // fall back to the properties
+      }
+      if (val == null) {
+        val = properties.get(var);
+      }
+      if (val == null) {
+        // unbound variables are left as they are
+        return eval;
+      }
+      eval = eval.substring(0, match.start()) + val
+          + eval.substring(match.end());
+    }
+    throw new IllegalStateException("Variable substitution depth too large: "
+        + MAX_SUBST + " " + expr);
+  }
+
+  @Override
+  public String toString() {
+    return "JobConfProperties: " + properties.size() + " properties";
+  }
+}
@@ -0,0 +1,207 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Reads a job configuration, as written by
+ * {@link org.apache.hadoop.conf.Configuration#writeXml(java.io.OutputStream)},
+ * into {@link JobConfProperties} with a single streaming pass. Properties are
+ * taken the way {@link org.apache.hadoop.conf.Configuration} loads a resource:
+ * <ul>
+ * <li>names are trimmed, values are not</li>
+ * <li>properties with an empty name or value are skipped</li>
+ * <li>later definitions replace earlier ones, unless those were final</li>
+ * <li>any element within the configuration is read as a property</li>
+ * </ul>
+ * XInclude is not supported, job confs written by Hadoop do not use it.
+ */
+public class JobConfReader {
+
+  private static final Log LOG = LogFactory.getLog(JobConfReader.class);
+
+  private static final String CONFIGURATION = "configuration";
+  private static final String PROPERTY = "property";
+  private static final String NAME = "name";
+  private static final String VALUE = "value";
+  private static final String FINAL = "final";
+
+  /**
+   * Creating a factory means a service lookup, and factories are not
+   * guaranteed to be thread safe.
+   */
+  private static final ThreadLocal<XMLInputFactory> FACTORY =
+      new ThreadLocal<XMLInputFactory>() {
+    @Override
+    protected XMLInputFactory initialValue() {
+      XMLInputFactory factory = XMLInputFactory.newInstance();
+      factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+      factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+          Boolean.FALSE);
+      factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+      return factory;
+    }
+  };
+
+  private JobConfReader() {
+  }
+
+  /**
+   * @param buf holding the job conf xml
+   * @param offset where the xml starts in buf
+   * @param length of the xml
+   * @return the properties in the job conf
+   * @throws XMLStreamException if the xml is not well formed
+   */
+  public static JobConfProperties read(byte[] buf, int offset, int length)
+      throws XMLStreamException {
+    return read(new ByteArrayInputStream(buf, offset, length));
+  }
+
+  /**
+   * @param in to read the job conf xml from, is not closed
+   * @return the properties in the job conf
+   * @throws XMLStreamException if the xml is not well formed
+   */
+  public static JobConfProperties read(InputStream in)
+      throws XMLStreamException {
+    Map<String, String> properties = new LinkedHashMap<String, String>();
+    Set<String> finalProperties = new HashSet<String>();
+
+    XMLStreamReader reader = FACTORY.get().createXMLStreamReader(in);
+    try {
+      while (reader.hasNext()) {
+        if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        String tag = reader.getLocalName();
+        if (CONFIGURATION.equals(tag)) {
+          // nested configurations are merged into the outer one
+          continue;
+        }
+        if (!PROPERTY.equals(tag)) {
+          // but still read as one, just like Configuration does
+          LOG.warn("bad conf file: element not <property>: " + tag);
+        }
+        readProperty(reader, properties, finalProperties);
+      }
+    } finally {
+      reader.close();
+    }
+    return new JobConfProperties(properties);
+  }
+
+  /**
+   * Reads one property element, the reader is left at its end.
+   */
+  private static void readProperty(XMLStreamReader reader,
+      Map<String, String> properties, Set<String> finalProperties)
+      throws XMLStreamException {
+    String name = null;
+    String value = null;
+    boolean isFinal = false;
+
+    while (true) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.END_ELEMENT) {
+        break;
+      } else if (event != XMLStreamConstants.START_ELEMENT) {
+        continue;
+      }
+      String field = reader.getLocalName();
+      String text = (NAME.equals(field) || VALUE.equals(field) || FINAL
+          .equals(field)) ? readText(reader) : null;
+      if (text == null) {
+        skipElement(reader);
+      } else if (text.length() == 0) {
+        // an empty element has no text node, Configuration ignores it
+      } else if (NAME.equals(field)) {
+        name = text.trim();
+      } else if (VALUE.equals(field)) {
+        value = text;
+      } else {
+        isFinal = "true".equals(text);
+      }
+    }
+
+    if (name != null && value != null) {
+      if (!finalProperties.contains(name)) {
+        properties.put(name, value);
+        if (isFinal) {
+          finalProperties.add(name);
+        }
+      } else {
+        LOG.warn("an attempt to override final parameter: " + name
+            + ";  Ignoring.");
+      }
+    }
+  }
+
+  /**
+   * Reads the text at the start of the element the reader is at, anything from
+   * the first nested element on is skipped. The reader is left at the end of
+   * the element.
+   */
+  private static String readText(XMLStreamReader reader)
+      throws XMLStreamException {
+    String text = "";
+    while (true) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.CHARACTERS
+          || event == XMLStreamConstants.CDATA
+          || event == XMLStreamConstants.SPACE) {
+        text = text.length() == 0 ? reader.getText() : text + reader.getText();
+      } else if (event == XMLStreamConstants.START_ELEMENT) {
+        // the nested element, then whatever else is left of this one
+        skipElement(reader);
+        skipElement(reader);
+        return text;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        return text;
+      }
+    }
+  }
+
+  /**
+   * Skips the element the reader is at, including everything in it.
+   */
+  private static void skipElement(XMLStreamReader reader)
+      throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+}
@@ -39,6 +39,20 @@ public class JobDescFactory {
    */
   public static JobDesc createJobDesc(QualifiedJobId qualifiedJobId,
       long submitTimeMillis, Configuration jobConf) {
+    return createJobDesc(qualifiedJobId, submitTimeMillis,
+        JobConfProperties.fromConfiguration(jobConf));
+  }
+
+  /**
+   * @param submitTimeMillis
+   * @param qualifiedJobId
+   *          Identifier for the job for the given job configuration
+   * @param jobConf
+   *          the properties of the job configuration for the given job.
+   * @return the job description for the given JobConfiguration.
+   */
+  public static JobDesc createJobDesc(QualifiedJobId qualifiedJobId,
+      long submitTimeMillis, JobConfProperties jobConf) {
     JobDesc jobDesc = null;
 
     Framework framework = getFramework(jobConf);
@@ -68,12 +82,26 @@ public class JobDescFactory {
    * @return which framerwork was used to launch that configuration.
    */
   public static Framework getFramework(Configuration jobConf) {
+    return getFramework(jobConf.get(Constants.PIG_CONF_KEY),
+        jobConf.get(Constants.CASCADING_FLOW_ID_CONF_KEY));
+  }
+
+  /**
+   * @param jobConf
+   *          the properties of a given job configuration.
+   * @return which framerwork was used to launch that configuration.
+   */
+  public static Framework getFramework(JobConfProperties jobConf) {
+    return getFramework(jobConf.get(Constants.PIG_CONF_KEY),
+        jobConf.get(Constants.CASCADING_FLOW_ID_CONF_KEY));
+  }
+
+  private static Framework getFramework(String pigVersion, String flowId) {
     // Check if this is a pig job
-    boolean isPig = jobConf.get(Constants.PIG_CONF_KEY) != null;
+    boolean isPig = pigVersion != null;
     if (isPig) {
       return Framework.PIG;
     } else {
-      String flowId = jobConf.get(Constants.CASCADING_FLOW_ID_CONF_KEY);
       if ((flowId == null) || (flowId.length() == 0)) {
         return Framework.NONE;
       } else {
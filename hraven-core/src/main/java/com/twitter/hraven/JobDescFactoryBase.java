@@ -41,7 +41,17 @@ public abstract class JobDescFactoryBase {
    * @return the identifier for the job in the JobHistory table.
    */
   abstract JobDesc create(QualifiedJobId qualifiedJobId, long submitTimeMillis,
-      Configuration jobConf);
+      JobConfProperties jobConf);
+
+  /**
+   * Same as {@link #create(QualifiedJobId, long, JobConfProperties)}, for a
+   * job configuration that has been loaded as a {@link Configuration}.
+   */
+  JobDesc create(QualifiedJobId qualifiedJobId, long submitTimeMillis,
+      Configuration jobConf) {
+    return create(qualifiedJobId, submitTimeMillis,
+        JobConfProperties.fromConfiguration(jobConf));
+  }
 
   /**
    * Factory method to be used by subclasses.
@@ -59,7 +69,7 @@ public abstract class JobDescFactoryBase {
    *          Identifying one single run of a version of an app.
    * @return a JobKey with the given parameters and the userName added.
    */
-  protected JobDesc create(QualifiedJobId qualifiedJobId, Configuration jobConf,
+  protected JobDesc create(QualifiedJobId qualifiedJobId, JobConfProperties jobConf,
       String appId, String version, Framework framework, long submitTimeMillis) {
 
     if (null == qualifiedJobId) {
@@ -80,7 +90,7 @@ public abstract class JobDescFactoryBase {
    * @return a non-empty non-null string with the jobId. If the jobId cannot be
    *         parsed, then {@link Constants#UNKNOWN} will be returned.
    */
-  protected String getAppId(Configuration jobConf) {
+  protected String getAppId(JobConfProperties jobConf) {
 
     // Defensive coding
     if (jobConf == null) {
@@ -15,22 +15,30 @@ limitations under the License.
 */
 package com.twitter.hraven;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.NavigableMap;
+import java.util.Map;
 
 import org.apache.commons.lang.builder.CompareToBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonIgnore;
 import org.codehaus.jackson.annotate.JsonProperty;
 import org.codehaus.jackson.map.annotate.JsonSerialize;
 
+import com.twitter.hraven.datasource.JobConfBlob;
 import com.twitter.hraven.datasource.JobHistoryService;
 
 /**
@@ -75,9 +83,15 @@ public class JobDetails implements Comparable<JobDetails> {
   private long reduceSlotMillis;
   private long reduceShuffleBytes;
 
-  // job config
+  // job config, kept as the stored cells until first asked for
+  private List<KeyValue> confColumns;
+  private KeyValue confBlob;
+  private JobConfProperties confProperties;
   private Configuration config;
 
+  private static final JobConfProperties NO_PROPERTIES = new JobConfProperties(
+      Collections.<String, String> emptyMap());
+
   // job-level counters
   private CounterMap counters = new CounterMap();
   private CounterMap mapCounters = new CounterMap();
@@ -340,10 +354,42 @@ public class JobDetails implements Comparable<JobDetails> {
     return this.tasks;
   }
 
+  /**
+   * @return the job configuration, created from the stored properties when
+   *         first called. Prefer {@link #getConfigurationProperties()}, which is
+   *         a lot cheaper.
+   */
+  @JsonIgnore
   public Configuration getConfiguration() {
+    if (this.config == null) {
+      Configuration config = new Configuration(false);
+      for (Map.Entry<String, String> property : getConfigurationProperties()) {
+        config.set(property.getKey(), property.getValue());
+      }
+      this.config = config;
+    }
     return this.config;
   }
 
+  /**
+   * @return the job configuration properties, decoded from the stored cells
+   *         when first called
+   */
+  @JsonProperty("configuration")
+  public JobConfProperties getConfigurationProperties() {
+    if (this.confProperties == null) {
+      if (this.config != null) {
+        this.confProperties = JobConfProperties.fromConfiguration(this.config);
+      } else {
+        this.confProperties = decodeConfiguration(this.confColumns,
+            this.confBlob);
+        this.confColumns = null;
+        this.confBlob = null;
+      }
+    }
+    return this.confProperties;
+  }
+
   public CounterMap getCounters() {
     return this.counters;
   }
@@ -357,146 +403,288 @@ public class JobDetails implements Comparable<JobDetails> {
   }
 
   // for JSON deserialization
-  void setConfiguration(Configuration config) { this.config = config; }
+  @JsonProperty("configuration")
+  void setConfiguration(Configuration config) {
+    this.config = config;
+    this.confProperties = null;
+    this.confColumns = null;
+    this.confBlob = null;
+  }
   void setCounters(CounterMap counters) { this.counters = counters; }
   void setMapCounters(CounterMap mapCounters) { this.mapCounters = mapCounters; }
   void setReduceCounters(CounterMap reduceCounters) { this.reduceCounters = reduceCounters; }
 
-  /** TODO: refactor this out into a data access layer */
-  public void populate(Result result) {
-    // process job-level stats and properties
-    NavigableMap<byte[],byte[]> infoValues = result.getFamilyMap(Constants.INFO_FAM_BYTES);
-    if (infoValues.containsKey(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.JOBID))) {
-      this.jobId = Bytes.toString(
-          infoValues.get(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.JOBID)));
-    }
-    if (infoValues.containsKey(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.USER))) {
-      this.user = Bytes.toString(
-          infoValues.get(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.USER)));
-    }
-    if (infoValues.containsKey(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.JOBNAME))) {
-      this.jobName = Bytes.toString(
-          infoValues.get(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.JOBNAME)));
-    }
-    if (infoValues.containsKey(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.JOB_PRIORITY))) {
-      this.priority = Bytes.toString(
-          infoValues.get(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.JOB_PRIORITY)));
-    }
-    if (infoValues.containsKey(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.JOB_STATUS))) {
-      this.status = Bytes.toString(
-          infoValues.get(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.JOB_STATUS)));
-    }
-    if (infoValues.containsKey(Constants.VERSION_COLUMN_BYTES)) {
-      this.version = Bytes.toString(infoValues.get(Constants.VERSION_COLUMN_BYTES));
+  /**
+   * The job statistics read from job_history columns of their own. The
+   * constants are sorted by column qualifier, so that a qualifier can be
+   * looked up with a binary search in {@link #STAT_QUALIFIERS}.
+   */
+  private enum StatColumn {
+    JOBID(JobHistoryKeys.JOBID),
+    USER(JobHistoryKeys.USER),
+    JOBNAME(JobHistoryKeys.JOBNAME),
+    JOB_PRIORITY(JobHistoryKeys.JOB_PRIORITY),
+    JOB_STATUS(JobHistoryKeys.JOB_STATUS),
+    VERSION(Constants.VERSION_COLUMN_BYTES),
+    SUBMIT_TIME(JobHistoryKeys.SUBMIT_TIME),
+    LAUNCH_TIME(JobHistoryKeys.LAUNCH_TIME),
+    FINISH_TIME(JobHistoryKeys.FINISH_TIME),
+    TOTAL_MAPS(JobHistoryKeys.TOTAL_MAPS),
+    TOTAL_REDUCES(JobHistoryKeys.TOTAL_REDUCES),
+    FINISHED_MAPS(JobHistoryKeys.FINISHED_MAPS),
+    FINISHED_REDUCES(JobHistoryKeys.FINISHED_REDUCES),
+    FAILED_MAPS(JobHistoryKeys.FAILED_MAPS),
+    FAILED_REDUCES(JobHistoryKeys.FAILED_REDUCES);
+
+    private final byte[] qualifier;
+
+    private StatColumn(JobHistoryKeys key) {
+      this(JobHistoryKeys.KEYS_TO_BYTES.get(key));
     }
 
-    // times
-    if (infoValues.containsKey(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.SUBMIT_TIME))) {
-      this.submitTime = Bytes.toLong(
-          infoValues.get(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.SUBMIT_TIME)));
-    }
-    if (infoValues.containsKey(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.LAUNCH_TIME))) {
-      this.launchTime = Bytes.toLong(
-          infoValues.get(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.LAUNCH_TIME)));
-    }
-    if (infoValues.containsKey(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.FINISH_TIME))) {
-      this.finishTime = Bytes.toLong(
-          infoValues.get(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.FINISH_TIME)));
+    private StatColumn(byte[] qualifier) {
+      this.qualifier = qualifier;
     }
+  }
 
-    // task counts
-    if (infoValues.containsKey(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.TOTAL_MAPS))) {
-      this.totalMaps = Bytes.toLong(
-          infoValues.get(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.TOTAL_MAPS)));
-    }
-    if (infoValues.containsKey(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.TOTAL_REDUCES))) {
-      this.totalReduces = Bytes.toLong(
-          infoValues.get(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.TOTAL_REDUCES)));
-    }
-    if (infoValues.containsKey(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.FINISHED_MAPS))) {
-      this.finishedMaps = Bytes.toLong(
-          infoValues.get(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.FINISHED_MAPS)));
-    }
-    if (infoValues.containsKey(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.FINISHED_REDUCES))) {
-      this.finishedReduces = Bytes.toLong(
-          infoValues.get(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.FINISHED_REDUCES)));
-    }
-    if (infoValues.containsKey(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.FAILED_MAPS))) {
-      this.failedMaps = Bytes.toLong(
-          infoValues.get(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.FAILED_MAPS)));
+  private static final StatColumn[] STAT_COLUMNS = StatColumn.values();
+  private static final byte[][] STAT_QUALIFIERS;
+  static {
+    Arrays.sort(STAT_COLUMNS, new Comparator<StatColumn>() {
+      @Override
+      public int compare(StatColumn c1, StatColumn c2) {
+        return Bytes.compareTo(c1.qualifier, c2.qualifier);
+      }
+    });
+    STAT_QUALIFIERS = new byte[STAT_COLUMNS.length][];
+    for (int i = 0; i < STAT_COLUMNS.length; i++) {
+      STAT_QUALIFIERS[i] = STAT_COLUMNS[i].qualifier;
     }
-    if (infoValues.containsKey(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.FAILED_REDUCES))) {
-      this.failedReduces = Bytes.toLong(
-          infoValues.get(JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.FAILED_REDUCES)));
+  }
+
+  private static final byte[] COUNTER_PREFIX = Bytes.add(
+      Constants.COUNTER_COLUMN_PREFIX_BYTES, Constants.SEP_BYTES);
+  private static final byte[] MAP_COUNTER_PREFIX = Bytes.add(
+      Constants.MAP_COUNTER_COLUMN_PREFIX_BYTES, Constants.SEP_BYTES);
+  private static final byte[] REDUCE_COUNTER_PREFIX = Bytes.add(
+      Constants.REDUCE_COUNTER_COLUMN_PREFIX_BYTES, Constants.SEP_BYTES);
+
+  /**
+   * Populates the job from a job_history row, in a single pass over the cells
+   * of the row. Each cell of the info family goes to the statistic, job
+   * configuration property or counter its qualifier stands for. The job
+   * configuration cells are only kept, they are decoded on the first call to
+   * {@link #getConfigurationProperties()} or {@link #getConfiguration()}.
+   *
+   * TODO: refactor this out into a data access layer
+   */
+  public void populate(Result result) {
+    List<KeyValue> confColumns = null;
+    KeyValue confBlob = null;
+    CounterMap counters = new CounterMap();
+    CounterMap mapCounters = new CounterMap();
+    CounterMap reduceCounters = new CounterMap();
+
+    KeyValue previous = null;
+    for (KeyValue kv : result.raw()) {
+      if (!kv.matchingFamily(Constants.INFO_FAM_BYTES)) {
+        continue;
+      }
+      byte[] buffer = kv.getBuffer();
+      int qualifierOffset = kv.getQualifierOffset();
+      int qualifierLength = kv.getQualifierLength();
+      if (previous != null && previous.matchingQualifier(buffer,
+          qualifierOffset, qualifierLength)) {
+        // an older version of the same column, only the latest one counts
+        continue;
+      }
+      previous = kv;
+
+      if (startsWith(buffer, qualifierOffset, qualifierLength,
+          Constants.JOB_CONF_PROPERTY_COLUMN_PREFIX_BYTES)) {
+        int prefixLength =
+            Constants.JOB_CONF_PROPERTY_COLUMN_PREFIX_BYTES.length;
+        if (qualifierLength == prefixLength) {
+          confBlob = kv;
+        } else {
+          if (confColumns == null) {
+            confColumns = new ArrayList<KeyValue>();
+          }
+          confColumns.add(kv);
+        }
+      } else if (startsWith(buffer, qualifierOffset, qualifierLength,
+          COUNTER_PREFIX)) {
+        addCounter(counters, kv, COUNTER_PREFIX.length);
+      } else if (startsWith(buffer, qualifierOffset, qualifierLength,
+          MAP_COUNTER_PREFIX)) {
+        addCounter(mapCounters, kv, MAP_COUNTER_PREFIX.length);
+      } else if (startsWith(buffer, qualifierOffset, qualifierLength,
+          REDUCE_COUNTER_PREFIX)) {
+        addCounter(reduceCounters, kv, REDUCE_COUNTER_PREFIX.length);
+      } else {
+        int index = Bytes.binarySearch(STAT_QUALIFIERS, buffer,
+            qualifierOffset, qualifierLength, Bytes.BYTES_RAWCOMPARATOR);
+        if (index >= 0) {
+          setStat(STAT_COLUMNS[index], kv);
+        }
+      }
     }
 
-    this.config = JobHistoryService.parseConfiguration(infoValues);
-    this.counters = JobHistoryService.parseCounters(
-        Constants.COUNTER_COLUMN_PREFIX_BYTES, infoValues);
-    this.mapCounters = JobHistoryService.parseCounters(
-        Constants.MAP_COUNTER_COLUMN_PREFIX_BYTES, infoValues);
-    this.reduceCounters = JobHistoryService.parseCounters(
-        Constants.REDUCE_COUNTER_COLUMN_PREFIX_BYTES, infoValues);
+    counters.trimToSize();
+    mapCounters.trimToSize();
+    reduceCounters.trimToSize();
+    this.confColumns = confColumns;
+    this.confBlob = confBlob;
+    this.confProperties = null;
+    this.config = null;
+    this.counters = counters;
+    this.mapCounters = mapCounters;
+    this.reduceCounters = reduceCounters;
 
     // populate stats from counters for this job
-    // map file bytes read
-    if (this.mapCounters.getCounter(Constants.FILESYSTEM_COUNTERS, Constants.FILES_BYTES_READ) != null) {
-      this.mapFileBytesRead =
-          this.mapCounters.getCounter(Constants.FILESYSTEM_COUNTERS, Constants.FILES_BYTES_READ)
-              .getValue();
-    }
+    this.mapFileBytesRead = mapCounters.getValue(
+        Constants.FILESYSTEM_COUNTERS, Constants.FILES_BYTES_READ,
+        this.mapFileBytesRead);
+    this.mapFileBytesWritten = mapCounters.getValue(
+        Constants.FILESYSTEM_COUNTERS, Constants.FILES_BYTES_WRITTEN,
+        this.mapFileBytesWritten);
+    this.reduceFileBytesRead = reduceCounters.getValue(
+        Constants.FILESYSTEM_COUNTERS, Constants.FILES_BYTES_READ,
+        this.reduceFileBytesRead);
+    this.hdfsBytesRead = counters.getValue(Constants.FILESYSTEM_COUNTERS,
+        Constants.HDFS_BYTES_READ, this.hdfsBytesRead);
+    this.hdfsBytesWritten = counters.getValue(Constants.FILESYSTEM_COUNTERS,
+        Constants.HDFS_BYTES_WRITTEN, this.hdfsBytesWritten);
+    this.mapSlotMillis = counters.getValue(Constants.JOBINPROGRESS_COUNTER,
+        Constants.SLOTS_MILLIS_MAPS, this.mapSlotMillis);
+    this.reduceSlotMillis = counters.getValue(Constants.JOBINPROGRESS_COUNTER,
+        Constants.SLOTS_MILLIS_REDUCES, this.reduceSlotMillis);
+    this.reduceShuffleBytes = reduceCounters.getValue(Constants.TASK_COUNTER,
+        Constants.REDUCE_SHUFFLE_BYTES, this.reduceShuffleBytes);
 
-    // map file bytes written
-    if (this.mapCounters.getCounter(Constants.FILESYSTEM_COUNTERS, Constants.FILES_BYTES_WRITTEN) != null) {
-      this.mapFileBytesWritten =
-          this.mapCounters.getCounter(Constants.FILESYSTEM_COUNTERS, Constants.FILES_BYTES_WRITTEN)
-              .getValue();
-    }
+    // populate the task-level data
+    //populateTasks(result.getFamilyMap(Constants.TASK_FAM_BYTES));
+  }
 
-    // reduce file bytes read
-    if (this.reduceCounters.getCounter(Constants.FILESYSTEM_COUNTERS, Constants.FILES_BYTES_READ) != null) {
-      this.reduceFileBytesRead =
-          this.reduceCounters.getCounter(Constants.FILESYSTEM_COUNTERS, Constants.FILES_BYTES_READ)
-              .getValue();
+  /**
+   * @param confColumns the cells of the individual job configuration
+   *          properties, may be {@code null}
+   * @param confBlob the cell holding the {@link JobConfBlob}, may be
+   *          {@code null}
+   * @return the properties stored in these cells. Properties from the blob
+   *         replace those from columns of their own, as in
+   *         {@link JobHistoryService#parseConfiguration(Map)}.
+   * @throws IllegalArgumentException if the blob cannot be decoded
+   */
+  private static JobConfProperties decodeConfiguration(
+      List<KeyValue> confColumns, KeyValue confBlob) {
+    if (confColumns == null && confBlob == null) {
+      return NO_PROPERTIES;
     }
-
-    // hdfs bytes read
-    if (this.counters.getCounter(Constants.FILESYSTEM_COUNTERS, Constants.HDFS_BYTES_READ) != null) {
-      this.hdfsBytesRead =
-          this.counters.getCounter(Constants.FILESYSTEM_COUNTERS, Constants.HDFS_BYTES_READ)
-              .getValue();
+    Map<String, String> properties = new LinkedHashMap<String, String>();
+    if (confColumns != null) {
+      int prefixLength =
+          Constants.JOB_CONF_PROPERTY_COLUMN_PREFIX_BYTES.length;
+      for (KeyValue kv : confColumns) {
+        byte[] buffer = kv.getBuffer();
+        properties.put(Bytes.toString(buffer, kv.getQualifierOffset()
+            + prefixLength, kv.getQualifierLength() - prefixLength), Bytes
+            .toString(buffer, kv.getValueOffset(), kv.getValueLength()));
+      }
     }
-
-    // hdfs bytes written
-    if (this.counters.getCounter(Constants.FILESYSTEM_COUNTERS, Constants.HDFS_BYTES_WRITTEN) != null) {
-      this.hdfsBytesWritten =
-          this.counters.getCounter(Constants.FILESYSTEM_COUNTERS, Constants.HDFS_BYTES_WRITTEN)
-              .getValue();
+    if (confBlob != null) {
+      try {
+        properties.putAll(JobConfBlob.decode(confBlob.getBuffer(),
+            confBlob.getValueOffset(), confBlob.getValueLength()));
+      } catch (IOException ioe) {
+        throw new IllegalArgumentException(
+            "Malformed job configuration blob", ioe);
+      }
     }
-
-    // map slot millis
-    if (this.counters.getCounter(Constants.JOBINPROGRESS_COUNTER, Constants.SLOTS_MILLIS_MAPS) != null) {
-      this.mapSlotMillis =
-          this.counters.getCounter(Constants.JOBINPROGRESS_COUNTER, Constants.SLOTS_MILLIS_MAPS)
-              .getValue();
+    return new JobConfProperties(properties);
+  }
+
+  private void setStat(StatColumn column, KeyValue kv) {
+    byte[] buffer = kv.getBuffer();
+    int offset = kv.getValueOffset();
+    int length = kv.getValueLength();
+    switch (column) {
+    case JOBID:
+      this.jobId = Bytes.toString(buffer, offset, length);
+      break;
+    case USER:
+      this.user = Bytes.toString(buffer, offset, length);
+      break;
+    case JOBNAME:
+      this.jobName = Bytes.toString(buffer, offset, length);
+      break;
+    case JOB_PRIORITY:
+      this.priority = Bytes.toString(buffer, offset, length);
+      break;
+    case JOB_STATUS:
+      this.status = Bytes.toString(buffer, offset, length);
+      break;
+    case VERSION:
+      this.version = Bytes.toString(buffer, offset, length);
+      break;
+    case SUBMIT_TIME:
+      this.submitTime = toLong(kv);
+      break;
+    case LAUNCH_TIME:
+      this.launchTime = toLong(kv);
+      break;
+    case FINISH_TIME:
+      this.finishTime = toLong(kv);
+      break;
+    case TOTAL_MAPS:
+      this.totalMaps = toLong(kv);
+      break;
+    case TOTAL_REDUCES:
+      this.totalReduces = toLong(kv);
+      break;
+    case FINISHED_MAPS:
+      this.finishedMaps = toLong(kv);
+      break;
+    case FINISHED_REDUCES:
+      this.finishedReduces = toLong(kv);
+      break;
+    case FAILED_MAPS:
+      this.failedMaps = toLong(kv);
+      break;
+    case FAILED_REDUCES:
+      this.failedReduces = toLong(kv);
+      break;
     }
+  }
 
-    // reduce slot millis
-    if (this.counters.getCounter(Constants.JOBINPROGRESS_COUNTER, Constants.SLOTS_MILLIS_REDUCES) != null) {
-      this.reduceSlotMillis =
-          this.counters.getCounter(Constants.JOBINPROGRESS_COUNTER, Constants.SLOTS_MILLIS_REDUCES)
-              .getValue();
+  private static void addCounter(CounterMap counters, KeyValue kv,
+      int prefixLength) {
+    if (kv.getQualifierLength() > prefixLength) {
+      JobHistoryService.addCounter(counters, kv.getBuffer(),
+          kv.getQualifierOffset(), kv.getQualifierLength(), prefixLength,
+          toLong(kv));
     }
+  }
 
-    // reduce shuffle bytes
-    if (this.reduceCounters.getCounter(Constants.TASK_COUNTER, Constants.REDUCE_SHUFFLE_BYTES) != null) {
-      this.reduceShuffleBytes =
-          this.reduceCounters.getCounter(Constants.TASK_COUNTER, Constants.REDUCE_SHUFFLE_BYTES)
-              .getValue();
+  /**
+   * @return the long held by the first 8 bytes of the value
+   * @throws IllegalArgumentException if the value is shorter than 8 bytes, as
+   *           {@link Bytes#toLong(byte[])} does for the value copied out
+   */
+  private static long toLong(KeyValue kv) {
+    if (kv.getValueLength() < Bytes.SIZEOF_LONG) {
+      throw new IllegalArgumentException("Expected at least "
+          + Bytes.SIZEOF_LONG + " bytes for a long value, got "
+          + kv.getValueLength());
     }
-
-    // populate the task-level data
-    //populateTasks(result.getFamilyMap(Constants.TASK_FAM_BYTES));
+    return Bytes.toLong(kv.getBuffer(), kv.getValueOffset(),
+        Bytes.SIZEOF_LONG);
   }
 
+  private static boolean startsWith(byte[] buffer, int offset, int length,
+      byte[] prefix) {
+    return length >= prefix.length
+        && Bytes.equals(buffer, offset, prefix.length, prefix, 0,
+            prefix.length);
+  }
 }
@@ -1,13 +1,13 @@
 package com.twitter.hraven;
 
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.hbase.util.Bytes;
 
-import com.google.common.collect.Maps;
-
 /**
  * Contains the extract of the keys enum from
  * {@link org.apache.hadoop.mapreduce.JobHistoryCopy}  class
@@ -97,47 +97,118 @@ public enum JobHistoryKeys {
 
   private final Class<?> className;
   private final String mapping;
+  private final byte[] qualifierBytes;
 
   private JobHistoryKeys(Class<?> className, String mapping) {
     this.className = className;
     this.mapping = mapping;
-    }
+    this.qualifierBytes = Bytes.toBytes(name().toLowerCase());
+  }
 
   public Class<?> getClassName() {
     return className;
   }
 
+  /**
+   * @return the column qualifier this key is stored under, the lowercase key
+   *         name. The returned array is shared and must not be modified.
+   */
+  public byte[] getQualifierBytes() {
+    return qualifierBytes;
+  }
+
   /**
    * Data types represented by each of the defined job history field names
    */
-  public static Map<JobHistoryKeys, Class<?>> KEY_TYPES = Maps.newHashMap();
+  public static final Map<JobHistoryKeys, Class<?>> KEY_TYPES;
   static {
+    Map<JobHistoryKeys, Class<?>> keyTypes =
+        new EnumMap<JobHistoryKeys, Class<?>>(JobHistoryKeys.class);
     for (JobHistoryKeys t : JobHistoryKeys.values()) {
-      KEY_TYPES.put(t, t.getClassName());
+      keyTypes.put(t, t.getClassName());
     }
+    KEY_TYPES = Collections.unmodifiableMap(keyTypes);
   }
 
   /**
    * Mapping the keys in 2.0 job history files to 1.0 key names
    */
-  public static Map<String, String> HADOOP2_TO_HADOOP1_MAPPING = Maps.newHashMap();
+  public static final Map<String, String> HADOOP2_TO_HADOOP1_MAPPING;
+  static {
+    Map<String, String> mapping = new HashMap<String, String>();
+    for (JobHistoryKeys t : JobHistoryKeys.values()) {
+      if (StringUtils.isNotEmpty(t.mapping)) {
+        mapping.put(t.mapping,t.toString());
+      }
+    }
+    HADOOP2_TO_HADOOP1_MAPPING = Collections.unmodifiableMap(mapping);
+  }
+
+  /**
+   * Keys by the names they appear under in 1.0 and 2.0 job history files. 2.0
+   * names that map to a 1.0 key take precedence over key names.
+   */
+  private static final Map<String, JobHistoryKeys> NAMES_TO_KEYS =
+      new HashMap<String, JobHistoryKeys>();
   static {
+    for (JobHistoryKeys t : JobHistoryKeys.values()) {
+      NAMES_TO_KEYS.put(t.name(), t);
+    }
     for (JobHistoryKeys t : JobHistoryKeys.values()) {
       if (StringUtils.isNotEmpty(t.mapping)) {
-        HADOOP2_TO_HADOOP1_MAPPING.put(t.mapping,t.toString());
+        NAMES_TO_KEYS.put(t.mapping, t);
       }
     }
   }
 
+  /**
+   * Job history key names as bytes
+   */
+  public static final Map<JobHistoryKeys, byte[]> KEYS_TO_BYTES;
+  static {
+    Map<JobHistoryKeys, byte[]> keysToBytes =
+        new EnumMap<JobHistoryKeys, byte[]>(JobHistoryKeys.class);
+    for (JobHistoryKeys k : JobHistoryKeys.values()) {
+      keysToBytes.put(k, k.getQualifierBytes());
+    }
+    KEYS_TO_BYTES = Collections.unmodifiableMap(keysToBytes);
+  }
+
+  /**
+   * Column qualifier prefixes, including the trailing separator, under which
+   * the individual counters of each of the counter keys are stored
+   */
+  public static final Map<JobHistoryKeys, byte[]> COUNTER_PREFIXES_TO_BYTES;
+  static {
+    Map<JobHistoryKeys, byte[]> counterPrefixes =
+        new EnumMap<JobHistoryKeys, byte[]>(JobHistoryKeys.class);
+    byte[] counterPrefix = Bytes.add(Constants.COUNTER_COLUMN_PREFIX_BYTES,
+        Constants.SEP_BYTES);
+    counterPrefixes.put(COUNTERS, counterPrefix);
+    counterPrefixes.put(TOTAL_COUNTERS, counterPrefix);
+    counterPrefixes.put(TASK_COUNTERS, counterPrefix);
+    counterPrefixes.put(TASK_ATTEMPT_COUNTERS, counterPrefix);
+    counterPrefixes.put(MAP_COUNTERS, Bytes.add(
+        Constants.MAP_COUNTER_COLUMN_PREFIX_BYTES, Constants.SEP_BYTES));
+    counterPrefixes.put(REDUCE_COUNTERS, Bytes.add(
+        Constants.REDUCE_COUNTER_COLUMN_PREFIX_BYTES, Constants.SEP_BYTES));
+    COUNTER_PREFIXES_TO_BYTES = Collections.unmodifiableMap(counterPrefixes);
+  }
 
-	/**
-	 * Job history key names as bytes
-	 */
-  public static final Map<JobHistoryKeys, byte[]> KEYS_TO_BYTES =
-      new HashMap<JobHistoryKeys, byte[]>();
-	static {
-	  for (JobHistoryKeys k : JobHistoryKeys.values()) {
-	    KEYS_TO_BYTES.put(k, Bytes.toBytes(k.toString().toLowerCase()));
-	  }
-	}
-}
\ No newline at end of file
+  /**
+   * Looks up a key by the name it appears under in a job history file,
+   * without the string conversions needed to go through
+   * {@link #HADOOP2_TO_HADOOP1_MAPPING} and {@link #valueOf(String)}.
+   *
+   * @param name either a 1.0 key name or a 2.0 field name
+   * @return the matching key
+   * @throws IllegalArgumentException if no key is known by this name
+   */
+  public static JobHistoryKeys forName(String name) {
+    JobHistoryKeys key = NAMES_TO_KEYS.get(name);
+    if (key == null) {
+      throw new IllegalArgumentException("No job history key named " + name);
+    }
+    return key;
+  }
+}
@@ -29,10 +29,10 @@ public class MRJobDescFactory extends JobDescFactoryBase {
    * 
    * @see
    * com.twitter.hraven.JobKeyFactoryBase#create(com.twitter.corestorage
-   * .rhaven.QualifiedJobId, long, org.apache.hadoop.conf.Configuration)
+   * .rhaven.QualifiedJobId, long, com.twitter.hraven.JobConfProperties)
    */
   JobDesc create(QualifiedJobId qualifiedJobId, long submitTimeMillis,
-      Configuration jobConf) {
+      JobConfProperties jobConf) {
     // TODO: Get the actual values appropriate for the plain Hadoop jobs.
 
     String appId = getAppId(jobConf);
@@ -39,10 +39,10 @@ public class PigJobDescFactory extends JobDescFactoryBase {
    * 
    * @see
    * com.twitter.hraven.JobKeyFactoryBase#create(com.twitter.corestorage
-   * .rhaven.QualifiedJobId, long, org.apache.hadoop.conf.Configuration)
+   * .rhaven.QualifiedJobId, long, com.twitter.hraven.JobConfProperties)
    */
   public JobDesc create(QualifiedJobId qualifiedJobId, long submitTimeMillis,
-      Configuration jobConf) {
+      JobConfProperties jobConf) {
     String appId = getAppId(jobConf);
     String version = jobConf.get(Constants.PIG_VERSION_CONF_KEY,
         Constants.UNKNOWN);
@@ -45,6 +45,11 @@ public class QualifiedJobId extends JobId {
     this.cluster = (cluster != null ? cluster.trim() : "");
   }
 
+  public QualifiedJobId(String cluster, long epoch, long seq) {
+    super(epoch, seq);
+    this.cluster = (cluster != null ? cluster.trim() : "");
+  }
+
   /**
    * @return The Hadoop cluster on which the job ran.
    */
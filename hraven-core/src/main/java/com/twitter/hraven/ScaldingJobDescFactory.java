@@ -36,7 +36,7 @@ public class ScaldingJobDescFactory extends JobDescFactoryBase {
 
   @Override
   JobDesc create(QualifiedJobId qualifiedJobId, long submitTimeMillis,
-      Configuration jobConf) {
+      JobConfProperties jobConf) {
 
     String appId = getAppId(jobConf);
     if (Constants.UNKNOWN.equals(appId)) {
@@ -96,7 +96,7 @@ public class ScaldingJobDescFactory extends JobDescFactoryBase {
    * @return when the entire flow started, or else at least something that binds
    *         all jobs in a flow together.
    */
-  static long getFlowSubmitTimeMillis(Configuration jobConf,
+  static long getFlowSubmitTimeMillis(JobConfProperties jobConf,
       long submitTimeMillis) {
     // TODO: Do some parsing / hacking on this.
     // Grab the year/month component and add part of the flowId turned into long
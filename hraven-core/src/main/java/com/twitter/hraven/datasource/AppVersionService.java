@@ -24,7 +24,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Get;
-import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -40,13 +40,24 @@ public class AppVersionService {
 
   private static Log LOG = LogFactory.getLog(AppVersionService.class);
 
-  @SuppressWarnings("unused")
-  private final Configuration conf;
-  private final HTable versionsTable;
+  private final TablePool tables;
+  private final boolean closeTables;
 
   public AppVersionService(Configuration conf) throws IOException {
-    this.conf = conf;
-    this.versionsTable = new HTable(conf, Constants.HISTORY_APP_VERSION_TABLE);
+    this(new TablePool(conf), true);
+  }
+
+  /**
+   * @param tables the pool to take the table from, it is not closed by
+   *          {@link #close()}
+   */
+  public AppVersionService(TablePool tables) {
+    this(tables, false);
+  }
+
+  private AppVersionService(TablePool tables, boolean closeTables) {
+    this.tables = tables;
+    this.closeTables = closeTables;
   }
 
   /**
@@ -62,7 +73,7 @@ public class AppVersionService {
       throws IOException {
     Get get = new Get(getRowKey(cluster, user, appId));
     List<VersionInfo> versions = Lists.newArrayList();
-    Result r = this.versionsTable.get(get);
+    Result r = get(get);
     if (r != null && !r.isEmpty()) {
       for (KeyValue kv : r.list()) {
         versions.add(
@@ -94,7 +105,7 @@ public class AppVersionService {
     Get get = new Get(getRowKey(cluster, user, appId));
     List<VersionInfo> versions = Lists.newArrayList();
     Long ts = 0L;
-    Result r = this.versionsTable.get(get);
+    Result r = get(get);
     if (r != null && !r.isEmpty()) {
       for (KeyValue kv : r.list()) {
         ts = 0L;
@@ -146,57 +157,73 @@ public class AppVersionService {
     int maxAttempts = 3;
     boolean checkForUpdate = true;
 
-    while (checkForUpdate && attempts < maxAttempts) {
-      attempts++;
-      // values for conditional update
-      Put p = null;
-      byte[] expectedValue = null;
-
-      Get get = new Get(rowKey);
-      get.addColumn(Constants.INFO_FAM_BYTES, versionCol);
-      Result r = this.versionsTable.get(get);
-      if (r != null && !r.isEmpty()) {
-        byte[] storedValue = r.getValue(Constants.INFO_FAM_BYTES, versionCol);
-        long storedTS = Bytes.toLong(storedValue);
-        if (timestamp < storedTS) {
-          // update the stored timestamp to our earlier value
+    HTableInterface versionsTable = tables
+        .getTable(Constants.HISTORY_APP_VERSION_TABLE_BYTES);
+    try {
+      while (checkForUpdate && attempts < maxAttempts) {
+        attempts++;
+        // values for conditional update
+        Put p = null;
+        byte[] expectedValue = null;
+
+        Get get = new Get(rowKey);
+        get.addColumn(Constants.INFO_FAM_BYTES, versionCol);
+        Result r = versionsTable.get(get);
+        if (r != null && !r.isEmpty()) {
+          byte[] storedValue = r.getValue(Constants.INFO_FAM_BYTES, versionCol);
+          long storedTS = Bytes.toLong(storedValue);
+          if (timestamp < storedTS) {
+            // update the stored timestamp to our earlier value
+            p = new Put(rowKey);
+            p.add(Constants.INFO_FAM_BYTES, versionCol, Bytes.toBytes(timestamp));
+            expectedValue = storedValue;
+          } else {
+            // version exists and exceeds our value, no update necessary
+            checkForUpdate = false;
+          }
+        } else {
+          // no stored value
           p = new Put(rowKey);
           p.add(Constants.INFO_FAM_BYTES, versionCol, Bytes.toBytes(timestamp));
-          expectedValue = storedValue;
-        } else {
-          // version exists and exceeds our value, no update necessary
-          checkForUpdate = false;
         }
-      } else {
-        // no stored value
-        p = new Put(rowKey);
-        p.add(Constants.INFO_FAM_BYTES, versionCol, Bytes.toBytes(timestamp));
-      }
 
-      if (p != null) {
-        // we have an updated value to add
-        updated = this.versionsTable.checkAndPut(
-            rowKey, Constants.INFO_FAM_BYTES, versionCol, expectedValue, p);
-        checkForUpdate = !updated;
-        if (!updated) {
-          LOG.warn("Update of cluster="+cluster+", user="+user+", app="+appId+
-              ", version="+version+" to timestamp "+timestamp+
-              " failed because currently set value changed!"+
-              " (attempt "+attempts+" of "+maxAttempts+")");
+        if (p != null) {
+          // we have an updated value to add
+          updated = versionsTable.checkAndPut(
+              rowKey, Constants.INFO_FAM_BYTES, versionCol, expectedValue, p);
+          checkForUpdate = !updated;
+          if (!updated) {
+            LOG.warn("Update of cluster="+cluster+", user="+user+", app="+appId+
+                ", version="+version+" to timestamp "+timestamp+
+                " failed because currently set value changed!"+
+                " (attempt "+attempts+" of "+maxAttempts+")");
+          }
         }
       }
+    } finally {
+      tables.putTable(versionsTable);
     }
 
     return updated;
   }
 
+  private Result get(Get get) throws IOException {
+    HTableInterface versionsTable = tables
+        .getTable(Constants.HISTORY_APP_VERSION_TABLE_BYTES);
+    try {
+      return versionsTable.get(get);
+    } finally {
+      tables.putTable(versionsTable);
+    }
+  }
+
   /**
-   * Close the underlying HTable reference to free resources
+   * Close the underlying HTable references to free resources
    * @throws IOException
    */
   public void close() throws IOException {
-    if (this.versionsTable != null) {
-      this.versionsTable.close();
+    if (closeTables) {
+      tables.close();
     }
   }
 
@@ -0,0 +1,204 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.datasource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Encodes all properties of a job configuration into a single value, for the
+ * {@link com.twitter.hraven.Constants#JOB_CONF_BLOB_COLUMN_BYTES} column. One
+ * KeyValue per job instead of thousands makes history rows much smaller and
+ * cheaper to read.
+ * <p>
+ * The blob is a format version byte followed by the deflated list of
+ * properties: the number of properties, then for each the length and bytes of
+ * its name and the length and bytes of its value. Lengths are variable length
+ * ints, names and values UTF-8. Properties are sorted by name, so a single
+ * property can be looked up with {@link #get(byte[], int, int, String)}
+ * without decoding any of the other values.
+ */
+public class JobConfBlob {
+
+  /** the first byte of each blob */
+  static final byte FORMAT_VERSION = 1;
+
+  private JobConfBlob() {
+  }
+
+  /**
+   * @param properties the raw job configuration properties to encode
+   * @return the blob
+   */
+  public static byte[] encode(Iterable<Map.Entry<String, String>> properties) {
+    SortedMap<byte[], byte[]> sorted = new TreeMap<byte[], byte[]>(
+        Bytes.BYTES_COMPARATOR);
+    for (Map.Entry<String, String> property : properties) {
+      sorted.put(Bytes.toBytes(property.getKey()),
+          Bytes.toBytes(property.getValue()));
+    }
+    return encode(sorted);
+  }
+
+  /**
+   * @param properties the raw job configuration properties to encode, values
+   *          by name, sorted by {@link Bytes#BYTES_COMPARATOR}
+   * @return the blob
+   */
+  public static byte[] encode(SortedMap<byte[], byte[]> properties) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write(FORMAT_VERSION);
+    Deflater deflater = new Deflater();
+    try {
+      DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(
+          bytes, deflater));
+      WritableUtils.writeVInt(out, properties.size());
+      for (Map.Entry<byte[], byte[]> property : properties.entrySet()) {
+        writeBytes(out, property.getKey());
+        writeBytes(out, property.getValue());
+      }
+      out.close();
+    } catch (IOException ioe) {
+      // cannot happen, we are writing to memory
+      throw new IllegalStateException(ioe);
+    } finally {
+      deflater.end();
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * @param blob as written by {@link #encode(SortedMap)}
+   * @param offset where the blob starts
+   * @param length of the blob
+   * @return the raw property values by name, sorted by name
+   * @throws IOException if the blob is corrupt
+   */
+  public static Map<String, String> decode(byte[] blob, int offset, int length)
+      throws IOException {
+    Inflater inflater = new Inflater();
+    try {
+      DataInputStream in = open(blob, offset, length, inflater);
+      int count = WritableUtils.readVInt(in);
+      Map<String, String> properties = new LinkedHashMap<String, String>(
+          count * 4 / 3 + 1);
+      for (int i = 0; i < count; i++) {
+        String name = Bytes.toString(readBytes(in));
+        properties.put(name, Bytes.toString(readBytes(in)));
+      }
+      return properties;
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /**
+   * Looks up a single property. Properties sorted before it are skipped over
+   * without decoding them, those sorted after it are not decompressed at all.
+   * 
+   * @param blob as written by {@link #encode(SortedMap)}
+   * @param offset where the blob starts
+   * @param length of the blob
+   * @param name of the property to look up
+   * @return the raw value of the property, null if it is not in the blob
+   * @throws IOException if the blob is corrupt
+   */
+  public static String get(byte[] blob, int offset, int length, String name)
+      throws IOException {
+    byte[] wanted = Bytes.toBytes(name);
+    byte[] scratch = new byte[Math.max(64, wanted.length)];
+    Inflater inflater = new Inflater();
+    try {
+      DataInputStream in = open(blob, offset, length, inflater);
+      int count = WritableUtils.readVInt(in);
+      for (int i = 0; i < count; i++) {
+        int nameLength = readLength(in);
+        if (nameLength > scratch.length) {
+          scratch = new byte[nameLength];
+        }
+        in.readFully(scratch, 0, nameLength);
+        int cmp = Bytes.compareTo(scratch, 0, nameLength, wanted, 0,
+            wanted.length);
+        if (cmp == 0) {
+          return Bytes.toString(readBytes(in));
+        } else if (cmp > 0) {
+          // sorted, so it is not in here
+          return null;
+        }
+        skipFully(in, readLength(in));
+      }
+      return null;
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private static DataInputStream open(byte[] blob, int offset, int length,
+      Inflater inflater) throws IOException {
+    if (length < 1 || blob[offset] != FORMAT_VERSION) {
+      throw new IOException("Not a job configuration blob of version "
+          + FORMAT_VERSION);
+    }
+    return new DataInputStream(new InflaterInputStream(
+        new ByteArrayInputStream(blob, offset + 1, length - 1), inflater));
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes)
+      throws IOException {
+    WritableUtils.writeVInt(out, bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[readLength(in)];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  private static int readLength(DataInputStream in) throws IOException {
+    int length = WritableUtils.readVInt(in);
+    if (length < 0) {
+      throw new IOException("Negative length in job configuration blob");
+    }
+    return length;
+  }
+
+  private static void skipFully(DataInputStream in, int length)
+      throws IOException {
+    while (length > 0) {
+      int skipped = in.skipBytes(length);
+      if (skipped <= 0) {
+        throw new EOFException("Truncated job configuration blob");
+      }
+      length -= skipped;
+    }
+  }
+}
@@ -19,7 +19,7 @@ import java.io.IOException;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.client.Get;
-import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 
@@ -36,13 +36,26 @@ public class JobHistoryByIdService {
   private QualifiedJobIdConverter jobIdConv = new QualifiedJobIdConverter();
 
   /**
-   * Used to store the job to jobHistoryKey index in.
+   * Holds the table used to store the job to jobHistoryKey index in.
    */
-  private final HTable historyByJobIdTable;
+  private final TablePool tables;
+  private final boolean closeTables;
 
   public JobHistoryByIdService(Configuration myHBaseConf) throws IOException {
-    historyByJobIdTable = new HTable(myHBaseConf,
-        Constants.HISTORY_BY_JOBID_TABLE_BYTES);
+    this(new TablePool(myHBaseConf), true);
+  }
+
+  /**
+   * @param tables the pool to take the table from, it is not closed by
+   *          {@link #close()}
+   */
+  public JobHistoryByIdService(TablePool tables) {
+    this(tables, false);
+  }
+
+  private JobHistoryByIdService(TablePool tables, boolean closeTables) {
+    this.tables = tables;
+    this.closeTables = closeTables;
   }
 
   /**
@@ -53,8 +66,8 @@ public class JobHistoryByIdService {
    *           when bad things happen closing HBase table(s).
    */
   public void close() throws IOException {
-    if (historyByJobIdTable != null) {
-      historyByJobIdTable.close();
+    if (closeTables) {
+      tables.close();
     }
   }
 
@@ -70,7 +83,14 @@ public class JobHistoryByIdService {
 
     Get g = new Get(indexKey);
     g.addColumn(Constants.INFO_FAM_BYTES, Constants.ROWKEY_COL_BYTES);
-    Result r = historyByJobIdTable.get(g);
+    Result r;
+    HTableInterface historyByJobIdTable = tables
+        .getTable(Constants.HISTORY_BY_JOBID_TABLE_BYTES);
+    try {
+      r = historyByJobIdTable.get(g);
+    } finally {
+      tables.putTable(historyByJobIdTable);
+    }
     if (r != null && !r.isEmpty()) {
       byte[] historyKey = r.getValue(Constants.INFO_FAM_BYTES, Constants.ROWKEY_COL_BYTES);
       if (historyKey != null && historyKey.length > 0) {
@@ -97,7 +117,13 @@ public class JobHistoryByIdService {
       // Insert (or update) row with jobid as the key
       Put p = new Put(rowKeyBytes);
       p.add(Constants.INFO_FAM_BYTES, Constants.ROWKEY_COL_BYTES, jobKeyBytes);
-      historyByJobIdTable.put(p);
+      HTableInterface historyByJobIdTable = tables
+          .getTable(Constants.HISTORY_BY_JOBID_TABLE_BYTES);
+      try {
+        historyByJobIdTable.put(p);
+      } finally {
+        tables.putTable(historyByJobIdTable);
+      }
     }
   }
 
@@ -23,6 +23,8 @@ import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
+import javax.xml.stream.XMLStreamException;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
@@ -37,6 +39,8 @@ import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
 import org.apache.hadoop.hbase.util.Bytes;
 
 import com.twitter.hraven.Constants;
+import com.twitter.hraven.JobConfProperties;
+import com.twitter.hraven.JobConfReader;
 import com.twitter.hraven.JobId;
 import com.twitter.hraven.QualifiedJobId;
 import com.twitter.hraven.Range;
@@ -352,6 +356,23 @@ public class JobHistoryRawService {
    */
   public Configuration createConfigurationFromResult(Result result)
       throws MissingColumnInResultException {
+    return createConfiguration(result);
+  }
+
+  /**
+   * Does the work of {@link #createConfigurationFromResult(Result)}, without
+   * needing a connected service.
+   *
+   * @param result
+   *          from the {@link Scan} from
+   *          {@link #getHistoryRawTableScan(String, String, String, boolean, boolean, boolean)}
+   * @return the configuration part.
+   * @throws MissingColumnInResultException
+   *           when the result does not contain {@link Constants#RAW_FAM},
+   *           {@link Constants#JOBCONF_COL}.
+   */
+  public static Configuration createConfiguration(Result result)
+      throws MissingColumnInResultException {
 
     if (result == null) {
       throw new IllegalArgumentException("Cannot create InputStream from null");
@@ -389,6 +410,49 @@ public class JobHistoryRawService {
     return jobConf;
   }
 
+  /**
+   * Like {@link #createConfigurationFromResult(Result)}, but reads the job
+   * configuration straight from the result in one streaming pass, rather than
+   * building a {@link Configuration}.
+   * 
+   * @param result
+   *          from the {@link Scan} from
+   *          {@link #getHistoryRawTableScan(String, String, String, boolean, boolean, boolean)}
+   * @return the properties of the job configuration.
+   * @throws MissingColumnInResultException
+   *           when the result does not contain {@link Constants#RAW_FAM},
+   *           {@link Constants#JOBCONF_COL}.
+   * @throws ProcessingException
+   *           when the job configuration cannot be parsed.
+   */
+  public static JobConfProperties createJobConfPropertiesFromResult(
+      Result result) throws MissingColumnInResultException {
+
+    if (result == null) {
+      throw new IllegalArgumentException("Cannot create InputStream from null");
+    }
+
+    KeyValue keyValue = result.getColumnLatest(Constants.RAW_FAM_BYTES,
+        Constants.JOBCONF_COL_BYTES);
+    if (keyValue == null || keyValue.getValueLength() == 0) {
+      throw new MissingColumnInResultException(Constants.RAW_FAM_BYTES,
+          Constants.JOBCONF_COL_BYTES);
+    }
+
+    try {
+      JobConfProperties jobConf = JobConfReader.read(keyValue.getBuffer(),
+          keyValue.getValueOffset(), keyValue.getValueLength());
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Loaded " + jobConf.size()
+            + " job configuration properties from result");
+      }
+      return jobConf;
+    } catch (XMLStreamException xse) {
+      throw new ProcessingException("Invalid configuration from result "
+          + Bytes.toStringBinary(result.getRow()), xse);
+    }
+  }
+
   /**
    * @param cluster
    *          the identifier for the Hadoop cluster on which a job ran
@@ -17,29 +17,41 @@ package com.twitter.hraven.datasource;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
-import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
-import org.apache.hadoop.hbase.filter.BinaryPrefixComparator;
 import org.apache.hadoop.hbase.filter.CompareFilter;
 import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.filter.FilterList;
 import org.apache.hadoop.hbase.filter.PrefixFilter;
-import org.apache.hadoop.hbase.filter.QualifierFilter;
 import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
 import org.apache.hadoop.hbase.filter.WhileMatchFilter;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -52,21 +64,96 @@ import com.twitter.hraven.util.ByteUtil;
 public class JobHistoryService {
   private static Log LOG = LogFactory.getLog(JobHistoryService.class);
 
+  /** Reads the tasks of the jobs in flows for all instances in this JVM */
+  private static ExecutorService sharedTaskScanExecutor;
+
   private final Configuration myConf;
-  private final HTable historyTable;
-  private final HTable taskTable;
+  private final TablePool tables;
+  private final boolean closeTables;
   private final JobHistoryByIdService idService;
   private final JobKeyConverter jobKeyConv = new JobKeyConverter();
-  private final TaskKeyConverter taskKeyConv = new TaskKeyConverter();
 
   private final int defaultScannerCaching;
+  private final boolean runMatchFilterEnabled;
+
+  private final ExecutorService taskScanExecutor;
+  private final int taskScanParallelism;
 
+  /**
+   * Reads the tasks of the jobs in flows in parallel on threads shared with
+   * all other instances in this JVM, see
+   * {@link Constants#TASK_SCAN_THREADS_CONF_KEY}.
+   */
   public JobHistoryService(Configuration myConf) throws IOException {
+    this(myConf, getSharedTaskScanExecutor(myConf));
+  }
+
+  /**
+   * @param myConf the HBase configuration
+   * @param taskScanExecutor runs the per job scans reading the tasks of the
+   *          jobs in flows, or {@code null} to read them all with a single
+   *          scan. It is not shut down by {@link #close()}.
+   * @throws IOException
+   */
+  public JobHistoryService(Configuration myConf,
+      ExecutorService taskScanExecutor) throws IOException {
+    this(myConf, new TablePool(myConf), true, taskScanExecutor);
+  }
+
+  /**
+   * Takes its tables from a pool, so that a single instance can serve any
+   * number of threads at the same time. Reads the tasks of the jobs in flows
+   * as {@link #JobHistoryService(Configuration)} does.
+   *
+   * @param myConf the HBase configuration
+   * @param tables the pool to take the tables from, it is not closed by
+   *          {@link #close()}
+   */
+  public JobHistoryService(Configuration myConf, TablePool tables) {
+    this(myConf, tables, false, getSharedTaskScanExecutor(myConf));
+  }
+
+  private JobHistoryService(Configuration myConf, TablePool tables,
+      boolean closeTables, ExecutorService taskScanExecutor) {
     this.myConf = myConf;
-    this.historyTable = new HTable(myConf, Constants.HISTORY_TABLE_BYTES);
-    this.taskTable = new HTable(myConf, Constants.HISTORY_TASK_TABLE_BYTES);
-    this.idService = new JobHistoryByIdService(this.myConf);
+    this.tables = tables;
+    this.closeTables = closeTables;
+    this.idService = new JobHistoryByIdService(tables);
     this.defaultScannerCaching = myConf.getInt("hbase.client.scanner.caching", 100);
+    this.runMatchFilterEnabled = myConf.getBoolean(
+        Constants.RUN_MATCH_FILTER_ENABLED_CONF_KEY,
+        Constants.RUN_MATCH_FILTER_ENABLED_DEFAULT);
+    this.taskScanParallelism = Math.max(1, myConf.getInt(
+        Constants.TASK_SCAN_PARALLELISM_CONF_KEY,
+        Constants.TASK_SCAN_PARALLELISM_DEFAULT));
+    if (taskScanExecutor != null && this.taskScanParallelism > 1) {
+      this.taskScanExecutor = taskScanExecutor;
+    } else {
+      this.taskScanExecutor = null;
+    }
+  }
+
+  /**
+   * @return the task scan threads shared by all instances in this JVM, created
+   *         with the size configured for the first instance, or {@code null}
+   *         if tasks are to be read with a single scan
+   */
+  private static synchronized ExecutorService getSharedTaskScanExecutor(
+      Configuration conf) {
+    int threads = conf.getInt(Constants.TASK_SCAN_THREADS_CONF_KEY,
+        Constants.TASK_SCAN_THREADS_DEFAULT);
+    if (threads <= 1) {
+      return null;
+    }
+    if (sharedTaskScanExecutor == null) {
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+          60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactoryBuilder().setNameFormat("JobHistoryService-task-%d")
+              .setDaemon(true).build());
+      executor.allowCoreThreadTimeOut(true);
+      sharedTaskScanExecutor = executor;
+    }
+    return sharedTaskScanExecutor;
   }
 
   /**
@@ -134,6 +221,23 @@ public class JobHistoryService {
    */
   public Flow getFlow(String cluster, String user, String appId, long runId, boolean populateTasks)
   throws IOException {
+    return getFlow(cluster, user, appId, runId, populateTasks,
+        JobProjection.EVERYTHING);
+  }
+
+  /**
+   * Returns the {@link Flow} instance matching the application ID and run ID.
+   *
+   * @param cluster the cluster identifier
+   * @param user the user running the jobs
+   * @param appId the application description
+   * @param runId the specific run ID for the flow
+   * @param populateTasks whether or not to populate the task details for each job
+   * @param projection the parts of each job to read
+   * @return
+   */
+  public Flow getFlow(String cluster, String user, String appId, long runId,
+      boolean populateTasks, JobProjection projection) throws IOException {
     Flow flow = null;
 
     byte[] startRow = ByteUtil.join(Constants.SEP_BYTES,
@@ -145,7 +249,8 @@ public class JobHistoryService {
     // start scanning history at cluster!user!app!run!
     scan.setStartRow(startRow);
     // require that all results match this flow prefix
-    scan.setFilter(new WhileMatchFilter(new PrefixFilter(startRow)));
+    setFilter(scan, new WhileMatchFilter(new PrefixFilter(startRow)),
+        projection);
 
     List<Flow> flows = createFromResults(scan, populateTasks, 1);
     if (flows.size() > 0) {
@@ -164,6 +269,21 @@ public class JobHistoryService {
    */
   public Flow getFlowByJobID(String cluster, String jobId, boolean populateTasks)
       throws IOException {
+    return getFlowByJobID(cluster, jobId, populateTasks,
+        JobProjection.EVERYTHING);
+  }
+
+  /**
+   * Returns the {@link Flow} instance containing the given job ID.
+   * 
+   * @param cluster the cluster identifier
+   * @param jobId the job identifier
+   * @param populateTasks whether or not to populate the task details for each job
+   * @param projection the parts of each job to read
+   * @return
+   */
+  public Flow getFlowByJobID(String cluster, String jobId,
+      boolean populateTasks, JobProjection projection) throws IOException {
     Flow flow = null;
     JobKey key = idService.getJobKeyById(new QualifiedJobId(cluster, jobId));
     if (key != null) {
@@ -178,7 +298,8 @@ public class JobHistoryService {
       // start scanning history at cluster!user!app!run!
       scan.setStartRow(startRow);
       // require that all results match this flow prefix
-      scan.setFilter(new WhileMatchFilter(new PrefixFilter(startRow)));
+      setFilter(scan, new WhileMatchFilter(new PrefixFilter(startRow)),
+          projection);
 
       List<Flow> flows = createFromResults(scan, populateTasks, 1);
       if (flows.size() > 0) {
@@ -210,7 +331,35 @@ public class JobHistoryService {
    */
   public List<Flow> getFlowSeries(String cluster, String user, String appId,
       String version, boolean populateTasks, int limit) throws IOException {
-    // TODO: use RunMatchFilter to limit scan on the server side
+    return getFlowSeries(cluster, user, appId, version, populateTasks, limit,
+        JobProjection.EVERYTHING);
+  }
+
+  /**
+   * Returns the most recent {@link Flow} runs, up to {@code limit} instances.
+   * If the {@code version} parameter is non-null, the returned results will be
+   * restricted to those matching this app version.
+   * 
+   * @param cluster
+   *          the cluster where the jobs were run
+   * @param user
+   *          the user running the jobs
+   * @param appId
+   *          the application identifier for the jobs
+   * @param version
+   *          if non-null, only flows matching this application version will be
+   *          returned
+   * @param populateTasks
+   *          if {@code true}, then TaskDetails will be populated for each job
+   * @param limit
+   *          the maximum number of flows to return
+   * @param projection
+   *          the parts of each job to read
+   * @return
+   */
+  public List<Flow> getFlowSeries(String cluster, String user, String appId,
+      String version, boolean populateTasks, int limit,
+      JobProjection projection) throws IOException {
     byte[] rowPrefix = Bytes.toBytes(cluster + Constants.SEP + user
         + Constants.SEP + appId + Constants.SEP);
     Scan scan = new Scan();
@@ -218,19 +367,18 @@ public class JobHistoryService {
     // using a large scanner caching value with a small limit can mean we scan a lot more data than
     // necessary, so lower the caching for low limits
     scan.setCaching(Math.min(limit, defaultScannerCaching));
+    FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
     // require that all rows match the prefix we're looking for
-    Filter prefixFilter = new WhileMatchFilter(new PrefixFilter(rowPrefix));
+    filters.addFilter(new WhileMatchFilter(new PrefixFilter(rowPrefix)));
     // if version is passed, restrict the rows returned to that version
     if (version != null && version.length() > 0) {
-      FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
-      filters.addFilter(prefixFilter);
       filters.addFilter(new SingleColumnValueFilter(Constants.INFO_FAM_BYTES,
           Constants.VERSION_COLUMN_BYTES, CompareFilter.CompareOp.EQUAL, Bytes
               .toBytes(version)));
-      scan.setFilter(filters);
     } else {
-      scan.setFilter(prefixFilter);
+      addRunMatchFilter(filters, appId, limit);
     }
+    setFilter(scan, filters, projection);
 
     return createFromResults(scan, populateTasks, limit);
   }
@@ -264,6 +412,37 @@ public class JobHistoryService {
    */
   public List<Flow> getFlowTimeSeriesStats(String cluster, String user, String appId,
       String version, long startTime, long endTime, int limit, byte[] startRow) throws IOException {
+    return getFlowTimeSeriesStats(cluster, user, appId, version, startTime,
+        endTime, limit, startRow, JobProjection.NO_CONFIGURATION);
+  }
+
+  /**
+   * Returns the {@link Flow} runs' stats - summed up per flow
+   * If the {@code version} parameter is non-null, the returned results will be
+   * restricted to those matching this app version.
+   *
+   * @param cluster
+   *          the cluster where the jobs were run
+   * @param user
+   *          the user running the jobs
+   * @param appId
+   *          the application identifier for the jobs
+   * @param version
+   *          if non-null, only flows matching this application version will be
+   *          returned
+   * @param startTime
+   *          the start time for the flows to be looked at
+   * @param endTime
+   *          the end time for the flows to be looked at
+   * @param limit
+   *          the maximum number of flows to return
+   * @param projection
+   *          the parts of each job to read
+   * @return
+   */
+  public List<Flow> getFlowTimeSeriesStats(String cluster, String user,
+      String appId, String version, long startTime, long endTime, int limit,
+      byte[] startRow, JobProjection projection) throws IOException {
 
     // app portion of row key
     byte[] rowPrefix = Bytes.toBytes((cluster + Constants.SEP + user + Constants.SEP
@@ -282,7 +461,6 @@ public class JobHistoryService {
       }
     }
 
-    // TODO: use RunMatchFilter to limit scan on the server side
     Scan scan = new Scan();
     scan.setStartRow(scanStartRow);
     FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
@@ -304,15 +482,11 @@ public class JobHistoryService {
       filters.addFilter(new SingleColumnValueFilter(Constants.INFO_FAM_BYTES,
           Constants.VERSION_COLUMN_BYTES, CompareFilter.CompareOp.EQUAL, Bytes
               .toBytes(version)));
+    } else {
+      addRunMatchFilter(filters, appId, limit);
     }
 
-    // always ignore job configuration data
-    filters.addFilter(
-        new QualifierFilter(CompareFilter.CompareOp.NOT_EQUAL,
-            new BinaryPrefixComparator(
-                Bytes.add(Constants.JOB_CONF_COLUMN_PREFIX_BYTES, Constants.SEP_BYTES))));
-
-    scan.setFilter(filters);
+    setFilter(scan, filters, projection);
 
     return createFromResults(scan, false, limit);
   }
@@ -349,7 +523,7 @@ public class JobHistoryService {
     JobKey key = idService.getJobKeyById(jobId);
     if (key != null) {
       byte[] historyKey = jobKeyConv.toBytes(key);
-      Result result = historyTable.get(new Get(historyKey));
+      Result result = getHistory(new Get(historyKey));
       if (result != null && !result.isEmpty()) {
         job = new JobDetails(key);
         job.populate(result);
@@ -361,6 +535,44 @@ public class JobHistoryService {
     return job;
   }
 
+  /**
+   * Stops the scan on the region server once rows of {@code limit} runs have
+   * been returned. The rows of flows with an empty run ID are all counted as
+   * the same run, that only lets more rows through. Must not be combined with
+   * filters that drop rows based on their columns: dropped rows would count
+   * towards the limit.
+   *
+   * @param filters the filters of the scan
+   * @param appId the application identifier for the jobs
+   * @param limit the maximum number of flows to return
+   */
+  private void addRunMatchFilter(FilterList filters, String appId, int limit) {
+    if (runMatchFilterEnabled) {
+      filters.addFilter(new RunMatchFilter(appId, limit));
+    }
+  }
+
+  /**
+   * Sets the filter of a job_history scan, restricted to the columns of the
+   * projection.
+   * 
+   * @param scan the scan to set the filter of
+   * @param rowFilter selects the rows to return
+   * @param projection the parts of each job to read
+   */
+  static void setFilter(Scan scan, Filter rowFilter, JobProjection projection) {
+    Filter columnFilter = projection.getFilter();
+    if (columnFilter == null) {
+      scan.setFilter(rowFilter);
+    } else {
+      scan.addFamily(Constants.INFO_FAM_BYTES);
+      FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+      filters.addFilter(rowFilter);
+      filters.addFilter(columnFilter);
+      scan.setFilter(filters);
+    }
+  }
+
   /**
    * Returns a list of {@link Flow} instances generated from the given results.
    * For the moment, this assumes that the given scanner provides results
@@ -374,17 +586,20 @@ public class JobHistoryService {
       int maxCount) throws IOException {
     List<Flow> flows = new ArrayList<Flow>();
     ResultScanner scanner = null;
+    HTableInterface historyTable = tables
+        .getTable(Constants.HISTORY_TABLE_BYTES);
     try {
       Stopwatch timer = new Stopwatch().start();
       int rowCount = 0;
       long colCount = 0;
       scanner = historyTable.getScanner(scan);
       Flow currentFlow = null;
+      JobKeyView row = new JobKeyView();
       for (Result result : scanner) {
         if (result != null && !result.isEmpty()) {
           rowCount++;
           colCount += result.size();
-          JobKey currentKey = jobKeyConv.fromBytes(result.getRow());
+          JobKey currentKey = row.set(result.raw()[0]).toJobKey();
           // empty runId is special cased -- we need to treat each job as it's own flow
           if (currentFlow == null || !currentFlow.contains(currentKey) ||
               currentKey.getRunId() == 0) {
@@ -406,6 +621,7 @@ public class JobHistoryService {
       if (scanner != null) {
         scanner.close();
       }
+      tables.putTable(historyTable);
     }
 
     if (populateTasks) {
@@ -416,9 +632,9 @@ public class JobHistoryService {
   }
 
   /**
-   * Populate the task details for the jobs in the given flows. <strong>Note
-   * that all flows are expected to share the same cluster, user, and
-   * appId.</strong>
+   * Populate the task details for the jobs in the given flows. With a task
+   * scan executor each job is read with a scan of its own, up to
+   * {@link Constants#TASK_SCAN_PARALLELISM_CONF_KEY} of them at a time.
    * 
    * @param flows
    */
@@ -426,6 +642,80 @@ public class JobHistoryService {
     if (flows == null || flows.size() == 0) {
       return;
     }
+    List<JobDetails> jobs = new ArrayList<JobDetails>();
+    for (Flow f : flows) {
+      jobs.addAll(f.getJobs());
+    }
+    if (this.taskScanExecutor == null || jobs.size() < 2) {
+      populateTasksSequentially(flows);
+    } else {
+      populateTasksInParallel(jobs);
+    }
+  }
+
+  /**
+   * Reads the tasks of each job with a scan of its own on the task scan
+   * executor. No more than {@link #taskScanParallelism} scans are submitted
+   * at a time. The tasks are added to the jobs by this thread, so the jobs are
+   * never touched concurrently. Once a scan fails the scans not yet started
+   * are cancelled and the failure is rethrown.
+   * 
+   * @param jobs the jobs to populate the tasks of
+   */
+  private void populateTasksInParallel(List<JobDetails> jobs)
+      throws IOException {
+    Stopwatch timer = new Stopwatch().start();
+    CompletionService<List<TaskDetails>> scans =
+        new ExecutorCompletionService<List<TaskDetails>>(this.taskScanExecutor);
+    Map<Future<List<TaskDetails>>, JobDetails> running =
+        new HashMap<Future<List<TaskDetails>>, JobDetails>();
+    int submitted = 0;
+    int taskCount = 0;
+    try {
+      while (submitted < jobs.size() || !running.isEmpty()) {
+        while (submitted < jobs.size()
+            && running.size() < this.taskScanParallelism) {
+          final JobDetails job = jobs.get(submitted++);
+          running.put(scans.submit(new Callable<List<TaskDetails>>() {
+            @Override
+            public List<TaskDetails> call() throws IOException {
+              return scanTasks(job.getJobKey());
+            }
+          }), job);
+        }
+        Future<List<TaskDetails>> done = scans.take();
+        JobDetails job = running.remove(done);
+        for (TaskDetails task : done.get()) {
+          job.addTask(task);
+        }
+        taskCount += job.getTasks().size();
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted reading the tasks of " + jobs.size()
+          + " jobs", ie);
+    } catch (ExecutionException ee) {
+      Throwables.propagateIfPossible(ee.getCause(), IOException.class);
+      throw new IOException("Failed to read the tasks of " + jobs.size()
+          + " jobs", ee.getCause());
+    } finally {
+      for (Future<List<TaskDetails>> scan : running.keySet()) {
+        scan.cancel(true);
+      }
+    }
+    timer.stop();
+    LOG.debug("Fetched " + taskCount + " tasks of " + jobs.size()
+        + " jobs in " + timer);
+  }
+
+  /**
+   * Populate the task details for the jobs in the given flows, with a single
+   * scan. <strong>Note that all flows are expected to share the same cluster,
+   * user, and appId.</strong>
+   * 
+   * @param flows
+   */
+  private void populateTasksSequentially(List<Flow> flows) throws IOException {
 
     // for simplicity, we assume that flows are ordered and consecutive
     JobKey startJob = null;
@@ -449,25 +739,31 @@ public class JobHistoryService {
     // expect a lot of tasks on average
     scan.setCaching(500);
 
-    ResultScanner scanner = this.taskTable.getScanner(scan);
+    HTableInterface taskTable = tables
+        .getTable(Constants.HISTORY_TASK_TABLE_BYTES);
+    ResultScanner scanner = null;
     try {
+      scanner = taskTable.getScanner(scan);
+      JobKeyView row = new JobKeyView();
       Result currentResult = scanner.next();
       for (Flow f : flows) {
         for (JobDetails j : f.getJobs()) {
+          byte[] jobRow = jobKeyConv.toBytes(j.getJobKey());
           // within each job we advance through the scanner til we pass keys
           // matching the current job
           while (currentResult != null && !currentResult.isEmpty()) {
-            TaskKey taskKey = taskKeyConv.fromBytes(currentResult.getRow());
-            // see if this task belongs to the current job
-            int comparison = j.getJobKey().compareTo(taskKey);
-            if (comparison < 0) {
+            // see if this task belongs to the current job, only the task id
+            // is decoded and only for the tasks that do
+            int comparison = row.set(currentResult.raw()[0]).compareJobKey(
+                jobRow);
+            if (comparison > 0) {
               // advance to next job (without advancing current result)
               break;
-            } else if (comparison > 0) {
+            } else if (comparison < 0) {
               // advance tasks up to current job
             } else {
               // belongs to the current job
-              TaskDetails task = new TaskDetails(taskKey);
+              TaskDetails task = new TaskDetails(row.toTaskKey(j.getJobKey()));
               task.populate(currentResult
                   .getFamilyMap(Constants.INFO_FAM_BYTES));
               j.addTask(task);
@@ -481,7 +777,10 @@ public class JobHistoryService {
         }
       }
     } finally {
-      scanner.close();
+      if (scanner != null) {
+        scanner.close();
+      }
+      tables.putTable(taskTable);
     }
   }
 
@@ -491,29 +790,48 @@ public class JobHistoryService {
    * @param job
    */
   private void populateTasks(JobDetails job) throws IOException {
-    // TODO: see if we can merge common logic here with populateTasks(List<Flow>)
-    Scan scan = getTaskScan(job.getJobKey());
-    ResultScanner scanner = this.taskTable.getScanner(scan);
+    for (TaskDetails task : scanTasks(job.getJobKey())) {
+      job.addTask(task);
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Added " + job.getTasks().size() + " tasks to job "
+          + job.getJobKey().toString());
+    }
+  }
+
+  /**
+   * Reads the tasks of a single job.
+   * @param jobKey the job to read the tasks of
+   * @return the tasks of the job, in row key order
+   */
+  private List<TaskDetails> scanTasks(JobKey jobKey) throws IOException {
+    List<TaskDetails> tasks = new ArrayList<TaskDetails>();
+    HTableInterface taskTable = tables
+        .getTable(Constants.HISTORY_TASK_TABLE_BYTES);
+    ResultScanner scanner = null;
     try {
+      scanner = taskTable.getScanner(getTaskScan(jobKey));
+      JobKeyView row = new JobKeyView();
       // advance through the scanner til we pass keys matching the job
       for (Result currentResult : scanner) {
         if (currentResult == null || currentResult.isEmpty()) {
           break;
         }
 
-        TaskKey taskKey = taskKeyConv.fromBytes(currentResult.getRow());
-        TaskDetails task = new TaskDetails(taskKey);
+        // the scan only returns tasks of this job
+        TaskDetails task = new TaskDetails(row.set(currentResult.raw()[0])
+            .toTaskKey(jobKey));
         task.populate(currentResult
             .getFamilyMap(Constants.INFO_FAM_BYTES));
-        job.addTask(task);
-      }
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("Added " + job.getTasks().size() + " tasks to job "
-            + job.getJobKey().toString());
+        tasks.add(task);
       }
     } finally {
-      scanner.close();
+      if (scanner != null) {
+        scanner.close();
+      }
+      tables.putTable(taskTable);
     }
+    return tasks;
   }
 
   /**
@@ -535,15 +853,16 @@ public class JobHistoryService {
 
   /**
    * Converts serialized configuration properties back in to a Configuration
-   * object.
+   * object. Properties can be stored as separate columns, as a
+   * {@link JobConfBlob}, or both.
    * 
    * @param keyValues
    * @return
    */
   public static Configuration parseConfiguration(Map<byte[], byte[]> keyValues) {
     Configuration config = new Configuration(false);
-    byte[] configPrefix = Bytes.add(Constants.JOB_CONF_COLUMN_PREFIX_BYTES,
-        Constants.SEP_BYTES);
+    byte[] configPrefix =
+        Constants.JOB_CONF_PROPERTY_COLUMN_PREFIX_BYTES;
     for (Map.Entry<byte[], byte[]> entry : keyValues.entrySet()) {
       byte[] key = entry.getKey();
       if (Bytes.startsWith(key, configPrefix)
@@ -553,9 +872,72 @@ public class JobHistoryService {
       }
     }
 
+    byte[] blob = keyValues.get(Constants.JOB_CONF_BLOB_COLUMN_BYTES);
+    if (blob != null) {
+      addJobConfBlob(config, blob, 0, blob.length);
+    }
+
     return config;
   }
 
+  /**
+   * Sets all the properties held by a {@link JobConfBlob} in the given
+   * configuration, replacing any previous values.
+   *
+   * @param config the configuration to add the properties to
+   * @param buffer holding the blob
+   * @param offset where the blob starts in the buffer
+   * @param length the length of the blob
+   * @throws IllegalArgumentException if the blob cannot be decoded
+   */
+  public static void addJobConfBlob(Configuration config, byte[] buffer,
+      int offset, int length) {
+    try {
+      for (Map.Entry<String, String> property : JobConfBlob.decode(buffer,
+          offset, length).entrySet()) {
+        config.set(property.getKey(), property.getValue());
+      }
+    } catch (IOException ioe) {
+      throw new IllegalArgumentException("Malformed job configuration blob",
+          ioe);
+    }
+  }
+
+  /**
+   * Reads a single job configuration property, without fetching the rest of
+   * the job configuration where possible.
+   * 
+   * @param key the job to read the property for
+   * @param name the name of the property
+   * @return the raw value of the property, or {@code null} if the job or the
+   *         property does not exist
+   * @throws IOException
+   */
+  public String getJobConfValue(JobKey key, String name) throws IOException {
+    byte[] column = Bytes.add(Constants.JOB_CONF_PROPERTY_COLUMN_PREFIX_BYTES,
+        Bytes.toBytes(name));
+    Get get = new Get(jobKeyConv.toBytes(key));
+    get.addColumn(Constants.INFO_FAM_BYTES, column);
+    Result result = getHistory(get);
+    byte[] value = result.getValue(Constants.INFO_FAM_BYTES, column);
+    if (value != null) {
+      return Bytes.toString(value);
+    }
+
+    // not stored separately, look in the blob
+    get = new Get(jobKeyConv.toBytes(key));
+    get.addColumn(Constants.INFO_FAM_BYTES,
+        Constants.JOB_CONF_BLOB_COLUMN_BYTES);
+    result = getHistory(get);
+    KeyValue blob = result.getColumnLatest(Constants.INFO_FAM_BYTES,
+        Constants.JOB_CONF_BLOB_COLUMN_BYTES);
+    if (blob == null) {
+      return null;
+    }
+    return JobConfBlob.get(blob.getBuffer(), blob.getValueOffset(),
+        blob.getValueLength(), name);
+  }
+
   /**
    * Converts encoded key values back into counter objects.
    * 
@@ -570,24 +952,46 @@ public class JobHistoryService {
       byte[] key = entry.getKey();
       if (Bytes.startsWith(key, counterPrefix)
           && key.length > counterPrefix.length) {
-        // qualifier should be in the format: g!countergroup!counterkey
-        byte[][] qualifierFields = ByteUtil.split(
-            Bytes.tail(key, key.length - counterPrefix.length),
-            Constants.SEP_BYTES);
-        if (qualifierFields.length != 2) {
-          throw new IllegalArgumentException(
-              "Malformed column qualifier for counter value: "
-                  + Bytes.toStringBinary(key));
-        }
-        Counter c = new Counter(Bytes.toString(qualifierFields[0]),
-            Bytes.toString(qualifierFields[1]), Bytes.toLong(entry.getValue()));
-        counterValues.add(c);
+        addCounter(counterValues, key, 0, key.length, counterPrefix.length,
+            Bytes.toLong(entry.getValue()));
       }
     }
 
+    counterValues.trimToSize();
     return counterValues;
   }
 
+  /**
+   * Decodes the group and name of a counter from its column qualifier, and
+   * adds the counter to the given map.
+   *
+   * @param counters the map to add the counter to
+   * @param buffer holding the column qualifier
+   * @param offset where the qualifier starts in the buffer
+   * @param length the length of the qualifier
+   * @param prefixLength the length of the counter prefix, including the
+   *          separator, which the qualifier starts with
+   * @param value the value of the counter
+   * @throws IllegalArgumentException if the qualifier is malformed
+   */
+  public static void addCounter(CounterMap counters, byte[] buffer,
+      int offset, int length, int prefixLength, long value) {
+    // qualifier should be in the format: g!countergroup!counterkey
+    int groupStart = offset + prefixLength;
+    int end = offset + length;
+    int groupEnd = ByteUtil.indexOf(buffer, Constants.SEP_BYTES, groupStart,
+        end);
+    int nameStart = groupEnd + Constants.SEP_BYTES.length;
+    if (groupEnd < 0
+        || ByteUtil.indexOf(buffer, Constants.SEP_BYTES, nameStart, end) >= 0) {
+      throw new IllegalArgumentException(
+          "Malformed column qualifier for counter value: "
+              + Bytes.toStringBinary(buffer, offset, length));
+    }
+    counters.add(Bytes.toString(buffer, groupStart, groupEnd - groupStart),
+        Bytes.toString(buffer, nameStart, end - nameStart), value);
+  }
+
   /**
    * Returns the HBase {@code Put} instances to store for the given
    * {@code Configuration} data. Each configuration property will be stored as a
@@ -600,6 +1004,70 @@ public class JobHistoryService {
    * @return puts for the given job configuration
    */
   public static List<Put> getHbasePuts(JobDesc jobDesc, Configuration jobConf) {
+    return getHbasePuts(jobDesc, JobConfProperties.fromConfiguration(jobConf));
+  }
+
+  /**
+   * Returns the HBase {@code Put} instances to store for the given job
+   * configuration properties. Each property will be stored, as is, as a
+   * separate key value.
+   * 
+   * @param jobDesc
+   *          the {@link JobDesc} generated for the job
+   * @param jobConf
+   *          the properties of the job configuration
+   * @return puts for the given job configuration
+   */
+  public static List<Put> getHbasePuts(JobDesc jobDesc,
+      JobConfProperties jobConf) {
+    return getHbasePuts(jobDesc, jobConf, null);
+  }
+
+  /**
+   * Returns the HBase {@code Put} instances to store for the given job
+   * configuration properties, stored as configured by
+   * {@link Constants#JOB_CONF_STORAGE_CONF_KEY}: each property as a separate
+   * key value, or all of them in a single {@link JobConfBlob} plus the
+   * properties listed in {@link Constants#JOB_CONF_BLOB_HOT_KEYS_CONF_KEY} as
+   * separate key values.
+   * 
+   * @param jobDesc
+   *          the {@link JobDesc} generated for the job
+   * @param jobConf
+   *          the properties of the job configuration
+   * @param hRavenConf
+   *          the hRaven configuration, if {@code null} each property is stored
+   *          separately
+   * @return puts for the given job configuration
+   * @throws IllegalArgumentException
+   *           if the configured storage is unknown
+   */
+  public static List<Put> getHbasePuts(JobDesc jobDesc,
+      JobConfProperties jobConf, Configuration hRavenConf) {
+    return getHbasePuts(jobDesc, jobConf, isJobConfBlobStorage(hRavenConf),
+        getJobConfHotKeys(hRavenConf));
+  }
+
+  /**
+   * Returns the HBase {@code Put} instances to store for the given job
+   * configuration properties, stored as resolved once by the caller with
+   * {@link #isJobConfBlobStorage(Configuration)} and
+   * {@link #getJobConfHotKeys(Configuration)} rather than for every job.
+   * 
+   * @param jobDesc
+   *          the {@link JobDesc} generated for the job
+   * @param jobConf
+   *          the properties of the job configuration
+   * @param blobStorage
+   *          whether to store the properties as a {@link JobConfBlob} rather
+   *          than each as a separate key value
+   * @param hotKeys
+   *          the properties to store as separate key values next to the
+   *          {@link JobConfBlob}
+   * @return puts for the given job configuration
+   */
+  public static List<Put> getHbasePuts(JobDesc jobDesc,
+      JobConfProperties jobConf, boolean blobStorage, Set<String> hotKeys) {
     List<Put> puts = new LinkedList<Put>();
 
     JobKey jobKey = new JobKey(jobDesc);
@@ -613,18 +1081,29 @@ public class JobHistoryService {
         Bytes.toBytes(jobDesc.getFramework().toString()));
 
     // Avoid doing string to byte conversion inside loop.
-    byte[] jobConfColumnPrefix = Bytes.toBytes(Constants.JOB_CONF_COLUMN_PREFIX
-        + Constants.SEP);
+    byte[] jobConfColumnPrefix =
+        Constants.JOB_CONF_PROPERTY_COLUMN_PREFIX_BYTES;
 
-    // Create puts for all the parameters in the job configuration
-    Iterator<Entry<String, String>> jobConfIterator = jobConf.iterator();
-    while (jobConfIterator.hasNext()) {
-      Entry<String, String> entry = jobConfIterator.next();
-      // Prefix the job conf entry column with an indicator to
-      byte[] column = Bytes.add(jobConfColumnPrefix,
-          Bytes.toBytes(entry.getKey()));
-      jobPut.add(Constants.INFO_FAM_BYTES, column,
-          Bytes.toBytes(entry.getValue()));
+    if (blobStorage) {
+      jobPut.add(Constants.INFO_FAM_BYTES,
+          Constants.JOB_CONF_BLOB_COLUMN_BYTES, JobConfBlob.encode(jobConf));
+      for (String name : hotKeys) {
+        String value = jobConf.getRaw(name);
+        if (value != null) {
+          jobPut.add(Constants.INFO_FAM_BYTES,
+              Bytes.add(jobConfColumnPrefix, Bytes.toBytes(name)),
+              Bytes.toBytes(value));
+        }
+      }
+    } else {
+      // Create puts for all the parameters in the job configuration
+      for (Entry<String, String> entry : jobConf) {
+        // Prefix the job conf entry column with an indicator to
+        byte[] column = Bytes.add(jobConfColumnPrefix,
+            Bytes.toBytes(entry.getKey()));
+        jobPut.add(Constants.INFO_FAM_BYTES, column,
+            Bytes.toBytes(entry.getValue()));
+      }
     }
 
     puts.add(jobPut);
@@ -632,6 +1111,49 @@ public class JobHistoryService {
     return puts;
   }
 
+  /**
+   * @param hRavenConf the hRaven configuration, may be {@code null}
+   * @return whether job configurations are to be stored as a
+   *         {@link JobConfBlob}
+   * @throws IllegalArgumentException
+   *           if {@link Constants#JOB_CONF_STORAGE_CONF_KEY} is set to neither
+   *           {@link Constants#JOB_CONF_STORAGE_COLUMNS} nor
+   *           {@link Constants#JOB_CONF_STORAGE_BLOB}
+   */
+  public static boolean isJobConfBlobStorage(Configuration hRavenConf) {
+    if (hRavenConf == null) {
+      return false;
+    }
+    String storage = hRavenConf.get(Constants.JOB_CONF_STORAGE_CONF_KEY,
+        Constants.JOB_CONF_STORAGE_COLUMNS);
+    if (Constants.JOB_CONF_STORAGE_BLOB.equalsIgnoreCase(storage)) {
+      return true;
+    } else if (!Constants.JOB_CONF_STORAGE_COLUMNS.equalsIgnoreCase(storage)) {
+      throw new IllegalArgumentException("Unknown value " + storage + " for "
+          + Constants.JOB_CONF_STORAGE_CONF_KEY);
+    }
+    return false;
+  }
+
+  /**
+   * @param hRavenConf the hRaven configuration, may be {@code null}
+   * @return the job configuration properties that are stored as separate
+   *         columns next to the {@link JobConfBlob}
+   */
+  public static Set<String> getJobConfHotKeys(Configuration hRavenConf) {
+    Set<String> hotKeys = new LinkedHashSet<String>();
+    if (hRavenConf != null) {
+      for (String name : hRavenConf.getStringCollection(
+          Constants.JOB_CONF_BLOB_HOT_KEYS_CONF_KEY)) {
+        name = name.trim();
+        if (name.length() > 0) {
+          hotKeys.add(name);
+        }
+      }
+    }
+    return hotKeys;
+  }
+
   /**
    * Removes the job's row from the job_history table, and all related task rows
    * from the job_history_task table.
@@ -641,9 +1163,15 @@ public class JobHistoryService {
    */
   public int removeJob(JobKey key) throws IOException {
     byte[] jobRow = jobKeyConv.toBytes(key);
-     
-    historyTable.delete(new Delete(jobRow));
-    
+
+    HTableInterface historyTable = tables
+        .getTable(Constants.HISTORY_TABLE_BYTES);
+    try {
+      historyTable.delete(new Delete(jobRow));
+    } finally {
+      tables.putTable(historyTable);
+    }
+
     int deleteCount = 1;
 
     // delete all task rows
@@ -654,13 +1182,16 @@ public class JobHistoryService {
     // no reason to cache rows we're deleting
     taskScan.setCacheBlocks(false);
     List<Delete> taskDeletes = new ArrayList<Delete>();
-    ResultScanner scanner = taskTable.getScanner(taskScan);
+    HTableInterface taskTable = tables
+        .getTable(Constants.HISTORY_TASK_TABLE_BYTES);
+    ResultScanner scanner = null;
     try {
+      scanner = taskTable.getScanner(taskScan);
+      JobKeyView row = new JobKeyView();
       for (Result r : scanner) {
         if (r != null && !r.isEmpty()) {
           byte[] rowKey = r.getRow();
-          TaskKey taskKey = taskKeyConv.fromBytes(rowKey);
-          if (!key.equals(taskKey)) {
+          if (row.set(rowKey, 0, rowKey.length).compareJobKey(jobRow) != 0) {
             LOG.warn("Found task not in the current job "+Bytes.toStringBinary(rowKey));
             break;
           }
@@ -674,44 +1205,37 @@ public class JobHistoryService {
         taskTable.delete(taskDeletes);
       }
     } finally {
-      scanner.close();
+      if (scanner != null) {
+        scanner.close();
+      }
+      tables.putTable(taskTable);
     }
     return deleteCount;
   }
 
+  /**
+   * Reads from the job_history table with a table of the pool.
+   */
+  private Result getHistory(Get get) throws IOException {
+    HTableInterface historyTable = tables
+        .getTable(Constants.HISTORY_TABLE_BYTES);
+    try {
+      return historyTable.get(get);
+    } finally {
+      tables.putTable(historyTable);
+    }
+  }
+
   /**
    * Cleans up the internal HBase table instances. This should always be called
-   * when the service instance is being released.
+   * when the service instance is being released. Tables from a pool passed in
+   * are left to its owner.
    * 
    * @throws IOException
    */
   public void close() throws IOException {
-    IOException caught = null;
-    if (this.historyTable != null) {
-      try {
-        this.historyTable.close();
-      } catch (IOException ioe) {
-        caught = ioe;
-      }
-    }
-    if (this.idService != null) {
-      try {
-        this.idService.close();
-      } catch (IOException ioe) {
-        // TODO: don't overwrite a previous exception
-        caught = ioe;
-      }
-    }
-    if (this.taskTable != null) {
-      try {
-        this.taskTable.close();
-      } catch (IOException ioe) {
-        // TODO: don't overwrite a previous exception
-        caught = ioe;
-      }
-    }
-    if (caught != null) {
-      throw caught;
+    if (this.closeTables) {
+      this.tables.close();
     }
   }
 }
@@ -56,9 +56,20 @@ public class JobKeyConverter implements ByteConverter<JobKey> {
    */
   @Override
   public JobKey fromBytes(byte[] bytes) {
-    byte[][] splits = splitJobKey(bytes);
-    // no combined runId + jobId, parse as is
-    return parseJobKey(splits);
+    return fromBytes(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Decodes a JobKey held in part of a larger buffer, such as the row of a
+   * {@code KeyValue}, without copying the key components out first.
+   *
+   * @param bytes the buffer holding the serialized JobKey
+   * @param offset where the key starts in the buffer
+   * @param length the length of the key
+   * @return a deserialized JobKey instance
+   */
+  public JobKey fromBytes(byte[] bytes, int offset, int length) {
+    return new JobKeyView(false).set(bytes, offset, length).toJobKey();
   }
 
   /**
@@ -0,0 +1,298 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.datasource;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.JobKey;
+import com.twitter.hraven.QualifiedJobId;
+import com.twitter.hraven.TaskKey;
+import com.twitter.hraven.util.ByteUtil;
+
+/**
+ * A reusable, read only view of a job_history or job_history_task row key
+ * (cluster!user!appId!encodedRunId!jobId[!taskId]) sitting somewhere in a
+ * larger buffer, such as the backing array of a {@link KeyValue}. Pointing
+ * the view at a row only locates the key components, nothing is copied or
+ * decoded until asked for.
+ * <p>
+ * Successive rows of a scan mostly share their cluster, user and appId. A view
+ * remembers the last string it decoded for each of them, and hands out the
+ * same instance as long as the bytes do not change.
+ * <p>
+ * Row keys are decoded exactly like {@link JobKeyConverter#fromBytes(byte[])}
+ * does, including keys with missing trailing components. Instances are not
+ * thread safe.
+ */
+public class JobKeyView {
+  private static final int SEP_LENGTH = Constants.SEP_BYTES.length;
+  private static final int RUN_ID_LENGTH = Bytes.SIZEOF_LONG;
+  private static final int JOB_ID_LENGTH = 2 * Bytes.SIZEOF_LONG;
+
+  private static final int CLUSTER = 0;
+  private static final int USER = 1;
+  private static final int APP = 2;
+
+  private final boolean reuseStrings;
+  private final byte[][] lastBytes;
+  private final int[] lastLengths;
+  private final String[] lastStrings;
+
+  private byte[] buffer;
+  private int offset;
+  private int end;
+
+  /** bounds of the cluster, user and appId components, [start, end) */
+  private int clusterEnd;
+  private int userStart;
+  private int userEnd;
+  private int appStart;
+  private int appEnd;
+
+  /** start of the encoded run id */
+  private int runStart;
+
+  /**
+   * number of components present, as in the length of the array returned by
+   * {@link JobKeyConverter#splitJobKey(byte[])}
+   */
+  private int componentCount;
+
+  public JobKeyView() {
+    this(true);
+  }
+
+  /**
+   * @param reuseStrings whether to hand out the previously decoded cluster,
+   *          user and appId strings if they have not changed
+   */
+  JobKeyView(boolean reuseStrings) {
+    this.reuseStrings = reuseStrings;
+    if (reuseStrings) {
+      lastBytes = new byte[3][];
+      lastLengths = new int[3];
+      lastStrings = new String[3];
+    } else {
+      lastBytes = null;
+      lastLengths = null;
+      lastStrings = null;
+    }
+  }
+
+  /**
+   * Points this view at the row of the given {@code KeyValue}, without copying
+   * it.
+   * @return this view
+   */
+  public JobKeyView set(KeyValue kv) {
+    return set(kv.getBuffer(), kv.getRowOffset(), kv.getRowLength());
+  }
+
+  /**
+   * Points this view at the row key held in {@code buffer[offset, offset +
+   * length)}. The buffer must not be changed while the view is in use.
+   * @return this view
+   */
+  public JobKeyView set(byte[] buffer, int offset, int length) {
+    this.buffer = buffer;
+    this.offset = offset;
+    this.end = offset + length;
+    this.componentCount = 1;
+
+    // cluster!user!appId, the encoded run id that follows may itself contain
+    // the separator so it is located by length alone
+    clusterEnd = indexOfSeparator(offset);
+    if (clusterEnd < 0) {
+      clusterEnd = end;
+      return this;
+    }
+    componentCount++;
+    userStart = clusterEnd + SEP_LENGTH;
+    userEnd = indexOfSeparator(userStart);
+    if (userEnd < 0) {
+      userEnd = end;
+      return this;
+    }
+    componentCount++;
+    appStart = userEnd + SEP_LENGTH;
+    appEnd = indexOfSeparator(appStart);
+    if (appEnd < 0) {
+      appEnd = end;
+      return this;
+    }
+
+    // the run id, job id and task id follow at fixed offsets, and are only
+    // there if the remainder of the key is long enough to hold them
+    runStart = appEnd + SEP_LENGTH;
+    int remainder = end - runStart;
+    if (remainder >= RUN_ID_LENGTH) {
+      componentCount++;
+      if (remainder >= RUN_ID_LENGTH + SEP_LENGTH + JOB_ID_LENGTH) {
+        componentCount++;
+        if (remainder >= RUN_ID_LENGTH + SEP_LENGTH + JOB_ID_LENGTH
+            + SEP_LENGTH) {
+          componentCount++;
+        }
+      }
+    }
+    return this;
+  }
+
+  private int indexOfSeparator(int from) {
+    return ByteUtil.indexOf(buffer, Constants.SEP_BYTES, from, end);
+  }
+
+  public String getCluster() {
+    return decode(CLUSTER, offset, clusterEnd);
+  }
+
+  /**
+   * @return the user name, or {@code null} if the key does not have one
+   */
+  public String getUserName() {
+    return componentCount > USER ? decode(USER, userStart, userEnd) : null;
+  }
+
+  /**
+   * @return the appId, or {@code null} if the key does not have one
+   */
+  public String getAppId() {
+    return componentCount > APP ? decode(APP, appStart, appEnd) : null;
+  }
+
+  /**
+   * @return the encoded run id, or {@link Long#MAX_VALUE} if the key does not
+   *         have one
+   */
+  public long getEncodedRunId() {
+    return componentCount > 3 ? Bytes.toLong(buffer, runStart)
+        : Long.MAX_VALUE;
+  }
+
+  public long getRunId() {
+    return Long.MAX_VALUE - getEncodedRunId();
+  }
+
+  public boolean hasJobId() {
+    return componentCount > 4;
+  }
+
+  /**
+   * @return the epoch of the job id, or 0 if the key does not have a job id
+   */
+  public long getJobEpoch() {
+    return hasJobId() ? Bytes.toLong(buffer, jobIdStart()) : 0L;
+  }
+
+  /**
+   * @return the sequence of the job id, or 0 if the key does not have a job id
+   */
+  public long getJobSequence() {
+    return hasJobId() ? Bytes.toLong(buffer, jobIdStart() + Bytes.SIZEOF_LONG)
+        : 0L;
+  }
+
+  /**
+   * @return the task id of a job_history_task row, or {@code null} if the key
+   *         does not have one. This is decoded anew on every call.
+   */
+  public String getTaskId() {
+    if (componentCount > 5) {
+      int start = jobIdStart() + JOB_ID_LENGTH + SEP_LENGTH;
+      return Bytes.toString(buffer, start, end - start);
+    }
+    return null;
+  }
+
+  private int jobIdStart() {
+    return runStart + RUN_ID_LENGTH + SEP_LENGTH;
+  }
+
+  /**
+   * @return the length of the job portion of the key, which is everything up
+   *         to and including the job id, or the whole key if it has no job id
+   */
+  public int getJobKeyLength() {
+    return hasJobId() ? jobIdStart() + JOB_ID_LENGTH - offset : end - offset;
+  }
+
+  /**
+   * Compares the job portion of the key to the given serialized job key,
+   * ignoring any task id. The comparison is done on the bytes, which is the
+   * order the rows are stored in.
+   *
+   * @param jobKey as returned by {@link JobKeyConverter#toBytes(JobKey)}
+   * @return 0 if this key belongs to the given job, less than 0 if it sorts
+   *         before it, more than 0 if it sorts after it
+   */
+  public int compareJobKey(byte[] jobKey) {
+    return Bytes.compareTo(buffer, offset, getJobKeyLength(), jobKey, 0,
+        jobKey.length);
+  }
+
+  /**
+   * @return a new JobKey holding the components of this key
+   */
+  public JobKey toJobKey() {
+    return new JobKey(new QualifiedJobId(getCluster(), getJobEpoch(),
+        getJobSequence()), getUserName(), getAppId(), getRunId());
+  }
+
+  /**
+   * @return a new TaskKey holding the components of this key
+   */
+  public TaskKey toTaskKey() {
+    return toTaskKey(toJobKey());
+  }
+
+  /**
+   * @param jobKey the already decoded key of the job this task belongs to
+   * @return a new TaskKey for this key's task id within the given job
+   */
+  public TaskKey toTaskKey(JobKey jobKey) {
+    return new TaskKey(jobKey, getTaskId());
+  }
+
+  private String decode(int component, int start, int componentEnd) {
+    int length = componentEnd - start;
+    if (!reuseStrings) {
+      return Bytes.toString(buffer, start, length);
+    }
+
+    byte[] last = lastBytes[component];
+    if (last != null
+        && Bytes.equals(last, 0, lastLengths[component], buffer, start, length)) {
+      return lastStrings[component];
+    }
+    if (last == null || last.length < length) {
+      last = new byte[Math.max(length, 32)];
+      lastBytes[component] = last;
+    }
+    System.arraycopy(buffer, start, last, 0, length);
+    lastLengths[component] = length;
+    String decoded = Bytes.toString(buffer, start, length);
+    lastStrings[component] = decoded;
+    return decoded;
+  }
+
+  @Override
+  public String toString() {
+    return buffer == null ? "JobKeyView[]" : "JobKeyView["
+        + Bytes.toStringBinary(buffer, offset, end - offset) + "]";
+  }
+}
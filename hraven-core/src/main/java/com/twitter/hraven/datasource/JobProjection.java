@@ -0,0 +1,262 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.datasource;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.BinaryPrefixComparator;
+import org.apache.hadoop.hbase.filter.ColumnPrefixFilter;
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.QualifierFilter;
+import org.apache.hadoop.hbase.filter.RegexStringComparator;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.twitter.hraven.Constants;
+
+/**
+ * Describes which columns of a job_history row are needed to populate a
+ * {@link com.twitter.hraven.JobDetails}, so that only those leave the region
+ * server. Job statistics (all columns without a prefix) are always read. Job
+ * configuration properties and counters make up most of a row and can be
+ * restricted:
+ * <ul>
+ * <li>configuration: all properties, none, specific properties by name, or
+ * properties with names matching regular expressions</li>
+ * <li>counters: all of them, none, or just those the summary statistics of
+ * jobs and flows are computed from</li>
+ * </ul>
+ * Properties stored in a {@link JobConfBlob} can only be read together, so
+ * whenever any configuration property is requested the blob is read as well.
+ */
+public class JobProjection {
+
+  /** The counters to read */
+  public enum Counters {
+    /** every counter of the job, its maps and its reduces */
+    ALL,
+
+    /** only the counters that the job summary statistics are derived from */
+    SUMMARY,
+
+    /** no counters at all */
+    NONE;
+  }
+
+  /** Reads complete rows */
+  public static final JobProjection EVERYTHING = new JobProjection(true,
+      null, null, Counters.ALL);
+
+  /** Reads everything but the job configuration */
+  public static final JobProjection NO_CONFIGURATION = new JobProjection(
+      false, null, null, Counters.ALL);
+
+  /** Reads just enough to compute the summary statistics of jobs and flows */
+  public static final JobProjection SUMMARY_STATS = new JobProjection(false,
+      null, null, Counters.SUMMARY);
+
+  private static final byte[][] PREFIXES = {
+      Constants.JOB_CONF_PROPERTY_COLUMN_PREFIX_BYTES,
+      Bytes.add(Constants.COUNTER_COLUMN_PREFIX_BYTES, Constants.SEP_BYTES),
+      Bytes.add(Constants.MAP_COUNTER_COLUMN_PREFIX_BYTES, Constants.SEP_BYTES),
+      Bytes.add(Constants.REDUCE_COUNTER_COLUMN_PREFIX_BYTES,
+          Constants.SEP_BYTES) };
+
+  /**
+   * The counters {@link com.twitter.hraven.JobDetails} derives its statistics
+   * from.
+   */
+  private static final byte[][] SUMMARY_COUNTER_COLUMNS = {
+      counterColumn(Constants.COUNTER_COLUMN_PREFIX_BYTES,
+          Constants.FILESYSTEM_COUNTERS, Constants.HDFS_BYTES_READ),
+      counterColumn(Constants.COUNTER_COLUMN_PREFIX_BYTES,
+          Constants.FILESYSTEM_COUNTERS, Constants.HDFS_BYTES_WRITTEN),
+      counterColumn(Constants.COUNTER_COLUMN_PREFIX_BYTES,
+          Constants.JOBINPROGRESS_COUNTER, Constants.SLOTS_MILLIS_MAPS),
+      counterColumn(Constants.COUNTER_COLUMN_PREFIX_BYTES,
+          Constants.JOBINPROGRESS_COUNTER, Constants.SLOTS_MILLIS_REDUCES),
+      counterColumn(Constants.MAP_COUNTER_COLUMN_PREFIX_BYTES,
+          Constants.FILESYSTEM_COUNTERS, Constants.FILES_BYTES_READ),
+      counterColumn(Constants.MAP_COUNTER_COLUMN_PREFIX_BYTES,
+          Constants.FILESYSTEM_COUNTERS, Constants.FILES_BYTES_WRITTEN),
+      counterColumn(Constants.REDUCE_COUNTER_COLUMN_PREFIX_BYTES,
+          Constants.FILESYSTEM_COUNTERS, Constants.FILES_BYTES_READ),
+      counterColumn(Constants.REDUCE_COUNTER_COLUMN_PREFIX_BYTES,
+          Constants.TASK_COUNTER, Constants.REDUCE_SHUFFLE_BYTES) };
+
+  private final boolean allConfiguration;
+  private final Set<String> configurationKeys;
+  private final List<String> configurationPatterns;
+  private final Counters counters;
+
+  /**
+   * @param allConfiguration
+   *          whether to read all job configuration properties, the keys and
+   *          patterns are ignored if so
+   * @param configurationKeys
+   *          the names of the job configuration properties to read, may be
+   *          {@code null}
+   * @param configurationPatterns
+   *          regular expressions, properties with names matching any of them
+   *          are read, may be {@code null}
+   * @param counters
+   *          the counters to read
+   */
+  public JobProjection(boolean allConfiguration,
+      Collection<String> configurationKeys,
+      Collection<String> configurationPatterns, Counters counters) {
+    this.allConfiguration = allConfiguration;
+    this.configurationKeys = configurationKeys == null ? Collections
+        .<String> emptySet() : Collections
+        .unmodifiableSet(new LinkedHashSet<String>(configurationKeys));
+    this.configurationPatterns = configurationPatterns == null ? Collections
+        .<String> emptyList() : Collections
+        .unmodifiableList(new ArrayList<String>(configurationPatterns));
+    this.counters = counters;
+  }
+
+  /**
+   * @param keys the names of the job configuration properties to read
+   * @return a projection reading these properties and all counters
+   */
+  public static JobProjection withConfigurationKeys(Collection<String> keys) {
+    return new JobProjection(false, keys, null, Counters.ALL);
+  }
+
+  /**
+   * @param patterns regular expressions matching the names of the job
+   *          configuration properties to read
+   * @return a projection reading these properties and all counters
+   */
+  public static JobProjection withConfigurationPatterns(
+      Collection<String> patterns) {
+    return new JobProjection(false, null, patterns, Counters.ALL);
+  }
+
+  public boolean isAllConfiguration() {
+    return allConfiguration;
+  }
+
+  public Set<String> getConfigurationKeys() {
+    return configurationKeys;
+  }
+
+  public List<String> getConfigurationPatterns() {
+    return configurationPatterns;
+  }
+
+  public Counters getCounters() {
+    return counters;
+  }
+
+  /**
+   * @return the filter selecting the projected columns of the info family, or
+   *         {@code null} if all columns are to be read
+   */
+  public Filter getFilter() {
+    if (allConfiguration && counters == Counters.ALL) {
+      return null;
+    }
+
+    FilterList columns = new FilterList(FilterList.Operator.MUST_PASS_ONE);
+
+    // job statistics: every column without one of the prefixes
+    FilterList statistics = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+    for (byte[] prefix : PREFIXES) {
+      statistics.addFilter(new QualifierFilter(CompareFilter.CompareOp.NOT_EQUAL,
+          new BinaryPrefixComparator(prefix)));
+    }
+    columns.addFilter(statistics);
+
+    // job configuration
+    if (allConfiguration) {
+      columns.addFilter(new ColumnPrefixFilter(
+          Constants.JOB_CONF_PROPERTY_COLUMN_PREFIX_BYTES));
+    } else if (!configurationKeys.isEmpty()
+        || !configurationPatterns.isEmpty()) {
+      addQualifier(columns, Constants.JOB_CONF_BLOB_COLUMN_BYTES);
+      for (String key : configurationKeys) {
+        addQualifier(columns, Bytes.add(
+            Constants.JOB_CONF_PROPERTY_COLUMN_PREFIX_BYTES,
+            Bytes.toBytes(key)));
+      }
+      if (!configurationPatterns.isEmpty()) {
+        columns.addFilter(new QualifierFilter(CompareFilter.CompareOp.EQUAL,
+            new RegexStringComparator(getConfigurationRegex())));
+      }
+    }
+
+    // counters
+    switch (counters) {
+    case ALL:
+      for (int i = 1; i < PREFIXES.length; i++) {
+        columns.addFilter(new ColumnPrefixFilter(PREFIXES[i]));
+      }
+      break;
+    case SUMMARY:
+      for (byte[] column : SUMMARY_COUNTER_COLUMNS) {
+        addQualifier(columns, column);
+      }
+      break;
+    case NONE:
+      break;
+    }
+
+    return columns;
+  }
+
+  /**
+   * @return a regular expression matching the qualifiers of the configuration
+   *         properties matching any of the configuration patterns
+   */
+  String getConfigurationRegex() {
+    StringBuilder regex = new StringBuilder("\\A").append(
+        Constants.JOB_CONF_COLUMN_PREFIX).append(Constants.SEP).append("(?:");
+    for (int i = 0; i < configurationPatterns.size(); i++) {
+      if (i > 0) {
+        regex.append('|');
+      }
+      regex.append("(?:").append(configurationPatterns.get(i)).append(')');
+    }
+    return regex.append(")\\z").toString();
+  }
+
+  private static void addQualifier(FilterList filters, byte[] qualifier) {
+    filters.addFilter(new QualifierFilter(CompareFilter.CompareOp.EQUAL,
+        new BinaryComparator(qualifier)));
+  }
+
+  private static byte[] counterColumn(byte[] prefix, String group, String name) {
+    return Bytes.add(Bytes.add(prefix, Constants.SEP_BYTES),
+        Bytes.add(Bytes.toBytes(group), Constants.SEP_BYTES,
+            Bytes.toBytes(name)));
+  }
+
+  @Override
+  public String toString() {
+    return "JobProjection[allConfiguration=" + allConfiguration
+        + ", configurationKeys=" + configurationKeys
+        + ", configurationPatterns=" + configurationPatterns + ", counters="
+        + counters + "]";
+  }
+}
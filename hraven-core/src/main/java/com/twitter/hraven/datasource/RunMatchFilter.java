@@ -18,7 +18,6 @@ package com.twitter.hraven.datasource;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.List;
 
 import org.apache.hadoop.hbase.filter.FilterBase;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -29,13 +28,28 @@ import com.twitter.hraven.util.ByteUtil;
 /**
  * Match up to N runs of a given app.  Once N runs have been seen, we filter all
  * remaining rows.
+ * <p>
+ * Runs are counted per region, so a scan spanning several regions may still
+ * return rows of more than N runs. Rows of other apps are not counted, and
+ * pass the filter.
+ * <p>
+ * The region servers need this class on their classpath.
  */
 public class RunMatchFilter extends FilterBase {
+  /** the length of the encoded run ID in a row key */
+  private static final int RUN_ID_LENGTH = Bytes.SIZEOF_LONG;
+
   private byte[] appId;
   private int maxCount;
-  private byte[] lastRunId = null;
+  private final byte[] lastRunId = new byte[RUN_ID_LENGTH];
   private int seenCount;
 
+  /**
+   * Used for deserialization only
+   */
+  public RunMatchFilter() {
+  }
+
   /**
    * Match only a single run of the given appId
    * @param appId
@@ -55,40 +69,53 @@ public class RunMatchFilter extends FilterBase {
     this.maxCount = maxCount;
   }
 
-  @Override
-  public void reset() {
-    this.seenCount = 0;
-  }
-
+  /**
+   * Parses the row key in place, it is cluster!user!appId!runId!jobId where
+   * the run ID is an encoded long that may contain the separator itself.
+   */
   @Override
   public boolean filterRowKey(byte[] buffer, int offset, int length) {
-    // TODO: don't copy the byte[]
-    byte[] rowkey = new byte[length];
-    System.arraycopy(buffer, offset, rowkey, 0, length);
-    List<ByteUtil.Range> splits = ByteUtil.splitRanges(rowkey, Constants.SEP_BYTES);
-    if (splits.size() < 4) {
+    int end = offset + length;
+    // the app ID sits between the second and third separator
+    int appStart = indexOfSeparator(buffer, offset, end, 2);
+    if (appStart < 0) {
       // invalid row key
       return true;
     }
-    ByteUtil.Range appRange = splits.get(1);
-    int appCompare = Bytes.compareTo(appId, 0, appId.length,
-        rowkey, appRange.start(), appRange.length());
-    if (appCompare != 0) {
+    appStart += Constants.SEP_BYTES.length;
+    int appEnd = indexOfSeparator(buffer, appStart, end, 1);
+    int runStart = appEnd + Constants.SEP_BYTES.length;
+    if (appEnd < 0 || runStart + RUN_ID_LENGTH > end) {
+      // invalid row key
+      return true;
+    }
+    if (Bytes.compareTo(appId, 0, appId.length, buffer, appStart,
+        appEnd - appStart) != 0) {
       return false;
     }
-    ByteUtil.Range runRange = splits.get(2);
-    int runLength = runRange.length();
-    if (lastRunId == null ||
-        Bytes.compareTo(lastRunId, 0, lastRunId.length,
-            rowkey, runRange.start(), runLength) != 0) {
-      lastRunId = new byte[runLength];
-      System.arraycopy(rowkey, runRange.start(), lastRunId, 0, runLength);
+    if (seenCount == 0 || Bytes.compareTo(lastRunId, 0, RUN_ID_LENGTH, buffer,
+        runStart, RUN_ID_LENGTH) != 0) {
+      System.arraycopy(buffer, runStart, lastRunId, 0, RUN_ID_LENGTH);
       seenCount++;
     }
 
     return seenCount > maxCount;
   }
 
+  /**
+   * @return the offset of the count-th separator in buffer from offset up to
+   *         end, or -1 if there are fewer separators
+   */
+  private static int indexOfSeparator(byte[] buffer, int offset, int end,
+      int count) {
+    int i = ByteUtil.indexOf(buffer, Constants.SEP_BYTES, offset, end);
+    while (i >= 0 && --count > 0) {
+      i = ByteUtil.indexOf(buffer, Constants.SEP_BYTES,
+          i + Constants.SEP_BYTES.length, end);
+    }
+    return i;
+  }
+
   @Override
   public boolean filterAllRemaining() {
     // once we've seen the limit number of runs, skip everything else
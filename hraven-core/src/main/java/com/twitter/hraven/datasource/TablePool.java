@@ -0,0 +1,213 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.datasource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HConnection;
+import org.apache.hadoop.hbase.client.HConnectionManager;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.client.HTablePool;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.hraven.Constants;
+
+/**
+ * Hands out the HBase tables read and written by the services in this
+ * package. Table instances are not thread safe, so each is only used by one
+ * thread at a time: taken with {@link #getTable(byte[])} and returned with
+ * {@link #putTable(HTableInterface)} once done. Up to
+ * {@link Constants#TABLE_POOL_SIZE_CONF_KEY} idle instances of each table are
+ * kept for reuse.
+ * <p>
+ * Only the idle instances are bounded: {@link #getTable(byte[])} never waits,
+ * it creates a new instance whenever none is idle, so there are as many
+ * tables in use as there are threads using the pool. Callers bound those
+ * threads themselves, the REST server for instance with
+ * {@link Constants#REST_MAX_THREADS_CONF_KEY} and
+ * {@link Constants#TASK_SCAN_THREADS_CONF_KEY}. The instances in use are
+ * reported by {@link #getTablesInUse()}.
+ * </p>
+ * <p>
+ * A pool from {@link #createShared(Configuration)} is meant to be shared by
+ * the services of all threads in a process: its tables all go through a
+ * single {@link HConnection} and a single thread pool for batch operations.
+ * </p>
+ */
+public class TablePool implements Closeable, TablePoolMBean {
+  private static final Log LOG = LogFactory.getLog(TablePool.class);
+
+  private final HTablePool pool;
+  private final int maxIdleTables;
+  /** the connection of all tables, or {@code null} to let each table get one */
+  private final HConnection connection;
+  private final ExecutorService batchExecutor;
+
+  private final AtomicInteger openTables = new AtomicInteger();
+  private final AtomicInteger tablesInUse = new AtomicInteger();
+  private final AtomicLong checkouts = new AtomicLong();
+
+  /**
+   * Creates a pool of tables connecting to HBase just as
+   * {@link HTable#HTable(Configuration, byte[])} does, each table with threads
+   * of its own for batch operations.
+   *
+   * @param conf the HBase configuration
+   */
+  public TablePool(Configuration conf) {
+    this(conf, null, null);
+  }
+
+  private TablePool(Configuration conf, HConnection connection,
+      ExecutorService batchExecutor) {
+    this.maxIdleTables = Math.max(1, conf.getInt(
+        Constants.TABLE_POOL_SIZE_CONF_KEY, Constants.TABLE_POOL_SIZE_DEFAULT));
+    this.connection = connection;
+    this.batchExecutor = batchExecutor;
+    this.pool = new HTablePool(conf, this.maxIdleTables, new TableFactory());
+  }
+
+  /**
+   * Creates a pool of tables sharing a connection of their own to HBase, which
+   * is closed with the pool.
+   *
+   * @param conf the HBase configuration
+   * @throws IOException if the connection cannot be created
+   */
+  public static TablePool createShared(Configuration conf) throws IOException {
+    HConnection connection = HConnectionManager.createConnection(conf);
+    // as each HTable would create for itself
+    ThreadPoolExecutor batchExecutor = new ThreadPoolExecutor(1,
+        Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(), new ThreadFactoryBuilder()
+            .setNameFormat("TablePool-batch-%d").setDaemon(true).build());
+    batchExecutor.allowCoreThreadTimeOut(true);
+    return new TablePool(conf, connection, batchExecutor);
+  }
+
+  /**
+   * Takes an instance of a table from the pool, creating one if none is idle.
+   *
+   * @param tableName the name of the table
+   * @return the table, to be returned with {@link #putTable(HTableInterface)}
+   * @throws IOException if a new table instance cannot be created
+   */
+  public HTableInterface getTable(byte[] tableName) throws IOException {
+    checkouts.incrementAndGet();
+    tablesInUse.incrementAndGet();
+    try {
+      return pool.getTable(tableName);
+    } catch (RuntimeException re) {
+      tablesInUse.decrementAndGet();
+      Throwables.propagateIfInstanceOf(re.getCause(), IOException.class);
+      throw re;
+    }
+  }
+
+  /**
+   * Returns a table taken with {@link #getTable(byte[])} to the pool.
+   *
+   * @param table the table, which must not be used afterwards
+   * @throws IOException if the table fails to flush, or to close if there are
+   *           enough idle instances of it already
+   */
+  public void putTable(HTableInterface table) throws IOException {
+    tablesInUse.decrementAndGet();
+    table.close();
+  }
+
+  /**
+   * Closes the idle tables, and the connection and batch threads of a shared
+   * pool. Tables in use must have been returned before.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      pool.close();
+    } finally {
+      if (batchExecutor != null) {
+        batchExecutor.shutdown();
+      }
+      if (connection != null) {
+        connection.close();
+      }
+    }
+  }
+
+  @Override
+  public int getOpenTables() {
+    return openTables.get();
+  }
+
+  @Override
+  public int getTablesInUse() {
+    return tablesInUse.get();
+  }
+
+  @Override
+  public int getMaxIdleTables() {
+    return maxIdleTables;
+  }
+
+  @Override
+  public long getCheckouts() {
+    return checkouts.get();
+  }
+
+  /**
+   * Creates the table instances of the pool and keeps count of them.
+   */
+  private class TableFactory implements HTableInterfaceFactory {
+
+    @Override
+    public HTableInterface createHTableInterface(Configuration config,
+        byte[] tableName) {
+      try {
+        HTableInterface table = connection == null ? new HTable(config,
+            tableName) : new HTable(tableName, connection, batchExecutor);
+        openTables.incrementAndGet();
+        return table;
+      } catch (IOException ioe) {
+        throw new RuntimeException(ioe);
+      }
+    }
+
+    @Override
+    public void releaseHTableInterface(HTableInterface table)
+        throws IOException {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Closing an instance of table "
+            + Bytes.toString(table.getTableName()));
+      }
+      openTables.decrementAndGet();
+      table.close();
+    }
+  }
+}
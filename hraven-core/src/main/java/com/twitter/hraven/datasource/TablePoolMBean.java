@@ -0,0 +1,34 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.datasource;
+
+/**
+ * The usage of a {@link TablePool}, as exposed through JMX.
+ */
+public interface TablePoolMBean {
+
+  /** @return the number of table instances currently open */
+  int getOpenTables();
+
+  /** @return the number of table instances currently taken from the pool */
+  int getTablesInUse();
+
+  /** @return the number of idle instances kept of each table */
+  int getMaxIdleTables();
+
+  /** @return the number of times a table was taken from the pool */
+  long getCheckouts();
+}
@@ -18,7 +18,6 @@ package com.twitter.hraven.datasource;
 import org.apache.hadoop.hbase.util.Bytes;
 
 import com.twitter.hraven.Constants;
-import com.twitter.hraven.JobKey;
 import com.twitter.hraven.TaskKey;
 
 /**
@@ -47,9 +46,19 @@ public class TaskKeyConverter implements ByteConverter<TaskKey> {
    */
   @Override
   public TaskKey fromBytes(byte[] bytes) {
-    byte[][] keyComponents = JobKeyConverter.splitJobKey(bytes);
-    JobKey jobKey = jobKeyConv.parseJobKey(keyComponents);
-    return new TaskKey(jobKey,
-        (keyComponents.length > 5 ? Bytes.toString(keyComponents[5]) : null));
+    return fromBytes(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Decodes a TaskKey held in part of a larger buffer, such as the row of a
+   * {@code KeyValue}, without copying the key components out first.
+   *
+   * @param bytes the buffer holding the serialized TaskKey
+   * @param offset where the key starts in the buffer
+   * @param length the length of the key
+   * @return the deserialized TaskKey instance
+   */
+  public TaskKey fromBytes(byte[] bytes, int offset, int length) {
+    return new JobKeyView(false).set(bytes, offset, length).toTaskKey();
   }
 }
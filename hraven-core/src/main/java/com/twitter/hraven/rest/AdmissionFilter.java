@@ -0,0 +1,120 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.rest;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.twitter.hraven.Constants;
+
+/**
+ * Limits the number of requests served at the same time, so that bursts of
+ * requests do not all scan HBase at once. A request waits up to a configured
+ * time to be let through, and is answered with 503 (Service Unavailable) and a
+ * <code>Retry-After</code> header otherwise. Takes the init parameters:
+ * <ul>
+ * <li><code>maxRequests</code>: requests served at the same time</li>
+ * <li><code>waitMs</code>: milliseconds a request waits to be served</li>
+ * <li><code>retryAfterSeconds</code>: the <code>Retry-After</code> sent back</li>
+ * </ul>
+ */
+public class AdmissionFilter implements Filter {
+  private static final Log LOG = LogFactory.getLog(AdmissionFilter.class);
+
+  private Semaphore permits;
+  private long waitMs;
+  private String retryAfter;
+  private final AtomicLong rejected = new AtomicLong();
+
+  @Override
+  public void init(FilterConfig config) throws ServletException {
+    int maxRequests = getInt(config, "maxRequests",
+        Constants.REST_MAX_REQUESTS_DEFAULT);
+    this.permits = new Semaphore(Math.max(1, maxRequests), true);
+    this.waitMs = getInt(config, "waitMs",
+        Constants.REST_REQUEST_WAIT_MS_DEFAULT);
+    this.retryAfter = Integer.toString(getInt(config, "retryAfterSeconds",
+        Constants.REST_RETRY_AFTER_SECONDS_DEFAULT));
+    LOG.info("Serving up to " + maxRequests + " requests at a time, others wait "
+        + waitMs + " ms");
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response,
+      FilterChain chain) throws IOException, ServletException {
+    boolean admitted;
+    try {
+      admitted = permits.tryAcquire(waitMs, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      admitted = false;
+    }
+    if (!admitted) {
+      long count = rejected.incrementAndGet();
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Turned away request #" + count + ", too many in progress");
+      }
+      HttpServletResponse httpResponse = (HttpServletResponse) response;
+      httpResponse.setHeader("Retry-After", retryAfter);
+      httpResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+          "Too many requests in progress");
+      return;
+    }
+    try {
+      chain.doFilter(request, response);
+    } finally {
+      permits.release();
+    }
+  }
+
+  @Override
+  public void destroy() {
+  }
+
+  /**
+   * @return the number of requests turned away so far
+   */
+  long getRejected() {
+    return rejected.get();
+  }
+
+  private static int getInt(FilterConfig config, String name, int defaultValue)
+      throws ServletException {
+    String value = config.getInitParameter(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException nfe) {
+      throw new ServletException("Invalid integer '" + value + "' for " + name,
+          nfe);
+    }
+  }
+}
@@ -23,6 +23,7 @@ import javax.ws.rs.ext.ContextResolver;
 import javax.ws.rs.ext.Provider;
 
 import org.apache.hadoop.conf.Configuration;
+import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.Version;
 import org.codehaus.jackson.map.JsonSerializer;
@@ -30,31 +31,70 @@ import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.map.SerializationConfig.Feature;
 import org.codehaus.jackson.map.SerializerProvider;
 import org.codehaus.jackson.map.module.SimpleModule;
+import org.codehaus.jackson.smile.SmileFactory;
 
 import com.google.common.base.Predicate;
-import com.twitter.hraven.Counter;
 import com.twitter.hraven.CounterMap;
 import com.twitter.hraven.Flow;
+import com.twitter.hraven.JobConfProperties;
+import com.twitter.hraven.JobDetails;
+import com.twitter.hraven.TaskDetails;
 
 /**
  * Class that provides custom JSON bindings (where needed) for out object model.
  */
 @Provider
 public class ObjectMapperProvider implements ContextResolver<ObjectMapper> {
+  /** Media type of the binary JSON format written by {@link #createSmileMapper()} */
+  public static final String SMILE_MEDIA_TYPE = "application/x-jackson-smile";
+
   private final ObjectMapper customMapper;
+  private final ObjectMapper prettyMapper;
 
   public ObjectMapperProvider() {
-    customMapper = createCustomMapper();
+    customMapper = createCustomMapper(false);
+    prettyMapper = createCustomMapper(true);
   }
 
+  /**
+   * @return the mapper for the current request, which indents its output only
+   *         if the request asked for it
+   */
   @Override
   public ObjectMapper getContext(Class<?> type) {
+    if (RestJSONResource.serializationContext.get().isPretty()) {
+      return prettyMapper;
+    }
     return customMapper;
   }
 
+  /**
+   * @return a mapper writing indented JSON, see
+   *         {@link #createCustomMapper(boolean)} for compact JSON
+   */
   public static ObjectMapper createCustomMapper() {
-    ObjectMapper result = new ObjectMapper();
-    result.configure(Feature.INDENT_OUTPUT, true);
+    return createCustomMapper(true);
+  }
+
+  /**
+   * @param pretty whether to indent the output for human readers
+   */
+  public static ObjectMapper createCustomMapper(boolean pretty) {
+    ObjectMapper result = createCustomMapper(new JsonFactory());
+    result.configure(Feature.INDENT_OUTPUT, pretty);
+    return result;
+  }
+
+  /**
+   * @return a mapper writing <a href="http://wiki.fasterxml.com/SmileFormat">
+   *         Smile</a>, with the same bindings as the JSON mappers
+   */
+  public static ObjectMapper createSmileMapper() {
+    return createCustomMapper(new SmileFactory());
+  }
+
+  private static ObjectMapper createCustomMapper(JsonFactory factory) {
+    ObjectMapper result = new ObjectMapper(factory);
     SimpleModule module = new SimpleModule("hRavenModule", new Version(0, 4, 0, null));
     addJobMappings(module);
     module.addSerializer(Flow.class, new FlowSerializer());
@@ -64,7 +104,11 @@ public class ObjectMapperProvider implements ContextResolver<ObjectMapper> {
 
   private static SimpleModule addJobMappings(SimpleModule module) {
     module.addSerializer(Configuration.class, new ConfigurationSerializer());
+    module.addSerializer(JobConfProperties.class,
+        new JobConfPropertiesSerializer());
     module.addSerializer(CounterMap.class, new CounterSerializer());
+    module.addSerializer(JobDetails.class, new JobDetailsSerializer());
+    module.addSerializer(TaskDetails.class, new TaskDetailsSerializer());
     return module;
   }
 
@@ -76,22 +120,43 @@ public class ObjectMapperProvider implements ContextResolver<ObjectMapper> {
     @Override
     public void serialize(Configuration conf, JsonGenerator jsonGenerator,
                           SerializerProvider serializerProvider) throws IOException {
-      SerializationContext context = RestJSONResource.serializationContext.get();
-      Predicate<String> configFilter = context.getConfigurationFilter();
-      Iterator<Map.Entry<String, String>> keyValueIterator = conf.iterator();
+      serializeProperties(conf.iterator(), jsonGenerator);
+    }
+  }
 
-      jsonGenerator.writeStartObject();
+  /**
+   * Custom serializer for the job configuration properties of a
+   * {@link com.twitter.hraven.JobDetails}, which are written just like a
+   * {@link Configuration}.
+   */
+  public static class JobConfPropertiesSerializer extends
+      JsonSerializer<JobConfProperties> {
 
-      // here's where we can filter out keys if we want
-      while (keyValueIterator.hasNext()) {
-        Map.Entry<String, String> kvp = keyValueIterator.next();
-        if (configFilter == null || configFilter.apply(kvp.getKey())) {
-          jsonGenerator.writeFieldName(kvp.getKey());
-          jsonGenerator.writeString(kvp.getValue());
-        }
+    @Override
+    public void serialize(JobConfProperties properties,
+        JsonGenerator jsonGenerator, SerializerProvider serializerProvider)
+        throws IOException {
+      serializeProperties(properties.iterator(), jsonGenerator);
+    }
+  }
+
+  private static void serializeProperties(
+      Iterator<Map.Entry<String, String>> keyValueIterator,
+      JsonGenerator jsonGenerator) throws IOException {
+    SerializationContext context = RestJSONResource.serializationContext.get();
+    Predicate<String> configFilter = context.getConfigurationFilter();
+
+    jsonGenerator.writeStartObject();
+
+    // here's where we can filter out keys if we want
+    while (keyValueIterator.hasNext()) {
+      Map.Entry<String, String> kvp = keyValueIterator.next();
+      if (configFilter == null || configFilter.apply(kvp.getKey())) {
+        jsonGenerator.writeFieldName(kvp.getKey());
+        jsonGenerator.writeString(kvp.getValue());
       }
-      jsonGenerator.writeEndObject();
     }
+    jsonGenerator.writeEndObject();
   }
 
   /**
@@ -108,11 +173,11 @@ public class ObjectMapperProvider implements ContextResolver<ObjectMapper> {
         jsonGenerator.writeFieldName(group);
 
         jsonGenerator.writeStartObject();
-        Map<String, Counter> groupMap = counterMap.getGroup(group);
-        for (String counterName : groupMap.keySet()) {
-          Counter counter = groupMap.get(counterName);
-          jsonGenerator.writeFieldName(counter.getKey());
-          jsonGenerator.writeNumber(counter.getValue());
+        for (int i = 0; i < counterMap.size(); i++) {
+          if (group.equals(counterMap.getGroupAt(i))) {
+            jsonGenerator.writeFieldName(counterMap.getNameAt(i));
+            jsonGenerator.writeNumber(counterMap.getValueAt(i));
+          }
         }
         jsonGenerator.writeEndObject();
       }
@@ -133,10 +198,7 @@ public class ObjectMapperProvider implements ContextResolver<ObjectMapper> {
           RestJSONResource.serializationContext.get().getLevel();
       if (selectedSerialization == SerializationContext.DetailLevel.EVERYTHING) {
         // should generate the json for everything in the flow object
-        ObjectMapper om = new ObjectMapper();
-        om.registerModule(
-            addJobMappings(new SimpleModule("hRavenModule", new Version(0, 4, 0, null))));
-        om.writeValue(jsonGenerator, aFlow);
+        writeFlow(aFlow, jsonGenerator, serializerProvider);
       } else {
         jsonGenerator.writeStartObject();
         if (selectedSerialization == SerializationContext.DetailLevel.FLOW_SUMMARY_STATS_ONLY
@@ -187,13 +249,186 @@ public class ObjectMapperProvider implements ContextResolver<ObjectMapper> {
           // if flag, include job details
           if (selectedSerialization ==
               SerializationContext.DetailLevel.FLOW_SUMMARY_STATS_WITH_JOB_STATS) {
-            jsonGenerator.writeFieldName("jobs");
-            jsonGenerator.writeObject(aFlow.getJobs());
+            serializerProvider.defaultSerializeField("jobs", aFlow.getJobs(),
+                jsonGenerator);
           }
         }
         jsonGenerator.writeEndObject();
       }
       // reset the serializationContext variable back to an initialValue
     }
+
+    /**
+     * Writes all the fields of a flow, as the bean serializer of
+     * {@link Flow} would: null values are left out.
+     */
+    private static void writeFlow(Flow aFlow, JsonGenerator jsonGenerator,
+        SerializerProvider serializerProvider) throws IOException {
+      jsonGenerator.writeStartObject();
+      writeObjectField("flowKey", aFlow.getFlowKey(), jsonGenerator,
+          serializerProvider);
+      writeObjectField("queueKey", aFlow.getQueueKey(), jsonGenerator,
+          serializerProvider);
+      writeObjectField("jobs", aFlow.getJobs(), jsonGenerator,
+          serializerProvider);
+      writeStringField("flowName", aFlow.getFlowName(), jsonGenerator);
+      writeStringField("userName", aFlow.getUserName(), jsonGenerator);
+      writeStringField("jobGraphJSON", aFlow.getJobGraphJSON(), jsonGenerator);
+      jsonGenerator.writeNumberField("progress", aFlow.getProgress());
+      jsonGenerator.writeNumberField("jobCount", aFlow.getJobCount());
+      jsonGenerator.writeNumberField("totalMaps", aFlow.getTotalMaps());
+      jsonGenerator.writeNumberField("totalReduces", aFlow.getTotalReduces());
+      jsonGenerator.writeNumberField("mapFileBytesRead",
+          aFlow.getMapFileBytesRead());
+      jsonGenerator.writeNumberField("mapFileBytesWritten",
+          aFlow.getMapFileBytesWritten());
+      jsonGenerator.writeNumberField("reduceFileBytesRead",
+          aFlow.getReduceFileBytesRead());
+      jsonGenerator.writeNumberField("hdfsBytesRead", aFlow.getHdfsBytesRead());
+      jsonGenerator.writeNumberField("hdfsBytesWritten",
+          aFlow.getHdfsBytesWritten());
+      jsonGenerator.writeNumberField("mapSlotMillis", aFlow.getMapSlotMillis());
+      jsonGenerator.writeNumberField("reduceSlotMillis",
+          aFlow.getReduceSlotMillis());
+      jsonGenerator.writeNumberField("reduceShuffleBytes",
+          aFlow.getReduceShuffleBytes());
+      jsonGenerator.writeNumberField("duration", aFlow.getDuration());
+      jsonGenerator.writeNumberField("submitTime", aFlow.getSubmitTime());
+      writeStringField("version", aFlow.getVersion(), jsonGenerator);
+      writeStringField("appId", aFlow.getAppId(), jsonGenerator);
+      writeStringField("cluster", aFlow.getCluster(), jsonGenerator);
+      jsonGenerator.writeNumberField("runId", aFlow.getRunId());
+      jsonGenerator.writeEndObject();
+    }
+  }
+
+  /**
+   * Custom serializer for JobDetails object. Writes the same fields as the
+   * bean serializer would, leaving out null values, straight to the generator
+   * instead of introspecting the object.
+   */
+  public static class JobDetailsSerializer extends JsonSerializer<JobDetails> {
+
+    @Override
+    public void serialize(JobDetails job, JsonGenerator jsonGenerator,
+        SerializerProvider serializerProvider) throws IOException {
+      jsonGenerator.writeStartObject();
+      writeObjectField("jobKey", job.getJobKey(), jsonGenerator,
+          serializerProvider);
+      writeStringField("jobId", job.getJobId(), jsonGenerator);
+      writeStringField("jobName", job.getJobName(), jsonGenerator);
+      writeStringField("user", job.getUser(), jsonGenerator);
+      writeStringField("priority", job.getPriority(), jsonGenerator);
+      writeStringField("status", job.getStatus(), jsonGenerator);
+      writeStringField("version", job.getVersion(), jsonGenerator);
+      jsonGenerator.writeNumberField("submitTime", job.getSubmitTime());
+      jsonGenerator.writeNumberField("launchTime", job.getLaunchTime());
+      jsonGenerator.writeNumberField("finishTime", job.getFinishTime());
+      jsonGenerator.writeNumberField("totalMaps", job.getTotalMaps());
+      jsonGenerator.writeNumberField("totalReduces", job.getTotalReduces());
+      jsonGenerator.writeNumberField("finishedMaps", job.getFinishedMaps());
+      jsonGenerator.writeNumberField("finishedReduces",
+          job.getFinishedReduces());
+      jsonGenerator.writeNumberField("failedMaps", job.getFailedMaps());
+      jsonGenerator.writeNumberField("failedReduces", job.getFailedReduces());
+      jsonGenerator.writeNumberField("mapFileBytesRead",
+          job.getMapFileBytesRead());
+      jsonGenerator.writeNumberField("mapFileBytesWritten",
+          job.getMapFileBytesWritten());
+      jsonGenerator.writeNumberField("reduceFileBytesRead",
+          job.getReduceFileBytesRead());
+      jsonGenerator.writeNumberField("hdfsBytesRead", job.getHdfsBytesRead());
+      jsonGenerator.writeNumberField("hdfsBytesWritten",
+          job.getHdfsBytesWritten());
+      jsonGenerator.writeNumberField("mapSlotMillis", job.getMapSlotMillis());
+      jsonGenerator.writeNumberField("reduceSlotMillis",
+          job.getReduceSlotMillis());
+      jsonGenerator.writeNumberField("reduceShuffleBytes",
+          job.getReduceShuffleBytes());
+      writeObjectField("counters", job.getCounters(), jsonGenerator,
+          serializerProvider);
+      writeObjectField("mapCounters", job.getMapCounters(), jsonGenerator,
+          serializerProvider);
+      writeObjectField("reduceCounters", job.getReduceCounters(),
+          jsonGenerator, serializerProvider);
+      writeObjectField("tasks", job.getTasks(), jsonGenerator,
+          serializerProvider);
+      jsonGenerator.writeFieldName("launchDate");
+      serializerProvider.defaultSerializeDateValue(job.getLaunchTime(),
+          jsonGenerator);
+      jsonGenerator.writeFieldName("finishDate");
+      serializerProvider.defaultSerializeDateValue(job.getFinishTime(),
+          jsonGenerator);
+      jsonGenerator.writeNumberField("runTime", job.getRunTime());
+      jsonGenerator.writeFieldName("submitDate");
+      serializerProvider.defaultSerializeDateValue(job.getSubmitTime(),
+          jsonGenerator);
+      writeObjectField("configuration", job.getConfigurationProperties(),
+          jsonGenerator, serializerProvider);
+      jsonGenerator.writeEndObject();
+    }
+  }
+
+  /**
+   * Custom serializer for TaskDetails object. Writes the same fields as the
+   * bean serializer would, including null values, straight to the generator
+   * instead of introspecting the object.
+   */
+  public static class TaskDetailsSerializer extends JsonSerializer<TaskDetails> {
+
+    @Override
+    public void serialize(TaskDetails task, JsonGenerator jsonGenerator,
+        SerializerProvider serializerProvider) throws IOException {
+      jsonGenerator.writeStartObject();
+      serializerProvider.defaultSerializeField("taskKey", task.getTaskKey(),
+          jsonGenerator);
+      jsonGenerator.writeStringField("taskId", task.getTaskId());
+      jsonGenerator.writeStringField("type", task.getType());
+      jsonGenerator.writeStringField("status", task.getStatus());
+      String[] splits = task.getSplits();
+      jsonGenerator.writeFieldName("splits");
+      if (splits == null) {
+        jsonGenerator.writeNull();
+      } else {
+        jsonGenerator.writeStartArray();
+        for (String split : splits) {
+          jsonGenerator.writeString(split);
+        }
+        jsonGenerator.writeEndArray();
+      }
+      jsonGenerator.writeNumberField("startTime", task.getStartTime());
+      jsonGenerator.writeNumberField("finishTime", task.getFinishTime());
+      serializerProvider.defaultSerializeField("counters", task.getCounters(),
+          jsonGenerator);
+      jsonGenerator.writeStringField("taskAttemptId", task.getTaskAttemptId());
+      jsonGenerator.writeStringField("trackerName", task.getTrackerName());
+      jsonGenerator.writeNumberField("httpPort", task.getHttpPort());
+      jsonGenerator.writeStringField("hostname", task.getHostname());
+      jsonGenerator.writeStringField("state", task.getState());
+      jsonGenerator.writeStringField("error", task.getError());
+      jsonGenerator.writeNumberField("shuffleFinished",
+          task.getShuffleFinished());
+      jsonGenerator.writeNumberField("sortFinished", task.getSortFinished());
+      jsonGenerator.writeEndObject();
+    }
+  }
+
+  private static void writeStringField(String name, String value,
+      JsonGenerator jsonGenerator) throws IOException {
+    if (value != null) {
+      jsonGenerator.writeStringField(name, value);
+    }
+  }
+
+  /**
+   * Writes a non-null value with the serializer the provider has cached for
+   * its type.
+   */
+  private static void writeObjectField(String name, Object value,
+      JsonGenerator jsonGenerator, SerializerProvider serializerProvider)
+      throws IOException {
+    if (value != null) {
+      serializerProvider.defaultSerializeField(name, value, jsonGenerator);
+    }
   }
 }
@@ -16,8 +16,11 @@ limitations under the License.
 package com.twitter.hraven.rest;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.List;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
@@ -39,6 +42,8 @@ import com.twitter.hraven.JobDetails;
 import com.twitter.hraven.datasource.AppVersionService;
 import com.twitter.hraven.datasource.FlowKeyConverter;
 import com.twitter.hraven.datasource.JobHistoryService;
+import com.twitter.hraven.datasource.JobProjection;
+import com.twitter.hraven.datasource.TablePool;
 import com.twitter.hraven.datasource.VersionInfo;
 
 /**
@@ -52,33 +57,17 @@ public class RestJSONResource {
   private static final Log LOG = LogFactory.getLog(RestJSONResource.class);
 
   private static final Configuration HBASE_CONF = HBaseConfiguration.create();
-  private static final ThreadLocal<JobHistoryService> serviceThreadLocal =
-    new ThreadLocal<JobHistoryService>() {
+  /** Name of the JMX bean exposing the usage of the shared table pool */
+  static final String TABLE_POOL_MBEAN_NAME = "com.twitter.hraven:type=TablePool,name=rest";
 
-    @Override
-    protected JobHistoryService initialValue() {
-      try {
-        LOG.info("Initializing JobHistoryService");
-        return new JobHistoryService(HBASE_CONF);
-      } catch (IOException e) {
-        throw new RuntimeException("Could not initialize JobHistoryService", e);
-      }
-    }
-  };
-
-  private static final ThreadLocal<AppVersionService> serviceThreadLocalAppVersion =
-      new ThreadLocal<AppVersionService>() {
-
-      @Override
-      protected AppVersionService initialValue() {
-        try {
-          LOG.info("Initializing AppVersionService");
-          return new AppVersionService(HBASE_CONF);
-        } catch (IOException e) {
-          throw new RuntimeException("Could not initialize AppVersionService", e);
-        }
-      }
-    };
+  /**
+   * The tables and services shared by all requests, as table instances are
+   * only used by one request at a time there is no need for a service per
+   * thread.
+   */
+  private static TablePool tablePool;
+  private static JobHistoryService jobHistoryService;
+  private static AppVersionService appVersionService;
 
   public static final ThreadLocal<SerializationContext> serializationContext =
                                 new ThreadLocal<SerializationContext>() {
@@ -91,38 +80,41 @@ public class RestJSONResource {
 
   @GET
   @Path("job/{cluster}/{jobId}")
-  @Produces(MediaType.APPLICATION_JSON)
+  @Produces({ MediaType.APPLICATION_JSON, ObjectMapperProvider.SMILE_MEDIA_TYPE })
   public JobDetails getJobById(@PathParam("cluster") String cluster,
-                               @PathParam("jobId") String jobId) throws IOException {
+                               @PathParam("jobId") String jobId,
+                               @QueryParam("pretty") boolean pretty) throws IOException {
     LOG.info("Fetching JobDetails for jobId=" + jobId);
     serializationContext.set(new SerializationContext(
-        SerializationContext.DetailLevel.EVERYTHING));
+        SerializationContext.DetailLevel.EVERYTHING, null, pretty));
     JobDetails jobDetails = getJobHistoryService().getJobByJobID(cluster, jobId);
     return jobDetails;
   }
 
   @GET
   @Path("jobFlow/{cluster}/{jobId}")
-  @Produces(MediaType.APPLICATION_JSON)
+  @Produces({ MediaType.APPLICATION_JSON, ObjectMapperProvider.SMILE_MEDIA_TYPE })
   public Flow getJobFlowById(@PathParam("cluster") String cluster,
-                             @PathParam("jobId") String jobId) throws IOException {
+                             @PathParam("jobId") String jobId,
+                             @QueryParam("pretty") boolean pretty) throws IOException {
     LOG.info(String.format("Fetching Flow for cluster=%s, jobId=%s", cluster, jobId));
     serializationContext.set(new SerializationContext(
-        SerializationContext.DetailLevel.EVERYTHING));
+        SerializationContext.DetailLevel.EVERYTHING, null, pretty));
     Flow flow = getJobHistoryService().getFlowByJobID(cluster, jobId, false);
     return flow;
   }
 
   @GET
   @Path("flow/{cluster}/{user}/{appId}/{version}")
-  @Produces(MediaType.APPLICATION_JSON)
+  @Produces({ MediaType.APPLICATION_JSON, ObjectMapperProvider.SMILE_MEDIA_TYPE })
   public List<Flow> getJobFlowById(@PathParam("cluster") String cluster,
                                    @PathParam("user") String user,
                                    @PathParam("appId") String appId,
                                    @PathParam("version") String version,
                                    @QueryParam("limit") int limit,
                                    @QueryParam("includeConf") List<String> includeConfig,
-                                   @QueryParam("includeConfRegex") List<String> includeConfigRegex)
+                                   @QueryParam("includeConfRegex") List<String> includeConfigRegex,
+                                   @QueryParam("pretty") boolean pretty)
   throws IOException {
     Predicate<String> configFilter = null;
     if (includeConfig != null && !includeConfig.isEmpty()) {
@@ -131,19 +123,21 @@ public class RestJSONResource {
       configFilter = new SerializationContext.RegexConfigurationFilter(includeConfigRegex);
     }
     serializationContext.set(new SerializationContext(
-        SerializationContext.DetailLevel.EVERYTHING, configFilter));
-    return getFlowList(cluster, user, appId, version, limit);
+        SerializationContext.DetailLevel.EVERYTHING, configFilter, pretty));
+    return getFlowList(cluster, user, appId, version, limit,
+        getProjection(includeConfig, includeConfigRegex));
   }
 
   @GET
   @Path("flow/{cluster}/{user}/{appId}")
-  @Produces(MediaType.APPLICATION_JSON)
+  @Produces({ MediaType.APPLICATION_JSON, ObjectMapperProvider.SMILE_MEDIA_TYPE })
   public List<Flow> getJobFlowById(@PathParam("cluster") String cluster,
                                    @PathParam("user") String user,
                                    @PathParam("appId") String appId,
                                    @QueryParam("limit") int limit,
                                    @QueryParam("includeConf") List<String> includeConfig,
-                                   @QueryParam("includeConfRegex") List<String> includeConfigRegex)
+                                   @QueryParam("includeConfRegex") List<String> includeConfigRegex,
+                                   @QueryParam("pretty") boolean pretty)
   throws IOException {
     Predicate<String> configFilter = null;
     if (includeConfig != null && !includeConfig.isEmpty()) {
@@ -152,13 +146,14 @@ public class RestJSONResource {
       configFilter = new SerializationContext.RegexConfigurationFilter(includeConfigRegex);
     }
     serializationContext.set(new SerializationContext(
-        SerializationContext.DetailLevel.EVERYTHING, configFilter));
-    return getFlowList(cluster, user, appId, null, limit);
+        SerializationContext.DetailLevel.EVERYTHING, configFilter, pretty));
+    return getFlowList(cluster, user, appId, null, limit,
+        getProjection(includeConfig, includeConfigRegex));
   }
 
   @GET
   @Path("flowStats/{cluster}/{user}/{appId}")
-  @Produces(MediaType.APPLICATION_JSON)
+  @Produces({ MediaType.APPLICATION_JSON, ObjectMapperProvider.SMILE_MEDIA_TYPE })
   public PaginatedResult<Flow> getJobFlowStats(@PathParam("cluster") String cluster,
                                    @PathParam("user") String user,
                                    @PathParam("appId") String appId,
@@ -167,7 +162,8 @@ public class RestJSONResource {
                                    @QueryParam("startTime") long startTime,
                                    @QueryParam("endTime") long endTime,
                                    @QueryParam("limit") @DefaultValue("100") int limit,
-                                   @QueryParam("includeJobs") boolean includeJobs
+                                   @QueryParam("includeJobs") boolean includeJobs,
+                                   @QueryParam("pretty") boolean pretty
                                    ) throws IOException {
 
     byte[] startRow = null;
@@ -175,12 +171,18 @@ public class RestJSONResource {
       startRow = Base64.decode(startRowParam);
     }
 
+    // job counters are only returned along with the jobs
+    JobProjection projection;
     if (includeJobs) {
       serializationContext.set(new SerializationContext(
-          SerializationContext.DetailLevel.FLOW_SUMMARY_STATS_WITH_JOB_STATS));
+          SerializationContext.DetailLevel.FLOW_SUMMARY_STATS_WITH_JOB_STATS,
+          null, pretty));
+      projection = JobProjection.NO_CONFIGURATION;
     } else {
       serializationContext.set(new SerializationContext(
-          SerializationContext.DetailLevel.FLOW_SUMMARY_STATS_ONLY));
+          SerializationContext.DetailLevel.FLOW_SUMMARY_STATS_ONLY, null,
+          pretty));
+      projection = JobProjection.SUMMARY_STATS;
     }
 
     if(endTime == 0) {
@@ -192,7 +194,7 @@ public class RestJSONResource {
     }
 
     List<Flow> flows = getJobHistoryService().getFlowTimeSeriesStats(cluster, user,
-        appId, version, startTime, endTime, limit + 1, startRow);
+        appId, version, startTime, endTime, limit + 1, startRow, projection);
     PaginatedResult<Flow> flowStatsPage = new PaginatedResult<Flow>(limit);
     // add request parameters
     flowStatsPage.addRequestParameter("user", user);
@@ -231,17 +233,18 @@ public class RestJSONResource {
 
    @GET
    @Path("appVersion/{cluster}/{user}/{appId}/")
-   @Produces(MediaType.APPLICATION_JSON)
+   @Produces({ MediaType.APPLICATION_JSON, ObjectMapperProvider.SMILE_MEDIA_TYPE })
    public List<VersionInfo> getDistinctVersions(@PathParam("cluster") String cluster,
                                     @PathParam("user") String user,
                                     @PathParam("appId") String appId,
-                                    @QueryParam("limit") int limit) throws IOException {
+                                    @QueryParam("limit") int limit,
+                                    @QueryParam("pretty") boolean pretty) throws IOException {
      if (LOG.isTraceEnabled()) {
       LOG.trace("Fetching App Versions for cluster=" + cluster + " user=" + user + " app=" + appId);
      }
      serializationContext.set(new SerializationContext(
-         SerializationContext.DetailLevel.EVERYTHING));
-     List<VersionInfo> distinctVersions = serviceThreadLocalAppVersion.get()
+         SerializationContext.DetailLevel.EVERYTHING, null, pretty));
+     List<VersionInfo> distinctVersions = getAppVersionService()
                                              .getDistinctVersions(
                                                  StringUtils.trimToEmpty(cluster),
                                                  StringUtils.trimToEmpty(user),
@@ -249,27 +252,102 @@ public class RestJSONResource {
      return distinctVersions;
   }
 
+  /**
+   * @return the parts of each job to read for the configuration properties
+   *         requested, all of them if none are requested in particular
+   */
+  private static JobProjection getProjection(List<String> includeConfig,
+                                             List<String> includeConfigRegex) {
+    if (includeConfig != null && !includeConfig.isEmpty()) {
+      return JobProjection.withConfigurationKeys(includeConfig);
+    } else if (includeConfigRegex != null && !includeConfigRegex.isEmpty()) {
+      return JobProjection.withConfigurationPatterns(includeConfigRegex);
+    }
+    return JobProjection.EVERYTHING;
+  }
+
   private List<Flow> getFlowList(String cluster,
                                  String user,
                                  String appId,
                                  String version,
-                                 int limit) throws IOException {
+                                 int limit,
+                                 JobProjection projection) throws IOException {
     if (limit < 1) { limit = 1; }
     LOG.info(String.format(
       "Fetching Flow series for cluster=%s, user=%s, appId=%s, version=%s, limit=%s",
       cluster, user, appId, version, limit));
 
     List<Flow> flows =
-        getJobHistoryService().getFlowSeries(cluster, user, appId, version, false, limit);
+        getJobHistoryService().getFlowSeries(cluster, user, appId, version, false, limit,
+            projection);
     LOG.info(String.format("Found %s flows", flows.size()));
     return flows;
   }
 
-  private static JobHistoryService getJobHistoryService() throws IOException {
-    if (LOG.isDebugEnabled()) {
-      LOG.debug(String.format("Returning JobHistoryService %s bound to thread %s",
-        serviceThreadLocal.get(), Thread.currentThread().getName()));
+  /**
+   * Connects the services shared by all requests to HBase, unless this was
+   * done already. Called by {@link RestServer} on start up, and on first use
+   * otherwise.
+   *
+   * @param hbaseConf the HBase configuration
+   */
+  static synchronized void startServices(Configuration hbaseConf)
+      throws IOException {
+    if (tablePool != null) {
+      return;
     }
-    return serviceThreadLocal.get();
+    LOG.info("Initializing JobHistoryService and AppVersionService");
+    TablePool pool = TablePool.createShared(hbaseConf);
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(pool,
+          new ObjectName(TABLE_POOL_MBEAN_NAME));
+    } catch (JMException jme) {
+      LOG.warn("Could not register the table pool with JMX", jme);
+    }
+    jobHistoryService = new JobHistoryService(hbaseConf, pool);
+    appVersionService = new AppVersionService(pool);
+    tablePool = pool;
+  }
+
+  /**
+   * Closes the services shared by all requests and their connection to HBase.
+   * Called by {@link RestServer} on shut down, once no requests are served
+   * any more.
+   */
+  static synchronized void stopServices() throws IOException {
+    if (tablePool == null) {
+      return;
+    }
+    LOG.info("Closing JobHistoryService and AppVersionService");
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+          new ObjectName(TABLE_POOL_MBEAN_NAME));
+    } catch (JMException jme) {
+      LOG.warn("Could not unregister the table pool from JMX", jme);
+    }
+    try {
+      jobHistoryService.close();
+      appVersionService.close();
+    } finally {
+      try {
+        tablePool.close();
+      } finally {
+        tablePool = null;
+        jobHistoryService = null;
+        appVersionService = null;
+      }
+    }
+  }
+
+  private static synchronized JobHistoryService getJobHistoryService()
+      throws IOException {
+    startServices(HBASE_CONF);
+    return jobHistoryService;
+  }
+
+  private static synchronized AppVersionService getAppVersionService()
+      throws IOException {
+    startServices(HBASE_CONF);
+    return appVersionService;
   }
 }
@@ -15,21 +15,32 @@ limitations under the License.
 */
 package com.twitter.hraven.rest;
 
+import java.util.Map;
+import java.util.Properties;
+
+import javax.ws.rs.core.MediaType;
+
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.mortbay.jetty.Connector;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.mortbay.jetty.Handler;
 import org.mortbay.jetty.Server;
 import org.mortbay.jetty.nio.SelectChannelConnector;
 import org.mortbay.jetty.servlet.Context;
+import org.mortbay.jetty.servlet.FilterHolder;
 import org.mortbay.jetty.servlet.ServletHolder;
+import org.mortbay.servlet.GzipFilter;
 import org.mortbay.thread.QueuedThreadPool;
 
 import com.google.common.util.concurrent.AbstractIdleService;
+import com.twitter.hraven.Constants;
 import com.sun.jersey.api.json.JSONConfiguration;
 import com.sun.jersey.spi.container.servlet.ServletContainer;
 
@@ -41,20 +52,43 @@ public class RestServer extends AbstractIdleService {
   public static final int DEFAULT_PORT = 8080;
   /** Default IP address for the server to listen on */
   public static final String DEFAULT_ADDRESS = "0.0.0.0";
+  /** Responses shorter than this many bytes are sent uncompressed */
+  static final int GZIP_MIN_SIZE = 1024;
+  /**
+   * Bytes of a response held back while deciding whether to compress it,
+   * compressed output is flushed to the client as it is written from then on
+   */
+  static final int GZIP_BUFFER_SIZE = 8192;
 
   private static final Log LOG = LogFactory.getLog(RestServer.class);
 
   private final String address;
   private final int port;
+  private final Configuration conf;
   private Server server;
 
   public RestServer(String address, int port) {
+    this(address, port, HBaseConfiguration.create());
+  }
+
+  /**
+   * @param address the IP address to listen on
+   * @param port the TCP port to listen on
+   * @param conf the HBase configuration, also holding the settings of the
+   *          server, see {@link Constants#REST_MAX_THREADS_CONF_KEY} and
+   *          the keys following it
+   */
+  public RestServer(String address, int port, Configuration conf) {
     this.address = address;
     this.port = port;
+    this.conf = conf;
   }
 
   @Override
   protected void startUp() throws Exception {
+    // connect to HBase before the first request comes in
+    RestJSONResource.startServices(conf);
+
     // setup the jetty config
     ServletHolder sh = new ServletHolder(ServletContainer.class);
     sh.setInitParameter("com.sun.jersey.config.property.packages", "com.twitter.hraven.rest");
@@ -62,16 +96,22 @@ public class RestServer extends AbstractIdleService {
 
     server = new Server();
 
-    Connector connector = new SelectChannelConnector();
+    SelectChannelConnector connector = new SelectChannelConnector();
     connector.setPort(this.port);
     connector.setHost(address);
+    connector.setAcceptors(conf.getInt(Constants.REST_ACCEPTORS_CONF_KEY,
+        Constants.REST_ACCEPTORS_DEFAULT));
+    connector.setAcceptQueueSize(conf.getInt(
+        Constants.REST_ACCEPT_QUEUE_SIZE_CONF_KEY,
+        Constants.REST_ACCEPT_QUEUE_SIZE_DEFAULT));
 
     server.addConnector(connector);
 
-    // TODO: in the future we may want to provide settings for the min and max threads
-    // Jetty sets the default max thread number to 250, if we don't set it.
-    //
     QueuedThreadPool threadPool = new QueuedThreadPool();
+    threadPool.setMinThreads(conf.getInt(Constants.REST_MIN_THREADS_CONF_KEY,
+        Constants.REST_MIN_THREADS_DEFAULT));
+    threadPool.setMaxThreads(conf.getInt(Constants.REST_MAX_THREADS_CONF_KEY,
+        Constants.REST_MAX_THREADS_DEFAULT));
     server.setThreadPool(threadPool);
 
     server.setSendServerVersion(false);
@@ -80,6 +120,26 @@ public class RestServer extends AbstractIdleService {
     // set up context
     Context context = new Context(server, "/", Context.SESSIONS);
     context.addServlet(sh, "/*");
+    // turn away requests beyond what HBase is to serve at a time, before
+    // anything else is done for them
+    FilterHolder admission = new FilterHolder(AdmissionFilter.class);
+    admission.setInitParameter("maxRequests", Integer.toString(conf.getInt(
+        Constants.REST_MAX_REQUESTS_CONF_KEY,
+        Constants.REST_MAX_REQUESTS_DEFAULT)));
+    admission.setInitParameter("waitMs", Integer.toString(conf.getInt(
+        Constants.REST_REQUEST_WAIT_MS_CONF_KEY,
+        Constants.REST_REQUEST_WAIT_MS_DEFAULT)));
+    admission.setInitParameter("retryAfterSeconds", Integer.toString(conf
+        .getInt(Constants.REST_RETRY_AFTER_SECONDS_CONF_KEY,
+            Constants.REST_RETRY_AFTER_SECONDS_DEFAULT)));
+    context.addFilter(admission, "/*", Handler.DEFAULT);
+    // compress responses for clients sending Accept-Encoding: gzip
+    FilterHolder gzip = new FilterHolder(GzipFilter.class);
+    gzip.setInitParameter("mimeTypes", MediaType.APPLICATION_JSON + ","
+        + ObjectMapperProvider.SMILE_MEDIA_TYPE);
+    gzip.setInitParameter("minGzipSize", Integer.toString(GZIP_MIN_SIZE));
+    gzip.setInitParameter("bufferSize", Integer.toString(GZIP_BUFFER_SIZE));
+    context.addFilter(gzip, "/*", Handler.DEFAULT);
 
     // start server
     server.start();
@@ -87,13 +147,18 @@ public class RestServer extends AbstractIdleService {
 
   @Override
   protected void shutDown() throws Exception {
-    server.stop();
+    try {
+      server.stop();
+    } finally {
+      RestJSONResource.stopServices();
+    }
   }
 
   private static void printUsage(Options opts) {
     HelpFormatter formatter = new HelpFormatter();
     formatter.printHelp("bin/hraven rest start", "", opts,
-        "To run the REST server, execute bin/hraven rest start|stop [-p <port>]", true);
+        "To run the REST server, execute bin/hraven rest start|stop [-p <port>]"
+        + " [-D <property>=<value>]...", true);
   }
 
   public static void main(String[] args) {
@@ -101,6 +166,12 @@ public class RestServer extends AbstractIdleService {
     Options opts = new Options();
     opts.addOption("p", "port", true, "Port for server to bind to (default 8080)");
     opts.addOption("a", "address", true, "IP address for server to bind to (default 0.0.0.0)");
+    OptionBuilder.withArgName("property=value");
+    OptionBuilder.hasArgs(2);
+    OptionBuilder.withValueSeparator();
+    OptionBuilder.withDescription("Configuration property, e.g. "
+        + Constants.REST_MAX_THREADS_CONF_KEY + "=100");
+    opts.addOption(OptionBuilder.create("D"));
     CommandLine cmd = null;
     try {
       cmd = new PosixParser().parse(opts, args);
@@ -124,7 +195,12 @@ public class RestServer extends AbstractIdleService {
     if (cmd.hasOption("a")) {
       address = cmd.getOptionValue("a");
     }
-    RestServer server = new RestServer(address, port);
+    Configuration conf = HBaseConfiguration.create();
+    Properties properties = cmd.getOptionProperties("D");
+    for (Map.Entry<Object, Object> property : properties.entrySet()) {
+      conf.set((String) property.getKey(), (String) property.getValue());
+    }
+    RestServer server = new RestServer(address, port, conf);
     server.startAndWait();
     // run until we're done
   }
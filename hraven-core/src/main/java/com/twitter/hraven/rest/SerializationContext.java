@@ -102,16 +102,28 @@ public class SerializationContext {
 
   private final DetailLevel level;
   private final Predicate<String> filter;
+  private final boolean pretty;
 
   public SerializationContext(DetailLevel serializationLevel) {
-    this.level = serializationLevel;
-    this.filter = null;
+    this(serializationLevel, null, false);
   }
 
   public SerializationContext(DetailLevel serializationLevel,
                               Predicate<String> filter) {
+    this(serializationLevel, filter, false);
+  }
+
+  /**
+   * @param serializationLevel what to return
+   * @param filter restricts the job configuration properties returned, may be
+   *          {@code null}
+   * @param pretty whether to indent the response for human readers
+   */
+  public SerializationContext(DetailLevel serializationLevel,
+                              Predicate<String> filter, boolean pretty) {
     this.level = serializationLevel;
     this.filter = filter;
+    this.pretty = pretty;
   }
 
   public DetailLevel getLevel() {
@@ -121,4 +133,8 @@ public class SerializationContext {
   public Predicate<String> getConfigurationFilter() {
     return this.filter;
   }
+
+  public boolean isPretty() {
+    return this.pretty;
+  }
 }
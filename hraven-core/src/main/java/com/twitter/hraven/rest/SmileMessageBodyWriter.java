@@ -0,0 +1,67 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Writes responses as Smile for clients that accept
+ * {@link ObjectMapperProvider#SMILE_MEDIA_TYPE}, using the same serializers
+ * as the JSON responses.
+ */
+@Provider
+@Produces(ObjectMapperProvider.SMILE_MEDIA_TYPE)
+public class SmileMessageBodyWriter implements MessageBodyWriter<Object> {
+  private final ObjectMapper smileMapper;
+
+  public SmileMessageBodyWriter() {
+    smileMapper = ObjectMapperProvider.createSmileMapper();
+    // the container closes the response stream
+    smileMapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+  }
+
+  @Override
+  public boolean isWriteable(Class<?> type, Type genericType,
+      Annotation[] annotations, MediaType mediaType) {
+    return true;
+  }
+
+  @Override
+  public long getSize(Object value, Class<?> type, Type genericType,
+      Annotation[] annotations, MediaType mediaType) {
+    return -1;
+  }
+
+  @Override
+  public void writeTo(Object value, Class<?> type, Type genericType,
+      Annotation[] annotations, MediaType mediaType,
+      MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+      throws IOException {
+    smileMapper.writeValue(entityStream, value);
+  }
+}
@@ -34,7 +34,6 @@ import com.twitter.hraven.Flow;
 import com.twitter.hraven.JobDetails;
 import com.twitter.hraven.datasource.JobHistoryService;
 import com.twitter.hraven.rest.ObjectMapperProvider;
-import com.twitter.hraven.util.JSONUtil;
 import com.twitter.hraven.util.StringUtil;
 
 /**
@@ -43,9 +42,14 @@ import com.twitter.hraven.util.StringUtil;
 public class HRavenRestClient {
   private static final Log LOG = LogFactory.getLog(HRavenRestClient.class);
 
+  /** Asks for Smile, but takes JSON from servers that do not write Smile */
+  private static final String ACCEPT_SMILE = ObjectMapperProvider.SMILE_MEDIA_TYPE
+      + ", application/json;q=0.5";
+
   private String apiHostname;
   private int connectTimeout;
   private int readTimeout;
+  private boolean useSmile;
 
   /**
    * Initializes with the given hostname and a default connect and read timeout of 5 seconds.
@@ -56,12 +60,25 @@ public class HRavenRestClient {
   }
 
   public HRavenRestClient(String apiHostname, int connectTimeout, int readTimeout) {
+    this(apiHostname, connectTimeout, readTimeout, false);
+  }
+
+  /**
+   * @param apiHostname the hostname to connect to
+   * @param connectTimeout connect timeout in milliseconds
+   * @param readTimeout read timeout in milliseconds
+   * @param useSmile whether to request responses as Smile, which is smaller
+   *          and much cheaper to decode than JSON
+   */
+  public HRavenRestClient(String apiHostname, int connectTimeout, int readTimeout,
+      boolean useSmile) {
     this.apiHostname = apiHostname;
     this.connectTimeout = connectTimeout;
     this.readTimeout = readTimeout;
+    this.useSmile = useSmile;
     LOG.info(String.format(
-      "Initializing HRavenRestClient with apiHostname=%s, connectTimeout=%d ms, readTimeout=%d ms",
-      apiHostname, connectTimeout, readTimeout));
+      "Initializing HRavenRestClient with apiHostname=%s, connectTimeout=%d ms, readTimeout=%d ms, "
+      + "useSmile=%b", apiHostname, connectTimeout, readTimeout, useSmile));
   }
 
   public List<Flow> fetchFlows(String cluster,
@@ -158,8 +175,15 @@ public class HRavenRestClient {
       URLConnection connection = url.openConnection();
       connection.setConnectTimeout(this.connectTimeout);
       connection.setReadTimeout(this.readTimeout);
+      if (this.useSmile) {
+        connection.setRequestProperty("Accept", ACCEPT_SMILE);
+      }
       input = connection.getInputStream();
-      return (List<Flow>) JSONUtil.readJson(input, new TypeReference<List<Flow>>() {});
+      String contentType = connection.getContentType();
+      if (contentType != null && contentType.startsWith(ObjectMapperProvider.SMILE_MEDIA_TYPE)) {
+        return (List<Flow>) ResponseReader.readSmile(input, new TypeReference<List<Flow>>() {});
+      }
+      return (List<Flow>) ResponseReader.readJson(input, new TypeReference<List<Flow>>() {});
     } finally {
       if (input != null) {
         try {
@@ -182,6 +206,7 @@ public class HRavenRestClient {
     int limit = 2;
     boolean useHBaseAPI = false;
     boolean dumpJson = false;
+    boolean useSmile = false;
 
     StringBuffer usage = new StringBuffer("Usage: java ");
     usage.append(HRavenRestClient.class.getName()).append(" [-options]\n");
@@ -195,6 +220,7 @@ public class HRavenRestClient {
     usage.append(" -l <limit>\n");
     usage.append(" -h - print this message and return\n");
     usage.append(" -H - use HBase API, not the REST API\n");
+    usage.append(" -S - request Smile rather than JSON from the REST API\n");
     usage.append(" -j - output json");
 
     for (int i = 0; i < args.length; i++) {
@@ -219,6 +245,9 @@ public class HRavenRestClient {
       } else if("-H".equals(args[i])) {
         useHBaseAPI = true;
         continue;
+      } else if("-S".equals(args[i])) {
+        useSmile = true;
+        continue;
       } else if("-j".equals(args[i])) {
         dumpJson = true;
         continue;
@@ -240,7 +269,7 @@ public class HRavenRestClient {
       JobHistoryService jobHistoryService = new JobHistoryService(HBaseConfiguration.create());
       flows = jobHistoryService.getFlowSeries(cluster, username, batchDesc, signature, false, limit);
     } else {
-      HRavenRestClient client = new HRavenRestClient(apiHostname);
+      HRavenRestClient client = new HRavenRestClient(apiHostname, 5000, 5000, useSmile);
       flows = client.fetchFlows(cluster, username, batchDesc, signature, limit);
     }
 
@@ -0,0 +1,136 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.rest.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.Version;
+import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.map.DeserializationContext;
+import org.codehaus.jackson.map.JsonDeserializer;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.module.SimpleModule;
+import org.codehaus.jackson.smile.SmileFactory;
+import org.codehaus.jackson.type.TypeReference;
+
+import com.twitter.hraven.CounterMap;
+
+/**
+ * Reads the responses of the REST API, written as JSON or Smile by
+ * {@link com.twitter.hraven.rest.ObjectMapperProvider}, back into objects.
+ */
+public class ResponseReader {
+
+  /**
+   * Reads an object written as JSON, ignoring any properties the object does
+   * not know.
+   */
+  public static Object readJson(InputStream inputStream, TypeReference<?> type)
+      throws IOException {
+    return createMapper(new JsonFactory()).readValue(inputStream, type);
+  }
+
+  /**
+   * Reads an object written as Smile, the binary JSON format the REST API
+   * offers next to JSON, ignoring any properties the object does not know.
+   */
+  public static Object readSmile(InputStream inputStream, TypeReference<?> type)
+      throws IOException {
+    return createMapper(new SmileFactory()).readValue(inputStream, type);
+  }
+
+  /**
+   * @param factory the factory for the format to read
+   * @return a mapper that knows how to read the job configurations and
+   *         counters as the REST API writes them, and ignores any properties
+   *         the objects read do not know
+   */
+  public static ObjectMapper createMapper(JsonFactory factory) {
+    ObjectMapper result = new ObjectMapper(factory);
+    SimpleModule module = new SimpleModule("hRavenClientModule", new Version(0, 4, 0, null));
+    module.addDeserializer(Configuration.class, new ConfigurationDeserializer());
+    module.addDeserializer(CounterMap.class, new CounterDeserializer());
+    result.registerModule(module);
+    result.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    return result;
+  }
+
+  /**
+   * Reads a job configuration back from its properties, written without the
+   * class loader and the like.
+   */
+  private static class ConfigurationDeserializer extends JsonDeserializer<Configuration> {
+
+    @Override
+    public Configuration deserialize(JsonParser jsonParser,
+                                     DeserializationContext deserializationContext)
+                                     throws IOException {
+      // the job configuration as it was stored, without the local defaults,
+      // which would also be parsed again for every job
+      Configuration conf = new Configuration(false);
+
+      JsonToken token;
+      while ((token = jsonParser.nextToken()) != JsonToken.END_OBJECT) {
+        if (token != JsonToken.VALUE_STRING) { continue; } // all deserialized values are strings
+        conf.set(jsonParser.getCurrentName(), jsonParser.getText());
+      }
+
+      return conf;
+    }
+  }
+
+  /**
+   * Reads counters back from their values, nested by group and then name.
+   */
+  private static class CounterDeserializer extends JsonDeserializer<CounterMap> {
+
+    @Override
+    public CounterMap deserialize(JsonParser jsonParser,
+                                  DeserializationContext deserializationContext)
+                                  throws IOException {
+      CounterMap counterMap = new CounterMap();
+
+      JsonToken token;
+      while ((token = jsonParser.nextToken()) != JsonToken.END_OBJECT) {
+        assertToken(token, JsonToken.FIELD_NAME);
+        String group = jsonParser.getCurrentName();
+
+        assertToken(jsonParser.nextToken(), JsonToken.START_OBJECT);
+        while ((token = jsonParser.nextToken()) != JsonToken.END_OBJECT) {
+          if (token != JsonToken.VALUE_NUMBER_INT) {
+            continue; // all deserialized values are ints
+          }
+
+          counterMap.add(group, jsonParser.getCurrentName(), jsonParser.getLongValue());
+        }
+      }
+      counterMap.trimToSize();
+      return counterMap;
+    }
+  }
+
+  private static void assertToken(JsonToken found, JsonToken expected) {
+    if (expected != found) {
+      throw new IllegalStateException("Expecting JsonToken to be " + expected.asString() +
+        ", but found JsonToken=" + found.asString());
+    }
+  }
+}
@@ -18,6 +18,8 @@ package com.twitter.hraven.util;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.hadoop.hbase.util.Bytes;
+
 import com.twitter.hraven.Constants;
 
 /**
@@ -118,30 +120,68 @@ public class ByteUtil {
    * @param limit the maximum number of splits to identify in the source
    */
   public static List<Range> splitRanges(byte[] source, byte[] separator, int limit) {
+    checkSeparator(separator);
     List<Range> segments = new ArrayList<Range>();
     int start = 0;
-    itersource: for (int i = 0; i < source.length; i++) {
-      for (int j = 0; j < separator.length; j++) {
-        if (source[i + j] != separator[j]) {
-          continue itersource;
-        }
-      }
-      // all separator elements matched
-      if (limit > 0 && segments.size() >= (limit-1)) {
-        // everything else goes in one final segment
+    while (limit <= 0 || segments.size() < limit - 1) {
+      int sep = indexOf(source, separator, start, source.length);
+      if (sep < 0) {
         break;
       }
+      segments.add(new Range(start, sep));
+      start = sep + separator.length;
+    }
+    // everything else goes in one final segment
+    segments.add(new Range(start, source.length));
+    return segments;
+  }
 
-      segments.add(new Range(start, i));
-      start = i + separator.length;
-      // i will be incremented again in outer for loop
-      i += separator.length-1;
+  /**
+   * Identifies the segments of {@code source[offset, offset + length)} that
+   * would be split using the separator, without allocating anything. The
+   * [start, end) -- closed, open -- positions of segment {@code i} within the
+   * source array are stored in {@code bounds[2 * i]} and
+   * {@code bounds[2 * i + 1]}. At most {@code bounds.length / 2} segments are
+   * identified, the last one holds everything that is left.
+   *
+   * @param source the source data
+   * @param offset where the data to split starts in the source
+   * @param length the length of the data to split
+   * @param separator the separator pattern to look for
+   * @param bounds receives the segment positions, must have room for at least
+   *          one segment
+   * @return the number of segments identified
+   */
+  public static int splitRanges(byte[] source, int offset, int length,
+      byte[] separator, int[] bounds) {
+    checkSeparator(separator);
+    int limit = bounds.length / 2;
+    if (limit < 1) {
+      throw new IllegalArgumentException(
+          "Bounds need room for at least one segment, length=" + bounds.length);
+    }
+    int end = offset + length;
+    int count = 0;
+    int start = offset;
+    while (count < limit - 1) {
+      int sep = indexOf(source, separator, start, end);
+      if (sep < 0) {
+        break;
+      }
+      bounds[2 * count] = start;
+      bounds[2 * count + 1] = sep;
+      count++;
+      start = sep + separator.length;
     }
-    // add in remaining to a final range
-    if (start <= source.length) {
-      segments.add(new Range(start, source.length));
+    bounds[2 * count] = start;
+    bounds[2 * count + 1] = end;
+    return count + 1;
+  }
+
+  private static void checkSeparator(byte[] separator) {
+    if (separator == null || separator.length == 0) {
+      throw new IllegalArgumentException("Separator must not be empty");
     }
-    return segments;
   }
 
   /**
@@ -195,13 +235,37 @@ public class ByteUtil {
    *          the index to start the search from in {@code array}
    */
   public static int indexOf(byte[] array, byte[] target, int fromIndex) {
-
     if (array == null || target == null) {
       return -1;
     }
+    return indexOf(array, target, fromIndex, array.length);
+  }
+
+  /**
+   * Returns the index (start position) of the first occurrence of the specified
+   * {@code target} that lies completely within
+   * {@code array[fromIndex, toIndex)}, or {@code -1} if there is no such
+   * occurrence or the range is not within the array. An empty target is found
+   * at {@code fromIndex}.
+   *
+   * @param array
+   *          the array to search for the sequence {@code target}
+   * @param target
+   *          the array to search for as a sub-sequence of {@code array}
+   * @param fromIndex
+   *          the index to start the search from in {@code array}
+   * @param toIndex
+   *          the index in {@code array} to stop the search at, exclusive
+   */
+  public static int indexOf(byte[] array, byte[] target, int fromIndex,
+      int toIndex) {
+    if (array == null || target == null || toIndex > array.length) {
+      return -1;
+    }
 
-    // Target cannot be beyond array boundaries
-    if (fromIndex < 0 || (fromIndex > (array.length - target.length))) {
+    // Target cannot be beyond the range boundaries
+    int last = toIndex - target.length;
+    if (fromIndex < 0 || fromIndex > last) {
       return -1;
     }
 
@@ -211,9 +275,13 @@ public class ByteUtil {
       return fromIndex;
     }
 
-    firstbyte: for (int i = fromIndex; i < array.length - target.length + 1; i++) {
-      for (int j = 0; j < target.length; j++) {
+    // look for the first byte of the target, then check the rest in place
+    byte first = target[0];
+    int i = fromIndex;
+    firstbyte: while ((i = indexOf(array, first, i, last + 1)) >= 0) {
+      for (int j = 1; j < target.length; j++) {
         if (array[i + j] != target[j]) {
+          i++;
           continue firstbyte;
         }
       }
@@ -222,6 +290,38 @@ public class ByteUtil {
     return -1;
   }
 
+  /**
+   * Returns the index of the first occurrence of {@code target} in
+   * {@code array[fromIndex, toIndex)}, or {@code -1} if there is no such
+   * occurrence or the range is not within the array.
+   * <p>
+   * A plain loop, which the JIT compiles to tighter code than reading the
+   * array eight bytes at a time through a {@code ByteBuffer} does on the JDKs
+   * this runs on.
+   *
+   * @param array
+   *          the array to search for the byte {@code target}
+   * @param target
+   *          the byte to search for
+   * @param fromIndex
+   *          the index to start the search from in {@code array}
+   * @param toIndex
+   *          the index in {@code array} to stop the search at, exclusive
+   */
+  public static int indexOf(byte[] array, byte target, int fromIndex,
+      int toIndex) {
+    if (array == null || fromIndex < 0 || toIndex > array.length) {
+      return -1;
+    }
+
+    for (int i = fromIndex; i < toIndex; i++) {
+      if (array[i] == target) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
   /**
    * Returns a copy of the source byte array, starting at offset for the given
    * length.  If the offset + length is out of bounds for the array, returns null.
@@ -0,0 +1,139 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+import com.twitter.hraven.rest.ObjectMapperProvider;
+
+/**
+ * Tests the primitive array backed {@link CounterMap}.
+ */
+public class TestCounterMap {
+
+  @Test
+  public void testAddAndGet() {
+    CounterMap counters = new CounterMap();
+    assertEquals(0, counters.size());
+    assertNull(counters.getCounter("g1", "c1"));
+    assertNull(counters.getGroup("g1"));
+    assertEquals(-1L, counters.getValue("g1", "c1", -1L));
+
+    counters.add(new Counter("g1", "c1", 1L));
+    counters.add("g2", "c1", 2L);
+    counters.add("g1", "c2", 3L);
+    // replaces the value
+    counters.add("g1", "c1", 4L);
+    for (int i = 0; i < 20; i++) {
+      counters.add("g3", "c" + i, i);
+    }
+
+    assertEquals(23, counters.size());
+    assertEquals(Arrays.asList("g1", "g2", "g3"),
+        new ArrayList<String>(counters.getGroups()));
+    assertEquals(4L, counters.getValue("g1", "c1", -1L));
+    assertEquals(19L, counters.getCounter("g3", "c19").getValue());
+    assertEquals("g1", counters.getGroupAt(0));
+    assertEquals("c2", counters.getNameAt(2));
+    assertEquals(3L, counters.getValueAt(2));
+
+    Map<String, Counter> g1 = counters.getGroup("g1");
+    assertEquals(Arrays.asList("c1", "c2"), new ArrayList<String>(g1.keySet()));
+    assertEquals("g1", g1.get("c2").getGroup());
+    assertEquals("c2", g1.get("c2").getKey());
+    assertEquals(3L, g1.get("c2").getValue());
+
+    // counters handed out are copies
+    counters.getCounter("g1", "c2").setValue(5L);
+    assertEquals(3L, counters.getValue("g1", "c2", -1L));
+
+    counters.trimToSize();
+    assertEquals(23, counters.size());
+    counters.add("g4", "c1", 6L);
+    assertEquals(6L, counters.getValue("g4", "c1", -1L));
+  }
+
+  @Test
+  public void testManyCounters() {
+    CounterMap counters = new CounterMap();
+    for (int i = 0; i < 1000; i++) {
+      counters.add("g" + (i % 7), "c" + i, i);
+    }
+    // replaces the values
+    for (int i = 0; i < 1000; i += 3) {
+      counters.add("g" + (i % 7), "c" + i, -i);
+    }
+    assertEquals(1000, counters.size());
+    for (int i = 0; i < 1000; i++) {
+      long expected = i % 3 == 0 ? -i : i;
+      assertEquals(expected, counters.getValue("g" + (i % 7), "c" + i, 1L));
+      assertEquals("c" + i, counters.getNameAt(i));
+    }
+    assertEquals(1L, counters.getValue("g1", "c0", 1L));
+    assertNull(counters.getCounter("g7", "c7"));
+
+    counters.trimToSize();
+    assertEquals(998L, counters.getValue("g4", "c998", 1L));
+    counters.add("g4", "c1000", 1000L);
+    assertEquals(1000L, counters.getCounter("g4", "c1000").getValue());
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testIndexOutOfBounds() {
+    CounterMap counters = new CounterMap();
+    counters.add("g1", "c1", 1L);
+    counters.getValueAt(1);
+  }
+
+  @Test
+  public void testNamesShared() {
+    CounterMap first = new CounterMap();
+    first.add(new String("shared group"), new String("shared name"), 1L);
+    CounterMap second = new CounterMap();
+    second.add(new String("shared group"), new String("shared name"), 2L);
+    assertSame(first.getGroupAt(0), second.getGroupAt(0));
+    assertSame(first.getNameAt(0), second.getNameAt(0));
+  }
+
+  @Test
+  public void testJsonRoundTrip() throws Exception {
+    CounterMap counters = new CounterMap();
+    counters.add("g1", "c1", 1L);
+    counters.add("g2", "c1", 2L);
+    counters.add("g1", "c2", Long.MAX_VALUE);
+
+    ObjectMapper om = ObjectMapperProvider.createCustomMapper();
+    String json = om.writeValueAsString(counters);
+    assertEquals(om.readTree("{\"g1\":{\"c1\":1,\"c2\":" + Long.MAX_VALUE
+        + "},\"g2\":{\"c1\":2}}"), om.readTree(json));
+
+    @SuppressWarnings("deprecation")
+    CounterMap read = ClientObjectMapper.createCustomMapper().readValue(json,
+        CounterMap.class);
+    assertEquals(3, read.size());
+    assertEquals(Long.MAX_VALUE, read.getValue("g1", "c2", -1L));
+    assertEquals(2L, read.getValue("g2", "c1", -1L));
+  }
+}
@@ -0,0 +1,59 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Fills up the symbol table of {@link CounterName}, which is shared by the
+ * whole JVM, so this has to run on its own.
+ */
+public class TestCounterName {
+
+  @Test
+  public void testTableOverflow() {
+    CounterName shared = CounterName.of("shared group", "shared name");
+    for (int i = CounterName.getInternedCount(); i < CounterName.MAX_INTERNED; i++) {
+      CounterName.of("filler", "c" + i);
+    }
+    assertEquals(CounterName.MAX_INTERNED, CounterName.getInternedCount());
+
+    // names already in the table are still shared
+    assertSame(shared, CounterName.of("shared group", "shared name"));
+
+    // new names get instances of their own, which still compare equal
+    CounterName first = CounterName.of("overflow group", "overflow name");
+    CounterName second = CounterName.of("overflow group", "overflow name");
+    assertNotSame(first, second);
+    assertEquals(first, second);
+    assertEquals(first.hashCode(), second.hashCode());
+    assertEquals(CounterName.MAX_INTERNED, CounterName.getInternedCount());
+
+    // and counters are found by them all the same
+    CounterMap counters = new CounterMap();
+    for (int i = 0; i < 20; i++) {
+      counters.add("overflow group", "c" + i, i);
+    }
+    counters.add("overflow group", "c3", 33L);
+    assertEquals(20, counters.size());
+    assertEquals(33L, counters.getValue("overflow group", "c3", -1L));
+    assertEquals(19L, counters.getValue("overflow group", "c19", -1L));
+  }
+}
@@ -0,0 +1,143 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Test;
+
+/**
+ * {@link JobConfReader} has to come up with the same properties as loading the
+ * job conf into a {@link Configuration} does.
+ */
+public class TestJobConfReader {
+
+  @Test
+  public void testMatchesConfiguration() throws Exception {
+    JobConf jobConf = new JobConf();
+    jobConf.set(Constants.USER_CONF_KEY, "user1");
+    jobConf.set(Constants.JOB_NAME_CONF_KEY, "word count [<&> \"quoted\"]");
+    jobConf.set("hraven.test.multiline", "line1\n  line2\n");
+    jobConf.set("hraven.test.unicode", "café 日本");
+    jobConf.set("hraven.test.base", "/tmp/${user.name}");
+    jobConf.set("hraven.test.nested", "${hraven.test.base}/out");
+    jobConf.set("hraven.test.unbound", "${hraven.test.not.set}/out");
+    jobConf.set("hraven.test.hex", "0x1F");
+    jobConf.set("hraven.test.empty", "");
+    byte[] xml = toXml(jobConf);
+
+    Configuration expected = new Configuration(false);
+    expected.addResource(new ByteArrayInputStream(xml));
+    JobConfProperties actual = JobConfReader.read(xml, 0, xml.length);
+
+    Map<String, String> expectedRaw = new HashMap<String, String>();
+    for (Entry<String, String> property : expected) {
+      expectedRaw.put(property.getKey(), property.getValue());
+    }
+    assertEquals(expectedRaw, new HashMap<String, String>(actual.asMap()));
+    assertEquals(expected.size(), actual.size());
+    for (String name : expectedRaw.keySet()) {
+      assertEquals(name, expected.get(name), actual.get(name));
+    }
+
+    // user.name comes from the system properties
+    assertEquals(expected.get("hraven.test.nested"),
+        actual.get("hraven.test.nested"));
+    assertEquals("${hraven.test.not.set}/out", actual.get("hraven.test.unbound"));
+    assertEquals("${hraven.test.base}/out", actual.getRaw("hraven.test.nested"));
+    assertEquals(31L, actual.getLong("hraven.test.hex", 0));
+    assertEquals(expected.getLong("mapred.task.timeout", -1),
+        actual.getLong("mapred.task.timeout", -1));
+    assertEquals(-1L, actual.getLong(Constants.USER_CONF_KEY, -1));
+    // an empty value does not survive a round trip through Configuration
+    assertNull(actual.get("hraven.test.empty"));
+    assertEquals("default", actual.get("hraven.test.empty", "default"));
+  }
+
+  @Test
+  public void testOverridesAndFinal() throws Exception {
+    byte[] xml = Bytes.toBytes("<?xml version=\"1.0\"?>\n"
+        + "<configuration>\n"
+        + "  <!-- comments are ignored -->\n"
+        + "  <property><name>a</name><value>1</value></property>\n"
+        + "  <property><name>a</name><value>2</value></property>\n"
+        + "  <property><name>b</name><value>1</value><final>true</final></property>\n"
+        + "  <property><name>b</name><value>2</value></property>\n"
+        + "  <property><name> c </name><value> 3 </value>"
+        + "<description>ignored <b>too</b></description></property>\n"
+        + "  <property><name>d</name><value><![CDATA[<4>]]></value></property>\n"
+        + "  <property><name>e</name><value></value></property>\n"
+        + "  <notaproperty><name>f</name><value>6</value></notaproperty>\n"
+        + "  <configuration><property><name>g</name><value>7</value></property>"
+        + "</configuration>\n"
+        + "  <property><name>h</name><value>8<b>x</b>9</value></property>\n"
+        + "</configuration>\n");
+
+    Configuration expected = new Configuration(false);
+    expected.addResource(new ByteArrayInputStream(xml));
+    JobConfProperties actual = JobConfReader.read(xml, 0, xml.length);
+
+    assertEquals(expected.size(), actual.size());
+    assertEquals("2", actual.get("a"));
+    assertEquals("1", actual.get("b"));
+    assertEquals(" 3 ", actual.get("c"));
+    assertEquals("<4>", actual.get("d"));
+    assertNull(actual.get("e"));
+    // Configuration reads any element as a property
+    assertEquals("6", actual.get("f"));
+    assertEquals("7", actual.get("g"));
+    assertEquals("8", actual.get("h"));
+    for (Entry<String, String> property : expected) {
+      assertEquals(property.getValue(), actual.getRaw(property.getKey()));
+    }
+  }
+
+  @Test(expected = XMLStreamException.class)
+  public void testMalformed() throws Exception {
+    byte[] xml = Bytes.toBytes("<configuration><property><name>a</name>");
+    JobConfReader.read(xml, 0, xml.length);
+  }
+
+  @Test
+  public void testFromConfiguration() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.set("a", "1");
+    conf.set("b", "${a}2");
+    JobConfProperties properties = JobConfProperties.fromConfiguration(conf);
+    assertEquals(2, properties.size());
+    assertEquals("12", properties.get("b"));
+    assertEquals("${a}2", properties.getRaw("b"));
+  }
+
+  private static byte[] toXml(Configuration conf) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    conf.writeXml(out);
+    return out.toByteArray();
+  }
+}
@@ -18,7 +18,7 @@ public class TestJobDescFactoryBase extends JobDescFactoryBase {
    * @return
    */
   JobDesc create(QualifiedJobId qualifiedJobId, long submitTimeMillis,
-      Configuration jobConf) {
+      JobConfProperties jobConf) {
     // Not interesting for this test.
     return null;
   }
@@ -39,7 +39,7 @@ public class TestJobDescFactoryBase extends JobDescFactoryBase {
   public void testgetAppId() {
     Configuration conf = new Configuration();
     conf.set(Constants.APP_NAME_CONF_KEY, UNSAFE_NAME);
-    assertEquals(SAFE_NAME, getAppId(conf)); 
+    assertEquals(SAFE_NAME, getAppId(JobConfProperties.fromConfiguration(conf)));
   }
 
 }
@@ -1,8 +1,13 @@
 package com.twitter.hraven;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import java.util.HashSet;
+import java.util.Map;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.Test;
 
 public class TestJobHistoryKeys {
@@ -89,5 +94,40 @@ public class TestJobHistoryKeys {
     assertEquals(JobHistoryKeys.KEY_TYPES.get(JobHistoryKeys.MODIFY_JOB), String.class);
     assertEquals(JobHistoryKeys.KEY_TYPES.get(JobHistoryKeys.JOB_QUEUE), String.class);
   }
+
+  @Test
+  public void test_for_name() {
+    // hadoop 1.0 key names
+    assertEquals(JobHistoryKeys.JOBID, JobHistoryKeys.forName("JOBID"));
+    assertEquals(JobHistoryKeys.status, JobHistoryKeys.forName("status"));
+    // hadoop 2.0 field names
+    for (Map.Entry<String, String> e : JobHistoryKeys.HADOOP2_TO_HADOOP1_MAPPING.entrySet()) {
+      assertEquals(JobHistoryKeys.valueOf(e.getValue()), JobHistoryKeys.forName(e.getKey()));
+    }
+    assertEquals(JobHistoryKeys.SUBMIT_TIME, JobHistoryKeys.forName("submitTime"));
+    try {
+      JobHistoryKeys.forName("noSuchKey");
+      fail("Expected IllegalArgumentException for an unknown key");
+    } catch (IllegalArgumentException iae) {
+      // expected
+    }
+  }
+
+  @Test
+  public void test_qualifier_bytes() {
+    for (JobHistoryKeys jhk : JobHistoryKeys.values()) {
+      assertEquals(jhk.toString().toLowerCase(), Bytes.toString(jhk.getQualifierBytes()));
+      assertSame(jhk.getQualifierBytes(), JobHistoryKeys.KEYS_TO_BYTES.get(jhk));
+    }
+    assertEquals("g!", Bytes.toString(
+        JobHistoryKeys.COUNTER_PREFIXES_TO_BYTES.get(JobHistoryKeys.COUNTERS)));
+    assertEquals("g!", Bytes.toString(
+        JobHistoryKeys.COUNTER_PREFIXES_TO_BYTES.get(JobHistoryKeys.TOTAL_COUNTERS)));
+    assertEquals("gm!", Bytes.toString(
+        JobHistoryKeys.COUNTER_PREFIXES_TO_BYTES.get(JobHistoryKeys.MAP_COUNTERS)));
+    assertEquals("gr!", Bytes.toString(
+        JobHistoryKeys.COUNTER_PREFIXES_TO_BYTES.get(JobHistoryKeys.REDUCE_COUNTERS)));
+    assertNull(JobHistoryKeys.COUNTER_PREFIXES_TO_BYTES.get(JobHistoryKeys.JOBID));
+  }
   
 }
\ No newline at end of file
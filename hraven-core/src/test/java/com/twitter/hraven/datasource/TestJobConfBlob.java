@@ -0,0 +1,171 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.datasource;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.JobConfProperties;
+import com.twitter.hraven.JobDesc;
+import com.twitter.hraven.JobDescFactory;
+import com.twitter.hraven.QualifiedJobId;
+
+/**
+ * Round trip testing of job configurations stored as a {@link JobConfBlob}.
+ */
+public class TestJobConfBlob {
+
+  private static Configuration createJobConf() {
+    Configuration conf = new Configuration(false);
+    conf.set(Constants.USER_CONF_KEY, "user1");
+    conf.set(Constants.JOB_NAME_CONF_KEY, "word count");
+    conf.set("mapred.job.queue.name", "adhoc");
+    conf.set("mapred.output.dir", "${hadoop.tmp.dir}/out");
+    conf.set("hadoop.tmp.dir", "/tmp");
+    conf.set("unicode.value", "über 漢字");
+    conf.set("empty.value", "");
+    return conf;
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    JobConfProperties properties = JobConfProperties
+        .fromConfiguration(createJobConf());
+    byte[] blob = JobConfBlob.encode(properties);
+    assertEquals(JobConfBlob.FORMAT_VERSION, blob[0]);
+
+    Map<String, String> decoded = JobConfBlob.decode(blob, 0, blob.length);
+    assertEquals(properties.asMap(), decoded);
+    // sorted by name
+    List<String> names = new ArrayList<String>(decoded.keySet());
+    List<String> sorted = new ArrayList<String>(new TreeMap<String, String>(
+        decoded).keySet());
+    assertEquals(sorted, names);
+    // raw values, without variables expanded
+    assertEquals("${hadoop.tmp.dir}/out", decoded.get("mapred.output.dir"));
+  }
+
+  @Test
+  public void testGet() throws IOException {
+    byte[] blob = JobConfBlob.encode(JobConfProperties
+        .fromConfiguration(createJobConf()));
+    // the blob may sit anywhere in a larger buffer
+    byte[] buffer = Bytes.add(Bytes.toBytes("row"), blob, Bytes.toBytes("x"));
+    int offset = 3;
+
+    assertEquals("adhoc", JobConfBlob.get(buffer, offset, blob.length,
+        "mapred.job.queue.name"));
+    assertEquals("über 漢字", JobConfBlob.get(buffer, offset,
+        blob.length, "unicode.value"));
+    // first and last
+    assertEquals("", JobConfBlob.get(buffer, offset, blob.length,
+        "empty.value"));
+    assertEquals("user1", JobConfBlob.get(buffer, offset, blob.length,
+        "user.name"));
+    // missing before the first, in between and after the last
+    assertNull(JobConfBlob.get(buffer, offset, blob.length, "a"));
+    assertNull(JobConfBlob.get(buffer, offset, blob.length, "mapred.job"));
+    assertNull(JobConfBlob.get(buffer, offset, blob.length, "zzz"));
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    byte[] blob = JobConfBlob.encode(new TreeMap<byte[], byte[]>(
+        Bytes.BYTES_COMPARATOR));
+    assertTrue(JobConfBlob.decode(blob, 0, blob.length).isEmpty());
+    assertNull(JobConfBlob.get(blob, 0, blob.length, "user.name"));
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnknownVersion() throws IOException {
+    byte[] blob = JobConfBlob.encode(JobConfProperties
+        .fromConfiguration(createJobConf()));
+    blob[0] = 2;
+    JobConfBlob.decode(blob, 0, blob.length);
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncated() throws IOException {
+    byte[] blob = JobConfBlob.encode(JobConfProperties
+        .fromConfiguration(createJobConf()));
+    JobConfBlob.get(blob, 0, blob.length / 2, "zzz");
+  }
+
+  @Test
+  public void testPutsAndParse() {
+    Configuration jobConf = createJobConf();
+    JobConfProperties properties = JobConfProperties.fromConfiguration(jobConf);
+    JobDesc jobDesc = JobDescFactory.createJobDesc(new QualifiedJobId(
+        "cluster1", "job_201311192236_3583"), 1384906297917L, jobConf);
+
+    Configuration hRavenConf = new Configuration(false);
+    hRavenConf.set(Constants.JOB_CONF_STORAGE_CONF_KEY,
+        Constants.JOB_CONF_STORAGE_BLOB);
+    hRavenConf.set(Constants.JOB_CONF_BLOB_HOT_KEYS_CONF_KEY,
+        " mapred.job.queue.name, not.set ");
+    List<Put> puts = JobHistoryService.getHbasePuts(jobDesc, properties,
+        hRavenConf);
+    assertEquals(1, puts.size());
+
+    NavigableMap<byte[], byte[]> infoValues = new TreeMap<byte[], byte[]>(
+        Bytes.BYTES_COMPARATOR);
+    for (KeyValue kv : puts.get(0).getFamilyMap()
+        .get(Constants.INFO_FAM_BYTES)) {
+      infoValues.put(kv.getQualifier(), kv.getValue());
+    }
+    // version, framework, blob and the hot key that is set
+    assertEquals(4, infoValues.size());
+    assertNotNull(infoValues.get(Constants.JOB_CONF_BLOB_COLUMN_BYTES));
+    assertArrayEquals(Bytes.toBytes("adhoc"), infoValues.get(Bytes.add(
+        Constants.JOB_CONF_PROPERTY_COLUMN_PREFIX_BYTES,
+        Bytes.toBytes("mapred.job.queue.name"))));
+
+    Configuration parsed = JobHistoryService.parseConfiguration(infoValues);
+    assertEquals(properties.asMap(),
+        JobConfProperties.fromConfiguration(parsed).asMap());
+    assertEquals("/tmp/out", parsed.get("mapred.output.dir"));
+
+    // one column per property by default
+    puts = JobHistoryService.getHbasePuts(jobDesc, properties,
+        new Configuration(false));
+    assertEquals(2 + properties.size(),
+        puts.get(0).getFamilyMap().get(Constants.INFO_FAM_BYTES).size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownStorage() {
+    Configuration hRavenConf = new Configuration(false);
+    hRavenConf.set(Constants.JOB_CONF_STORAGE_CONF_KEY, "sideways");
+    JobHistoryService.isJobConfBlobStorage(hRavenConf);
+  }
+}
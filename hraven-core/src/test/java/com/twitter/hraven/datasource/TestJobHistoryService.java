@@ -17,13 +17,32 @@ package com.twitter.hraven.datasource;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseTestingUtility;
 import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.PrefixFilter;
+import org.apache.hadoop.hbase.filter.WhileMatchFilter;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -31,8 +50,15 @@ import org.junit.Test;
 import com.twitter.hraven.Constants;
 import com.twitter.hraven.Flow;
 import com.twitter.hraven.GenerateFlowTestData;
+import com.twitter.hraven.JobConfProperties;
+import com.twitter.hraven.JobDesc;
+import com.twitter.hraven.JobDescFactory;
 import com.twitter.hraven.JobDetails;
+import com.twitter.hraven.JobHistoryKeys;
 import com.twitter.hraven.JobKey;
+import com.twitter.hraven.QualifiedJobId;
+import com.twitter.hraven.TaskDetails;
+import com.twitter.hraven.TaskKey;
 import com.twitter.hraven.datasource.JobHistoryByIdService;
 import com.twitter.hraven.datasource.JobHistoryService;
 import com.twitter.hraven.datasource.HRavenTestUtil;
@@ -287,6 +313,287 @@ public class TestJobHistoryService {
     }
   }
 
+  @Test
+  public void testRunMatchFilter() throws Exception {
+    // 5 runs of 3 jobs each, newest first in the table
+    for (int run = 1; run <= 5; run++) {
+      flowDataGen.loadFlow("c1@local", "muser", "runMatch", 1000 * run, "a",
+          3, 10, idService, historyTable);
+    }
+    // another app sharing the row prefix
+    flowDataGen.loadFlow("c1@local", "muser", "runMatch2", 6000, "a", 3, 10,
+        idService, historyTable);
+
+    byte[] rowPrefix = Bytes.toBytes("c1@local!muser!runMatch!");
+    Scan scan = new Scan();
+    scan.setStartRow(rowPrefix);
+    FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+    filters.addFilter(new WhileMatchFilter(new PrefixFilter(rowPrefix)));
+    filters.addFilter(new RunMatchFilter("runMatch", 2));
+    scan.setFilter(filters);
+    ResultScanner scanner = historyTable.getScanner(scan);
+    List<Long> runIds = new ArrayList<Long>();
+    try {
+      for (Result result : scanner) {
+        runIds.add(new JobKeyConverter().fromBytes(result.getRow()).getRunId());
+      }
+    } finally {
+      scanner.close();
+    }
+    // only the rows of the latest 2 runs leave the region server
+    assertEquals(Arrays.asList(5000L, 5000L, 5000L, 4000L, 4000L, 4000L),
+        runIds);
+
+    JobHistoryService service = new JobHistoryService(UTIL.getConfiguration());
+    try {
+      List<Flow> flows = service.getFlowSeries("c1@local", "muser", "runMatch",
+          2);
+      assertEquals(2, flows.size());
+      assertEquals(5000L, flows.get(0).getRunId());
+      assertEquals(3, flows.get(0).getJobs().size());
+      assertEquals(4000L, flows.get(1).getRunId());
+      assertEquals(3, flows.get(1).getJobs().size());
+
+      flows = service.getFlowTimeSeriesStats("c1@local", "muser", "runMatch",
+          null, 0L, 0L, 3, null);
+      assertEquals(3, flows.size());
+      assertEquals(3000L, flows.get(2).getRunId());
+      assertEquals(3, flows.get(2).getJobCount());
+
+      // a version filter drops rows after the run limit counted them
+      flows = service.getFlowSeries("c1@local", "muser", "runMatch", "a",
+          false, 10);
+      assertEquals(5, flows.size());
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testProjection() throws Exception {
+    Map<String, String> config = new HashMap<String, String>();
+    config.put("mapred.job.queue.name", "adhoc");
+    config.put("mapred.job.priority", "HIGH");
+    config.put("testproperty1", "value1");
+    flowDataGen.loadFlow("c1@local", "puser", "projection", 1234, "a", 2, 10,
+        idService, historyTable, config);
+
+    JobHistoryService service = new JobHistoryService(UTIL.getConfiguration());
+    try {
+      Flow everything = service.getFlow("c1@local", "puser", "projection",
+          1234, false);
+      // one more counter than the summary statistics need
+      JobKey firstKey = everything.getJobs().get(0).getJobKey();
+      Put extraCounter = new Put(new JobKeyConverter().toBytes(firstKey));
+      extraCounter.add(Constants.INFO_FAM_BYTES,
+          Bytes.toBytes("g!FileSystemCounters!FILE_BYTES_READ"),
+          Bytes.toBytes(42L));
+      historyTable.put(extraCounter);
+      everything = service.getFlow("c1@local", "puser", "projection", 1234,
+          false);
+      assertEquals(2, everything.getJobs().size());
+      JobDetails job = everything.getJobs().get(0);
+      assertEquals(3, job.getConfiguration().size());
+      assertEquals(42L, job.getCounters()
+          .getCounter(Constants.FILESYSTEM_COUNTERS, Constants.FILES_BYTES_READ)
+          .getValue());
+
+      List<Flow> stats = service.getFlowSeries("c1@local", "puser",
+          "projection", "a", false, 10, JobProjection.SUMMARY_STATS);
+      assertEquals(1, stats.size());
+      Flow summary = stats.get(0);
+      assertEquals(everything.getJobCount(), summary.getJobCount());
+      assertEquals(everything.getTotalMaps(), summary.getTotalMaps());
+      assertEquals(everything.getHdfsBytesRead(), summary.getHdfsBytesRead());
+      assertEquals(everything.getMapFileBytesWritten(),
+          summary.getMapFileBytesWritten());
+      assertEquals(everything.getReduceShuffleBytes(),
+          summary.getReduceShuffleBytes());
+      assertEquals(everything.getMapSlotMillis(), summary.getMapSlotMillis());
+      job = summary.getJobs().get(0);
+      assertEquals("a", job.getVersion());
+      assertEquals("SUCCESS", job.getStatus());
+      assertEquals(0, job.getConfiguration().size());
+      assertNull(job.getCounters().getCounter(Constants.FILESYSTEM_COUNTERS,
+          Constants.FILES_BYTES_READ));
+      assertNotNull(job.getCounters().getCounter(Constants.FILESYSTEM_COUNTERS,
+          Constants.HDFS_BYTES_READ));
+
+      Flow keys = service.getFlowByJobID("c1@local", firstKey.getJobId()
+          .getJobIdString(), false, JobProjection.withConfigurationKeys(
+          Arrays.asList("mapred.job.queue.name", "not.set")));
+      job = keys.getJobs().get(0);
+      assertEquals(1, job.getConfiguration().size());
+      assertEquals("adhoc", job.getConfiguration().get("mapred.job.queue.name"));
+      assertEquals(42L, job.getCounters()
+          .getCounter(Constants.FILESYSTEM_COUNTERS, Constants.FILES_BYTES_READ)
+          .getValue());
+
+      Flow patterns = service.getFlow("c1@local", "puser", "projection", 1234,
+          false, JobProjection.withConfigurationPatterns(Arrays.asList(
+              "mapred\\.job\\..*", "nothing")));
+      job = patterns.getJobs().get(0);
+      assertEquals(2, job.getConfiguration().size());
+      assertEquals("HIGH", job.getConfiguration().get("mapred.job.priority"));
+      assertNull(job.getConfiguration().get("testproperty1"));
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testGetJobConfValue() throws Exception {
+    Configuration jobConf = new Configuration(false);
+    jobConf.set(Constants.USER_CONF_KEY, "cuser");
+    jobConf.set(Constants.JOB_NAME_CONF_KEY, "jobConfValue");
+    jobConf.set("mapred.job.queue.name", "adhoc");
+    JobConfProperties properties = JobConfProperties.fromConfiguration(jobConf);
+    Configuration hRavenConf = new Configuration(false);
+    hRavenConf.set(Constants.JOB_CONF_STORAGE_CONF_KEY,
+        Constants.JOB_CONF_STORAGE_BLOB);
+    hRavenConf.set(Constants.JOB_CONF_BLOB_HOT_KEYS_CONF_KEY,
+        "mapred.job.queue.name");
+
+    JobDesc blobJob = JobDescFactory.createJobDesc(new QualifiedJobId(
+        "c1@local", "job_201311192236_0001"), 1234L, jobConf);
+    JobDesc columnsJob = JobDescFactory.createJobDesc(new QualifiedJobId(
+        "c1@local", "job_201311192236_0002"), 1234L, jobConf);
+    historyTable.put(JobHistoryService.getHbasePuts(blobJob, properties,
+        hRavenConf));
+    historyTable.put(JobHistoryService.getHbasePuts(columnsJob, properties));
+
+    JobHistoryService service = new JobHistoryService(UTIL.getConfiguration());
+    try {
+      for (JobDesc job : new JobDesc[] { blobJob, columnsJob }) {
+        JobKey key = new JobKey(job);
+        assertEquals("adhoc", service.getJobConfValue(key,
+            "mapred.job.queue.name"));
+        assertEquals("cuser", service.getJobConfValue(key,
+            Constants.USER_CONF_KEY));
+        assertNull(service.getJobConfValue(key, "not.set"));
+      }
+      assertNull(service.getJobConfValue(new JobKey("c1@local", "cuser",
+          "jobConfValue", 1234L, "job_201311192236_0003"),
+          Constants.USER_CONF_KEY));
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testPopulateTasks() throws Exception {
+    flowDataGen.loadFlow("c1@local", "tuser", "populateTasks", 1234, "a", 4,
+        10, idService, historyTable);
+    // a later flow, whose tasks must not end up in the first one
+    flowDataGen.loadFlow("c1@local", "tuser", "populateTasks", 2345, "a", 1,
+        10, idService, historyTable);
+
+    Configuration conf = new Configuration(UTIL.getConfiguration());
+    conf.setInt(Constants.TASK_SCAN_PARALLELISM_CONF_KEY, 2);
+    JobHistoryService service = new JobHistoryService(conf);
+    JobHistoryService sequentialService = new JobHistoryService(conf,
+        (ExecutorService) null);
+    HTable taskTable = new HTable(conf, Constants.HISTORY_TASK_TABLE_BYTES);
+    try {
+      List<Flow> flows = service.getFlowSeries("c1@local", "tuser",
+          "populateTasks", 2);
+      assertEquals(2, flows.size());
+      // the first job has no tasks at all
+      TaskKeyConverter taskKeyConv = new TaskKeyConverter();
+      List<Put> puts = new ArrayList<Put>();
+      int taskCount = 0;
+      for (Flow flow : flows) {
+        for (JobDetails job : flow.getJobs()) {
+          for (int i = 0; i < taskCount; i++) {
+            String taskId = String.format("task_%s_m_%06d", job.getJobId(), i);
+            Put p = new Put(taskKeyConv.toBytes(new TaskKey(job.getJobKey(),
+                taskId)));
+            p.add(Constants.INFO_FAM_BYTES,
+                JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.TASKID),
+                Bytes.toBytes(taskId));
+            p.add(Constants.INFO_FAM_BYTES,
+                JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.START_TIME),
+                Bytes.toBytes(1355614887L + i));
+            p.add(Constants.INFO_FAM_BYTES,
+                JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.FINISH_TIME),
+                Bytes.toBytes(1355615887L + i));
+            puts.add(p);
+          }
+          taskCount += 3;
+        }
+      }
+      taskTable.put(puts);
+      taskTable.flushCommits();
+
+      List<Flow> parallel = service.getFlowSeries("c1@local", "tuser",
+          "populateTasks", null, true, 2);
+      List<Flow> sequential = sequentialService.getFlowSeries("c1@local",
+          "tuser", "populateTasks", null, true, 2);
+      assertEquals(2, parallel.size());
+      assertEquals(sequential.size(), parallel.size());
+      int expectedTaskCount = 0;
+      for (int f = 0; f < parallel.size(); f++) {
+        List<JobDetails> jobs = parallel.get(f).getJobs();
+        List<JobDetails> sequentialJobs = sequential.get(f).getJobs();
+        assertEquals(sequentialJobs.size(), jobs.size());
+        for (int j = 0; j < jobs.size(); j++) {
+          List<TaskDetails> tasks = jobs.get(j).getTasks();
+          List<TaskDetails> sequentialTasks = sequentialJobs.get(j).getTasks();
+          assertEquals(expectedTaskCount, tasks.size());
+          assertEquals(sequentialTasks.size(), tasks.size());
+          for (int t = 0; t < tasks.size(); t++) {
+            assertEquals(sequentialTasks.get(t).getTaskKey(),
+                tasks.get(t).getTaskKey());
+            assertEquals(jobs.get(j).getJobKey().getJobId().getJobIdString(),
+                tasks.get(t).getTaskKey().getJobId().getJobIdString());
+            assertEquals(tasks.get(t).getTaskKey().getTaskId(),
+                tasks.get(t).getTaskId());
+          }
+          expectedTaskCount += 3;
+        }
+      }
+    } finally {
+      taskTable.close();
+      sequentialService.close();
+      service.close();
+    }
+  }
+
+  @Test
+  public void testSharedTablePool() throws Exception {
+    flowDataGen.loadFlow("c1@local", "puser", "sharedPool", 1234, "a", 3, 10,
+        idService, historyTable);
+
+    Configuration conf = new Configuration(UTIL.getConfiguration());
+    conf.setInt(Constants.TABLE_POOL_SIZE_CONF_KEY, 2);
+    TablePool tables = TablePool.createShared(conf);
+    final JobHistoryService service = new JobHistoryService(conf, tables);
+    ExecutorService requests = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Flow>> flows = new ArrayList<Future<Flow>>();
+      for (int i = 0; i < 20; i++) {
+        flows.add(requests.submit(new Callable<Flow>() {
+          @Override
+          public Flow call() throws Exception {
+            return service.getLatestFlow("c1@local", "puser", "sharedPool");
+          }
+        }));
+      }
+      for (Future<Flow> flow : flows) {
+        assertEquals(3, flow.get().getJobs().size());
+      }
+      assertEquals(20, tables.getCheckouts());
+      assertEquals(0, tables.getTablesInUse());
+      // instances beyond the idle ones were closed once returned
+      assertTrue(tables.getOpenTables() <= tables.getMaxIdleTables());
+    } finally {
+      requests.shutdown();
+      service.close();
+      tables.close();
+    }
+    assertEquals(0, tables.getOpenTables());
+  }
+
   private void assertJob(JobDetails expected, JobDetails actual) {
     assertNotNull(actual);
     assertEquals(expected.getJobKey(), actual.getJobKey());
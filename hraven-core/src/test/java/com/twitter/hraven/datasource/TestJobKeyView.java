@@ -0,0 +1,144 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.datasource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.JobKey;
+import com.twitter.hraven.TaskKey;
+
+/**
+ * Checks that {@link JobKeyView} decodes row keys the same way splitting them
+ * with {@link JobKeyConverter#splitJobKey(byte[])} does.
+ */
+public class TestJobKeyView {
+  private final JobKeyConverter jobKeyConv = new JobKeyConverter();
+  private final TaskKeyConverter taskKeyConv = new TaskKeyConverter();
+
+  private final JobKey jobKey = new JobKey("cluster1@dc1", "user1", "app1",
+      1384906297917L, "job_201311192236_3583");
+  private final TaskKey taskKey = new TaskKey(jobKey,
+      "attempt_201311192236_3583_m_000123_0");
+
+  @Test
+  public void testMatchesSplitJobKey() {
+    byte[] taskRow = taskKeyConv.toBytes(taskKey);
+    // every prefix of a task row, down to the empty key
+    for (int length = taskRow.length; length >= 0; length--) {
+      byte[] row = Bytes.head(taskRow, length);
+      byte[][] components = JobKeyConverter.splitJobKey(row);
+      JobKey expected = jobKeyConv.parseJobKey(components);
+      String expectedTaskId = components.length > 5 ? Bytes
+          .toString(components[5]) : null;
+
+      JobKeyView view = new JobKeyView().set(row, 0, row.length);
+      assertKey(expected, view.toJobKey());
+      assertEquals(components.length > 4, view.hasJobId());
+      assertEquals(expectedTaskId, view.getTaskId());
+      assertKey(expected, jobKeyConv.fromBytes(row));
+      assertEquals(expectedTaskId, taskKeyConv.fromBytes(row).getTaskId());
+    }
+  }
+
+  @Test
+  public void testRunIdContainingSeparator() {
+    byte[] encoded = Bytes.toBytes(jobKey.getEncodedRunId());
+    for (int i = 0; i < encoded.length; i++) {
+      encoded[i] = Constants.SEP_BYTES[0];
+    }
+    JobKey key = new JobKey(jobKey.getQualifiedJobId(), "user1", "app1",
+        Long.MAX_VALUE - Bytes.toLong(encoded));
+    byte[] row = jobKeyConv.toBytes(key);
+
+    JobKeyView view = new JobKeyView().set(row, 0, row.length);
+    assertEquals("app1", view.getAppId());
+    assertEquals(key.getRunId(), view.getRunId());
+    assertKey(key, view.toJobKey());
+    assertNull(view.getTaskId());
+    assertEquals(row.length, view.getJobKeyLength());
+  }
+
+  @Test
+  public void testKeyValueRow() {
+    byte[] taskRow = taskKeyConv.toBytes(taskKey);
+    KeyValue kv = new KeyValue(taskRow, Constants.INFO_FAM_BYTES,
+        Bytes.toBytes("q"), Bytes.toBytes("value"));
+    assertTrue(kv.getRowOffset() > 0);
+
+    JobKeyView view = new JobKeyView().set(kv);
+    assertKey(taskKey, view.toTaskKey());
+    assertEquals(taskKey.getTaskId(), view.getTaskId());
+    assertKey(taskKey, taskKeyConv.fromBytes(kv.getBuffer(),
+        kv.getRowOffset(), kv.getRowLength()));
+  }
+
+  @Test
+  public void testCompareJobKey() {
+    byte[] jobRow = jobKeyConv.toBytes(jobKey);
+    byte[] taskRow = taskKeyConv.toBytes(taskKey);
+    JobKeyView view = new JobKeyView();
+
+    assertEquals(jobRow.length, view.set(taskRow, 0, taskRow.length)
+        .getJobKeyLength());
+    assertEquals(0, view.compareJobKey(jobRow));
+    assertEquals(0, view.set(jobRow, 0, jobRow.length).compareJobKey(jobRow));
+
+    JobKey nextJob = new JobKey("cluster1@dc1", "user1", "app1",
+        1384906297917L, "job_201311192236_3584");
+    byte[] nextTaskRow = taskKeyConv.toBytes(new TaskKey(nextJob, "m_1"));
+    assertTrue(view.set(nextTaskRow, 0, nextTaskRow.length).compareJobKey(
+        jobRow) > 0);
+    assertTrue(view.set(taskRow, 0, taskRow.length).compareJobKey(
+        jobKeyConv.toBytes(nextJob)) < 0);
+  }
+
+  @Test
+  public void testStringsReused() {
+    byte[] first = taskKeyConv.toBytes(taskKey);
+    byte[] second = taskKeyConv.toBytes(new TaskKey(jobKey, "m_2"));
+    byte[] other = taskKeyConv.toBytes(new TaskKey(new JobKey("cluster1@dc1",
+        "user2", "app1", 1L, "job_201311192236_1"), "m_1"));
+
+    JobKeyView view = new JobKeyView();
+    JobKey firstKey = view.set(first, 0, first.length).toJobKey();
+    JobKey secondKey = view.set(second, 0, second.length).toJobKey();
+    assertSame(firstKey.getCluster(), secondKey.getCluster());
+    assertSame(firstKey.getUserName(), secondKey.getUserName());
+    assertSame(firstKey.getAppId(), secondKey.getAppId());
+
+    JobKey otherKey = view.set(other, 0, other.length).toJobKey();
+    assertEquals("user2", otherKey.getUserName());
+    assertFalse(firstKey.getUserName().equals(otherKey.getUserName()));
+    assertSame(firstKey.getAppId(), otherKey.getAppId());
+  }
+
+  private void assertKey(JobKey expected, JobKey actual) {
+    assertEquals(expected.getCluster(), actual.getCluster());
+    assertEquals(expected.getUserName(), actual.getUserName());
+    assertEquals(expected.getAppId(), actual.getAppId());
+    assertEquals(expected.getRunId(), actual.getRunId());
+    assertEquals(expected.getJobId(), actual.getJobId());
+  }
+}
@@ -0,0 +1,96 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.datasource;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.twitter.hraven.JobKey;
+
+/**
+ * Tests the row key parsing and run counting of {@link RunMatchFilter}.
+ */
+public class TestRunMatchFilter {
+
+  private static final JobKeyConverter KEY_CONV = new JobKeyConverter();
+
+  /** encodes to a run ID of all separators */
+  private static final long SEPARATOR_RUN_ID = Long.MAX_VALUE
+      - 0x2121212121212121L;
+
+  private static boolean filter(RunMatchFilter filter, byte[] row) {
+    // the row key sits somewhere within a larger buffer
+    byte[] buffer = Bytes.add(Bytes.toBytes("before"), row,
+        Bytes.toBytes("!after!"));
+    boolean filtered = filter.filterRowKey(buffer, 6, row.length);
+    filter.reset();
+    return filtered;
+  }
+
+  private static byte[] row(String appId, long runId, String jobId) {
+    return KEY_CONV.toBytes(new JobKey("cluster1", "user1", appId, runId,
+        jobId));
+  }
+
+  @Test
+  public void testCountsRuns() {
+    RunMatchFilter filter = new RunMatchFilter("app1", 2);
+    assertFalse(filter(filter, row("app1", 3000, "job_201311192236_0003")));
+    assertFalse(filter(filter, row("app1", 3000, "job_201311192236_0004")));
+    assertFalse(filter.filterAllRemaining());
+    assertFalse(filter(filter, row("app1", SEPARATOR_RUN_ID,
+        "job_201311192236_0002")));
+    // other apps are let through and not counted
+    assertFalse(filter(filter, row("app10", 1500, "job_201311192236_0005")));
+    assertFalse(filter(filter, row("app1", SEPARATOR_RUN_ID,
+        "job_201311192236_0001")));
+    assertFalse(filter.filterAllRemaining());
+
+    assertTrue(filter(filter, row("app1", 1000, "job_201311192236_0000")));
+    assertTrue(filter.filterAllRemaining());
+  }
+
+  @Test
+  public void testInvalidRowKeys() {
+    RunMatchFilter filter = new RunMatchFilter("app1", 1);
+    assertTrue(filter(filter, Bytes.toBytes("cluster1!user1")));
+    assertTrue(filter(filter, Bytes.toBytes("cluster1!user1!app1")));
+    assertTrue(filter(filter, Bytes.toBytes("cluster1!user1!app1!1234")));
+    assertFalse(filter.filterAllRemaining());
+  }
+
+  @Test
+  public void testSerialization() throws IOException {
+    RunMatchFilter filter = new RunMatchFilter("app1", 1);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    filter.write(new DataOutputStream(bytes));
+    RunMatchFilter copy = new RunMatchFilter();
+    copy.readFields(new DataInputStream(new ByteArrayInputStream(bytes
+        .toByteArray())));
+
+    assertFalse(filter(copy, row("app1", 3000, "job_201311192236_0003")));
+    assertTrue(filter(copy, row("app1", 1000, "job_201311192236_0000")));
+  }
+}
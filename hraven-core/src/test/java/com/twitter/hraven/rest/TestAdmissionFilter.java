@@ -0,0 +1,295 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link AdmissionFilter} turns requests away once the configured
+ * number of requests is in progress.
+ */
+public class TestAdmissionFilter {
+
+  @Test
+  public void testTurnsAwayRequestsBeyondLimit() throws Exception {
+    StubFilterConfig config = new StubFilterConfig();
+    config.params.put("maxRequests", "1");
+    config.params.put("waitMs", "0");
+    config.params.put("retryAfterSeconds", "7");
+    final AdmissionFilter filter = new AdmissionFilter();
+    filter.init(config);
+
+    // the first request is held up until released
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    Thread first = new Thread() {
+      @Override
+      public void run() {
+        try {
+          filter.doFilter(null, new StubResponse(), new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest req, ServletResponse res) {
+              started.countDown();
+              try {
+                release.await();
+              } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+              }
+            }
+          });
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    first.start();
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+
+    CountingChain chain = new CountingChain();
+    StubResponse rejected = new StubResponse();
+    filter.doFilter(null, rejected, chain);
+    assertEquals(0, chain.calls);
+    assertEquals("7", rejected.headers.get("Retry-After"));
+    assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, rejected.errorCode);
+    assertEquals("Too many requests in progress", rejected.errorMessage);
+    assertEquals(1, filter.getRejected());
+
+    release.countDown();
+    first.join();
+    StubResponse admitted = new StubResponse();
+    filter.doFilter(null, admitted, chain);
+    assertEquals(1, chain.calls);
+    assertTrue(admitted.headers.isEmpty());
+    assertNull(admitted.errorMessage);
+    assertEquals(1, filter.getRejected());
+  }
+
+  /** serves init parameters from a map */
+  private static class StubFilterConfig implements FilterConfig {
+    private final Map<String, String> params = new HashMap<String, String>();
+
+    @Override
+    public String getFilterName() {
+      return "admission";
+    }
+
+    @Override
+    public ServletContext getServletContext() {
+      return null;
+    }
+
+    @Override
+    public String getInitParameter(String name) {
+      return params.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getInitParameterNames() {
+      return Collections.enumeration(params.keySet());
+    }
+  }
+
+  /** counts the requests passed on down the chain */
+  private static class CountingChain implements FilterChain {
+    private int calls = 0;
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response) {
+      calls++;
+    }
+  }
+
+  /** records the headers and error sent, ignores everything else */
+  private static class StubResponse implements HttpServletResponse {
+    private final Map<String, String> headers = new HashMap<String, String>();
+    private int errorCode = 0;
+    private String errorMessage = null;
+
+    @Override
+    public void setHeader(String name, String value) {
+      headers.put(name, value);
+    }
+
+    @Override
+    public void sendError(int sc, String msg) {
+      errorCode = sc;
+      errorMessage = msg;
+    }
+
+    @Override
+    public void sendError(int sc) {
+      errorCode = sc;
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+      headers.put(name, value);
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+      headers.put(name, Integer.toString(value));
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+      headers.put(name, Integer.toString(value));
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+      headers.put(name, Long.toString(date));
+    }
+
+    @Override
+    public void addDateHeader(String name, long date) {
+      headers.put(name, Long.toString(date));
+    }
+
+    @Override
+    public boolean containsHeader(String name) {
+      return headers.containsKey(name);
+    }
+
+    @Override
+    public void addCookie(Cookie cookie) {
+    }
+
+    @Override
+    public String encodeURL(String url) {
+      return url;
+    }
+
+    @Override
+    public String encodeRedirectURL(String url) {
+      return url;
+    }
+
+    @Override
+    @Deprecated
+    public String encodeUrl(String url) {
+      return url;
+    }
+
+    @Override
+    @Deprecated
+    public String encodeRedirectUrl(String url) {
+      return url;
+    }
+
+    @Override
+    public void sendRedirect(String location) {
+    }
+
+    @Override
+    public void setStatus(int sc) {
+    }
+
+    @Override
+    @Deprecated
+    public void setStatus(int sc, String sm) {
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+      return null;
+    }
+
+    @Override
+    public String getContentType() {
+      return null;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+      return null;
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+      return null;
+    }
+
+    @Override
+    public void setCharacterEncoding(String charset) {
+    }
+
+    @Override
+    public void setContentLength(int len) {
+    }
+
+    @Override
+    public void setContentType(String type) {
+    }
+
+    @Override
+    public void setBufferSize(int size) {
+    }
+
+    @Override
+    public int getBufferSize() {
+      return 0;
+    }
+
+    @Override
+    public void flushBuffer() {
+    }
+
+    @Override
+    public void resetBuffer() {
+    }
+
+    @Override
+    public boolean isCommitted() {
+      return false;
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    @Override
+    public void setLocale(Locale loc) {
+    }
+
+    @Override
+    public Locale getLocale() {
+      return null;
+    }
+  }
+}
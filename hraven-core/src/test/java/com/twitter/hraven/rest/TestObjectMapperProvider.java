@@ -0,0 +1,227 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.Version;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.module.SimpleModule;
+import org.codehaus.jackson.type.TypeReference;
+import org.junit.After;
+import org.junit.Test;
+
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.CounterMap;
+import com.twitter.hraven.Flow;
+import com.twitter.hraven.FlowKey;
+import com.twitter.hraven.JobConfProperties;
+import com.twitter.hraven.JobDetails;
+import com.twitter.hraven.JobHistoryKeys;
+import com.twitter.hraven.JobKey;
+import com.twitter.hraven.TaskDetails;
+import com.twitter.hraven.TaskKey;
+import com.twitter.hraven.rest.client.ResponseReader;
+
+/**
+ * Checks that the streaming serializers of {@link ObjectMapperProvider} write
+ * the same flows, jobs and tasks as the bean serializers do.
+ */
+public class TestObjectMapperProvider {
+
+  @After
+  public void tearDown() {
+    RestJSONResource.serializationContext.remove();
+  }
+
+  @Test
+  public void testFlowMatchesBeanSerializer() throws Exception {
+    RestJSONResource.serializationContext.set(new SerializationContext(
+        SerializationContext.DetailLevel.EVERYTHING));
+    Flow flow = createFlow();
+
+    ObjectMapper customMapper = ObjectMapperProvider.createCustomMapper();
+    JsonNode actual = customMapper.readTree(customMapper
+        .writeValueAsString(flow));
+    // the order of the properties without a field varies with the JVM
+    JsonNode expected = customMapper.readTree(createBeanMapper()
+        .writeValueAsString(flow));
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testFlowStatsWithJobs() throws Exception {
+    RestJSONResource.serializationContext.set(new SerializationContext(
+        SerializationContext.DetailLevel.FLOW_SUMMARY_STATS_WITH_JOB_STATS));
+    Flow flow = createFlow();
+
+    ObjectMapper customMapper = ObjectMapperProvider.createCustomMapper();
+    JsonNode actual = customMapper.readTree(customMapper
+        .writeValueAsString(flow));
+    JsonNode expectedJobs = customMapper.readTree(createBeanMapper()
+        .writeValueAsString(flow.getJobs()));
+    assertEquals(expectedJobs, actual.get("jobs"));
+    assertEquals(flow.getJobCount(), actual.get("jobCount").getIntValue());
+    assertEquals(null, actual.get("queueKey"));
+  }
+
+  @Test
+  public void testPrettyOnlyWhenRequested() throws Exception {
+    ObjectMapperProvider provider = new ObjectMapperProvider();
+    Flow flow = createFlow();
+
+    RestJSONResource.serializationContext.set(new SerializationContext(
+        SerializationContext.DetailLevel.EVERYTHING));
+    String compact = provider.getContext(Flow.class).writeValueAsString(flow);
+    assertFalse(compact.contains("\n"));
+
+    RestJSONResource.serializationContext.set(new SerializationContext(
+        SerializationContext.DetailLevel.EVERYTHING, null, true));
+    String pretty = provider.getContext(Flow.class).writeValueAsString(flow);
+    assertTrue(pretty.contains("\n"));
+    assertEquals(provider.getContext(Flow.class).readTree(compact), provider
+        .getContext(Flow.class).readTree(pretty));
+
+    // outside of the REST API the output is indented, as it always was
+    assertEquals(pretty, ObjectMapperProvider.createCustomMapper()
+        .writeValueAsString(flow));
+  }
+
+  @Test
+  public void testSmileRoundTrip() throws Exception {
+    RestJSONResource.serializationContext.set(new SerializationContext(
+        SerializationContext.DetailLevel.EVERYTHING));
+    // tasks cannot be read back, as for JSON
+    Flow flow = createFlow(0);
+
+    ObjectMapper customMapper = ObjectMapperProvider.createCustomMapper(false);
+    byte[] smile = ObjectMapperProvider.createSmileMapper()
+        .writeValueAsBytes(flow);
+    byte[] json = customMapper.writeValueAsBytes(flow);
+    assertTrue(smile.length < json.length);
+
+    TypeReference<Flow> flowType = new TypeReference<Flow>() {};
+    Object fromSmile = ResponseReader.readSmile(new ByteArrayInputStream(smile),
+        flowType);
+    Object fromJson = ResponseReader.readJson(new ByteArrayInputStream(json),
+        flowType);
+    assertTrue(fromSmile instanceof Flow);
+    assertEquals(customMapper.readTree(customMapper.writeValueAsString(fromJson)),
+        customMapper.readTree(customMapper.writeValueAsString(fromSmile)));
+  }
+
+  /**
+   * @return a mapper serializing flows, jobs and tasks with the bean
+   *         serializers, as the flow serializer used to
+   */
+  private static ObjectMapper createBeanMapper() {
+    ObjectMapper mapper = new ObjectMapper();
+    SimpleModule module = new SimpleModule("beanModule", new Version(0, 4, 0,
+        null));
+    module.addSerializer(Configuration.class,
+        new ObjectMapperProvider.ConfigurationSerializer());
+    module.addSerializer(JobConfProperties.class,
+        new ObjectMapperProvider.JobConfPropertiesSerializer());
+    module.addSerializer(CounterMap.class,
+        new ObjectMapperProvider.CounterSerializer());
+    mapper.registerModule(module);
+    return mapper;
+  }
+
+  private static Flow createFlow() {
+    return createFlow(2);
+  }
+
+  private static Flow createFlow(int tasksPerJob) {
+    Flow flow = new Flow(new FlowKey("c1@local", "user", "app", 1234L));
+    flow.setUserName("user");
+    for (int j = 0; j < 2; j++) {
+      JobKey jobKey = new JobKey("c1@local", "user", "app", 1234L,
+          "job_201201010000_000" + j);
+      JobDetails job = new JobDetails(jobKey);
+      job.populate(createJobRow(jobKey));
+      for (int t = 0; t < tasksPerJob; t++) {
+        String taskId = "task_201201010000_000" + j + "_m_00000" + t;
+        TaskDetails task = new TaskDetails(new TaskKey(jobKey, taskId));
+        Map<byte[], byte[]> columns = new TreeMap<byte[], byte[]>(
+            Bytes.BYTES_COMPARATOR);
+        columns.put(column(JobHistoryKeys.TASKID), Bytes.toBytes(taskId));
+        columns.put(column(JobHistoryKeys.TASK_TYPE), Bytes.toBytes("MAP"));
+        columns.put(column(JobHistoryKeys.START_TIME), Bytes.toBytes(1000L));
+        columns.put(column(JobHistoryKeys.FINISH_TIME), Bytes.toBytes(2000L));
+        if (t == 0) {
+          // the other task has no splits or host at all
+          columns.put(column(JobHistoryKeys.SPLITS), Bytes.toBytes("/a,/b"));
+          columns.put(column(JobHistoryKeys.HOSTNAME), Bytes.toBytes("host"));
+        }
+        columns.put(Bytes.toBytes("g!FileSystemCounters!HDFS_BYTES_READ"),
+            Bytes.toBytes(10L));
+        task.populate(columns);
+        job.addTask(task);
+      }
+      flow.addJob(job);
+    }
+    return flow;
+  }
+
+  private static Result createJobRow(JobKey jobKey) {
+    byte[] row = Bytes.toBytes(jobKey.toString());
+    byte[] family = Constants.INFO_FAM_BYTES;
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    kvs.add(new KeyValue(row, family, column(JobHistoryKeys.JOBID), Bytes
+        .toBytes(jobKey.getJobId().getJobIdString())));
+    kvs.add(new KeyValue(row, family, column(JobHistoryKeys.JOBNAME), Bytes
+        .toBytes("name")));
+    kvs.add(new KeyValue(row, family, column(JobHistoryKeys.JOB_STATUS), Bytes
+        .toBytes("SUCCESS")));
+    kvs.add(new KeyValue(row, family, Constants.VERSION_COLUMN_BYTES, Bytes
+        .toBytes("v1")));
+    kvs.add(new KeyValue(row, family, column(JobHistoryKeys.SUBMIT_TIME), Bytes
+        .toBytes(1355614887000L)));
+    kvs.add(new KeyValue(row, family, column(JobHistoryKeys.FINISH_TIME), Bytes
+        .toBytes(1355614987000L)));
+    kvs.add(new KeyValue(row, family, column(JobHistoryKeys.TOTAL_MAPS), Bytes
+        .toBytes(2L)));
+    kvs.add(new KeyValue(row, family, Bytes.toBytes("c!mapred.job.name"),
+        Bytes.toBytes("name")));
+    kvs.add(new KeyValue(row, family,
+        Bytes.toBytes("g!FileSystemCounters!HDFS_BYTES_READ"), Bytes
+            .toBytes(100L)));
+    kvs.add(new KeyValue(row, family,
+        Bytes.toBytes("gm!FileSystemCounters!FILE_BYTES_READ"), Bytes
+            .toBytes(200L)));
+    Collections.sort(kvs, KeyValue.COMPARATOR);
+    return new Result(kvs);
+  }
+
+  private static byte[] column(JobHistoryKeys key) {
+    return JobHistoryKeys.KEYS_TO_BYTES.get(key);
+  }
+}
@@ -150,6 +150,124 @@ public class TestByteUtil {
     assertEquals(8, ranges5.get(2).end());
   }
 
+  @Test
+  public void testSplitRangesIntoBounds() {
+    // a key in the middle of a larger buffer
+    byte[] buffer = Bytes.add(Bytes.toBytes("xx"), source5, Bytes.toBytes("!y"));
+    int[] bounds = new int[8];
+    assertEquals(3, ByteUtil.splitRanges(buffer, 2, source5.length, sep5, bounds));
+    assertEquals(2, bounds[0]);
+    assertEquals(5, bounds[1]);
+    assertEquals(6, bounds[2]);
+    assertEquals(6, bounds[3]);
+    assertEquals(7, bounds[4]);
+    assertEquals(10, bounds[5]);
+
+    // limited by the room in bounds, the last segment holds the rest
+    bounds = new int[4];
+    assertEquals(2, ByteUtil.splitRanges(source1, 0, source1.length, sep1, bounds));
+    assertEquals(0, bounds[0]);
+    assertEquals(3, bounds[1]);
+    assertEquals(4, bounds[2]);
+    assertEquals(11, bounds[3]);
+
+    bounds = new int[2];
+    assertEquals(1, ByteUtil.splitRanges(source2, 0, source2.length, sep2, bounds));
+    assertEquals(0, bounds[0]);
+    assertEquals(source2.length, bounds[1]);
+
+    // same segments as the list version
+    bounds = new int[20];
+    int count = ByteUtil.splitRanges(source3, 0, source3.length, sep3, bounds);
+    List<ByteUtil.Range> ranges = ByteUtil.splitRanges(source3, sep3);
+    assertEquals(ranges.size(), count);
+    for (int i = 0; i < count; i++) {
+      assertEquals(ranges.get(i).start(), bounds[2 * i]);
+      assertEquals(ranges.get(i).end(), bounds[2 * i + 1]);
+    }
+  }
+
+  /**
+   * A partial separator match at the end of the source must not be read past.
+   */
+  @Test
+  public void testSplitPartialSeparatorAtEnd() {
+    byte[] source = Bytes.toBytes("abc::def:");
+    byte[][] expected = Bytes.toByteArrays(new String[] { "abc", "def:" });
+    byte[][] actual = ByteUtil.split(source, sep2);
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertArrayEquals(expected[i], actual[i]);
+    }
+
+    int[] bounds = new int[6];
+    assertEquals(1, ByteUtil.splitRanges(source, 0, 5, Bytes.toBytes(":::"), bounds));
+    assertEquals(5, bounds[1]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSplitEmptySeparator() {
+    ByteUtil.split(source1, Constants.EMPTY_BYTES);
+  }
+
+  /**
+   * Checks the word at a time search against a plain loop, for every range of
+   * an array with the target at varying positions.
+   */
+  @Test
+  public void testIndexOfByte() {
+    byte[] array = new byte[40];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = (byte) (i * 7 + 0x80);
+    }
+    byte[] targets = { '!', 0, (byte) 0x80, (byte) 0xff, 1 };
+    for (byte target : targets) {
+      for (int pos : new int[] { -1, 0, 7, 8, 15, 33, 39 }) {
+        byte[] copy = array.clone();
+        for (int i = 0; i < copy.length; i++) {
+          if (copy[i] == target) {
+            copy[i] = (byte) (target + 1);
+          }
+        }
+        if (pos >= 0) {
+          copy[pos] = target;
+          // a second occurrence further on
+          copy[Math.min(pos + 3, copy.length - 1)] = target;
+        }
+        for (int from = 0; from <= copy.length; from++) {
+          for (int to = from; to <= copy.length; to++) {
+            int expected = -1;
+            for (int i = from; i < to; i++) {
+              if (copy[i] == target) {
+                expected = i;
+                break;
+              }
+            }
+            assertEquals(expected, ByteUtil.indexOf(copy, target, from, to));
+          }
+        }
+      }
+    }
+
+    assertEquals(-1, ByteUtil.indexOf(null, (byte) '!', 0, 0));
+    assertEquals(-1, ByteUtil.indexOf(array, array[3], -1, 4));
+    assertEquals(-1, ByteUtil.indexOf(array, array[3], 0, array.length + 1));
+  }
+
+  @Test
+  public void testIndexOfRange() {
+    byte[] array = Bytes.toBytes("quackattack");
+    byte[] ack = Bytes.toBytes("ack");
+    assertEquals(2, ByteUtil.indexOf(array, ack, 0, 5));
+    assertEquals(-1, ByteUtil.indexOf(array, ack, 0, 4));
+    assertEquals(8, ByteUtil.indexOf(array, ack, 3, 11));
+    assertEquals(-1, ByteUtil.indexOf(array, ack, 3, 10));
+    assertEquals(-1, ByteUtil.indexOf(array, ack, 0, 12));
+    assertEquals(4, ByteUtil.indexOf(array, Constants.EMPTY_BYTES, 4, 4));
+    // partial match of the target at the end of the range
+    assertEquals(-1, ByteUtil.indexOf(Bytes.toBytes("xxac"), ack, 0, 4));
+  }
+
   @Test
   public void testJoin() {
     byte[] comp1 = Bytes.toBytes("abc");
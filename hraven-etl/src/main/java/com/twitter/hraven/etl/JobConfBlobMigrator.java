@@ -0,0 +1,221 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.etl;
+
+import java.io.IOException;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.BinaryPrefixComparator;
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.PrefixFilter;
+import org.apache.hadoop.hbase.filter.QualifierFilter;
+import org.apache.hadoop.hbase.filter.WhileMatchFilter;
+import org.apache.hadoop.hbase.mapreduce.TableMapReduceUtil;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.datasource.JobConfBlob;
+import com.twitter.hraven.mapreduce.JobConfBlobMigrationMapper;
+
+/**
+ * Migrates job history rows that store each job configuration property in a
+ * column of its own to a single {@link JobConfBlob} column. Rows that already
+ * have a blob are left alone, so the migration can be rerun at any time, also
+ * while jobs are still being processed.
+ * <p>
+ * Properties listed in {@link Constants#JOB_CONF_BLOB_HOT_KEYS_CONF_KEY}
+ * (passed with -D) keep their separate columns.
+ */
+public class JobConfBlobMigrator extends Configured implements Tool {
+
+  final static String NAME = JobConfBlobMigrator.class.getSimpleName();
+  private static Log LOG = LogFactory.getLog(JobConfBlobMigrator.class);
+
+  /**
+   * Default constructor
+   */
+  public JobConfBlobMigrator() {
+  }
+
+  /**
+   * Used for injecting confs while unit testing
+   * 
+   * @param conf
+   */
+  public JobConfBlobMigrator(Configuration conf) {
+    super(conf);
+  }
+
+  /**
+   * Parse command-line arguments.
+   * 
+   * @param args
+   *          command line arguments passed to program.
+   * @return parsed command line.
+   * @throws ParseException
+   */
+  private static CommandLine parseArgs(String[] args) throws ParseException {
+    Options options = new Options();
+
+    // Cluster
+    Option o = new Option("c", "cluster", true,
+        "cluster for which jobs are migrated. Optional. Default is all clusters.");
+    o.setArgName("cluster");
+    o.setRequired(false);
+    options.addOption(o);
+
+    // Keep
+    o = new Option("k", "keepColumns", false,
+        "Keep the separate job configuration columns next to the blob. Optional. Default is false.");
+    o.setRequired(false);
+    options.addOption(o);
+
+    // Debugging
+    options.addOption("d", "debug", false, "switch on DEBUG log level");
+
+    CommandLineParser parser = new PosixParser();
+    CommandLine commandLine = null;
+    try {
+      commandLine = parser.parse(options, args);
+    } catch (Exception e) {
+      System.err.println("ERROR: " + e.getMessage() + "\n");
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp(NAME + " ", options, true);
+      System.exit(-1);
+    }
+
+    // Set debug level right away
+    if (commandLine.hasOption("d")) {
+      Logger log = Logger.getLogger(JobConfBlobMigrator.class);
+      log.setLevel(Level.DEBUG);
+    }
+
+    return commandLine;
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see org.apache.hadoop.util.Tool#run(java.lang.String[])
+   */
+  public int run(String[] args) throws ParseException, IOException,
+      ClassNotFoundException, InterruptedException {
+
+    Configuration myHBaseConf = HBaseConfiguration.create(getConf());
+
+    // Grab input args and allow for -Dxyz style arguments
+    String[] otherArgs = new GenericOptionsParser(myHBaseConf, args)
+        .getRemainingArgs();
+
+    // Grab the arguments we're looking for.
+    CommandLine commandLine = parseArgs(otherArgs);
+
+    String cluster = commandLine.getOptionValue("c");
+    LOG.info("cluster=" + cluster);
+
+    boolean keepColumns = commandLine.hasOption("k");
+    LOG.info("keepColumns=" + keepColumns);
+    LOG.info("hotKeys="
+        + myHBaseConf.get(Constants.JOB_CONF_BLOB_HOT_KEYS_CONF_KEY));
+
+    myHBaseConf.setBoolean(Constants.JOB_CONF_BLOB_KEEP_COLUMNS_CONF_KEY,
+        keepColumns);
+    // Rewrites rows in place, running twice does not hurt but is wasteful.
+    // Note: must be BEFORE the job construction with the new mapreduce API.
+    myHBaseConf.setBoolean("mapred.map.tasks.speculative.execution", false);
+    // Blobs of large configurations can exceed the default 10 MB limit.
+    myHBaseConf.setInt("hbase.client.keyvalue.maxsize", 0);
+
+    Job job = new Job(myHBaseConf, NAME + " [" + (cluster == null ? "all"
+        : cluster) + "]");
+    job.setJarByClass(JobConfBlobMigrator.class);
+
+    TableMapReduceUtil.initTableMapperJob(Constants.HISTORY_TABLE,
+        getJobConfScan(cluster), JobConfBlobMigrationMapper.class,
+        NullWritable.class, NullWritable.class, job);
+    // The mapper writes to the history table itself
+    job.setOutputFormatClass(NullOutputFormat.class);
+    // This is a map-only class, skip reduce step
+    job.setNumReduceTasks(0);
+
+    boolean success = job.waitForCompletion(true);
+
+    // Return the status
+    return success ? 0 : 1;
+  }
+
+  /**
+   * @param cluster
+   *          to restrict the scan to, or <code>null</code> for all clusters
+   * @return a scan for the job configuration columns of job history rows
+   */
+  static Scan getJobConfScan(String cluster) {
+    Scan scan = new Scan();
+    scan.addFamily(Constants.INFO_FAM_BYTES);
+    FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+    if (cluster != null) {
+      byte[] rowPrefix = Bytes.toBytes(cluster + Constants.SEP);
+      scan.setStartRow(rowPrefix);
+      filters.addFilter(new WhileMatchFilter(new PrefixFilter(rowPrefix)));
+    }
+    filters.addFilter(new QualifierFilter(CompareFilter.CompareOp.EQUAL,
+        new BinaryPrefixComparator(
+            Constants.JOB_CONF_PROPERTY_COLUMN_PREFIX_BYTES)));
+    scan.setFilter(filters);
+    // job configurations are large, do not fetch too many at once
+    scan.setCaching(100);
+    // no reason to cache rows we're rewriting
+    scan.setCacheBlocks(false);
+    return scan;
+  }
+
+  /**
+   * DoIt.
+   * 
+   * @param args
+   *          the arguments to do it with
+   */
+  public static void main(String[] args) {
+    try {
+      ToolRunner.run(new JobConfBlobMigrator(), args);
+    } catch (Exception e) {
+      e.printStackTrace();
+      LOG.error("Error running job.", e);
+    }
+  }
+
+}
@@ -15,7 +15,7 @@ limitations under the License.
  */
 package com.twitter.hraven.etl;
 
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.List;
 import org.apache.hadoop.hbase.client.Put;
 import com.twitter.hraven.JobKey;
@@ -37,6 +37,28 @@ public interface JobHistoryFileParser {
 	 */
 	public void parse(byte[] historyFile, JobKey jobKey);
 
+	/**
+	 * this method should parse the history file and hand each put to the
+	 * sink as soon as it is complete, rather than collecting them. Memory use
+	 * does not grow with the number of tasks in the job this way.
+	 * {@link #getJobPuts()} and {@link #getTaskPuts()} do not return the puts
+	 * handed to the sink.
+	 * 
+	 * @throws ProcessingException
+	 */
+	public void parse(byte[] historyFile, JobKey jobKey, JobHistoryPutSink sink);
+
+	/**
+	 * same as {@link #parse(byte[], JobKey, JobHistoryPutSink)}, for history
+	 * that is the remaining content of the buffer. Parsers read straight from
+	 * the backing array of the buffer, so that history can be parsed right
+	 * where it was read into, such as an HBase cell, without copying it out.
+	 * 
+	 * @throws ProcessingException
+	 */
+	public void parse(ByteBuffer historyFile, JobKey jobKey,
+			JobHistoryPutSink sink);
+
 	/**
 	 * Return the generated list of job puts assembled when history file is
 	 * parsed
@@ -53,4 +75,12 @@ public interface JobHistoryFileParser {
 	 */
 	public List<Put> getTaskPuts();
 
+	/**
+	 * Return the number of puts generated by the last parse, one per history
+	 * event, before the puts for the same row were combined into one
+	 * 
+	 * @return the number of event puts
+	 */
+	public int getEventPutCount();
+
 }
@@ -15,7 +15,10 @@ limitations under the License.
  */
 package com.twitter.hraven.etl;
 
+import java.nio.ByteBuffer;
+
 import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.conf.Configuration;
 
 /**
  * Deal with {@link JobHistoryFileParser} implementations.
@@ -50,15 +53,26 @@ public class JobHistoryFileParserFactory {
    * @throws IllegalArgumentException if neither match
    */
   public static int getVersion(byte[] historyFileContents) {
-    if(historyFileContents.length > HADOOP2_VERSION_LENGTH) {
+    return getVersion(ByteBuffer.wrap(historyFileContents));
+  }
+
+  /**
+   * determines the version of hadoop that the history file, the remaining
+   * content of the buffer, belongs to
+   *
+   * @see #getVersion(byte[])
+   * @throws IllegalArgumentException if neither match
+   */
+  public static int getVersion(ByteBuffer historyFileContents) {
+    if(historyFileContents.remaining() > HADOOP2_VERSION_LENGTH) {
       // the first 10 bytes in a hadoop2.0 history file contain Avro-Json
-      String version2Part =  new String(historyFileContents, 0, HADOOP2_VERSION_LENGTH);
+      String version2Part = getPrefix(historyFileContents, HADOOP2_VERSION_LENGTH);
       if (StringUtils.equalsIgnoreCase(version2Part, HADOOP2_VERSION_STRING)) {
         return HISTORY_FILE_VERSION2;
       } else {
-        if(historyFileContents.length > HADOOP1_VERSION_LENGTH) {
+        if(historyFileContents.remaining() > HADOOP1_VERSION_LENGTH) {
           // the first 18 bytes in a hadoop1.0 history file contain Meta VERSION="1" .
-          String version1Part =  new String(historyFileContents, 0, HADOOP1_VERSION_LENGTH);
+          String version1Part = getPrefix(historyFileContents, HADOOP1_VERSION_LENGTH);
           if (StringUtils.equalsIgnoreCase(version1Part, HADOOP1_VERSION_STRING)) {
             return HISTORY_FILE_VERSION1;
           }
@@ -69,6 +83,15 @@ public class JobHistoryFileParserFactory {
     throw new IllegalArgumentException(" Unknown format of job history file: " + historyFileContents);
   }
 
+  /**
+   * @return the first length bytes of the remaining buffer content as a string
+   */
+  private static String getPrefix(ByteBuffer historyFileContents, int length) {
+    byte[] prefix = new byte[length];
+    historyFileContents.duplicate().get(prefix);
+    return new String(prefix);
+  }
+
   /**
    * creates an instance of {@link JobHistoryParseHadoop1}
    * or
@@ -81,6 +104,43 @@ public class JobHistoryFileParserFactory {
    */
   public static JobHistoryFileParser createJobHistoryFileParser(
       byte[] historyFileContents) throws IllegalArgumentException {
+    return createJobHistoryFileParser(historyFileContents, null);
+  }
+
+  /**
+   * creates an instance of {@link JobHistoryParseHadoop1}
+   * or
+   * {@link JobHistoryParseHadoop2} that can parse post MAPREDUCE-1016 job history files
+   *
+   * @param historyFile: history file contents
+   * @param jobConf: configuration of the processing job, used to tune the parsers,
+   *          may be null
+   *
+   * @return an object that can parse job history files
+   */
+  public static JobHistoryFileParser createJobHistoryFileParser(
+      byte[] historyFileContents, Configuration jobConf) throws IllegalArgumentException {
+
+    if (historyFileContents == null) {
+      throw new IllegalArgumentException(
+          "Job history contents should not be null");
+    }
+    return createJobHistoryFileParser(ByteBuffer.wrap(historyFileContents), jobConf);
+  }
+
+  /**
+   * creates an instance of {@link JobHistoryParseHadoop1}
+   * or
+   * {@link JobHistoryParseHadoop2} that can parse post MAPREDUCE-1016 job history files
+   *
+   * @param historyFile: history file contents, the remaining content of the buffer
+   * @param jobConf: configuration of the processing job, used to tune the parsers,
+   *          may be null
+   *
+   * @return an object that can parse job history files
+   */
+  public static JobHistoryFileParser createJobHistoryFileParser(
+      ByteBuffer historyFileContents, Configuration jobConf) throws IllegalArgumentException {
 
     if (historyFileContents == null) {
       throw new IllegalArgumentException(
@@ -91,10 +151,10 @@ public class JobHistoryFileParserFactory {
 
     switch (version) {
     case 1:
-      return new JobHistoryFileParserHadoop1();
+      return new JobHistoryFileParserHadoop1(jobConf);
 
     case 2:
-      return new JobHistoryFileParserHadoop2();
+      return new JobHistoryFileParserHadoop2(jobConf);
 
     default:
       throw new IllegalArgumentException(
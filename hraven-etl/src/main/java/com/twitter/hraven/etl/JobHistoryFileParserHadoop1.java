@@ -15,14 +15,15 @@ limitations under the License.
  */
 package com.twitter.hraven.etl;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.client.Put;
-import org.apache.hadoop.mapred.JobHistoryCopy;
+import com.twitter.hraven.Constants;
 import com.twitter.hraven.JobKey;
 import com.twitter.hraven.datasource.ProcessingException;
 import com.twitter.hraven.mapreduce.JobHistoryListener;
@@ -37,7 +38,31 @@ public class JobHistoryFileParserHadoop1 implements JobHistoryFileParser {
 	private static final Log LOG = LogFactory
 			.getLog(JobHistoryFileParserHadoop1.class);
 
-	private JobHistoryListener jobHistoryListener = null;
+	private JobHistoryPutCollector puts = null;
+
+	/** reused across files, holds on to its scratch buffers */
+	private final JobHistoryTokenizer tokenizer = new JobHistoryTokenizer();
+
+	/** see {@link Constants#HISTORY_PUT_MERGE_MAX_ROWS_CONF_KEY} */
+	private int maxPendingRows = Constants.HISTORY_PUT_MERGE_MAX_ROWS_DEFAULT;
+
+	private int eventPutCount = 0;
+
+	public JobHistoryFileParserHadoop1() {
+	}
+
+	/**
+	 * @param jobConf used to look up
+	 *          {@link Constants#HISTORY_PUT_MERGE_MAX_ROWS_CONF_KEY}, may be
+	 *          null in which case the default is used
+	 */
+	public JobHistoryFileParserHadoop1(Configuration jobConf) {
+		if (jobConf != null) {
+			this.maxPendingRows = jobConf.getInt(
+					Constants.HISTORY_PUT_MERGE_MAX_ROWS_CONF_KEY,
+					Constants.HISTORY_PUT_MERGE_MAX_ROWS_DEFAULT);
+		}
+	}
 
 	/**
 	 * {@inheritDoc}
@@ -46,10 +71,37 @@ public class JobHistoryFileParserHadoop1 implements JobHistoryFileParser {
 	@Override
 	public void parse(byte[] historyFile, JobKey jobKey)
 			throws ProcessingException {
+		puts = new JobHistoryPutCollector();
+		parse(historyFile, jobKey, puts);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 */
+	@Override
+	public void parse(byte[] historyFile, JobKey jobKey, JobHistoryPutSink sink)
+			throws ProcessingException {
+		parse(ByteBuffer.wrap(historyFile), jobKey, sink);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 */
+	@Override
+	public void parse(ByteBuffer historyFile, JobKey jobKey,
+			JobHistoryPutSink sink) throws ProcessingException {
 
 		try {
-			jobHistoryListener = new JobHistoryListener(jobKey);
-			JobHistoryCopy.parseHistoryFromIS(new ByteArrayInputStream(historyFile), jobHistoryListener);
+			// combine the puts of all records for the same row
+			JobHistoryPutMerger merger = new JobHistoryPutMerger(sink, maxPendingRows);
+			JobHistoryListener jobHistoryListener = new JobHistoryListener(jobKey, merger);
+			tokenizer.parse(historyFile, jobHistoryListener);
+			merger.flush();
+			eventPutCount = merger.getPutsAdded();
+			LOG.info("For " + jobKey + " merged #eventPuts " + merger.getPutsAdded()
+					+ " into #puts: " + merger.getPutsWritten());
 		} catch (IOException ioe) {
 			LOG.error(" Exception during parsing hadoop 1.0 file ", ioe);
 			throw new ProcessingException(
@@ -64,8 +116,8 @@ public class JobHistoryFileParserHadoop1 implements JobHistoryFileParser {
 	 */
 	@Override
 	public List<Put> getJobPuts() {
-		if (jobHistoryListener != null) {
-			return jobHistoryListener.getJobPuts();
+		if (puts != null) {
+			return puts.getJobPuts();
 		} else {
 			return null;
 		}
@@ -76,10 +128,18 @@ public class JobHistoryFileParserHadoop1 implements JobHistoryFileParser {
 	 */
 	@Override
 	public List<Put> getTaskPuts() {
-		if (jobHistoryListener != null) {
-			return jobHistoryListener.getTaskPuts();
+		if (puts != null) {
+			return puts.getTaskPuts();
 		} else {
 			return null;
 		}
 	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getEventPutCount() {
+		return eventPutCount;
+	}
 }
@@ -8,26 +8,26 @@
  */
 package com.twitter.hraven.etl;
 
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.avro.Schema;
-import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.io.DatumReader;
 import org.apache.avro.io.Decoder;
 import org.apache.avro.io.DecoderFactory;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -41,7 +41,6 @@ import com.twitter.hraven.Constants;
 import com.twitter.hraven.JobHistoryKeys;
 import com.twitter.hraven.JobKey;
 import com.twitter.hraven.TaskKey;
-import com.twitter.hraven.util.ByteArrayWrapper;
 import com.twitter.hraven.datasource.JobKeyConverter;
 import com.twitter.hraven.datasource.ProcessingException;
 import com.twitter.hraven.datasource.TaskKeyConverter;
@@ -56,8 +55,11 @@ public class JobHistoryFileParserHadoop2 implements JobHistoryFileParser {
   /** Job ID, minus the leading "job_" */
   private String jobNumber = "";
   private byte[] jobKeyBytes;
-  private List<Put> jobPuts = new LinkedList<Put>();
-  private List<Put> taskPuts = new LinkedList<Put>();
+  private JobHistoryPutCollector puts = new JobHistoryPutCollector();
+  private JobHistoryPutSink sink;
+  private int eventPutCount = 0;
+  /** see {@link Constants#HISTORY_PUT_MERGE_MAX_ROWS_CONF_KEY} */
+  private int maxPendingRows = Constants.HISTORY_PUT_MERGE_MAX_ROWS_DEFAULT;
   private JobKeyConverter jobKeyConv = new JobKeyConverter();
   private TaskKeyConverter taskKeyConv = new TaskKeyConverter();
 
@@ -71,10 +73,15 @@ public class JobHistoryFileParserHadoop2 implements JobHistoryFileParser {
   private Decoder decoder;
   private DatumReader<GenericRecord> reader;
 
+  /**
+   * whether the event details are read straight from the avro records, instead of being
+   * serialized to json text and parsed again
+   */
+  private boolean avroNativeDecoding = Constants.HADOOP2_AVRO_NATIVE_DECODING_DEFAULT;
+
   private static final String TYPE = "type";
   private static final String EVENT = "event";
   private static final String NAME = "name";
-  private static final String FIELDS = "fields";
   private static final String COUNTS = "counts";
   private static final String GROUPS = "groups";
   private static final String VALUE = "value";
@@ -150,8 +157,8 @@ public class JobHistoryFileParserHadoop2 implements JobHistoryFileParser {
   }
   private static Map<String,Hadoop2RecordType> EVENT_RECORD_NAMES = Maps.newHashMap();
   private static final Set<String> COUNTER_NAMES = new HashSet<String>();
-  private Map<Hadoop2RecordType, Map<String, String>> fieldTypes =
-      new HashMap<Hadoop2RecordType, Map<String, String>>();
+  private Map<Hadoop2RecordType, Map<String, String>> fieldTypes;
+  private JobHistorySchemaCache schemaCache = JobHistorySchemaCache.getInstance();
 
   /**
    * populates the COUNTER_NAMES hash set and EVENT_RECORD_NAMES hash map
@@ -178,31 +185,93 @@ public class JobHistoryFileParserHadoop2 implements JobHistoryFileParser {
   JobHistoryFileParserHadoop2() {
   }
 
+  /**
+   * @param jobConf used to look up {@link Constants#HADOOP2_AVRO_NATIVE_DECODING_CONF_KEY} and
+   *          {@link Constants#HISTORY_PUT_MERGE_MAX_ROWS_CONF_KEY}, may be null in which case the
+   *          defaults are used
+   */
+  JobHistoryFileParserHadoop2(Configuration jobConf) {
+    if (jobConf != null) {
+      this.avroNativeDecoding = jobConf.getBoolean(
+        Constants.HADOOP2_AVRO_NATIVE_DECODING_CONF_KEY,
+        Constants.HADOOP2_AVRO_NATIVE_DECODING_DEFAULT);
+      this.maxPendingRows = jobConf.getInt(Constants.HISTORY_PUT_MERGE_MAX_ROWS_CONF_KEY,
+        Constants.HISTORY_PUT_MERGE_MAX_ROWS_DEFAULT);
+    }
+  }
+
+  /**
+   * @param avroNativeDecoding whether event details are read straight from the avro records or
+   *          through their json text representation
+   */
+  void setAvroNativeDecoding(boolean avroNativeDecoding) {
+    this.avroNativeDecoding = avroNativeDecoding;
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   public void parse(byte[] historyFileContents, JobKey jobKey) throws ProcessingException {
+    this.puts = new JobHistoryPutCollector();
+    parse(historyFileContents, jobKey, puts);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void parse(byte[] historyFileContents, JobKey jobKey, JobHistoryPutSink sink)
+      throws ProcessingException {
+    parse(ByteBuffer.wrap(historyFileContents), jobKey, sink);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void parse(ByteBuffer historyFileContents, JobKey jobKey, JobHistoryPutSink sink)
+      throws ProcessingException {
 
+    // combine the puts of all events for the same row
+    JobHistoryPutMerger merger = new JobHistoryPutMerger(sink, maxPendingRows);
+    this.sink = merger;
     this.jobKey = jobKey;
     this.jobKeyBytes = jobKeyConv.toBytes(jobKey);
     setJobId(jobKey.getJobId().getJobIdString());
 
-    try {
-      FSDataInputStream in =
-          new FSDataInputStream(new ByteArrayWrapper(historyFileContents));
+    // read straight from the backing array, only copy if there is none
+    byte[] buf;
+    int offset;
+    int end;
+    if (historyFileContents.hasArray()) {
+      buf = historyFileContents.array();
+      offset = historyFileContents.arrayOffset() + historyFileContents.position();
+    } else {
+      buf = new byte[historyFileContents.remaining()];
+      historyFileContents.duplicate().get(buf);
+      offset = 0;
+    }
+    end = offset + historyFileContents.remaining();
 
+    try {
       /** first line is the version, ignore it */
-      String versionIgnore = in.readLine();
-
-      /** second line in file is the schema */
-      this.schema = schema.parse(in.readLine());
-
-      /** now figure out the schema */
-      understandSchema(schema.toString());
+      int schemaStart = nextLineStart(buf, offset, end);
+      int schemaEnd = lineEnd(buf, schemaStart, end);
+
+      /**
+       * second line in file is the schema, parsed and understood only once per
+       * distinct schema
+       */
+      JobHistorySchemaCache.CompiledSchema compiledSchema =
+          schemaCache.get(buf, schemaStart, schemaEnd - schemaStart);
+      this.schema = compiledSchema.getSchema();
+      this.fieldTypes = compiledSchema.getFieldTypes();
+      int eventsStart = nextLineStart(buf, schemaStart, end);
+      InputStream in = new ByteArrayInputStream(buf, eventsStart, end - eventsStart);
 
       /** now read the rest of the file */
-      this.reader = new GenericDatumReader<GenericRecord>(schema);
+      this.reader = compiledSchema.getReader();
       this.decoder = DecoderFactory.get().jsonDecoder(schema, in);
 
       GenericRecord record = null;
@@ -225,8 +294,12 @@ public class JobHistoryFileParserHadoop2 implements JobHistoryFileParser {
 
           // confirm that we got an "event" object
           if (eDetails != null) {
-            JSONObject eventDetails = new JSONObject(eDetails.toString());
-            processRecords(recType, eventDetails);
+            if (avroNativeDecoding) {
+              processRecords(recType, (GenericRecord) eDetails);
+            } else {
+              JSONObject eventDetails = new JSONObject(eDetails.toString());
+              processRecords(recType, eventDetails);
+            }
           } else {
             throw new ProcessingException("expected event details but not found "
                 + record.get(TYPE).toString() + " cannot process this record! " + jobKey);
@@ -236,6 +309,7 @@ public class JobHistoryFileParserHadoop2 implements JobHistoryFileParser {
         // not an error, simply end of file
         LOG.info("Done parsing file, reached eof for " + jobKey);
       }
+      merger.flush();
     } catch (IOException ioe) {
       throw new ProcessingException(" Unable to parse history file in function parse, "
           + "cannot process this record!" + jobKey + " error: ", ioe);
@@ -247,59 +321,9 @@ public class JobHistoryFileParserHadoop2 implements JobHistoryFileParser {
           + "cannot process this record! " + jobKey + " error: ", iae);
     }
 
-    LOG.info("For " + this.jobKey + " #jobPuts " + jobPuts.size() + " #taskPuts: "
-        + taskPuts.size());
-  }
-
-  /**
-   * understand the schema so that we can parse the rest of the file
-   * @throws JSONException
-   */
-  private void understandSchema(String schema) throws JSONException {
-
-    JSONObject j1 = new JSONObject(schema);
-    JSONArray fields = j1.getJSONArray(FIELDS);
-
-    String fieldName;
-    String fieldTypeValue;
-    Object recName;
-
-    for (int k = 0; k < fields.length(); k++) {
-      if (fields.get(k) == null) {
-        continue;
-      }
-      JSONObject allEvents = new JSONObject(fields.get(k).toString());
-      Object name = allEvents.get(NAME);
-      if (name != null) {
-        if (name.toString().equalsIgnoreCase(EVENT)) {
-          JSONArray allTypeDetails = allEvents.getJSONArray(TYPE);
-          for (int i = 0; i < allTypeDetails.length(); i++) {
-            JSONObject actual = (JSONObject) allTypeDetails.get(i);
-            JSONArray types = actual.getJSONArray(FIELDS);
-            Map<String, String> typeDetails = new HashMap<String, String>();
-            for (int j = 0; j < types.length(); j++) {
-              if (types.getJSONObject(j) == null ) {
-                continue;
-              }
-              fieldName = types.getJSONObject(j).getString(NAME);
-              fieldTypeValue = types.getJSONObject(j).getString(TYPE);
-              if ((fieldName != null) && (fieldTypeValue != null)) {
-                typeDetails.put(fieldName, fieldTypeValue);
-              }
-            }
-
-            recName = actual.get(NAME);
-            if (recName != null) {
-              /* the next statement may throw an IllegalArgumentException if
-               * it finds a new string that's not part of the Hadoop2RecordType enum
-               * that way we know what types of events we are parsing
-               */
-              fieldTypes.put(Hadoop2RecordType.valueOf(recName.toString()), typeDetails);
-            }
-          }
-        }
-      }
-    }
+    this.eventPutCount = merger.getPutsAdded();
+    LOG.info("For " + this.jobKey + " merged #eventPuts " + merger.getPutsAdded()
+        + " into #puts: " + merger.getPutsWritten());
   }
 
   /**
@@ -374,6 +398,129 @@ public class JobHistoryFileParserHadoop2 implements JobHistoryFileParser {
     }
   }
 
+  /**
+   * process the counter details straight from the avro JhCounters record, see
+   * {@link #processCounters(Put, JSONObject, String)} for the layout
+   */
+  private void processCounters(Put p, GenericRecord jhCounters, String key) {
+    if (jhCounters == null) {
+      throw new ProcessingException(" Expected counters for " + key + " but not found "
+          + this.jobKey);
+    }
+    String counterMetaGroupName = getString(jhCounters, NAME);
+    for (Object g : (List<?>) jhCounters.get(GROUPS)) {
+      GenericRecord aCounter = (GenericRecord) g;
+      String groupName = getString(aCounter, NAME);
+      for (Object c : (List<?>) aCounter.get(COUNTS)) {
+        GenericRecord countDetails = (GenericRecord) c;
+        populatePut(p, Constants.INFO_FAM_BYTES, counterMetaGroupName, groupName,
+          getString(countDetails, NAME), (Long) countDetails.get(VALUE));
+      }
+    }
+  }
+
+  /**
+   * process the event details as per their avro data type, producing the same values as
+   * {@link #processAllTypes(Put, Hadoop2RecordType, JSONObject, String)} does
+   */
+  private void processAllTypes(Put p, Hadoop2RecordType recType, Schema.Field field,
+      Object value) {
+
+    String key = field.name();
+    if (COUNTER_NAMES.contains(key)) {
+      processCounters(p, (GenericRecord) value, key);
+      return;
+    }
+    Schema fieldSchema = field.schema();
+    switch (fieldSchema.getType()) {
+    case STRING:
+      populatePut(p, Constants.INFO_FAM_BYTES, key, String.valueOf(value));
+      break;
+    case LONG:
+      populatePut(p, Constants.INFO_FAM_BYTES, key, ((Long) value).longValue());
+      break;
+    case INT:
+      populatePut(p, Constants.INFO_FAM_BYTES, key, ((Integer) value).intValue());
+      break;
+    case BOOLEAN:
+      populatePut(p, Constants.INFO_FAM_BYTES, key, String.valueOf(value));
+      break;
+    case ARRAY:
+      if (fieldSchema.getElementType().getType() != Schema.Type.INT) {
+        throw new ProcessingException("Encountered a new type " + fieldSchema
+            + " unable to complete processing " + this.jobKey);
+      }
+      populatePut(p, Constants.INFO_FAM_BYTES, key, toJSONArrayString((List<?>) value));
+      break;
+    case UNION:
+      // usually seen in FAILED tasks, the json path stores absent values as "null"
+      if (!NULL_STRING.equals(fieldSchema.toString())) {
+        throw new ProcessingException("Encountered a new type " + fieldSchema
+            + " unable to complete processing " + this.jobKey);
+      }
+      populatePut(p, Constants.INFO_FAM_BYTES, key, String.valueOf(value));
+      break;
+    case MAP:
+      if (fieldSchema.getValueType().getType() != Schema.Type.STRING) {
+        throw new ProcessingException("Encountered a new type " + fieldSchema
+            + " unable to complete processing " + this.jobKey);
+      }
+      populatePut(p, Constants.INFO_FAM_BYTES, key, toJSONObjectString((Map<?, ?>) value));
+      break;
+    default:
+      throw new ProcessingException("Encountered a new type " + fieldSchema
+          + " unable to complete processing " + this.jobKey);
+    }
+  }
+
+  /**
+   * iterate over the fields of the avro event record and prepare puts
+   */
+  private void iterateAndPreparePuts(GenericRecord eventDetails, Put p, Hadoop2RecordType recType) {
+    for (Schema.Field field : eventDetails.getSchema().getFields()) {
+      processAllTypes(p, recType, field, eventDetails.get(field.pos()));
+    }
+  }
+
+  /**
+   * @return the string value of an avro record field (avro hands out
+   *         {@link org.apache.avro.util.Utf8} instances),
+   *         or null if the field is not set
+   */
+  private static String getString(GenericRecord record, String fieldName) {
+    Object value = record.get(fieldName);
+    return (value != null) ? value.toString() : null;
+  }
+
+  /**
+   * formats an array of ints the same way jettison does, e.g. [1,2,3]
+   */
+  private static String toJSONArrayString(List<?> values) {
+    StringBuilder sb = new StringBuilder("[");
+    for (int i = 0; i < values.size(); i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append(values.get(i));
+    }
+    return sb.append(']').toString();
+  }
+
+  /**
+   * formats a map of strings the same way jettison does for a parsed json object
+   */
+  private static String toJSONObjectString(Map<?, ?> values) {
+    JSONObject ms = new JSONObject();
+    try {
+      for (Map.Entry<?, ?> e : values.entrySet()) {
+        ms.put(e.getKey().toString(), String.valueOf(e.getValue()));
+      }
+    } catch (JSONException jse) {
+      throw new ProcessingException(" Caught json exception while processing map ", jse);
+    }
+    return ms.toString();
+  }
+
   /**
    * iterate over the event details and prepare puts
    * @throws JSONException
@@ -388,12 +535,33 @@ public class JobHistoryFileParserHadoop2 implements JobHistoryFileParser {
   }
 
   /**
-   * process individual records
+   * process individual records decoded through their json representation
    * @throws JSONException
    */
   private void processRecords(Hadoop2RecordType recType, JSONObject eventDetails)
-      throws JSONException {
+      throws JSONException, IOException {
+    String idField = getIdFieldName(recType);
+    Put p = createPut(recType, (idField != null) ? eventDetails.getString(idField) : null);
+    iterateAndPreparePuts(eventDetails, p, recType);
+    addPut(recType, p);
+  }
 
+  /**
+   * process individual records straight from the avro event record
+   */
+  private void processRecords(Hadoop2RecordType recType, GenericRecord eventDetails)
+      throws IOException {
+    String idField = getIdFieldName(recType);
+    Put p = createPut(recType, (idField != null) ? getString(eventDetails, idField) : null);
+    iterateAndPreparePuts(eventDetails, p, recType);
+    addPut(recType, p);
+  }
+
+  /**
+   * @return the name of the event field that identifies the task, task attempt or AM attempt
+   *         this record belongs to, or null for job level records
+   */
+  private String getIdFieldName(Hadoop2RecordType recType) {
     switch (recType) {
     case JobFinished:
     case JobInfoChange:
@@ -402,72 +570,124 @@ public class JobHistoryFileParserHadoop2 implements JobHistoryFileParser {
     case JobStatusChanged:
     case JobSubmitted:
     case JobUnsuccessfulCompletion:
-      Put pJob = new Put(this.jobKeyBytes);
-      iterateAndPreparePuts(eventDetails, pJob, recType);
-      this.jobPuts.add(pJob);
-      break;
+      return null;
+
+    case AMStarted:
+      return APPLICATION_ATTEMPTID;
+
+    case MapAttemptFinished:
+    case ReduceAttemptFinished:
+    case TaskAttemptFinished:
+    case TaskAttemptStarted:
+    case TaskAttemptUnsuccessfulCompletion:
+      return ATTEMPTID;
+
+    case TaskFailed:
+    case TaskStarted:
+    case TaskUpdated:
+    case TaskFinished:
+      return TASKID;
+    default:
+      LOG.error("Check if recType was modified and has new members?");
+      throw new ProcessingException("Check if recType was modified and has new members? " + recType);
+    }
+  }
+
+  /**
+   * creates the put for a record, keyed by the job, task, task attempt or AM attempt
+   * @param recType
+   * @param id value of the field named by {@link #getIdFieldName(Hadoop2RecordType)}
+   * @return a put with the record type column populated for task level records
+   */
+  private Put createPut(Hadoop2RecordType recType, String id) {
+
+    switch (recType) {
+    case JobFinished:
+    case JobInfoChange:
+    case JobInited:
+    case JobPriorityChange:
+    case JobStatusChanged:
+    case JobSubmitted:
+    case JobUnsuccessfulCompletion:
+      return new Put(this.jobKeyBytes);
 
     case AMStarted:
-      byte[] amAttemptIdKeyBytes =
-          getAMKey(AM_ATTEMPT_PREFIX, eventDetails.getString(APPLICATION_ATTEMPTID));
       // generate a new put per AM Attempt
-      Put pAM = new Put(amAttemptIdKeyBytes);
+      Put pAM = new Put(getAMKey(AM_ATTEMPT_PREFIX, id));
       pAM.add(Constants.INFO_FAM_BYTES, Constants.RECORD_TYPE_COL_BYTES,
         Bytes.toBytes(RecordTypes.Task.toString()));
-      iterateAndPreparePuts(eventDetails, pAM, recType);
-      taskPuts.add(pAM);
-      break;
+      return pAM;
 
     case MapAttemptFinished:
-      byte[] taskMAttemptIdKeyBytes =
-          getTaskKey(TASK_ATTEMPT_PREFIX, this.jobNumber, eventDetails.getString(ATTEMPTID));
-      Put pMTaskAttempt = new Put(taskMAttemptIdKeyBytes);
+      Put pMTaskAttempt = new Put(getTaskKey(TASK_ATTEMPT_PREFIX, this.jobNumber, id));
       pMTaskAttempt.add(Constants.INFO_FAM_BYTES, Constants.RECORD_TYPE_COL_BYTES,
         Bytes.toBytes(RecordTypes.MapAttempt.toString()));
-      iterateAndPreparePuts(eventDetails, pMTaskAttempt, recType);
-      this.taskPuts.add(pMTaskAttempt);
-      break;
+      return pMTaskAttempt;
 
     case ReduceAttemptFinished:
-      byte[] taskRAttemptIdKeyBytes =
-          getTaskKey(TASK_ATTEMPT_PREFIX, this.jobNumber, eventDetails.getString(ATTEMPTID));
-      Put pRTaskAttempt = new Put(taskRAttemptIdKeyBytes);
+      Put pRTaskAttempt = new Put(getTaskKey(TASK_ATTEMPT_PREFIX, this.jobNumber, id));
       pRTaskAttempt.add(Constants.INFO_FAM_BYTES, Constants.RECORD_TYPE_COL_BYTES,
         Bytes.toBytes(RecordTypes.ReduceAttempt.toString()));
-      iterateAndPreparePuts(eventDetails, pRTaskAttempt, recType);
-      this.taskPuts.add(pRTaskAttempt);
-      break;
+      return pRTaskAttempt;
 
     case TaskAttemptFinished:
     case TaskAttemptStarted:
     case TaskAttemptUnsuccessfulCompletion:
-      byte[] taskAttemptIdKeyBytes =
-          getTaskKey(TASK_ATTEMPT_PREFIX, this.jobNumber, eventDetails.getString(ATTEMPTID));
-      Put pTaskAttempt = new Put(taskAttemptIdKeyBytes);
+      Put pTaskAttempt = new Put(getTaskKey(TASK_ATTEMPT_PREFIX, this.jobNumber, id));
       pTaskAttempt.add(Constants.INFO_FAM_BYTES, Constants.RECORD_TYPE_COL_BYTES,
         Bytes.toBytes(RecordTypes.Task.toString()));
-      iterateAndPreparePuts(eventDetails, pTaskAttempt, recType);
-      taskPuts.add(pTaskAttempt);
-      break;
+      return pTaskAttempt;
 
     case TaskFailed:
     case TaskStarted:
     case TaskUpdated:
     case TaskFinished:
-      byte[] taskIdKeyBytes =
-          getTaskKey(TASK_PREFIX, this.jobNumber, eventDetails.getString(TASKID));
-      Put pTask = new Put(taskIdKeyBytes);
+      Put pTask = new Put(getTaskKey(TASK_PREFIX, this.jobNumber, id));
       pTask.add(Constants.INFO_FAM_BYTES, Constants.RECORD_TYPE_COL_BYTES,
         Bytes.toBytes(RecordTypes.Task.toString()));
-      iterateAndPreparePuts(eventDetails, pTask, recType);
-      taskPuts.add(pTask);
-      break;
+      return pTask;
     default:
       LOG.error("Check if recType was modified and has new members?");
       throw new ProcessingException("Check if recType was modified and has new members? " + recType);
     }
   }
 
+  /**
+   * hands a fully populated put to the sink as a job or task put, depending on the record type
+   */
+  private void addPut(Hadoop2RecordType recType, Put p) throws IOException {
+    if (getIdFieldName(recType) == null) {
+      this.sink.addJobPut(p);
+    } else {
+      this.sink.addTaskPut(p);
+    }
+  }
+
+  /**
+   * @return the index of the first line terminator ('\n' or '\r') at or after start, or end if
+   *         there is none
+   */
+  private static int lineEnd(byte[] buf, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (buf[i] == '\n' || buf[i] == '\r') {
+        return i;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * @return the start of the line after the one starting at start, lines end with "\n", "\r" or
+   *         "\r\n" just like for {@link java.io.DataInputStream#readLine()}
+   */
+  private static int nextLineStart(byte[] buf, int start, int end) {
+    int i = lineEnd(buf, start, end);
+    if (i < end && buf[i] == '\r' && i + 1 < end && buf[i + 1] == '\n') {
+      return i + 2;
+    }
+    return (i < end) ? i + 1 : end;
+  }
+
   /**
    * Sets the job ID and strips out the job number (job ID minus the "job_" prefix).
    * @param id
@@ -481,13 +701,10 @@ public class JobHistoryFileParserHadoop2 implements JobHistoryFileParser {
   /**
    * maintains compatibility between hadoop 1.0 keys and hadoop 2.0 keys. It also confirms that this
    * key exists in JobHistoryKeys enum
-   * @throws IllegalArgumentException NullPointerException
+   * @throws IllegalArgumentException
    */
-  private String getKey(String key) throws IllegalArgumentException {
-    String checkKey =
-        JobHistoryKeys.HADOOP2_TO_HADOOP1_MAPPING.containsKey(key) ? JobHistoryKeys.HADOOP2_TO_HADOOP1_MAPPING
-            .get(key) : key;
-    return (JobHistoryKeys.valueOf(checkKey).toString());
+  private JobHistoryKeys getKey(String key) throws IllegalArgumentException {
+    return JobHistoryKeys.forName(key);
   }
 
   /**
@@ -501,7 +718,7 @@ public class JobHistoryFileParserHadoop2 implements JobHistoryFileParser {
 
     byte[] valueBytes = null;
     valueBytes = (value != 0L) ? Bytes.toBytes(value) : Constants.ZERO_LONG_BYTES;
-    byte[] qualifier = Bytes.toBytes(getKey(key).toLowerCase());
+    byte[] qualifier = getKey(key).getQualifierBytes();
     p.add(family, qualifier, valueBytes);
   }
 
@@ -513,8 +730,16 @@ public class JobHistoryFileParserHadoop2 implements JobHistoryFileParser {
    * @throws IllegalArgumentException if new key is encountered
    */
    byte[] getValue(String key, int value) {
+    return getValue(JobHistoryKeys.valueOf(key), value);
+  }
+
+  /**
+   * gets the int values as ints or longs, see {@link #getValue(String, int)}
+   * @throws IllegalArgumentException if new key is encountered
+   */
+  private byte[] getValue(JobHistoryKeys key, int value) {
     byte[] valueBytes = null;
-    Class<?> clazz = JobHistoryKeys.KEY_TYPES.get(JobHistoryKeys.valueOf(key));
+    Class<?> clazz = key.getClassName();
     if (clazz == null) {
       throw new IllegalArgumentException(" unknown key " + key + " encountered while parsing "
           + this.jobKey);
@@ -536,9 +761,9 @@ public class JobHistoryFileParserHadoop2 implements JobHistoryFileParser {
    */
   private void populatePut(Put p, byte[] family, String key, int value) {
 
-    String jobHistoryKey = getKey(key);
+    JobHistoryKeys jobHistoryKey = getKey(key);
     byte[] valueBytes = getValue(jobHistoryKey, value);
-    byte[] qualifier = Bytes.toBytes(jobHistoryKey.toLowerCase());
+    byte[] qualifier = jobHistoryKey.getQualifierBytes();
     p.add(family, qualifier, valueBytes);
   }
 
@@ -552,7 +777,7 @@ public class JobHistoryFileParserHadoop2 implements JobHistoryFileParser {
   private void populatePut(Put p, byte[] family, String key, String value) {
     byte[] valueBytes = null;
     valueBytes = Bytes.toBytes(value);
-    byte[] qualifier = Bytes.toBytes(getKey(key).toLowerCase());
+    byte[] qualifier = getKey(key).getQualifierBytes();
     p.add(family, qualifier, valueBytes);
   }
 
@@ -567,30 +792,17 @@ public class JobHistoryFileParserHadoop2 implements JobHistoryFileParser {
    */
   private void populatePut(Put p, byte[] family, String key, String groupName, String counterName,
       Long counterValue) {
+    if (key == null) {
+      throw new ProcessingException("Null counter type " + key);
+    }
     byte[] counterPrefix = null;
-
     try {
-      switch (JobHistoryKeys.valueOf(JobHistoryKeys.class, key)) {
-      case COUNTERS:
-      case TOTAL_COUNTERS:
-      case TASK_COUNTERS:
-      case TASK_ATTEMPT_COUNTERS:
-        counterPrefix = Bytes.add(Constants.COUNTER_COLUMN_PREFIX_BYTES, Constants.SEP_BYTES);
-        break;
-      case MAP_COUNTERS:
-        counterPrefix = Bytes.add(Constants.MAP_COUNTER_COLUMN_PREFIX_BYTES, Constants.SEP_BYTES);
-        break;
-      case REDUCE_COUNTERS:
-        counterPrefix =
-            Bytes.add(Constants.REDUCE_COUNTER_COLUMN_PREFIX_BYTES, Constants.SEP_BYTES);
-        break;
-      default:
-        throw new IllegalArgumentException("Unknown counter type " + key.toString());
-      }
+      counterPrefix = JobHistoryKeys.COUNTER_PREFIXES_TO_BYTES.get(getKey(key));
     } catch (IllegalArgumentException iae) {
       throw new ProcessingException("Unknown counter type " + key, iae);
-    } catch (NullPointerException npe) {
-      throw new ProcessingException("Null counter type " + key, npe);
+    }
+    if (counterPrefix == null) {
+      throw new ProcessingException("Unknown counter type " + key);
     }
 
     byte[] groupPrefix = Bytes.add(counterPrefix, Bytes.toBytes(groupName), Constants.SEP_BYTES);
@@ -624,12 +836,20 @@ public class JobHistoryFileParserHadoop2 implements JobHistoryFileParser {
     return taskKeyConv.toBytes(new TaskKey(this.jobKey, taskComponent));
   }
 
+  /**
+   * @param schemaCache the cache to look up compiled schemas in, instead of the
+   *          one shared by the JVM
+   */
+  void setSchemaCache(JobHistorySchemaCache schemaCache) {
+    this.schemaCache = schemaCache;
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   public List<Put> getJobPuts() {
-    return jobPuts;
+    return puts.getJobPuts();
   }
 
   /**
@@ -637,7 +857,23 @@ public class JobHistoryFileParserHadoop2 implements JobHistoryFileParser {
    */
   @Override
   public List<Put> getTaskPuts() {
-    return taskPuts;
+    return puts.getTaskPuts();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getEventPutCount() {
+    return eventPutCount;
+  }
+
+  /**
+   * @param maxPendingRows the number of task rows whose puts are held back to be combined, see
+   *          {@link Constants#HISTORY_PUT_MERGE_MAX_ROWS_CONF_KEY}
+   */
+  void setMaxPendingRows(int maxPendingRows) {
+    this.maxPendingRows = maxPendingRows;
   }
 
   /**
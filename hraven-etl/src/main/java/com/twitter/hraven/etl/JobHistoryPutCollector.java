@@ -0,0 +1,57 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.twitter.hraven.etl;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.client.Put;
+
+/**
+ * Keeps all puts handed to it in lists, for callers that want everything
+ * parsed out of a history file at once.
+ */
+public class JobHistoryPutCollector implements JobHistoryPutSink {
+
+  private final List<Put> jobPuts = new LinkedList<Put>();
+  private final List<Put> taskPuts = new LinkedList<Put>();
+
+  @Override
+  public void addJobPut(Put p) {
+    jobPuts.add(p);
+  }
+
+  @Override
+  public void addTaskPut(Put p) {
+    taskPuts.add(p);
+  }
+
+  /**
+   * @return a non-null (possibly empty) list of job puts, in the order they
+   *         were added
+   */
+  public List<Put> getJobPuts() {
+    return jobPuts;
+  }
+
+  /**
+   * @return a non-null (possibly empty) list of task puts, in the order they
+   *         were added
+   */
+  public List<Put> getTaskPuts() {
+    return taskPuts;
+  }
+}
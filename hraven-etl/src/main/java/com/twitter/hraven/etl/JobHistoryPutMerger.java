@@ -0,0 +1,200 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.twitter.hraven.etl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Combines the puts that a {@link JobHistoryFileParser} generates per history
+ * event into one put per row before handing them on. A task, for instance,
+ * gets a put for when it started and another one for when it finished.
+ * <p>
+ * Puts for up to maxPendingRows task rows are held back. Once that many are
+ * pending, the row that was first seen is written out, so memory use stays
+ * bounded for jobs with any number of tasks. When the same column shows up
+ * in more than one event, the value from the latest event wins, just like it
+ * would if the puts were written one after the other. {@link #flush()} has to
+ * be called once all puts have been added.
+ */
+public class JobHistoryPutMerger implements JobHistoryPutSink {
+
+  private final JobHistoryPutSink sink;
+  private final int maxPendingRows;
+
+  /** all job level events are for the same row */
+  private PendingRow pendingJobRow = null;
+  private final Map<ImmutableBytesWritable, PendingRow> pendingTaskRows =
+      new LinkedHashMap<ImmutableBytesWritable, PendingRow>();
+
+  private int putsAdded = 0;
+  private int putsWritten = 0;
+
+  /**
+   * @param sink receives the combined puts
+   * @param maxPendingRows the number of task rows to hold back at most, if 0
+   *          or less puts are passed on as they are added
+   */
+  public JobHistoryPutMerger(JobHistoryPutSink sink, int maxPendingRows) {
+    this.sink = sink;
+    this.maxPendingRows = maxPendingRows;
+  }
+
+  @Override
+  public void addJobPut(Put p) throws IOException {
+    putsAdded++;
+    if (maxPendingRows <= 0) {
+      writeJobPut(p);
+    } else if (pendingJobRow == null) {
+      pendingJobRow = new PendingRow(p);
+    } else if (Bytes.equals(pendingJobRow.getRow(), p.getRow())) {
+      pendingJobRow.merge(p);
+    } else {
+      writeJobPut(pendingJobRow.toPut());
+      pendingJobRow = new PendingRow(p);
+    }
+  }
+
+  @Override
+  public void addTaskPut(Put p) throws IOException {
+    putsAdded++;
+    if (maxPendingRows <= 0) {
+      writeTaskPut(p);
+      return;
+    }
+    ImmutableBytesWritable row = new ImmutableBytesWritable(p.getRow());
+    PendingRow pending = pendingTaskRows.get(row);
+    if (pending != null) {
+      pending.merge(p);
+      return;
+    }
+    pendingTaskRows.put(row, new PendingRow(p));
+    if (pendingTaskRows.size() > maxPendingRows) {
+      Iterator<PendingRow> eldest = pendingTaskRows.values().iterator();
+      writeTaskPut(eldest.next().toPut());
+      eldest.remove();
+    }
+  }
+
+  /**
+   * Writes out all puts that are held back.
+   * @throws IOException if the sink fails to write a put
+   */
+  public void flush() throws IOException {
+    if (pendingJobRow != null) {
+      writeJobPut(pendingJobRow.toPut());
+      pendingJobRow = null;
+    }
+    Iterator<PendingRow> pending = pendingTaskRows.values().iterator();
+    while (pending.hasNext()) {
+      writeTaskPut(pending.next().toPut());
+      pending.remove();
+    }
+  }
+
+  /**
+   * @return the number of puts added, one per history event
+   */
+  public int getPutsAdded() {
+    return putsAdded;
+  }
+
+  /**
+   * @return the number of puts handed on to the sink
+   */
+  public int getPutsWritten() {
+    return putsWritten;
+  }
+
+  private void writeJobPut(Put p) throws IOException {
+    sink.addJobPut(p);
+    putsWritten++;
+  }
+
+  private void writeTaskPut(Put p) throws IOException {
+    sink.addTaskPut(p);
+    putsWritten++;
+  }
+
+  /**
+   * The puts for a row that are held back. The columns of the puts after the
+   * first are merged into it through a map per family keyed by qualifier,
+   * which is only built once a second put for the row comes along.
+   */
+  private static class PendingRow {
+    private final Put put;
+    private Map<byte[], Map<ImmutableBytesWritable, KeyValue>> families = null;
+
+    PendingRow(Put put) {
+      this.put = put;
+    }
+
+    byte[] getRow() {
+      return put.getRow();
+    }
+
+    /**
+     * Adds the columns of p, replacing the ones the row already has.
+     */
+    void merge(Put p) {
+      if (families == null) {
+        families = new TreeMap<byte[], Map<ImmutableBytesWritable, KeyValue>>(
+            Bytes.BYTES_COMPARATOR);
+        addColumns(put);
+      }
+      addColumns(p);
+    }
+
+    private void addColumns(Put p) {
+      for (Map.Entry<byte[], List<KeyValue>> family : p.getFamilyMap().entrySet()) {
+        Map<ImmutableBytesWritable, KeyValue> columns = families.get(family.getKey());
+        if (columns == null) {
+          columns = new LinkedHashMap<ImmutableBytesWritable, KeyValue>();
+          families.put(family.getKey(), columns);
+        }
+        for (KeyValue kv : family.getValue()) {
+          columns.put(new ImmutableBytesWritable(kv.getBuffer(),
+              kv.getQualifierOffset(), kv.getQualifierLength()), kv);
+        }
+      }
+    }
+
+    /**
+     * @return the first put for the row, with the columns of all of them
+     */
+    Put toPut() {
+      if (families != null) {
+        Map<byte[], List<KeyValue>> familyMap = put.getFamilyMap();
+        for (Map.Entry<byte[], Map<ImmutableBytesWritable, KeyValue>> family
+            : families.entrySet()) {
+          familyMap.put(family.getKey(),
+              new ArrayList<KeyValue>(family.getValue().values()));
+        }
+      }
+      return put;
+    }
+  }
+}
@@ -0,0 +1,42 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.twitter.hraven.etl;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.client.Put;
+
+/**
+ * Receives the puts generated by a {@link JobHistoryFileParser} as soon as
+ * they are complete, so that they do not all have to be held in memory until
+ * the whole history file has been parsed.
+ */
+public interface JobHistoryPutSink {
+
+  /**
+   * @param p a put for the {@link com.twitter.hraven.Constants#HISTORY_TABLE}
+   * @throws IOException if the put cannot be written
+   */
+  public void addJobPut(Put p) throws IOException;
+
+  /**
+   * @param p a put for the
+   *          {@link com.twitter.hraven.Constants#HISTORY_TASK_TABLE}
+   * @throws IOException if the put cannot be written
+   */
+  public void addTaskPut(Put p) throws IOException;
+
+}
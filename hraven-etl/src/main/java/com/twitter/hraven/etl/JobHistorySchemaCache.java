@@ -0,0 +1,223 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.twitter.hraven.etl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DatumReader;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.MD5Hash;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import com.twitter.hraven.etl.JobHistoryFileParserHadoop2.Hadoop2RecordType;
+
+/**
+ * Caches what {@link JobHistoryFileParserHadoop2} compiles out of the schema
+ * line of a hadoop2 job history file, keyed by the fingerprint (MD5) of that
+ * line. Within one mapper almost every history file carries the same schema,
+ * so the schema, datum reader and field types are built only once. Column
+ * qualifiers come from the precomputed {@link com.twitter.hraven.JobHistoryKeys}
+ * table.
+ */
+public class JobHistorySchemaCache {
+
+  private static final Log LOG = LogFactory.getLog(JobHistorySchemaCache.class);
+
+  /**
+   * Maximum number of distinct schemas kept around. There are only a handful
+   * of hadoop versions on a cluster at any given time.
+   */
+  static final int MAX_ENTRIES = 16;
+
+  private static final JobHistorySchemaCache INSTANCE = new JobHistorySchemaCache(
+      MAX_ENTRIES);
+
+  private static final String TYPE = "type";
+  private static final String EVENT = "event";
+  private static final String NAME = "name";
+  private static final String FIELDS = "fields";
+
+  private final Map<MD5Hash, CompiledSchema> entries;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param maxEntries the maximum number of schemas to keep, least recently
+   *          used ones are evicted first.
+   */
+  JobHistorySchemaCache(final int maxEntries) {
+    this.entries = new LinkedHashMap<MD5Hash, CompiledSchema>(maxEntries, 0.75f,
+        true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(
+          Map.Entry<MD5Hash, CompiledSchema> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * @return the cache shared by all parsers in this JVM
+   */
+  public static JobHistorySchemaCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param buf holding the (second) line of a hadoop2 job history file
+   * @param offset where the schema line starts in buf
+   * @param length of the schema line, without line terminator
+   * @return the compiled schema, from the cache if this schema has been seen
+   *         before. The schema line is only decoded if it has not.
+   * @throws JSONException if the schema cannot be understood
+   */
+  CompiledSchema get(byte[] buf, int offset, int length) throws JSONException {
+    MD5Hash fingerprint = MD5Hash.digest(buf, offset, length);
+    CompiledSchema compiled;
+    synchronized (entries) {
+      compiled = entries.get(fingerprint);
+    }
+    if (compiled != null) {
+      hits.incrementAndGet();
+      return compiled;
+    }
+
+    misses.incrementAndGet();
+    compiled = new CompiledSchema(Bytes.toString(buf, offset, length));
+    synchronized (entries) {
+      entries.put(fingerprint, compiled);
+    }
+    LOG.info("Compiled job history schema with fingerprint " + fingerprint);
+    return compiled;
+  }
+
+  /**
+   * @return how many times a schema was found in the cache
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return how many times a schema had to be compiled
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Everything derived from one job history schema. Instances are immutable and
+   * can be shared between parsers.
+   */
+  static class CompiledSchema {
+
+    private final Schema schema;
+    private final DatumReader<GenericRecord> reader;
+    private final Map<Hadoop2RecordType, Map<String, String>> fieldTypes;
+
+    CompiledSchema(String schemaLine) throws JSONException {
+      this.schema = Schema.parse(schemaLine);
+      this.reader = new GenericDatumReader<GenericRecord>(schema);
+      this.fieldTypes = Collections.unmodifiableMap(understandSchema(schema
+          .toString()));
+    }
+
+    Schema getSchema() {
+      return schema;
+    }
+
+    DatumReader<GenericRecord> getReader() {
+      return reader;
+    }
+
+    /**
+     * @return the types of the fields for each record type, as they appear in
+     *         the schema
+     */
+    Map<Hadoop2RecordType, Map<String, String>> getFieldTypes() {
+      return fieldTypes;
+    }
+
+    /**
+     * understand the schema so that we can parse the rest of the file
+     * @throws JSONException
+     */
+    private static Map<Hadoop2RecordType, Map<String, String>> understandSchema(
+        String schema) throws JSONException {
+
+      Map<Hadoop2RecordType, Map<String, String>> fieldTypes =
+          new HashMap<Hadoop2RecordType, Map<String, String>>();
+      JSONObject j1 = new JSONObject(schema);
+      JSONArray fields = j1.getJSONArray(FIELDS);
+
+      String fieldName;
+      String fieldTypeValue;
+      Object recName;
+
+      for (int k = 0; k < fields.length(); k++) {
+        if (fields.get(k) == null) {
+          continue;
+        }
+        JSONObject allEvents = new JSONObject(fields.get(k).toString());
+        Object name = allEvents.get(NAME);
+        if (name != null) {
+          if (name.toString().equalsIgnoreCase(EVENT)) {
+            JSONArray allTypeDetails = allEvents.getJSONArray(TYPE);
+            for (int i = 0; i < allTypeDetails.length(); i++) {
+              JSONObject actual = (JSONObject) allTypeDetails.get(i);
+              JSONArray types = actual.getJSONArray(FIELDS);
+              Map<String, String> typeDetails = new HashMap<String, String>();
+              for (int j = 0; j < types.length(); j++) {
+                if (types.getJSONObject(j) == null ) {
+                  continue;
+                }
+                fieldName = types.getJSONObject(j).getString(NAME);
+                fieldTypeValue = types.getJSONObject(j).getString(TYPE);
+                if ((fieldName != null) && (fieldTypeValue != null)) {
+                  typeDetails.put(fieldName, fieldTypeValue);
+                }
+              }
+
+              recName = actual.get(NAME);
+              if (recName != null) {
+                /* the next statement may throw an IllegalArgumentException if
+                 * it finds a new string that's not part of the Hadoop2RecordType enum
+                 * that way we know what types of events we are parsing
+                 */
+                fieldTypes.put(Hadoop2RecordType.valueOf(recName.toString()),
+                    Collections.unmodifiableMap(typeDetails));
+              }
+            }
+          }
+        }
+      }
+      return fieldTypes;
+    }
+  }
+}
@@ -0,0 +1,375 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.twitter.hraven.etl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.mapred.JobHistoryCopy;
+import org.apache.hadoop.mapred.JobHistoryCopy.Listener;
+import org.apache.hadoop.mapred.JobHistoryCopy.RecordTypes;
+
+import com.twitter.hraven.JobHistoryKeys;
+
+/**
+ * Single pass, byte level tokenizer for job history files which are generated
+ * pre MAPREDUCE-1016. It hands the same records to a {@link Listener} as
+ * {@link JobHistoryCopy#parseHistoryFromIS(java.io.InputStream, Listener)}
+ * does, without decoding the file to characters, joining lines into strings
+ * or running the KEY="VALUE" regex over them.
+ * <p>
+ * The map passed to {@link Listener#handle(RecordTypes, Map)} is a read-only
+ * view that is reused for every record, listeners must copy whatever they
+ * want to hold on to. Instances are not thread-safe.
+ */
+public class JobHistoryTokenizer {
+
+  private static final byte SPACE = ' ';
+  private static final byte QUOTE = '"';
+  private static final byte EQUALS = '=';
+  private static final byte ESCAPE = '\\';
+  private static final byte CR = '\r';
+  private static final byte LF = '\n';
+  /** record delimiter since version 1, and the only one that is escaped */
+  private static final byte LINE_DELIMITER = '.';
+  /** record delimiter in version 0 files */
+  private static final byte VERSION0_LINE_DELIMITER = '"';
+
+  private static final RecordTypes[] RECORD_TYPES = RecordTypes.values();
+  private static final byte[][] RECORD_TYPE_NAMES = new byte[RECORD_TYPES.length][];
+
+  /** keys grouped by the length of their name, to look them up without creating strings */
+  private static final JobHistoryKeys[][] KEYS_BY_LENGTH;
+  private static final byte[][] KEY_NAMES = new byte[JobHistoryKeys.values().length][];
+
+  static {
+    for (RecordTypes recType : RECORD_TYPES) {
+      RECORD_TYPE_NAMES[recType.ordinal()] = Bytes.toBytes(recType.name());
+    }
+
+    List<List<JobHistoryKeys>> keysByLength = new ArrayList<List<JobHistoryKeys>>();
+    for (JobHistoryKeys key : JobHistoryKeys.values()) {
+      byte[] name = Bytes.toBytes(key.name());
+      KEY_NAMES[key.ordinal()] = name;
+      while (keysByLength.size() <= name.length) {
+        keysByLength.add(new ArrayList<JobHistoryKeys>());
+      }
+      keysByLength.get(name.length).add(key);
+    }
+    KEYS_BY_LENGTH = new JobHistoryKeys[keysByLength.size()][];
+    for (int i = 0; i < keysByLength.size(); i++) {
+      KEYS_BY_LENGTH[i] = keysByLength.get(i).toArray(new JobHistoryKeys[0]);
+    }
+  }
+
+  /** the flyweight record, filled in for each line of history */
+  private final Map<JobHistoryKeys, String> values =
+      new EnumMap<JobHistoryKeys, String>(JobHistoryKeys.class);
+  private final Map<JobHistoryKeys, String> readOnlyValues =
+      Collections.unmodifiableMap(values);
+
+  /** used to unescape values that contain escape characters or line breaks */
+  private byte[] scratch = new byte[256];
+
+  /**
+   * Parses the job history that is the remaining content of the buffer, from
+   * its backing array. The history is only copied if the buffer does not have
+   * one.
+   *
+   * @param history the job history file contents
+   * @param l listener for history events
+   * @throws IOException if a record is malformed, or the listener throws
+   * @see #parse(byte[], int, int, Listener)
+   */
+  public void parse(ByteBuffer history, Listener l) throws IOException {
+    if (history.hasArray()) {
+      parse(history.array(), history.arrayOffset() + history.position(),
+          history.remaining(), l);
+    } else {
+      byte[] copy = new byte[history.remaining()];
+      history.duplicate().get(copy);
+      parse(copy, 0, copy.length, l);
+    }
+  }
+
+  /**
+   * Parses job history and invokes {@link Listener#handle(RecordTypes, Map)}
+   * for each record.
+   *
+   * @param buf holding the job history file contents
+   * @param offset at which the contents start in buf
+   * @param length of the contents
+   * @param l listener for history events
+   * @throws IOException if a record is malformed, or the listener throws
+   * @throws IllegalArgumentException if an unknown record type or key is
+   *           encountered, or a value is not properly escaped
+   */
+  public void parse(byte[] buf, int offset, int length, Listener l)
+      throws IOException {
+    int end = offset + length;
+    if (length <= 0) {
+      return;
+    }
+
+    // The first line carries the version. Note that this might be a job line
+    // for files written in the older format
+    int firstLineEnd = lineEnd(buf, offset, end);
+    long version = 0L;
+    if (RecordTypes.Meta == tokenize(buf, offset, firstLineEnd, false)) {
+      String versionValue = values.get(JobHistoryKeys.VERSION);
+      if (versionValue != null) {
+        version = Long.parseLong(versionValue);
+      }
+    }
+    boolean isEscaped = (version != 0L);
+    byte lineDelim = isEscaped ? LINE_DELIMITER : VERSION0_LINE_DELIMITER;
+
+    // A record ends with the first line ending in an unescaped delimiter
+    int recordStart = offset;
+    int lineStart = offset;
+    while (lineStart < end) {
+      int lineEnd = lineEnd(buf, lineStart, end);
+      int nextLineStart = nextLineStart(buf, lineEnd, end);
+      if (endsWithDelimiter(buf, lineStart, lineEnd, lineDelim)) {
+        RecordTypes recType = tokenize(buf, recordStart, lineEnd, isEscaped);
+        l.handle(recType, readOnlyValues);
+        recordStart = nextLineStart;
+      }
+      lineStart = nextLineStart;
+    }
+    // anything after the last delimiter is an incomplete record, skip it
+    values.clear();
+  }
+
+  /**
+   * Fills the flyweight values with the KEY="VALUE" pairs of one record.
+   *
+   * @return the type of the record
+   */
+  private RecordTypes tokenize(byte[] buf, int start, int end, boolean isEscaped)
+      throws IOException {
+    values.clear();
+
+    int space = indexOf(buf, start, end, SPACE);
+    if (space < 0) {
+      throw new IOException("Malformed job history record, no record type in: "
+          + Bytes.toStringBinary(buf, start, end - start));
+    }
+    RecordTypes recType = getRecordType(buf, start, space - start);
+
+    int pos = space + 1;
+    while (pos < end) {
+      if (!isWordChar(buf[pos])) {
+        pos++;
+        continue;
+      }
+      int keyStart = pos;
+      while (pos < end && isWordChar(buf[pos])) {
+        pos++;
+      }
+      int keyEnd = pos;
+      if (pos + 1 >= end || buf[pos] != EQUALS || buf[pos + 1] != QUOTE) {
+        continue;
+      }
+      int valueStart = pos + 2;
+      int valueEnd = closingQuote(buf, valueStart, end);
+      if (valueEnd < 0) {
+        // no terminated value left in this record
+        break;
+      }
+      values.put(getKey(buf, keyStart, keyEnd - keyStart),
+          decodeValue(buf, valueStart, valueEnd, isEscaped));
+      pos = valueEnd + 1;
+    }
+    return recType;
+  }
+
+  /**
+   * @return the index of the quote closing the value starting at start, or -1
+   *         if there is none before end. Escaped characters are skipped.
+   */
+  private static int closingQuote(byte[] buf, int start, int end) {
+    int i = start;
+    while (i < end) {
+      if (buf[i] == ESCAPE) {
+        i += 2;
+      } else if (buf[i] == QUOTE) {
+        return i;
+      } else {
+        i++;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Decodes a value, unescaping it if needed. Line breaks within a value are
+   * normalized to '\n', just as they are when history is read line by line.
+   */
+  private String decodeValue(byte[] buf, int start, int end, boolean isEscaped) {
+    boolean plain = true;
+    for (int i = start; i < end && plain; i++) {
+      byte b = buf[i];
+      plain = (b != CR) && (!isEscaped || !isSpecial(b));
+    }
+    if (plain) {
+      return Bytes.toString(buf, start, end - start);
+    }
+
+    if (scratch.length < end - start) {
+      scratch = new byte[Math.max(end - start, 2 * scratch.length)];
+    }
+    int n = 0;
+    boolean hasPreEscape = false;
+    for (int i = start; i < end; i++) {
+      byte b = buf[i];
+      if (b == CR) {
+        if (i + 1 < end && buf[i + 1] == LF) {
+          continue;
+        }
+        b = LF;
+      }
+      if (!isEscaped) {
+        scratch[n++] = b;
+      } else if (hasPreEscape) {
+        if (!isSpecial(b)) {
+          throw new IllegalArgumentException("Illegal escaped string "
+              + Bytes.toStringBinary(buf, start, end - start) + " unescaped "
+              + (char) ESCAPE + " at " + (i - 1 - start));
+        }
+        // otherwise discard the escape char
+        scratch[n++] = b;
+        hasPreEscape = false;
+      } else if (b == ESCAPE) {
+        hasPreEscape = true;
+      } else if (isSpecial(b)) {
+        throw new IllegalArgumentException("Illegal escaped string "
+            + Bytes.toStringBinary(buf, start, end - start) + " unescaped "
+            + (char) b + " at " + (i - start));
+      } else {
+        scratch[n++] = b;
+      }
+    }
+    if (hasPreEscape) {
+      throw new IllegalArgumentException("Illegal escaped string "
+          + Bytes.toStringBinary(buf, start, end - start) + ", not expecting "
+          + (char) ESCAPE + " in the end.");
+    }
+    return Bytes.toString(scratch, 0, n);
+  }
+
+  /**
+   * @return whether b needs to be escaped in a value: one of the characters
+   *         that history escapes or the escape character itself
+   */
+  private static boolean isSpecial(byte b) {
+    return b == ESCAPE || b == QUOTE || b == EQUALS || b == LINE_DELIMITER;
+  }
+
+  /**
+   * @return whether b is a regex word character: [a-zA-Z_0-9]
+   */
+  private static boolean isWordChar(byte b) {
+    return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')
+        || (b >= '0' && b <= '9') || b == '_';
+  }
+
+  /**
+   * Whether the line, with surrounding whitespace trimmed, ends with an
+   * unescaped delimiter.
+   */
+  private static boolean endsWithDelimiter(byte[] buf, int start, int end,
+      byte lineDelim) {
+    int trimmedStart = start;
+    int trimmedEnd = end;
+    while (trimmedStart < trimmedEnd && (buf[trimmedStart] & 0xff) <= SPACE) {
+      trimmedStart++;
+    }
+    while (trimmedEnd > trimmedStart && (buf[trimmedEnd - 1] & 0xff) <= SPACE) {
+      trimmedEnd--;
+    }
+    if (trimmedEnd == trimmedStart || buf[trimmedEnd - 1] != lineDelim) {
+      return false;
+    }
+    return !(trimmedEnd - 2 >= trimmedStart && buf[trimmedEnd - 2] == ESCAPE);
+  }
+
+  /**
+   * @return the index of the line terminator of the line starting at start, or
+   *         end if this is the last line
+   */
+  private static int lineEnd(byte[] buf, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (buf[i] == LF || buf[i] == CR) {
+        return i;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * @return the start of the line following the terminator at lineEnd, which
+   *         is one of "\n", "\r\n" or "\r"
+   */
+  private static int nextLineStart(byte[] buf, int lineEnd, int end) {
+    if (lineEnd >= end) {
+      return end;
+    }
+    if (buf[lineEnd] == CR && lineEnd + 1 < end && buf[lineEnd + 1] == LF) {
+      return lineEnd + 2;
+    }
+    return lineEnd + 1;
+  }
+
+  private static int indexOf(byte[] buf, int start, int end, byte b) {
+    for (int i = start; i < end; i++) {
+      if (buf[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static RecordTypes getRecordType(byte[] buf, int offset, int length) {
+    for (RecordTypes recType : RECORD_TYPES) {
+      byte[] name = RECORD_TYPE_NAMES[recType.ordinal()];
+      if (Bytes.equals(name, 0, name.length, buf, offset, length)) {
+        return recType;
+      }
+    }
+    throw new IllegalArgumentException("Unknown record type "
+        + Bytes.toStringBinary(buf, offset, length));
+  }
+
+  private static JobHistoryKeys getKey(byte[] buf, int offset, int length) {
+    if (length < KEYS_BY_LENGTH.length) {
+      for (JobHistoryKeys key : KEYS_BY_LENGTH[length]) {
+        byte[] name = KEY_NAMES[key.ordinal()];
+        if (Bytes.equals(name, 0, name.length, buf, offset, length)) {
+          return key;
+        }
+      }
+    }
+    throw new IllegalArgumentException("Unknown job history key "
+        + Bytes.toStringBinary(buf, offset, length));
+  }
+}
@@ -0,0 +1,346 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.mapreduce;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.mapred.Counters;
+
+import com.twitter.hraven.Constants;
+
+/**
+ * Turns the escaped compact string representation of hadoop counters, as
+ * written to pre MAPREDUCE-1016 job history files, straight into columns of a
+ * {@link Put}. It reads the same format as
+ * {@link Counters#fromEscapedCompactString(String)}:
+ *
+ * <pre>
+ *   {(groupname)(group displayname)[(countername)(counter displayname)(value)][...]}{...}
+ * </pre>
+ *
+ * but without building a {@link Counters} object. Counter columns are named
+ * as: <code>counterprefix + groupname!countername</code>.
+ * <p>
+ * Qualifiers are interned per instance, so a parser should live as long as a
+ * job history file is being processed, where the same groups and counters
+ * show up for every task. Instances are not thread-safe.
+ */
+public class CompactCounterParser {
+
+  private static final char GROUP_OPEN = '{';
+  private static final char GROUP_CLOSE = '}';
+  private static final char COUNTER_OPEN = '[';
+  private static final char COUNTER_CLOSE = ']';
+  private static final char UNIT_OPEN = '(';
+  private static final char UNIT_CLOSE = ')';
+  private static final char ESCAPE_CHAR = '\\';
+
+  /** hadoop only keeps the tail of longer group names */
+  private static final int MAX_GROUP_NAME_LENGTH = 128;
+  /** hadoop only keeps the tail of longer counter names */
+  private static final int MAX_COUNTER_NAME_LENGTH = 64;
+
+  /** interned group prefixes, for all counter prefixes seen so far */
+  private final List<GroupEntry> groups = new ArrayList<GroupEntry>();
+
+  /** counters of the string being parsed, only added once all of it parsed */
+  private final List<byte[]> pendingQualifiers = new ArrayList<byte[]>();
+  private long[] pendingValues = new long[64];
+
+  /** position of the next character to look at */
+  private int index;
+  /** start and end (exclusive) of the last block found */
+  private int blockStart;
+  private int blockEnd;
+
+  /**
+   * Adds a column for each counter in the compact string to the put. Nothing
+   * is added if the string cannot be parsed.
+   *
+   * @param p the put to add the counters to
+   * @param family the column family to use
+   * @param counterPrefix prefix for the column qualifiers, see
+   *          {@link com.twitter.hraven.JobHistoryKeys#COUNTER_PREFIXES_TO_BYTES}
+   * @param compactString the counters in escaped compact string format
+   * @throws ParseException if a block is not closed, or a counter is missing
+   *           a part
+   * @throws IllegalArgumentException if names are not properly escaped
+   * @throws NumberFormatException if a counter value is not a long
+   */
+  public void addCounters(Put p, byte[] family, byte[] counterPrefix,
+      String compactString) throws ParseException {
+    pendingQualifiers.clear();
+
+    index = 0;
+    while (nextBlock(compactString, GROUP_OPEN, GROUP_CLOSE, index, compactString.length())) {
+      int groupEnd = blockEnd;
+      index = blockEnd + 1;
+
+      // group name
+      if (!nextBlock(compactString, UNIT_OPEN, UNIT_CLOSE, blockStart, groupEnd)) {
+        throw new ParseException("Missing group name in " + compactString, index);
+      }
+      GroupEntry group = getGroup(counterPrefix, compactString, blockStart, blockEnd);
+      // group display name, which we do not store
+      if (!nextBlock(compactString, UNIT_OPEN, UNIT_CLOSE, blockEnd + 1, groupEnd)) {
+        throw new ParseException("Missing group display name in " + compactString, index);
+      }
+
+      int pos = blockEnd + 1;
+      while (nextBlock(compactString, COUNTER_OPEN, COUNTER_CLOSE, pos, groupEnd)) {
+        int counterEnd = blockEnd;
+        pos = blockEnd + 1;
+
+        if (!nextBlock(compactString, UNIT_OPEN, UNIT_CLOSE, blockStart, counterEnd)) {
+          throw new ParseException("Missing counter name in " + compactString, pos);
+        }
+        byte[] qualifier = group.getQualifier(compactString, blockStart, blockEnd);
+        // counter display name, which we do not store
+        if (!nextBlock(compactString, UNIT_OPEN, UNIT_CLOSE, blockEnd + 1, counterEnd)
+            || !nextBlock(compactString, UNIT_OPEN, UNIT_CLOSE, blockEnd + 1, counterEnd)) {
+          throw new ParseException("Missing counter value in " + compactString, pos);
+        }
+        addPending(qualifier, parseLong(compactString, blockStart, blockEnd));
+      }
+    }
+
+    for (int i = 0; i < pendingQualifiers.size(); i++) {
+      p.add(family, pendingQualifiers.get(i), Bytes.toBytes(pendingValues[i]));
+    }
+    pendingQualifiers.clear();
+  }
+
+  /**
+   * Finds the next block delimited by unescaped open and close characters
+   * within [start, end) and sets {@link #blockStart} and {@link #blockEnd} to
+   * the block contents.
+   *
+   * @return false if there is no further block
+   * @throws ParseException if a block is opened but not closed
+   */
+  private boolean nextBlock(String str, char open, char close, int start,
+      int end) throws ParseException {
+    int openAt = findNext(str, open, start, end);
+    if (openAt < 0) {
+      return false;
+    }
+    int closeAt = findNext(str, close, openAt + 1, end);
+    if (closeAt < 0) {
+      throw new ParseException("Unexpected end of block in " + str, closeAt);
+    }
+    blockStart = openAt + 1;
+    blockEnd = closeAt;
+    return true;
+  }
+
+  /**
+   * @return the index of the first unescaped separator within [start, end),
+   *         or -1 if there is none
+   */
+  private static int findNext(String str, char separator, int start, int end) {
+    int numPreEscapes = 0;
+    for (int i = start; i < end; i++) {
+      char curChar = str.charAt(i);
+      if (numPreEscapes == 0 && curChar == separator) {
+        return i;
+      }
+      numPreEscapes = (curChar == ESCAPE_CHAR) ? (numPreEscapes + 1) % 2 : 0;
+    }
+    return -1;
+  }
+
+  private GroupEntry getGroup(byte[] counterPrefix, String str, int start,
+      int end) {
+    int length = end - start;
+    for (GroupEntry group : groups) {
+      if (group.escapedName.length() == length
+          && str.regionMatches(start, group.escapedName, 0, length)
+          && Bytes.equals(group.counterPrefix, counterPrefix)) {
+        return group;
+      }
+    }
+    String escapedName = str.substring(start, end);
+    GroupEntry group = new GroupEntry(counterPrefix, escapedName, Bytes.add(
+        counterPrefix,
+        Bytes.toBytes(getShortName(unescape(escapedName), MAX_GROUP_NAME_LENGTH)),
+        Constants.SEP_BYTES));
+    groups.add(group);
+    return group;
+  }
+
+  /**
+   * Counters that show up more than once within a string are summed up, just
+   * like {@link Counters} does.
+   */
+  private void addPending(byte[] qualifier, long value) {
+    for (int i = 0; i < pendingQualifiers.size(); i++) {
+      byte[] pending = pendingQualifiers.get(i);
+      if (pending == qualifier || Bytes.equals(pending, qualifier)) {
+        pendingValues[i] += value;
+        return;
+      }
+    }
+    int i = pendingQualifiers.size();
+    if (i == pendingValues.length) {
+      long[] grown = new long[2 * pendingValues.length];
+      System.arraycopy(pendingValues, 0, grown, 0, pendingValues.length);
+      pendingValues = grown;
+    }
+    pendingQualifiers.add(qualifier);
+    pendingValues[i] = value;
+  }
+
+  /**
+   * Same as {@link Long#parseLong(String)} on the given range, without
+   * creating a string for it first.
+   */
+  private static long parseLong(String str, int start, int end) {
+    if (start >= end) {
+      throw new NumberFormatException("For input string: \"\"");
+    }
+    boolean negative = false;
+    int i = start;
+    long limit = -Long.MAX_VALUE;
+    char first = str.charAt(i);
+    if (first == '-' || first == '+') {
+      if (first == '-') {
+        negative = true;
+        limit = Long.MIN_VALUE;
+      }
+      i++;
+      if (i == end) {
+        throw new NumberFormatException("For input string: \""
+            + str.substring(start, end) + "\"");
+      }
+    }
+    long multmin = limit / 10;
+    // accumulate negatively, like Long.parseLong, to reach Long.MIN_VALUE
+    long result = 0;
+    for (; i < end; i++) {
+      int digit = Character.digit(str.charAt(i), 10);
+      if (digit < 0 || result < multmin) {
+        throw new NumberFormatException("For input string: \""
+            + str.substring(start, end) + "\"");
+      }
+      result *= 10;
+      if (result < limit + digit) {
+        throw new NumberFormatException("For input string: \""
+            + str.substring(start, end) + "\"");
+      }
+      result -= digit;
+    }
+    return negative ? result : -result;
+  }
+
+  /**
+   * Removes the escape characters in front of the counter delimiters.
+   *
+   * @throws IllegalArgumentException if a delimiter is not escaped or an
+   *           escape character does not precede a delimiter
+   */
+  private static String unescape(String str) {
+    if (str.indexOf(ESCAPE_CHAR) < 0 && !containsDelimiter(str)) {
+      return str;
+    }
+    StringBuilder result = new StringBuilder(str.length());
+    boolean hasPreEscape = false;
+    for (int i = 0; i < str.length(); i++) {
+      char curChar = str.charAt(i);
+      if (hasPreEscape) {
+        if (curChar != ESCAPE_CHAR && !isDelimiter(curChar)) {
+          throw new IllegalArgumentException("Illegal escaped string " + str
+              + " unescaped " + ESCAPE_CHAR + " at " + (i - 1));
+        }
+        // otherwise discard the escape char
+        result.append(curChar);
+        hasPreEscape = false;
+      } else if (isDelimiter(curChar)) {
+        throw new IllegalArgumentException("Illegal escaped string " + str
+            + " unescaped " + curChar + " at " + i);
+      } else if (curChar == ESCAPE_CHAR) {
+        hasPreEscape = true;
+      } else {
+        result.append(curChar);
+      }
+    }
+    if (hasPreEscape) {
+      throw new IllegalArgumentException("Illegal escaped string " + str
+          + ", not expecting " + ESCAPE_CHAR + " in the end.");
+    }
+    return result.toString();
+  }
+
+  private static boolean containsDelimiter(String str) {
+    for (int i = 0; i < str.length(); i++) {
+      if (isDelimiter(str.charAt(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isDelimiter(char c) {
+    return c == GROUP_OPEN || c == GROUP_CLOSE || c == COUNTER_OPEN
+        || c == COUNTER_CLOSE || c == UNIT_OPEN || c == UNIT_CLOSE;
+  }
+
+  /**
+   * @return the last maxLength characters of name
+   */
+  private static String getShortName(String name, int maxLength) {
+    return name.length() > maxLength ? name.substring(name.length() - maxLength) : name;
+  }
+
+  /**
+   * A counter group seen for a given counter prefix, along with the
+   * qualifiers of the counters seen in that group.
+   */
+  private static class GroupEntry {
+    private final byte[] counterPrefix;
+    private final String escapedName;
+    /** counterprefix + groupname! */
+    private final byte[] groupPrefix;
+    private final List<String> escapedCounterNames = new ArrayList<String>();
+    private final List<byte[]> qualifiers = new ArrayList<byte[]>();
+
+    GroupEntry(byte[] counterPrefix, String escapedName, byte[] groupPrefix) {
+      this.counterPrefix = counterPrefix;
+      this.escapedName = escapedName;
+      this.groupPrefix = groupPrefix;
+    }
+
+    byte[] getQualifier(String str, int start, int end) {
+      int length = end - start;
+      for (int i = 0; i < escapedCounterNames.size(); i++) {
+        String escapedCounterName = escapedCounterNames.get(i);
+        if (escapedCounterName.length() == length
+            && str.regionMatches(start, escapedCounterName, 0, length)) {
+          return qualifiers.get(i);
+        }
+      }
+      String escapedCounterName = str.substring(start, end);
+      byte[] qualifier = Bytes.add(groupPrefix, Bytes.toBytes(getShortName(
+          unescape(escapedCounterName), MAX_COUNTER_NAME_LENGTH)));
+      escapedCounterNames.add(escapedCounterName);
+      qualifiers.add(qualifier);
+      return qualifier;
+    }
+  }
+}
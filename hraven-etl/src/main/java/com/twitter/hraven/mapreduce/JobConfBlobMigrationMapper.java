@@ -0,0 +1,144 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.mapreduce;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.mapreduce.TableMapper;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.NullWritable;
+
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.datasource.JobConfBlob;
+import com.twitter.hraven.datasource.JobHistoryService;
+
+/**
+ * Rewrites the separate job configuration columns of job history rows into a
+ * single {@link JobConfBlob}. The scan handed to this mapper needs to return
+ * the job configuration columns only.
+ * <p>
+ * Writes go straight to the {@link Constants#HISTORY_TABLE} rather than
+ * through an output format: the blob of a row has to be stored before the
+ * columns it replaces are deleted.
+ */
+public class JobConfBlobMigrationMapper extends
+    TableMapper<NullWritable, NullWritable> {
+
+  private static Log LOG = LogFactory.getLog(JobConfBlobMigrationMapper.class);
+
+  /** number of rows to buffer before their columns are deleted */
+  private static final int DELETE_BATCH_SIZE = 100;
+
+  private HTable historyTable;
+  private boolean keepColumns;
+  private Set<String> hotKeys;
+  private final List<Delete> pendingDeletes = new ArrayList<Delete>();
+
+  @Override
+  protected void setup(Context context) throws IOException,
+      InterruptedException {
+    Configuration conf = context.getConfiguration();
+    historyTable = new HTable(conf, Constants.HISTORY_TABLE_BYTES);
+    historyTable.setAutoFlush(false);
+    keepColumns = conf.getBoolean(Constants.JOB_CONF_BLOB_KEEP_COLUMNS_CONF_KEY,
+        false);
+    hotKeys = JobHistoryService.getJobConfHotKeys(conf);
+    LOG.info("keepColumns=" + keepColumns + " hotKeys=" + hotKeys);
+  }
+
+  @Override
+  protected void map(ImmutableBytesWritable key, Result value, Context context)
+      throws IOException, InterruptedException {
+    if (value.containsColumn(Constants.INFO_FAM_BYTES,
+        Constants.JOB_CONF_BLOB_COLUMN_BYTES)) {
+      context.getCounter(ProcessingCounter.JOB_CONF_BLOB_SKIPPED_COUNT)
+          .increment(1);
+      return;
+    }
+
+    int prefixLength = Constants.JOB_CONF_PROPERTY_COLUMN_PREFIX_BYTES.length;
+    SortedMap<byte[], byte[]> properties = new TreeMap<byte[], byte[]>(
+        Bytes.BYTES_COMPARATOR);
+    Delete delete = new Delete(value.getRow());
+    for (KeyValue kv : value.raw()) {
+      byte[] qualifier = kv.getQualifier();
+      if (qualifier.length <= prefixLength
+          || !Bytes.startsWith(qualifier,
+              Constants.JOB_CONF_PROPERTY_COLUMN_PREFIX_BYTES)) {
+        continue;
+      }
+      byte[] name = Bytes.tail(qualifier, qualifier.length - prefixLength);
+      properties.put(name, kv.getValue());
+      if (!hotKeys.contains(Bytes.toString(name))) {
+        delete.deleteColumns(Constants.INFO_FAM_BYTES, qualifier,
+            kv.getTimestamp());
+      }
+    }
+    if (properties.isEmpty()) {
+      context.getCounter(ProcessingCounter.JOB_CONF_BLOB_SKIPPED_COUNT)
+          .increment(1);
+      return;
+    }
+
+    Put put = new Put(value.getRow());
+    put.add(Constants.INFO_FAM_BYTES, Constants.JOB_CONF_BLOB_COLUMN_BYTES,
+        JobConfBlob.encode(properties));
+    historyTable.put(put);
+    if (!keepColumns && !delete.isEmpty()) {
+      pendingDeletes.add(delete);
+      if (pendingDeletes.size() >= DELETE_BATCH_SIZE) {
+        flush();
+      }
+    }
+    context.getCounter(ProcessingCounter.JOB_CONF_BLOB_MIGRATED_COUNT)
+        .increment(1);
+  }
+
+  @Override
+  protected void cleanup(Context context) throws IOException,
+      InterruptedException {
+    try {
+      flush();
+    } finally {
+      historyTable.close();
+    }
+  }
+
+  /**
+   * Stores the pending blobs, then deletes the columns they replace.
+   */
+  private void flush() throws IOException {
+    historyTable.flushCommits();
+    if (!pendingDeletes.isEmpty()) {
+      // delete removes the deletes that succeeded from the list
+      historyTable.delete(pendingDeletes);
+    }
+  }
+}
@@ -16,7 +16,17 @@ limitations under the License.
 package com.twitter.hraven.mapreduce;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
@@ -25,10 +35,14 @@ import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.mapreduce.TableMapper;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.mapreduce.Mapper;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.twitter.hraven.Constants;
+import com.twitter.hraven.JobConfProperties;
 import com.twitter.hraven.JobDesc;
 import com.twitter.hraven.JobDescFactory;
 import com.twitter.hraven.JobKey;
@@ -42,6 +56,8 @@ import com.twitter.hraven.datasource.ProcessingException;
 import com.twitter.hraven.datasource.RowKeyParseException;
 import com.twitter.hraven.etl.JobHistoryFileParser;
 import com.twitter.hraven.etl.JobHistoryFileParserFactory;
+import com.twitter.hraven.etl.JobHistoryPutSink;
+import com.twitter.hraven.etl.JobHistorySchemaCache;
 import com.twitter.hraven.etl.ProcessRecordService;
 
 /**
@@ -51,7 +67,12 @@ import com.twitter.hraven.etl.ProcessRecordService;
  * <p>
  * As a side-affect we'll load an index record into the
  * {@link Constants#HISTORY_BY_JOBID_TABLE} as well.
- * 
+ * <p>
+ * Raw rows can be processed by several threads within each map task, see
+ * {@link Constants#JOB_FILE_MAPPER_THREADS_CONF_KEY}. Like with
+ * {@link org.apache.hadoop.mapreduce.lib.map.MultithreadedMapper} rows are
+ * read by one thread and handed to a pool of threads that run {@link #map},
+ * all access to the context, reads and writes, is serialized on it.
  */
 public class JobFileTableMapper extends
     TableMapper<ImmutableBytesWritable, Put> {
@@ -80,7 +101,23 @@ public class JobFileTableMapper extends
    */
   private JobHistoryRawService rawService = null;
 
-  private long keyCount = 0;
+  private final AtomicLong keyCount = new AtomicLong();
+
+  /** see {@link Constants#JOB_CONF_STORAGE_CONF_KEY} */
+  private boolean jobConfBlobStorage = false;
+
+  /** see {@link Constants#JOB_CONF_BLOB_HOT_KEYS_CONF_KEY} */
+  private Set<String> jobConfHotKeys = Collections.emptySet();
+
+  /** see {@link Constants#JOB_FILE_MAPPER_THREADS_CONF_KEY} */
+  private int threads = Constants.JOB_FILE_MAPPER_THREADS_DEFAULT;
+
+  /**
+   * Schema cache hits and misses at the start of this task, the cache is shared
+   * by all tasks running in this JVM.
+   */
+  private long schemaCacheHitsAtSetup = 0;
+  private long schemaCacheMissesAtSetup = 0;
 
   /**
    * @return the key class for the job output data.
@@ -101,11 +138,97 @@ public class JobFileTableMapper extends
       Mapper<ImmutableBytesWritable, Result, ImmutableBytesWritable, Put>.Context context)
       throws java.io.IOException, InterruptedException {
     Configuration myConf = context.getConfiguration();
+    // fail the task right away on a bad setting, rather than every row
+    jobConfBlobStorage = JobHistoryService.isJobConfBlobStorage(myConf);
+    jobConfHotKeys = JobHistoryService.getJobConfHotKeys(myConf);
     jobHistoryByIdService = new JobHistoryByIdService(myConf);
     appVersionService = new AppVersionService(myConf);
     rawService = new JobHistoryRawService(myConf);
 
-    keyCount = 0;
+    keyCount.set(0);
+    threads = Math.max(1, myConf.getInt(
+        Constants.JOB_FILE_MAPPER_THREADS_CONF_KEY,
+        Constants.JOB_FILE_MAPPER_THREADS_DEFAULT));
+    incrementCounter(context, ProcessingCounter.MAPPER_THREAD_COUNT, threads);
+    JobHistorySchemaCache schemaCache = JobHistorySchemaCache.getInstance();
+    schemaCacheHitsAtSetup = schemaCache.getHits();
+    schemaCacheMissesAtSetup = schemaCache.getMisses();
+  }
+
+  @Override
+  public void run(
+      Mapper<ImmutableBytesWritable, Result, ImmutableBytesWritable, Put>.Context context)
+      throws IOException, InterruptedException {
+    setup(context);
+    if (threads > 1) {
+      LOG.info("Processing raw rows with " + threads + " threads");
+      runThreads(context);
+    } else {
+      while (context.nextKeyValue()) {
+        map(context.getCurrentKey(), context.getCurrentValue(), context);
+      }
+    }
+    cleanup(context);
+  }
+
+  /**
+   * Reads the raw rows and has a pool of {@link #threads} threads map them.
+   * Only as many rows as there are threads are read ahead, each row carries a
+   * whole job history file. Once a row fails with an exception no more rows are
+   * handed out, and the exception is rethrown after the rows still in flight
+   * are done.
+   */
+  private void runThreads(
+      final Mapper<ImmutableBytesWritable, Result, ImmutableBytesWritable, Put>.Context context)
+      throws IOException, InterruptedException {
+    ExecutorService pool = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder().setNameFormat("JobFileTableMapper-%d")
+            .setDaemon(true).build());
+    final Semaphore rowsInFlight = new Semaphore(threads);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    try {
+      while (true) {
+        rowsInFlight.acquire();
+        final ImmutableBytesWritable key;
+        final Result value;
+        // the reader shares the context with the map threads
+        synchronized (context) {
+          if (failure.get() != null || !context.nextKeyValue()) {
+            rowsInFlight.release();
+            break;
+          }
+          // the record reader reuses the key
+          key = new ImmutableBytesWritable(context.getCurrentKey().copyBytes());
+          value = context.getCurrentValue();
+        }
+        pool.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              map(key, value, context);
+            } catch (Throwable t) {
+              failure.compareAndSet(null, t);
+            } finally {
+              rowsInFlight.release();
+            }
+          }
+        });
+      }
+      pool.shutdown();
+      while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+        LOG.info("Waiting for the last raw rows to be processed");
+        progress(context);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+
+    Throwable t = failure.get();
+    if (t != null) {
+      Throwables.propagateIfPossible(t, IOException.class,
+          InterruptedException.class);
+      throw new IOException("Failed to process raw row", t);
+    }
   }
 
   @Override
@@ -115,34 +238,36 @@ public class JobFileTableMapper extends
       Mapper<ImmutableBytesWritable, Result, ImmutableBytesWritable, Put>.Context context)
       throws java.io.IOException, InterruptedException {
 
-    keyCount++;
+    long rowCount = keyCount.incrementAndGet();
     boolean success = true;
     QualifiedJobId qualifiedJobId = null;
     try {
       qualifiedJobId = rawService.getQualifiedJobIdFromResult(value);
-      context.progress();
+      progress(context);
 
-      Configuration jobConf = rawService.createConfigurationFromResult(value);
-      context.progress();
+      JobConfProperties jobConf = JobHistoryRawService
+          .createJobConfPropertiesFromResult(value);
+      progress(context);
 
       long submitTimeMillis = rawService.getSubmitTimeMillisFromResult(value);
-      context.progress();
+      progress(context);
 
       Put submitTimePut = rawService.getJobSubmitTimePut(value.getRow(),
           submitTimeMillis);
-      context.write(RAW_TABLE, submitTimePut);
+      write(context, RAW_TABLE, submitTimePut);
 
       JobDesc jobDesc = JobDescFactory.createJobDesc(qualifiedJobId,
           submitTimeMillis, jobConf);
       JobKey jobKey = new JobKey(jobDesc);
-      context.progress();
+      progress(context);
 
       // TODO: remove sysout
-      String msg = "JobDesc (" + keyCount + "): " + jobDesc
+      String msg = "JobDesc (" + rowCount + "): " + jobDesc
           + " submitTimeMillis: " + submitTimeMillis;
       LOG.info(msg);
 
-      List<Put> puts = JobHistoryService.getHbasePuts(jobDesc, jobConf);
+      List<Put> puts = JobHistoryService.getHbasePuts(jobDesc, jobConf,
+          jobConfBlobStorage, jobConfHotKeys);
 
       LOG.info("Writing " + puts.size() + " JobConf puts to "
           + Constants.HISTORY_TABLE);
@@ -157,63 +282,48 @@ public class JobFileTableMapper extends
 
       // Emit the puts
       for (Put put : puts) {
-        context.write(JOB_TABLE, put);
-        context.progress();
+        write(context, JOB_TABLE, put);
+        progress(context);
       }
 
       // Write secondary index(es)
       LOG.info("Writing secondary indexes");
       jobHistoryByIdService.writeIndexes(jobKey);
-      context.progress();
+      progress(context);
       appVersionService.addVersion(jobDesc.getCluster(), jobDesc.getUserName(),
           jobDesc.getAppId(), jobDesc.getVersion(), submitTimeMillis);
-      context.progress();
+      progress(context);
 
       KeyValue keyValue = value.getColumnLatest(Constants.RAW_FAM_BYTES,
        Constants.JOBHISTORY_COL_BYTES);
 
-      byte[] historyFileContents = null;
+      ByteBuffer historyFileContents = null;
       if (keyValue == null) {
         throw new MissingColumnInResultException(Constants.RAW_FAM_BYTES,
           Constants.JOBHISTORY_COL_BYTES);
       } else {
-        historyFileContents = keyValue.getValue();
+        // parse the history right from the cell, rather than copying it out
+        historyFileContents = ByteBuffer.wrap(keyValue.getBuffer(),
+            keyValue.getValueOffset(), keyValue.getValueLength()).slice();
       }
       JobHistoryFileParser historyFileParser = JobHistoryFileParserFactory
-    		  .createJobHistoryFileParser(historyFileContents);
-
-      historyFileParser.parse(historyFileContents, jobKey);
-
-      puts = historyFileParser.getJobPuts();
-      if (puts == null) {
-    	  throw new ProcessingException(
-    			  " Unable to get job puts for this record!" + jobKey);
-      }
-      LOG.info("Writing " + puts.size() + " Job puts to "
-          + Constants.HISTORY_TABLE);
-
-      // Emit the puts
-      for (Put put : puts) {
-        context.write(JOB_TABLE, put);
-        // TODO: we should not have to do this, but need to confirm that
-        // TableRecordWriter does this for us.
-        context.progress();
-      }
-
-      puts = historyFileParser.getTaskPuts();
-      if (puts == null) {
-    	  throw new ProcessingException(
-    			  " Unable to get task puts for this record!" + jobKey);
-      }
-      LOG.info("Writing " + puts.size() + " Job puts to "
-          + Constants.HISTORY_TASK_TABLE);
-
-      for (Put put : puts) {
-        context.write(TASK_TABLE, put);
-        // TODO: we should not have to do this, but need to confirm that
-        // TableRecordWriter does this for us.
-        context.progress();
-      }
+    		  .createJobHistoryFileParser(historyFileContents, context.getConfiguration());
+
+      // Emit the puts as they are parsed, rather than holding all of them. A
+      // file failing part way through may leave some rows written, but its
+      // raw row is not marked processed, and processing it again rewrites
+      // the same cells.
+      ContextPutSink sink = new ContextPutSink(context);
+      historyFileParser.parse(historyFileContents, jobKey, sink);
+
+      LOG.info("Wrote " + sink.getJobPutCount() + " Job puts to "
+          + Constants.HISTORY_TABLE + " and " + sink.getTaskPutCount()
+          + " Task puts to " + Constants.HISTORY_TASK_TABLE + ", merged from "
+          + historyFileParser.getEventPutCount() + " event puts");
+      incrementCounter(context, ProcessingCounter.HISTORY_EVENT_PUT_COUNT,
+          historyFileParser.getEventPutCount());
+      incrementCounter(context, ProcessingCounter.HISTORY_PUT_COUNT,
+          sink.getJobPutCount() + sink.getTaskPutCount());
 
     } catch (RowKeyParseException rkpe) {
       LOG.error("Failed to process record "
@@ -235,10 +345,10 @@ public class JobFileTableMapper extends
 
     if (success) {
       // Update counter to indicate failure.
-      HadoopCompat.incrementCounter(context.getCounter(ProcessingCounter.RAW_ROW_SUCCESS_COUNT), 1);
+      incrementCounter(context, ProcessingCounter.RAW_ROW_SUCCESS_COUNT, 1);
     } else {
       // Update counter to indicate failure.
-      HadoopCompat.incrementCounter(context.getCounter(ProcessingCounter.RAW_ROW_ERROR_COUNT),1);
+      incrementCounter(context, ProcessingCounter.RAW_ROW_ERROR_COUNT, 1);
     }
 
     // Indicate that we processed the RAW successfully so that we can skip it
@@ -249,8 +359,42 @@ public class JobFileTableMapper extends
     // row, with one succeeding and one failing, there could be a race where the
     // raw does not properly indicate the true status (which is questionable in
     // any case with multiple simultaneous runs with different outcome).
-    context.write(RAW_TABLE, successPut);
+    write(context, RAW_TABLE, successPut);
+
+  }
+
+  /**
+   * Writes to the mapper output. Rows may be mapped by several threads at once,
+   * the context is not thread safe.
+   */
+  private static void write(
+      Mapper<ImmutableBytesWritable, Result, ImmutableBytesWritable, Put>.Context context,
+      ImmutableBytesWritable table, Put put) throws IOException,
+      InterruptedException {
+    synchronized (context) {
+      context.write(table, put);
+    }
+  }
+
+  /**
+   * Reports progress, serialized with {@link #write} for the same reason.
+   */
+  private static void progress(
+      Mapper<ImmutableBytesWritable, Result, ImmutableBytesWritable, Put>.Context context) {
+    synchronized (context) {
+      context.progress();
+    }
+  }
 
+  /**
+   * Increments a counter, serialized with {@link #write} for the same reason.
+   */
+  private static void incrementCounter(
+      Mapper<ImmutableBytesWritable, Result, ImmutableBytesWritable, Put>.Context context,
+      ProcessingCounter counter, long increment) {
+    synchronized (context) {
+      HadoopCompat.incrementCounter(context.getCounter(counter), increment);
+    }
   }
 
   @Override
@@ -258,6 +402,14 @@ public class JobFileTableMapper extends
       Mapper<ImmutableBytesWritable, Result, ImmutableBytesWritable, Put>.Context context)
       throws java.io.IOException, InterruptedException {
 
+    JobHistorySchemaCache schemaCache = JobHistorySchemaCache.getInstance();
+    HadoopCompat.incrementCounter(
+        context.getCounter(ProcessingCounter.SCHEMA_CACHE_HIT_COUNT),
+        schemaCache.getHits() - schemaCacheHitsAtSetup);
+    HadoopCompat.incrementCounter(
+        context.getCounter(ProcessingCounter.SCHEMA_CACHE_MISS_COUNT),
+        schemaCache.getMisses() - schemaCacheMissesAtSetup);
+
     IOException caught = null;
 
     if (jobHistoryByIdService != null) {
@@ -289,4 +441,52 @@ public class JobFileTableMapper extends
     }
   }
 
+  /**
+   * Writes puts to the mapper output as soon as the history file parser
+   * produces them.
+   */
+  private static class ContextPutSink implements JobHistoryPutSink {
+
+    private final Mapper<ImmutableBytesWritable, Result, ImmutableBytesWritable, Put>.Context context;
+    private int jobPutCount = 0;
+    private int taskPutCount = 0;
+
+    ContextPutSink(
+        Mapper<ImmutableBytesWritable, Result, ImmutableBytesWritable, Put>.Context context) {
+      this.context = context;
+    }
+
+    @Override
+    public void addJobPut(Put p) throws IOException {
+      write(JOB_TABLE, p);
+      jobPutCount++;
+    }
+
+    @Override
+    public void addTaskPut(Put p) throws IOException {
+      write(TASK_TABLE, p);
+      taskPutCount++;
+    }
+
+    private void write(ImmutableBytesWritable table, Put p) throws IOException {
+      try {
+        JobFileTableMapper.write(context, table, p);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while writing to "
+            + Bytes.toString(table.get()));
+      }
+      // TODO: we should not have to do this, but need to confirm that
+      // TableRecordWriter does this for us.
+      progress(context);
+    }
+
+    int getJobPutCount() {
+      return jobPutCount;
+    }
+
+    int getTaskPutCount() {
+      return taskPutCount;
+    }
+  }
 }
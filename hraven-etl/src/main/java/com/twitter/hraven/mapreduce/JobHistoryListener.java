@@ -17,7 +17,7 @@ package com.twitter.hraven.mapreduce;
 
 import java.io.IOException;
 import java.text.ParseException;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -25,7 +25,6 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.util.Bytes;
-import org.apache.hadoop.mapred.Counters;
 import org.apache.hadoop.mapred.JobHistoryCopy;
 import org.apache.hadoop.mapred.JobHistoryCopy.Listener;
 import org.apache.hadoop.mapred.JobHistoryCopy.RecordTypes;
@@ -37,6 +36,8 @@ import com.twitter.hraven.TaskKey;
 import com.twitter.hraven.datasource.JobKeyConverter;
 import com.twitter.hraven.datasource.TaskKeyConverter;
 import com.twitter.hraven.etl.ImportException;
+import com.twitter.hraven.etl.JobHistoryPutCollector;
+import com.twitter.hraven.etl.JobHistoryPutSink;
 
 
 public class JobHistoryListener implements Listener {
@@ -48,10 +49,13 @@ public class JobHistoryListener implements Listener {
   /** Job ID, minus the leading "job_" */
   private String jobNumber = "";
   private final byte[] jobKeyBytes;
-  private List<Put> jobPuts = new LinkedList<Put>();
-  private List<Put> taskPuts = new LinkedList<Put>();
+  /** only set when puts are collected rather than handed to a sink */
+  private JobHistoryPutCollector puts = null;
+  private final JobHistoryPutSink sink;
   private JobKeyConverter jobKeyConv = new JobKeyConverter();
   private TaskKeyConverter taskKeyConv = new TaskKeyConverter();
+  /** interns counter qualifiers for the file being read */
+  private CompactCounterParser counterParser = new CompactCounterParser();
 
   /**
    * Constructor for listener to be used to read in a Job History File. While
@@ -60,12 +64,31 @@ public class JobHistoryListener implements Listener {
    * @param jobKey jobKey of the job to be persisted
    */
   public JobHistoryListener(JobKey jobKey) {
+    this(jobKey, new JobHistoryPutCollector());
+    this.puts = (JobHistoryPutCollector) this.sink;
+  }
+
+  /**
+   * Constructor for listener to be used to read in a Job History File. While
+   * reading HBase puts are handed to the sink as soon as each record has been
+   * read.
+   * 
+   * @param jobKey jobKey of the job to be persisted
+   * @param sink receives the job and task puts
+   */
+  public JobHistoryListener(JobKey jobKey, JobHistoryPutSink sink) {
     if (null == jobKey) {
       String msg = "JobKey cannot be null";
       LOG.error(msg);
       throw new IllegalArgumentException(msg);
     }
+    if (null == sink) {
+      String msg = "JobHistoryPutSink cannot be null";
+      LOG.error(msg);
+      throw new IllegalArgumentException(msg);
+    }
     this.jobKey = jobKey;
+    this.sink = sink;
     this.jobKeyBytes = jobKeyConv.toBytes(jobKey);
     setJobId(jobKey.getJobId().getJobIdString());
   }
@@ -93,7 +116,8 @@ public class JobHistoryListener implements Listener {
     //System.out.println("Reading: " + recType.toString());
   }
 
-  private void handleJob(Map<JobHistoryKeys, String> values) {
+  private void handleJob(Map<JobHistoryKeys, String> values)
+      throws IOException {
     String id = values.get(JobHistoryKeys.JOBID);
 
     if (jobId == null) {
@@ -109,10 +133,11 @@ public class JobHistoryListener implements Listener {
     for (Map.Entry<JobHistoryKeys, String> e : values.entrySet()) {
       addKeyValues(p, Constants.INFO_FAM_BYTES, e.getKey(), e.getValue());
     }
-    this.jobPuts.add(p);
+    this.sink.addJobPut(p);
   }
 
-  private void handleTask(Map<JobHistoryKeys, String> values) {
+  private void handleTask(Map<JobHistoryKeys, String> values)
+      throws IOException {
     byte[] taskIdKeyBytes = getTaskKey("task_", this.jobNumber, values.get(JobHistoryKeys.TASKID));
     Put p = new Put(taskIdKeyBytes);
 
@@ -121,10 +146,11 @@ public class JobHistoryListener implements Listener {
     for (Map.Entry<JobHistoryKeys,String> e : values.entrySet()) {
       addKeyValues(p, Constants.INFO_FAM_BYTES, e.getKey(), e.getValue());
     }
-    this.taskPuts.add(p);
+    this.sink.addTaskPut(p);
   }
 
-  private void handleMapAttempt(Map<JobHistoryKeys, String> values) {
+  private void handleMapAttempt(Map<JobHistoryKeys, String> values)
+      throws IOException {
     byte[] taskIdKeyBytes = getTaskKey("attempt_", this.jobNumber, values.get(JobHistoryKeys.TASK_ATTEMPT_ID));
     Put p = new Put(taskIdKeyBytes);
 
@@ -134,10 +160,11 @@ public class JobHistoryListener implements Listener {
       addKeyValues(p, Constants.INFO_FAM_BYTES, e.getKey(), e.getValue());
     }
 
-    this.taskPuts.add(p);
+    this.sink.addTaskPut(p);
   }
 
-  private void handleReduceAttempt(Map<JobHistoryKeys, String> values) {
+  private void handleReduceAttempt(Map<JobHistoryKeys, String> values)
+      throws IOException {
     byte[] taskIdKeyBytes = getTaskKey("attempt_", this.jobNumber, values.get(JobHistoryKeys.TASK_ATTEMPT_ID));
     Put p = new Put(taskIdKeyBytes);
 
@@ -147,46 +174,27 @@ public class JobHistoryListener implements Listener {
       addKeyValues(p, Constants.INFO_FAM_BYTES, e.getKey(), e.getValue());
     }
 
-    this.taskPuts.add(p);
+    this.sink.addTaskPut(p);
   }
 
   private void addKeyValues(Put p, byte[] family, JobHistoryKeys key, String value) {
     if (key == JobHistoryKeys.COUNTERS || key == JobHistoryKeys.MAP_COUNTERS
         || key == JobHistoryKeys.REDUCE_COUNTERS) {
+      /*
+       * Name counter columns as:
+       *     g!groupname!countername
+       */
+      byte[] counterPrefix = JobHistoryKeys.COUNTER_PREFIXES_TO_BYTES.get(key);
+      if (counterPrefix == null) {
+        throw new IllegalArgumentException("Unknown counter type "+key.toString());
+      }
       try {
-        Counters counters = Counters.fromEscapedCompactString(value);
-        /*
-         * Name counter columns as:
-         *     g!groupname!countername
-         */
-        byte[] counterPrefix = null;
-        if (key == JobHistoryKeys.COUNTERS) {
-            counterPrefix = Bytes.add(Constants.COUNTER_COLUMN_PREFIX_BYTES,
-                Constants.SEP_BYTES);
-        } else if (key == JobHistoryKeys.MAP_COUNTERS) {
-          counterPrefix = Bytes.add(Constants.MAP_COUNTER_COLUMN_PREFIX_BYTES,
-              Constants.SEP_BYTES);
-        } else if (key == JobHistoryKeys.REDUCE_COUNTERS) {
-          counterPrefix = Bytes.add(Constants.REDUCE_COUNTER_COLUMN_PREFIX_BYTES,
-              Constants.SEP_BYTES);
-        } else {
-          throw new IllegalArgumentException("Unknown counter type "+key.toString());
-        }
-
-        for (Counters.Group group : counters) {
-          byte[] groupPrefix = Bytes.add(
-              counterPrefix, Bytes.toBytes(group.getName()), Constants.SEP_BYTES);
-          for (Counters.Counter counter : group) {
-            byte[] qualifier = Bytes.add(groupPrefix, Bytes.toBytes(counter.getName()));
-            p.add(family, qualifier, Bytes.toBytes(counter.getValue()));
-          }
-        }
+        counterParser.addCounters(p, family, counterPrefix, value);
       } catch (ParseException pe) {
         LOG.error("Counters could not be parsed from string'"+value+"'", pe);
       }
     } else {
-      @SuppressWarnings("rawtypes")
-      Class clazz = JobHistoryKeys.KEY_TYPES.get(key);
+      Class<?> clazz = key.getClassName();
       byte[] valueBytes = null;
       if (Integer.class.equals(clazz)) {
         try {
@@ -208,8 +216,7 @@ public class JobHistoryListener implements Listener {
         // keep the string representation by default
         valueBytes = Bytes.toBytes(value);
       }
-      byte[] qualifier = Bytes.toBytes(key.toString().toLowerCase());
-      p.add(family, qualifier, valueBytes);
+      p.add(family, key.getQualifierBytes(), valueBytes);
     }
   }
 
@@ -247,13 +254,14 @@ public class JobHistoryListener implements Listener {
    * Return the generated list of put assembled when
    *         {@link JobHistoryCopy#parseHistoryFromFS(String, Listener, org.apache.hadoop.fs.FileSystem)}
    *         is called with this listener.
-   * @return a non-null (possibly empty) list of jobPuts
+   * @return a non-null (possibly empty) list of jobPuts, empty if puts are
+   *         handed to a sink
    */
   public List<Put> getJobPuts() {
-    return this.jobPuts;
+    return (puts != null) ? puts.getJobPuts() : Collections.<Put>emptyList();
   }
 
   public List<Put> getTaskPuts() {
-    return this.taskPuts;
+    return (puts != null) ? puts.getTaskPuts() : Collections.<Put>emptyList();
   }
 }
@@ -25,6 +25,46 @@ public enum ProcessingCounter {
   /**
    * Indicating how many raw records (jobs) could not be processed successfully.
    */
-  RAW_ROW_SUCCESS_COUNT;
+  RAW_ROW_SUCCESS_COUNT,
+
+  /**
+   * Indicating how many hadoop2 history files reused an already compiled schema.
+   */
+  SCHEMA_CACHE_HIT_COUNT,
+
+  /**
+   * Indicating how many hadoop2 history files required their schema to be compiled.
+   */
+  SCHEMA_CACHE_MISS_COUNT,
+
+  /**
+   * Indicating how many puts were generated from job history events, before
+   * those for the same row were combined.
+   */
+  HISTORY_EVENT_PUT_COUNT,
+
+  /**
+   * Indicating how many job history puts were written, after those for the same
+   * row were combined. Compare to HISTORY_EVENT_PUT_COUNT for the merge ratio.
+   */
+  HISTORY_PUT_COUNT,
+
+  /**
+   * Indicating how many threads raw records were processed with, summed over all
+   * map tasks.
+   */
+  MAPPER_THREAD_COUNT,
+
+  /**
+   * Indicating how many job rows got their configuration columns migrated into
+   * a job configuration blob.
+   */
+  JOB_CONF_BLOB_MIGRATED_COUNT,
+
+  /**
+   * Indicating how many job rows were left alone by the job configuration blob
+   * migration, because they already have a blob.
+   */
+  JOB_CONF_BLOB_SKIPPED_COUNT;
   
 }
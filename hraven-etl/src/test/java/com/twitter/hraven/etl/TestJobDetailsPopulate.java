@@ -0,0 +1,231 @@
+/*
+Copyright 2013 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.hraven.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.JobConfProperties;
+import com.twitter.hraven.CounterMap;
+import com.twitter.hraven.JobDesc;
+import com.twitter.hraven.JobDescFactory;
+import com.twitter.hraven.JobDetails;
+import com.twitter.hraven.JobHistoryKeys;
+import com.twitter.hraven.JobKey;
+import com.twitter.hraven.datasource.JobHistoryService;
+import com.twitter.hraven.rest.ObjectMapperProvider;
+
+/**
+ * Checks that {@link JobDetails#populate(Result)} reads job_history rows
+ * stored for the job history fixtures the same way the family map based
+ * {@link JobHistoryService#parseConfiguration(Map)} and
+ * {@link JobHistoryService#parseCounters(byte[], Map)} do.
+ */
+public class TestJobDetailsPopulate {
+
+  private static final String HADOOP1_HISTORY =
+      "src/test/resources/job_201311192236_3583_1384906297917_user1_word+count";
+  private static final String HADOOP2_HISTORY =
+      "src/test/resources/job_1329348432655_0001-1329348443227-user-Sleep+job-1329348468601-10-1-SUCCEEDED-default.jhist";
+
+  private final ObjectMapper mapper = ObjectMapperProvider.createCustomMapper();
+
+  @Test
+  public void testHadoop1ColumnStorage() throws IOException {
+    assertPopulate(HADOOP1_HISTORY, new JobKey("cluster1", "user1",
+        "word count", 1384906297917L, "job_201311192236_3583"), false);
+  }
+
+  @Test
+  public void testHadoop1BlobStorage() throws IOException {
+    assertPopulate(HADOOP1_HISTORY, new JobKey("cluster1", "user1",
+        "word count", 1384906297917L, "job_201311192236_3583"), true);
+  }
+
+  @Test
+  public void testHadoop2ColumnStorage() throws IOException {
+    assertPopulate(HADOOP2_HISTORY, new JobKey("cluster1", "user", "Sleep",
+        1L, "job_1329348432655_0001"), false);
+  }
+
+  @Test
+  public void testHadoop2BlobStorage() throws IOException {
+    assertPopulate(HADOOP2_HISTORY, new JobKey("cluster1", "user", "Sleep",
+        1L, "job_1329348432655_0001"), true);
+  }
+
+  private void assertPopulate(String historyFile, JobKey jobKey,
+      boolean blobStorage) throws IOException {
+    byte[] contents = Files.toByteArray(new File(historyFile));
+    JobHistoryFileParser parser = JobHistoryFileParserFactory
+        .createJobHistoryFileParser(contents);
+    parser.parse(contents, jobKey);
+
+    Configuration jobConf = new Configuration(false);
+    jobConf.set("mapred.job.tracker", "jobtracker.example.com:8021");
+    jobConf.set("mapred.job.name", jobKey.getAppId());
+    jobConf.set("user.name", jobKey.getUserName());
+    jobConf.set("mapred.reduce.tasks", "1");
+    jobConf.set("io.sort.mb", "256");
+    Configuration hRavenConf = new Configuration(false);
+    if (blobStorage) {
+      hRavenConf.set(Constants.JOB_CONF_STORAGE_CONF_KEY,
+          Constants.JOB_CONF_STORAGE_BLOB);
+      hRavenConf.set(Constants.JOB_CONF_BLOB_HOT_KEYS_CONF_KEY,
+          "mapred.job.name,io.sort.mb");
+    }
+    JobDesc jobDesc = JobDescFactory.createJobDesc(jobKey.getQualifiedJobId(),
+        jobKey.getRunId(), jobConf);
+
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    List<Put> puts = new ArrayList<Put>(parser.getJobPuts());
+    puts.addAll(JobHistoryService.getHbasePuts(jobDesc,
+        JobConfProperties.fromConfiguration(jobConf), hRavenConf));
+    for (Put p : puts) {
+      for (List<KeyValue> familyKvs : p.getFamilyMap().values()) {
+        kvs.addAll(familyKvs);
+      }
+    }
+    byte[] row = kvs.get(0).getRow();
+    // an older version of a column is ignored
+    kvs.add(new KeyValue(row, Constants.INFO_FAM_BYTES,
+        JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.JOBNAME), 1L,
+        Bytes.toBytes("older name")));
+    // cells of other families are ignored
+    kvs.add(new KeyValue(row, Bytes.toBytes("other"),
+        JobHistoryKeys.KEYS_TO_BYTES.get(JobHistoryKeys.JOBNAME),
+        Bytes.toBytes("other name")));
+    Collections.sort(kvs, KeyValue.COMPARATOR);
+    Result result = new Result(kvs);
+
+    JobDetails job = new JobDetails(jobKey);
+    job.populate(result);
+
+    NavigableMap<byte[], byte[]> infoValues = result
+        .getFamilyMap(Constants.INFO_FAM_BYTES);
+    assertTrue(infoValues.size() > 20);
+    assertEquals(stringValue(infoValues, JobHistoryKeys.JOBID), job.getJobId());
+    assertEquals(stringValue(infoValues, JobHistoryKeys.USER), job.getUser());
+    assertEquals(stringValue(infoValues, JobHistoryKeys.JOBNAME),
+        job.getJobName());
+    assertEquals(stringValue(infoValues, JobHistoryKeys.JOB_PRIORITY),
+        job.getPriority());
+    assertEquals(stringValue(infoValues, JobHistoryKeys.JOB_STATUS),
+        job.getStatus());
+    assertEquals(Bytes.toString(infoValues.get(Constants.VERSION_COLUMN_BYTES)),
+        job.getVersion());
+    assertEquals(longValue(infoValues, JobHistoryKeys.SUBMIT_TIME),
+        job.getSubmitTime());
+    assertEquals(longValue(infoValues, JobHistoryKeys.LAUNCH_TIME),
+        job.getLaunchTime());
+    assertEquals(longValue(infoValues, JobHistoryKeys.FINISH_TIME),
+        job.getFinishTime());
+    assertEquals(longValue(infoValues, JobHistoryKeys.TOTAL_MAPS),
+        job.getTotalMaps());
+    assertEquals(longValue(infoValues, JobHistoryKeys.TOTAL_REDUCES),
+        job.getTotalReduces());
+    assertEquals(longValue(infoValues, JobHistoryKeys.FINISHED_MAPS),
+        job.getFinishedMaps());
+    assertEquals(longValue(infoValues, JobHistoryKeys.FINISHED_REDUCES),
+        job.getFinishedReduces());
+    assertEquals(longValue(infoValues, JobHistoryKeys.FAILED_MAPS),
+        job.getFailedMaps());
+    assertEquals(longValue(infoValues, JobHistoryKeys.FAILED_REDUCES),
+        job.getFailedReduces());
+
+    CounterMap counters = JobHistoryService.parseCounters(
+        Constants.COUNTER_COLUMN_PREFIX_BYTES, infoValues);
+    CounterMap mapCounters = JobHistoryService.parseCounters(
+        Constants.MAP_COUNTER_COLUMN_PREFIX_BYTES, infoValues);
+    CounterMap reduceCounters = JobHistoryService.parseCounters(
+        Constants.REDUCE_COUNTER_COLUMN_PREFIX_BYTES, infoValues);
+    assertTrue(counters.size() > 0);
+    assertEquals(mapper.writeValueAsString(counters),
+        mapper.writeValueAsString(job.getCounters()));
+    assertEquals(mapper.writeValueAsString(mapCounters),
+        mapper.writeValueAsString(job.getMapCounters()));
+    assertEquals(mapper.writeValueAsString(reduceCounters),
+        mapper.writeValueAsString(job.getReduceCounters()));
+
+    assertEquals(mapCounters.getValue(Constants.FILESYSTEM_COUNTERS,
+        Constants.FILES_BYTES_READ, 0L), job.getMapFileBytesRead());
+    assertEquals(mapCounters.getValue(Constants.FILESYSTEM_COUNTERS,
+        Constants.FILES_BYTES_WRITTEN, 0L), job.getMapFileBytesWritten());
+    assertEquals(reduceCounters.getValue(Constants.FILESYSTEM_COUNTERS,
+        Constants.FILES_BYTES_READ, 0L), job.getReduceFileBytesRead());
+    assertEquals(counters.getValue(Constants.FILESYSTEM_COUNTERS,
+        Constants.HDFS_BYTES_READ, 0L), job.getHdfsBytesRead());
+    assertEquals(counters.getValue(Constants.FILESYSTEM_COUNTERS,
+        Constants.HDFS_BYTES_WRITTEN, 0L), job.getHdfsBytesWritten());
+    assertEquals(counters.getValue(Constants.JOBINPROGRESS_COUNTER,
+        Constants.SLOTS_MILLIS_MAPS, 0L), job.getMapSlotMillis());
+    assertEquals(counters.getValue(Constants.JOBINPROGRESS_COUNTER,
+        Constants.SLOTS_MILLIS_REDUCES, 0L), job.getReduceSlotMillis());
+    assertEquals(reduceCounters.getValue(Constants.TASK_COUNTER,
+        Constants.REDUCE_SHUFFLE_BYTES, 0L), job.getReduceShuffleBytes());
+
+    // the configuration is decoded on first use, either way round
+    Map<String, String> expectedConf = toMap(JobHistoryService
+        .parseConfiguration(infoValues));
+    assertEquals(5, expectedConf.size());
+    assertEquals(expectedConf, new TreeMap<String, String>(job
+        .getConfigurationProperties().asMap()));
+    assertEquals(expectedConf, toMap(job.getConfiguration()));
+    JobDetails sameJob = new JobDetails(jobKey);
+    sameJob.populate(result);
+    assertEquals(expectedConf, toMap(sameJob.getConfiguration()));
+    assertEquals(expectedConf, new TreeMap<String, String>(sameJob
+        .getConfigurationProperties().asMap()));
+  }
+
+  private static String stringValue(Map<byte[], byte[]> infoValues,
+      JobHistoryKeys key) {
+    return Bytes.toString(infoValues.get(JobHistoryKeys.KEYS_TO_BYTES.get(key)));
+  }
+
+  private static long longValue(Map<byte[], byte[]> infoValues,
+      JobHistoryKeys key) {
+    byte[] value = infoValues.get(JobHistoryKeys.KEYS_TO_BYTES.get(key));
+    return value == null ? 0L : Bytes.toLong(value);
+  }
+
+  private static Map<String, String> toMap(Configuration config) {
+    Map<String, String> properties = new TreeMap<String, String>();
+    for (Map.Entry<String, String> property : config) {
+      properties.put(property.getKey(), property.getValue());
+    }
+    return properties;
+  }
+}
@@ -11,17 +11,22 @@ package com.twitter.hraven.etl;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.Test;
 import com.google.common.io.Files;
+import com.twitter.hraven.Constants;
 import com.twitter.hraven.JobHistoryKeys;
 import com.twitter.hraven.JobKey;
 import com.twitter.hraven.datasource.JobKeyConverter;
 import com.twitter.hraven.datasource.TaskKeyConverter;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -31,12 +36,12 @@ import java.util.Set;
  */
 public class TestJobHistoryFileParserHadoop2 {
 
+  private static final String JOB_HISTORY_FILE_NAME =
+      "src/test/resources/job_1329348432655_0001-1329348443227-user-Sleep+job-1329348468601-10-1-SUCCEEDED-default.jhist";
+
   @Test
   public void testCreateJobHistoryFileParserCorrectCreation() throws IOException {
 
-    final String JOB_HISTORY_FILE_NAME =
-        "src/test/resources/job_1329348432655_0001-1329348443227-user-Sleep+job-1329348468601-10-1-SUCCEEDED-default.jhist";
-
     File jobHistoryfile = new File(JOB_HISTORY_FILE_NAME);
     byte[] contents = Files.toByteArray(jobHistoryfile);
     JobHistoryFileParser historyFileParser =
@@ -49,15 +54,17 @@ public class TestJobHistoryFileParserHadoop2 {
     JobKey jobKey = new JobKey("cluster1", "user", "Sleep", 1, "job_1329348432655_0001");
     historyFileParser.parse(contents, jobKey);
 
+    // 4 job events and 45 task events, combined into one put per row
+    assertEquals(49, historyFileParser.getEventPutCount());
     List<Put> jobPuts = historyFileParser.getJobPuts();
-    assertEquals(4, jobPuts.size());
+    assertEquals(1, jobPuts.size());
 
     JobKeyConverter jobKeyConv = new JobKeyConverter();
     assertEquals("cluster1!user!Sleep!1!job_1329348432655_0001",
       jobKeyConv.fromBytes(jobPuts.get(0).getRow()).toString());
 
     List<Put> taskPuts = historyFileParser.getTaskPuts();
-    assertEquals(taskPuts.size(), 45);
+    assertEquals(23, taskPuts.size());
 
     TaskKeyConverter taskKeyConv = new TaskKeyConverter();
 
@@ -88,10 +95,157 @@ public class TestJobHistoryFileParserHadoop2 {
           "cluster1!user!Sleep!1!job_1329348432655_0001!m_000001_0"));
 
     String tKey;
+    Set<String> seenRowKeys = new HashSet<String>();
     for (Put p : taskPuts) {
       tKey = taskKeyConv.fromBytes(p.getRow()).toString();
       assertTrue(putRowKeys.contains(tKey));
+      seenRowKeys.add(tKey);
+    }
+    assertEquals(putRowKeys, seenRowKeys);
+  }
+
+  /**
+   * To ensure reading events straight from the avro records yields exactly the same puts as
+   * going through their json representation
+   */
+  @Test
+  public void testAvroNativeDecodingMatchesJsonDecoding() throws IOException {
+    byte[] contents = Files.toByteArray(new File(JOB_HISTORY_FILE_NAME));
+    JobKey jobKey = new JobKey("cluster1", "user", "Sleep", 1, "job_1329348432655_0001");
+
+    JobHistoryFileParserHadoop2 jsonParser = new JobHistoryFileParserHadoop2();
+    jsonParser.setAvroNativeDecoding(false);
+    jsonParser.parse(contents, jobKey);
+
+    JobHistoryFileParserHadoop2 nativeParser = new JobHistoryFileParserHadoop2();
+    nativeParser.setAvroNativeDecoding(true);
+    nativeParser.parse(contents, jobKey);
+
+    assertPutsEqual(jsonParser.getJobPuts(), nativeParser.getJobPuts());
+    assertPutsEqual(jsonParser.getTaskPuts(), nativeParser.getTaskPuts());
+  }
+
+  /**
+   * To ensure the schema is compiled once and reused for subsequent files
+   */
+  @Test
+  public void testSchemaCacheReused() throws IOException {
+    byte[] contents = Files.toByteArray(new File(JOB_HISTORY_FILE_NAME));
+    JobKey jobKey = new JobKey("cluster1", "user", "Sleep", 1, "job_1329348432655_0001");
+    JobHistorySchemaCache schemaCache = new JobHistorySchemaCache(JobHistorySchemaCache.MAX_ENTRIES);
+
+    JobHistoryFileParserHadoop2 first = new JobHistoryFileParserHadoop2();
+    first.setSchemaCache(schemaCache);
+    first.parse(contents, jobKey);
+    assertEquals(0L, schemaCache.getHits());
+    assertEquals(1L, schemaCache.getMisses());
+
+    JobHistoryFileParserHadoop2 second = new JobHistoryFileParserHadoop2();
+    second.setSchemaCache(schemaCache);
+    second.parse(contents, jobKey);
+    assertEquals(1L, schemaCache.getHits());
+    assertEquals(1L, schemaCache.getMisses());
+
+    assertPutsEqual(first.getJobPuts(), second.getJobPuts());
+    assertPutsEqual(first.getTaskPuts(), second.getTaskPuts());
+  }
+
+  /**
+   * Puts handed to a sink as they are parsed are the same as the collected ones
+   */
+  @Test
+  public void testParseToSink() throws IOException {
+    byte[] contents = Files.toByteArray(new File(JOB_HISTORY_FILE_NAME));
+    JobKey jobKey = new JobKey("cluster1", "user", "Sleep", 1, "job_1329348432655_0001");
+
+    JobHistoryFileParserHadoop2 collecting = new JobHistoryFileParserHadoop2();
+    collecting.parse(contents, jobKey);
+
+    JobHistoryFileParserHadoop2 streaming = new JobHistoryFileParserHadoop2();
+    JobHistoryPutCollector sink = new JobHistoryPutCollector();
+    streaming.parse(contents, jobKey, sink);
+    assertEquals(0, streaming.getJobPuts().size());
+    assertEquals(0, streaming.getTaskPuts().size());
+
+    assertPutsEqual(collecting.getJobPuts(), sink.getJobPuts());
+    assertPutsEqual(collecting.getTaskPuts(), sink.getTaskPuts());
+  }
+
+  /**
+   * Combining puts per row yields the same columns as writing one put per event
+   */
+  @Test
+  public void testMergedPutsMatchEventPuts() throws IOException {
+    byte[] contents = Files.toByteArray(new File(JOB_HISTORY_FILE_NAME));
+    JobKey jobKey = new JobKey("cluster1", "user", "Sleep", 1, "job_1329348432655_0001");
+
+    JobHistoryFileParserHadoop2 unmerged = new JobHistoryFileParserHadoop2();
+    unmerged.setMaxPendingRows(0);
+    unmerged.parse(contents, jobKey);
+    assertEquals(4, unmerged.getJobPuts().size());
+    assertEquals(45, unmerged.getTaskPuts().size());
+
+    JobHistoryFileParserHadoop2 merged = new JobHistoryFileParserHadoop2();
+    merged.parse(contents, jobKey);
+    assertEquals(unmerged.getEventPutCount(), merged.getEventPutCount());
+
+    JobHistoryPutCollector expected = new JobHistoryPutCollector();
+    JobHistoryPutMerger merger = new JobHistoryPutMerger(expected, Integer.MAX_VALUE);
+    for (Put p : unmerged.getJobPuts()) {
+      merger.addJobPut(p);
+    }
+    for (Put p : unmerged.getTaskPuts()) {
+      merger.addTaskPut(p);
+    }
+    merger.flush();
+    assertPutsEqual(expected.getJobPuts(), merged.getJobPuts());
+    assertPutsEqual(expected.getTaskPuts(), merged.getTaskPuts());
+  }
+
+  /**
+   * History is parsed right from where it sits in an HBase cell
+   */
+  @Test
+  public void testParseFromKeyValue() throws IOException {
+    byte[] contents = Files.toByteArray(new File(JOB_HISTORY_FILE_NAME));
+    JobKey jobKey = new JobKey("cluster1", "user", "Sleep", 1, "job_1329348432655_0001");
+    KeyValue kv = new KeyValue(Bytes.toBytes("rawrow"), Constants.RAW_FAM_BYTES,
+        Constants.JOBHISTORY_COL_BYTES, contents);
+    ByteBuffer cell =
+        ByteBuffer.wrap(kv.getBuffer(), kv.getValueOffset(), kv.getValueLength()).slice();
+
+    JobHistoryFileParser historyFileParser =
+        JobHistoryFileParserFactory.createJobHistoryFileParser(cell, null);
+    assertTrue(historyFileParser instanceof JobHistoryFileParserHadoop2);
+    JobHistoryPutCollector sink = new JobHistoryPutCollector();
+    historyFileParser.parse(cell, jobKey, sink);
+
+    JobHistoryFileParserHadoop2 fromArray = new JobHistoryFileParserHadoop2();
+    fromArray.parse(contents, jobKey);
+    assertPutsEqual(fromArray.getJobPuts(), sink.getJobPuts());
+    assertPutsEqual(fromArray.getTaskPuts(), sink.getTaskPuts());
+  }
+
+  private void assertPutsEqual(List<Put> expected, List<Put> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(sortedKeyValues(expected.get(i)), sortedKeyValues(actual.get(i)));
+    }
+  }
+
+  private List<String> sortedKeyValues(Put p) {
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    for (List<KeyValue> familyKvs : p.getFamilyMap().values()) {
+      kvs.addAll(familyKvs);
+    }
+    Collections.sort(kvs, KeyValue.COMPARATOR);
+    List<String> kvStrings = new ArrayList<String>();
+    for (KeyValue kv : kvs) {
+      kvStrings.add(Bytes.toStringBinary(kv.getRow()) + "/"
+          + Bytes.toStringBinary(kv.getQualifier()) + "="
+          + Bytes.toStringBinary(kv.getValue()));
     }
+    return kvStrings;
   }
 
   /**
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 Twitter, Inc. Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.twitter.hraven.etl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.twitter.hraven.Constants;
+
+/**
+ * Test {@link JobHistoryPutMerger}
+ */
+public class TestJobHistoryPutMerger {
+
+  private static final byte[] JOB_ROW = Bytes.toBytes("job");
+  private static final byte[] STATUS = Bytes.toBytes("status");
+  private static final byte[] START = Bytes.toBytes("start");
+  private static final byte[] FINISH = Bytes.toBytes("finish");
+
+  @Test
+  public void testMergeSameRow() throws IOException {
+    JobHistoryPutCollector collector = new JobHistoryPutCollector();
+    JobHistoryPutMerger merger = new JobHistoryPutMerger(collector, 10);
+
+    merger.addJobPut(put(JOB_ROW, STATUS, "PREP"));
+    merger.addJobPut(put(JOB_ROW, STATUS, "RUNNING"));
+    merger.addJobPut(put(JOB_ROW, FINISH, "2"));
+    merger.addTaskPut(put(Bytes.toBytes("m_0"), START, "1"));
+    merger.addTaskPut(put(Bytes.toBytes("m_1"), START, "1"));
+    merger.addTaskPut(put(Bytes.toBytes("m_0"), FINISH, "2"));
+    merger.addTaskPut(put(Bytes.toBytes("m_0"), STATUS, "SUCCESS"));
+    // nothing is written until the merger is flushed
+    assertEquals(0, collector.getJobPuts().size());
+    assertEquals(0, collector.getTaskPuts().size());
+
+    merger.flush();
+    assertEquals(7, merger.getPutsAdded());
+    assertEquals(3, merger.getPutsWritten());
+
+    List<Put> jobPuts = collector.getJobPuts();
+    assertEquals(1, jobPuts.size());
+    List<KeyValue> jobKvs = jobPuts.get(0).get(Constants.INFO_FAM_BYTES, STATUS);
+    assertEquals(1, jobKvs.size());
+    // the latest value wins
+    assertEquals("RUNNING", Bytes.toString(jobKvs.get(0).getValue()));
+    assertEquals(2, jobPuts.get(0).size());
+
+    List<Put> taskPuts = collector.getTaskPuts();
+    assertEquals(2, taskPuts.size());
+    assertArrayEquals(Bytes.toBytes("m_0"), taskPuts.get(0).getRow());
+    assertEquals(3, taskPuts.get(0).size());
+    assertArrayEquals(Bytes.toBytes("m_1"), taskPuts.get(1).getRow());
+    assertEquals(1, taskPuts.get(1).size());
+  }
+
+  @Test
+  public void testMaxPendingRows() throws IOException {
+    JobHistoryPutCollector collector = new JobHistoryPutCollector();
+    JobHistoryPutMerger merger = new JobHistoryPutMerger(collector, 2);
+
+    merger.addTaskPut(put(Bytes.toBytes("m_0"), START, "1"));
+    merger.addTaskPut(put(Bytes.toBytes("m_1"), START, "1"));
+    merger.addTaskPut(put(Bytes.toBytes("m_0"), FINISH, "2"));
+    assertEquals(0, collector.getTaskPuts().size());
+    // a third row pushes out the first one
+    merger.addTaskPut(put(Bytes.toBytes("m_2"), START, "1"));
+    assertEquals(1, collector.getTaskPuts().size());
+    assertArrayEquals(Bytes.toBytes("m_0"), collector.getTaskPuts().get(0).getRow());
+    assertEquals(2, collector.getTaskPuts().get(0).size());
+
+    merger.flush();
+    assertEquals(3, collector.getTaskPuts().size());
+  }
+
+  @Test
+  public void testMergingDisabled() throws IOException {
+    JobHistoryPutCollector collector = new JobHistoryPutCollector();
+    JobHistoryPutMerger merger = new JobHistoryPutMerger(collector, 0);
+
+    merger.addJobPut(put(JOB_ROW, STATUS, "PREP"));
+    merger.addJobPut(put(JOB_ROW, STATUS, "RUNNING"));
+    merger.addTaskPut(put(Bytes.toBytes("m_0"), START, "1"));
+    merger.addTaskPut(put(Bytes.toBytes("m_0"), FINISH, "2"));
+    assertEquals(2, collector.getJobPuts().size());
+    assertEquals(2, collector.getTaskPuts().size());
+    merger.flush();
+    assertEquals(4, merger.getPutsWritten());
+  }
+
+  @Test
+  public void testMergeManyColumns() throws IOException {
+    JobHistoryPutCollector collector = new JobHistoryPutCollector();
+    JobHistoryPutMerger merger = new JobHistoryPutMerger(collector, 10);
+
+    for (int event = 0; event < 3; event++) {
+      Put p = new Put(JOB_ROW);
+      for (int i = event; i < 500; i += 2) {
+        p.add(Constants.INFO_FAM_BYTES, Bytes.toBytes("c" + i),
+            Bytes.toBytes("e" + event));
+      }
+      merger.addJobPut(p);
+    }
+    merger.flush();
+
+    Put merged = collector.getJobPuts().get(0);
+    assertEquals(500, merged.size());
+    // the latest event setting a column wins
+    assertEquals("e2", Bytes.toString(merged.get(Constants.INFO_FAM_BYTES,
+        Bytes.toBytes("c4")).get(0).getValue()));
+    assertEquals("e1", Bytes.toString(merged.get(Constants.INFO_FAM_BYTES,
+        Bytes.toBytes("c5")).get(0).getValue()));
+    assertEquals("e0", Bytes.toString(merged.get(Constants.INFO_FAM_BYTES,
+        Bytes.toBytes("c0")).get(0).getValue()));
+  }
+
+  private static Put put(byte[] row, byte[] qualifier, String value) {
+    Put p = new Put(row);
+    p.add(Constants.INFO_FAM_BYTES, qualifier, Bytes.toBytes(value));
+    return p;
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2013 Twitter, Inc. Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.twitter.hraven.etl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.mapred.JobHistoryCopy;
+import org.apache.hadoop.mapred.JobHistoryCopy.RecordTypes;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+import com.twitter.hraven.JobHistoryKeys;
+import com.twitter.hraven.JobKey;
+import com.twitter.hraven.mapreduce.JobHistoryListener;
+
+/**
+ * Golden file test for {@link JobHistoryTokenizer}, everything it hands out
+ * has to match what {@link JobHistoryCopy} produces for the same history.
+ */
+public class TestJobHistoryTokenizer {
+
+  private static final String JOB_HISTORY_FILE_NAME =
+      "src/test/resources/job_201311192236_3583_1384906297917_user1_word+count";
+
+  private static final JobKey JOB_KEY = new JobKey("cluster1", "user1",
+      "word count", 1384906297917L, "job_201311192236_3583");
+
+  /** a history cut short while the job was still running */
+  private static final String RUNNING_JOB_HISTORY_FILE_NAME =
+      "src/test/resources/done/something.example.com_1337787092259_job_201205231531_256984_userName1_App1";
+
+  private static final JobKey RUNNING_JOB_KEY = new JobKey("cluster1",
+      "user1234", "pqrs:abc_something:xyz", 1338958320124L,
+      "job_201205231531_256984");
+
+  @Test
+  public void testRecordsMatchJobHistoryCopy() throws IOException {
+    byte[] contents = Files.toByteArray(new File(JOB_HISTORY_FILE_NAME));
+
+    RecordingListener expected = new RecordingListener();
+    JobHistoryCopy.parseHistoryFromIS(new ByteArrayInputStream(contents), expected);
+    RecordingListener actual = new RecordingListener();
+    new JobHistoryTokenizer().parse(contents, 0, contents.length, actual);
+
+    // Meta, 5 Job, 10 Task, 10 MapAttempt and 2 ReduceAttempt lines
+    assertEquals(28, expected.records.size());
+    assertEquals(expected.records, actual.records);
+
+    // spot check the escaped and multi-line values
+    Map<JobHistoryKeys, String> failedAttempt = actual.records.get(12).values;
+    assertEquals("FAILED", failedAttempt.get(JobHistoryKeys.TASK_STATUS));
+    String error = failedAttempt.get(JobHistoryKeys.ERROR);
+    assertTrue(error.startsWith(
+        "java.io.IOException: Spill failed \"disk full\" key=value\n\tat "));
+    assertTrue(error.endsWith("(Child.java:249)\n"));
+    assertEquals("hdfs://namenode.example.com/user/user1/.staging/job_201311192236_3583/job.xml",
+        actual.records.get(1).values.get(JobHistoryKeys.JOBCONF));
+  }
+
+  @Test
+  public void testPutsMatchJobHistoryCopy() throws IOException {
+    assertPutsMatchJobHistoryCopy(JOB_HISTORY_FILE_NAME, JOB_KEY);
+    assertPutsMatchJobHistoryCopy(RUNNING_JOB_HISTORY_FILE_NAME, RUNNING_JOB_KEY);
+  }
+
+  private void assertPutsMatchJobHistoryCopy(String fileName, JobKey jobKey)
+      throws IOException {
+    byte[] contents = Files.toByteArray(new File(fileName));
+
+    JobHistoryListener expected = new JobHistoryListener(jobKey);
+    JobHistoryCopy.parseHistoryFromIS(new ByteArrayInputStream(contents), expected);
+    JobHistoryListener actual = new JobHistoryListener(jobKey);
+    new JobHistoryTokenizer().parse(contents, 0, contents.length, actual);
+
+    assertTrue(expected.getJobPuts().size() > 0);
+    assertPutsEqual(expected.getJobPuts(), actual.getJobPuts());
+    assertPutsEqual(expected.getTaskPuts(), actual.getTaskPuts());
+  }
+
+  @Test
+  public void testParserStreamsToSink() throws IOException {
+    byte[] contents = Files.toByteArray(new File(JOB_HISTORY_FILE_NAME));
+
+    JobHistoryListener expected = new JobHistoryListener(JOB_KEY);
+    JobHistoryCopy.parseHistoryFromIS(new ByteArrayInputStream(contents), expected);
+    JobHistoryFileParser parser = new JobHistoryFileParserHadoop1();
+    JobHistoryPutCollector sink = new JobHistoryPutCollector();
+    parser.parse(contents, JOB_KEY, sink);
+
+    // the parser combines the puts for each row
+    assertEquals(expected.getJobPuts().size() + expected.getTaskPuts().size(),
+        parser.getEventPutCount());
+    JobHistoryPutCollector merged = new JobHistoryPutCollector();
+    JobHistoryPutMerger merger = new JobHistoryPutMerger(merged, Integer.MAX_VALUE);
+    for (Put p : expected.getJobPuts()) {
+      merger.addJobPut(p);
+    }
+    for (Put p : expected.getTaskPuts()) {
+      merger.addTaskPut(p);
+    }
+    merger.flush();
+    assertEquals(1, merged.getJobPuts().size());
+    assertPutsEqual(merged.getJobPuts(), sink.getJobPuts());
+    assertPutsEqual(merged.getTaskPuts(), sink.getTaskPuts());
+  }
+
+  /**
+   * Carriage returns are line terminators too, and the history may sit
+   * anywhere within a larger buffer.
+   */
+  @Test
+  public void testCarriageReturnsAndOffset() throws IOException {
+    byte[] contents = Files.toByteArray(new File(JOB_HISTORY_FILE_NAME));
+    RecordingListener expected = new RecordingListener();
+    JobHistoryCopy.parseHistoryFromIS(new ByteArrayInputStream(contents), expected);
+
+    byte[] crlf = Bytes.toBytes(Bytes.toString(contents).replace("\n", "\r\n"));
+    byte[] padded = Bytes.add(Bytes.toBytes("garbage"), crlf, Bytes.toBytes("Job JOBID"));
+    RecordingListener actual = new RecordingListener();
+    new JobHistoryTokenizer().parse(padded, 7, crlf.length, actual);
+
+    assertEquals(expected.records, actual.records);
+  }
+
+  @Test
+  public void testIncompleteTrailingRecordIsSkipped() throws IOException {
+    byte[] contents = Bytes.toBytes("Meta VERSION=\"1\" .\n"
+        + "Job JOBID=\"job_201311192236_3583\" JOB_PRIORITY=\"NORMAL\" .\n"
+        + "Job JOBID=\"job_201311192236_3583\" JOB_STATUS=\"RUNN");
+    RecordingListener actual = new RecordingListener();
+    new JobHistoryTokenizer().parse(contents, 0, contents.length, actual);
+    assertEquals(2, actual.records.size());
+    assertEquals("NORMAL", actual.records.get(1).values.get(JobHistoryKeys.JOB_PRIORITY));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownKey() throws IOException {
+    byte[] contents = Bytes.toBytes("Meta VERSION=\"1\" .\n"
+        + "Job JOBID=\"job_201311192236_3583\" NOT_A_KEY=\"value\" .\n");
+    new JobHistoryTokenizer().parse(contents, 0, contents.length, new RecordingListener());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalEscape() throws IOException {
+    byte[] contents = Bytes.toBytes("Meta VERSION=\"1\" .\n"
+        + "Job JOBID=\"job\\_201311192236_3583\" .\n");
+    new JobHistoryTokenizer().parse(contents, 0, contents.length, new RecordingListener());
+  }
+
+  private void assertPutsEqual(List<Put> expected, List<Put> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(sortedKeyValues(expected.get(i)), sortedKeyValues(actual.get(i)));
+    }
+  }
+
+  private List<String> sortedKeyValues(Put p) {
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    for (List<KeyValue> familyKvs : p.getFamilyMap().values()) {
+      kvs.addAll(familyKvs);
+    }
+    Collections.sort(kvs, KeyValue.COMPARATOR);
+    List<String> kvStrings = new ArrayList<String>();
+    for (KeyValue kv : kvs) {
+      kvStrings.add(Bytes.toStringBinary(kv.getRow()) + "/"
+          + Bytes.toStringBinary(kv.getQualifier()) + "="
+          + Bytes.toStringBinary(kv.getValue()));
+    }
+    return kvStrings;
+  }
+
+  private static class Record {
+    private final RecordTypes recType;
+    private final Map<JobHistoryKeys, String> values;
+
+    Record(RecordTypes recType, Map<JobHistoryKeys, String> values) {
+      this.recType = recType;
+      this.values = new EnumMap<JobHistoryKeys, String>(JobHistoryKeys.class);
+      this.values.putAll(values);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Record)) {
+        return false;
+      }
+      Record otherRecord = (Record) other;
+      return recType == otherRecord.recType && values.equals(otherRecord.values);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * recType.hashCode() + values.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return recType + " " + values;
+    }
+  }
+
+  /**
+   * Copies every record, the maps handed to listeners are reused.
+   */
+  private static class RecordingListener implements JobHistoryCopy.Listener {
+    private final List<Record> records = new ArrayList<Record>();
+
+    @Override
+    public void handle(RecordTypes recType, Map<JobHistoryKeys, String> values) {
+      records.add(new Record(recType, values));
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 Twitter, Inc. Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.twitter.hraven.mapreduce;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.text.ParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.mapred.Counters;
+import org.junit.Test;
+
+import com.twitter.hraven.Constants;
+
+/**
+ * Test {@link CompactCounterParser} against
+ * {@link Counters#fromEscapedCompactString(String)}
+ */
+public class TestCompactCounterParser {
+
+  private static final byte[] PREFIX = Bytes.toBytes("g!");
+
+  private static final String COUNTERS =
+      "{(FileSystemCounters)(FileSystemCounters)[(HDFS_BYTES_READ)(HDFS_BYTES_READ)(1488)]"
+      + "[(FILE_BYTES_WRITTEN)(FILE_BYTES_WRITTEN)(24870)]}"
+      + "{(org.apache.hadoop.mapred.Task$Counter)(Map-Reduce Framework)"
+      + "[(MAP_INPUT_RECORDS)(Map input records)(31)]"
+      + "[(CPU_MILLISECONDS)(CPU time spent \\(ms\\))(640)]}"
+      + "{(odd \\{group\\})(Odd)[(odd \\[counter\\])(Odd \\(name\\))(-12)]}";
+
+  @Test
+  public void testMatchesHadoopCounters() throws ParseException {
+    assertMatchesHadoop(COUNTERS);
+    assertMatchesHadoop("");
+    assertMatchesHadoop("{(FileSystemCounters)(FileSystemCounters)}");
+    // the same counter twice gets summed up
+    assertMatchesHadoop("{(G)(G)[(C)(C)(1)]}{(G)(G)[(C)(C)(2)][(D)(D)(3)]}");
+    // very long names are truncated
+    StringBuilder longName = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      longName.append((char) ('a' + i % 26));
+    }
+    assertMatchesHadoop("{(" + longName + ")(G)[(" + longName + ")(C)(1)]}");
+  }
+
+  @Test
+  public void testQualifiersAreInterned() throws ParseException {
+    CompactCounterParser parser = new CompactCounterParser();
+    Put first = new Put(Bytes.toBytes("row1"));
+    parser.addCounters(first, Constants.INFO_FAM_BYTES, PREFIX, COUNTERS);
+    Put second = new Put(Bytes.toBytes("row2"));
+    parser.addCounters(second, Constants.INFO_FAM_BYTES, PREFIX, COUNTERS);
+
+    List<KeyValue> firstKvs = first.getFamilyMap().get(Constants.INFO_FAM_BYTES);
+    List<KeyValue> secondKvs = second.getFamilyMap().get(Constants.INFO_FAM_BYTES);
+    assertEquals(5, firstKvs.size());
+    assertEquals(toMap(first), toMap(second));
+
+    // a different prefix must not pick up qualifiers of the first one
+    Put map = new Put(Bytes.toBytes("row3"));
+    parser.addCounters(map, Constants.INFO_FAM_BYTES, Bytes.toBytes("gm!"), COUNTERS);
+    for (String qualifier : toMap(map).keySet()) {
+      assertTrue(qualifier, qualifier.startsWith("gm!"));
+    }
+    assertEquals(firstKvs.size(), secondKvs.size());
+  }
+
+  @Test
+  public void testMalformedAddsNothing() {
+    String[] malformed = {
+        "{(G)(G)[(C)(C)(1)]}{(G)(G)[(D)(D)(2)",
+        "{(G)(G)[(C)(C)(1)]}{(G)(G)[(D)(D)]}",
+        "{(G)(G)[(C)(C)(1)]}{(G",
+        "{(G)}"};
+    for (String counters : malformed) {
+      Put p = new Put(Bytes.toBytes("row"));
+      try {
+        new CompactCounterParser().addCounters(p, Constants.INFO_FAM_BYTES, PREFIX, counters);
+        fail("Expected ParseException for " + counters);
+      } catch (ParseException expected) {
+        assertTrue(p.isEmpty());
+      }
+    }
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testBadValue() throws ParseException {
+    new CompactCounterParser().addCounters(new Put(Bytes.toBytes("row")),
+        Constants.INFO_FAM_BYTES, PREFIX, "{(G)(G)[(C)(C)(1x)]}");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadEscape() throws ParseException {
+    new CompactCounterParser().addCounters(new Put(Bytes.toBytes("row")),
+        Constants.INFO_FAM_BYTES, PREFIX, "{(G\\x)(G)[(C)(C)(1)]}");
+  }
+
+  private void assertMatchesHadoop(String compactString) throws ParseException {
+    Map<String, Long> expected = new TreeMap<String, Long>();
+    for (Counters.Group group : Counters.fromEscapedCompactString(compactString)) {
+      for (Counters.Counter counter : group) {
+        expected.put("g!" + group.getName() + Constants.SEP + counter.getName(),
+            counter.getValue());
+      }
+    }
+    Put p = new Put(Bytes.toBytes("row"));
+    new CompactCounterParser().addCounters(p, Constants.INFO_FAM_BYTES, PREFIX, compactString);
+    assertEquals(expected, toMap(p));
+  }
+
+  private Map<String, Long> toMap(Put p) {
+    Map<String, Long> values = new TreeMap<String, Long>();
+    if (!p.isEmpty()) {
+      for (KeyValue kv : p.getFamilyMap().get(Constants.INFO_FAM_BYTES)) {
+        values.put(Bytes.toString(kv.getQualifier()), Bytes.toLong(kv.getValue()));
+      }
+    }
+    return values;
+  }
+}